@@ -0,0 +1,166 @@
+package git.yampery.bench;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.store.MemoryMessageStore;
+import git.yampery.utils.JedisUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @decription BenchRedis
+ * <p>基准测试使用的redis环境<br>
+ * 默认在本机启动一个嵌入式redis，不依赖外部服务；
+ * 指定-Dbench.redis.host时改为连接该地址的redis（端口由-Dbench.redis.port指定）；
+ * 指定-Dbench.store=memory时使用进程内存储<br>
+ * 通过spring容器装配{@link JedisUtils}与{@link RedisMQ}，与应用中的装配方式一致</p>
+ * @author Yampery
+ * @date 2026/10/18 18:30
+ */
+public class BenchRedis implements AutoCloseable {
+
+    /**
+     * 批量写入消息时每个pipeline的消息数量
+     */
+    private static final int FILL_BATCH = 1000;
+
+    private static final AtomicLong SEQ = new AtomicLong();
+
+    private final RedisServer server;
+    private final JedisPool jedisPool;
+    private final AnnotationConfigApplicationContext context;
+    private final MemoryMessageStore memoryStore;
+    private final RedisMQ redisMQ;
+
+    private BenchRedis(RedisServer server, JedisPool jedisPool) {
+        this.server = server;
+        this.jedisPool = jedisPool;
+        this.memoryStore = null;
+        this.context = new AnnotationConfigApplicationContext();
+        context.getBeanFactory().registerSingleton("jedisPool", jedisPool);
+        context.register(JedisUtils.class);
+        context.refresh();
+        this.redisMQ = context.getAutowireCapableBeanFactory().createBean(RedisMQ.class);
+    }
+
+    private BenchRedis(MemoryMessageStore memoryStore) {
+        this.server = null;
+        this.jedisPool = null;
+        this.context = null;
+        this.memoryStore = memoryStore;
+        this.redisMQ = new RedisMQ();
+        redisMQ.setStore(memoryStore);
+    }
+
+    /**
+     * 启动redis并装配消息队列
+     * @return
+     * @throws IOException
+     */
+    public static BenchRedis start() throws IOException {
+        if ("memory".equals(System.getProperty("bench.store"))) {
+            return new BenchRedis(new MemoryMessageStore());
+        }
+        String host = System.getProperty("bench.redis.host");
+        int port = Integer.getInteger("bench.redis.port", 6391);
+        RedisServer server = null;
+        if (null == host) {
+            host = "127.0.0.1";
+            server = RedisServer.builder().port(port)
+                    .setting("save \"\"")
+                    .setting("appendonly no")
+                    .build();
+            server.start();
+        }
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(32);
+        config.setMaxIdle(32);
+        try {
+            return new BenchRedis(server, new JedisPool(config, host, port, 0));
+        } catch (RuntimeException e) {
+            // 装配失败时关闭已启动的redis，避免占用端口影响后续基准
+            if (null != server) server.stop();
+            throw e;
+        }
+    }
+
+    public RedisMQ getRedisMQ() {
+        return redisMQ;
+    }
+
+    /**
+     * 清空存储
+     */
+    public void flush() {
+        if (null != memoryStore) {
+            memoryStore.clear();
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.flushAll();
+        }
+    }
+
+    /**
+     * 生成一条消息，每次调用的id都不同
+     * @param delay 延迟（毫秒）
+     * @param body 消息体
+     * @return
+     */
+    public static Message message(long delay, String body) {
+        Message message = new Message();
+        message.setId("bench-" + SEQ.incrementAndGet());
+        message.setTopic("BENCH");
+        message.setBody(body);
+        message.setDelay(delay);
+        message.setCreateTime(System.currentTimeMillis());
+        message.setTtl(60 * 60);
+        message.setStatus(Message.STATUS_DELAY);
+        return message;
+    }
+
+    /**
+     * 向路由的消息队列批量写入count条已到期的消息
+     * @param route
+     * @param count
+     * @param body
+     */
+    public void fillQueue(Route route, int count, String body) {
+        List<Message> messages = new ArrayList<>(FILL_BATCH);
+        for (int i = 0; i < count; i++) {
+            messages.add(message(0, body));
+            if (messages.size() == FILL_BATCH || i == count - 1) {
+                redisMQ.publish(Collections.nCopies(messages.size(), route), messages);
+                messages.clear();
+            }
+        }
+    }
+
+    /**
+     * 向路由的待消费列表批量写入count条消息
+     * @param route
+     * @param count
+     * @param body
+     */
+    public void fillList(Route route, int count, String body) {
+        fillQueue(route, count, body);
+        redisMQ.promote(route, System.currentTimeMillis(), FILL_BATCH);
+    }
+
+    @Override
+    public void close() {
+        if (null != context) context.close();
+        if (null != jedisPool) jedisPool.close();
+        if (null != server) server.stop();
+    }
+}
@@ -0,0 +1,68 @@
+package git.yampery.bench;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.codec.AbstractMessageCodec;
+import git.yampery.msmq.codec.BinaryMessageCodec;
+import git.yampery.msmq.codec.JsonMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @decription CodecBenchmark
+ * <p>消息编解码耗时，不依赖redis<br>
+ * bodySize为消息体长度，超过压缩阈值（1024）的消息体会被压缩</p>
+ * @author Yampery
+ * @date 2026/10/18 18:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"binary", "json"})
+    private String codecName;
+
+    @Param({"32", "4096"})
+    private int bodySize;
+
+    private AbstractMessageCodec codec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        codec = "json".equals(codecName) ? new JsonMessageCodec() : new BinaryMessageCodec();
+        StringBuilder body = new StringBuilder(bodySize);
+        while (body.length() < bodySize) {
+            body.append("{\"msg\":\"这是一条短信\"}");
+        }
+        body.setLength(bodySize);
+        message = BenchRedis.message(20, body.toString());
+        message.setPriority(3);
+        encoded = codec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() {
+        return codec.decode(encoded);
+    }
+}
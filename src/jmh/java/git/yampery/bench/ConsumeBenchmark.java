@@ -0,0 +1,75 @@
+package git.yampery.bench;
+
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @decription ConsumeBenchmark
+ * <p>消费耗时：待消费列表中有size条消息时，一次{@link RedisMQ#consume(String)}全部取出的时间<br>
+ * 每轮测量前重新写入消息</p>
+ * @author Yampery
+ * @date 2026/10/18 18:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConsumeBenchmark {
+
+    private static final String BODY = "{\"msg\":\"这是一条短信\"}";
+
+    @Param({"10", "1000", "100000"})
+    private int size;
+
+    @Param({"100", "1000"})
+    private int consumeCount;
+
+    private BenchRedis redis;
+    private RedisMQ redisMQ;
+    private Route route;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        redis = BenchRedis.start();
+        redisMQ = redis.getRedisMQ();
+        redisMQ.setConsumeCount(consumeCount);
+        route = new Route("bench:queue", "bench:list");
+        redisMQ.setRoutes(Collections.singletonList(route));
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        redis.flush();
+        redis.fillList(route, size, BODY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redis.close();
+    }
+
+    @Benchmark
+    public List<String> consume() {
+        return redisMQ.consume(route.getList());
+    }
+}
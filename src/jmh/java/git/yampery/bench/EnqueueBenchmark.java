@@ -0,0 +1,112 @@
+package git.yampery.bench;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageProducer;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @decription EnqueueBenchmark
+ * <p>投递吞吐量：逐条写入消息池与队列、原子单条投递、pipeline批量投递以及批量生产者<br>
+ * 消息延迟一小时，不会被搬运，只测量写入路径</p>
+ * @author Yampery
+ * @date 2026/10/18 18:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnqueueBenchmark {
+
+    private static final int BATCH = 100;
+    private static final long DELAY = TimeUnit.HOURS.toMillis(1);
+    private static final String BODY = "{\"msg\":\"这是一条短信\"}";
+
+    @Param({"1", "4"})
+    private int shards;
+
+    private BenchRedis redis;
+    private RedisMQ redisMQ;
+    private Route route;
+    private MessageProducer producer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        redis = BenchRedis.start();
+        redisMQ = redis.getRedisMQ();
+        route = new Route("bench:queue", "bench:list");
+        route.setShards(shards);
+        redisMQ.setRoutes(Collections.singletonList(route));
+        producer = new MessageProducer(redisMQ);
+        producer.start();
+    }
+
+    @Setup(Level.Iteration)
+    public void flush() {
+        redis.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        producer.stop();
+        redis.close();
+    }
+
+    /**
+     * 分两次请求写入消息池与队列
+     */
+    @Benchmark
+    public String legacyEnqueue() {
+        Message message = BenchRedis.message(DELAY, BODY);
+        redisMQ.addMsgPool(route, message);
+        return redisMQ.enMessage(route, message.getCreateTime() + message.getDelay(), message.getId());
+    }
+
+    @Benchmark
+    public boolean publish() {
+        return redisMQ.publish(route, BenchRedis.message(DELAY, BODY));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Object> publishBatch() {
+        List<Message> messages = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            messages.add(BenchRedis.message(DELAY, BODY));
+        }
+        return redisMQ.publish(Collections.nCopies(BATCH, route), messages);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object producerSend() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            futures[i] = producer.send(route, BenchRedis.message(DELAY, BODY));
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+}
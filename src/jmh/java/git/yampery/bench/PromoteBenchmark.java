@@ -0,0 +1,78 @@
+package git.yampery.bench;
+
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @decription PromoteBenchmark
+ * <p>搬运耗时：消息队列中积压backlog条已到期消息时，一次{@link RedisMQ#monitor()}全部搬运到待消费列表的时间<br>
+ * 每轮测量前重新写入积压，只测量搬运本身</p>
+ * @author Yampery
+ * @date 2026/10/18 18:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PromoteBenchmark {
+
+    private static final String BODY = "{\"msg\":\"这是一条短信\"}";
+
+    @Param({"1000", "10000", "100000"})
+    private int backlog;
+
+    @Param({"10", "1000"})
+    private int monitorCount;
+
+    @Param({"1", "4"})
+    private int shards;
+
+    private BenchRedis redis;
+    private RedisMQ redisMQ;
+    private Route route;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        redis = BenchRedis.start();
+        redisMQ = redis.getRedisMQ();
+        redisMQ.setMonitorCount(monitorCount);
+        route = new Route("bench:queue", "bench:list");
+        route.setShards(shards);
+        redisMQ.setRoutes(Collections.singletonList(route));
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        redis.flush();
+        redis.fillQueue(route, backlog, BODY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redis.close();
+    }
+
+    @Benchmark
+    public void monitor() {
+        redisMQ.monitor();
+    }
+}
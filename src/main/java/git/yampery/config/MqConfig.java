@@ -1,14 +1,30 @@
 package git.yampery.config;
 
+import git.yampery.msmq.ConsumerContainer;
+import git.yampery.msmq.MessageProducer;
+import git.yampery.msmq.MessageSpool;
 import git.yampery.msmq.RedisMQ;
 import git.yampery.msmq.Route;
+import git.yampery.msmq.RouteCatalog;
+import git.yampery.msmq.TopicRouter;
+import git.yampery.msmq.codec.AbstractMessageCodec;
+import git.yampery.msmq.codec.BinaryMessageCodec;
+import git.yampery.msmq.codec.JsonMessageCodec;
+import git.yampery.msmq.store.LettuceMessageStore;
+import git.yampery.msmq.store.MemoryMessageStore;
+import git.yampery.task.MsgTask;
+import git.yampery.utils.LettuceUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @decription MqConfig
@@ -19,20 +35,119 @@ import java.util.List;
  * 根据不同的架构可选择使用XML配置
  * ---------------------------------------------------
  *
-    <bean id="redisMQ" class="git.yampery.msmq.RedisMQ">
+    <bean id="routeFirst" class="git.yampery.msmq.Route">
+        <property name="queue" value="${mq.queue.first}"/>
+        <property name="list" value="${mq.consumer.first}"/>
+        <property name="shards" value="${mq.queue.shards}"/>
+        <property name="lanes" value="${mq.queue.lanes}"/>
+        <property name="hashTag" value="${mq.queue.hashtag}"/>
+        <property name="dedupWindow" value="${mq.dedup.window}"/>
+        <property name="rate" value="${mq.rate.first}"/>
+        <property name="burst" value="${mq.rate.burst}"/>
+        <property name="weight" value="${mq.weight.first}"/>
+    </bean>
+
+    <bean id="routeSecond" class="git.yampery.msmq.Route">
+        <property name="queue" value="${mq.queue.second}"/>
+        <property name="list" value="${mq.consumer.second}"/>
+        <property name="shards" value="${mq.queue.shards}"/>
+        <property name="lanes" value="${mq.queue.lanes}"/>
+        <property name="hashTag" value="${mq.queue.hashtag}"/>
+        <property name="dedupWindow" value="${mq.dedup.window}"/>
+        <property name="rate" value="${mq.rate.second}"/>
+        <property name="burst" value="${mq.rate.burst}"/>
+        <property name="weight" value="${mq.weight.second}"/>
+    </bean>
+
+    <bean id="redisMQ" class="git.yampery.msmq.RedisMQ" init-method="start" destroy-method="stop">
         <property name="monitorCount" value="15"/>
+        <property name="monitorMaxCount" value="1000"/>
+        <property name="monitorBudget" value="100"/>
+        <property name="consumeCount" value="100"/>
+        <property name="monitorIdle" value="1000"/>
+        <property name="visibilityTimeout" value="30000"/>
+        <property name="retryBackoff" value="1000"/>
+        <property name="maxRetryBackoff" value="60000"/>
+        <property name="wheelHorizon" value="1000"/>
+        <property name="wheelTick" value="1"/>
+        <property name="wheelCapacity" value="65536"/>
+        <property name="wheelLag" value="0"/>
+        <property name="leaseTtl" value="5000"/>
+        <property name="dedupMode" value="server"/>
+        <property name="dedupCapacity" value="100000"/>
+        <property name="dropExpired" value="true"/>
+        <property name="sweepInterval" value="1000"/>
+        <property name="sweepCount" value="200"/>
+        <property name="routeRefresh" value="5000"/>
+        <property name="deliveryRate" value="0"/>
+        <property name="deliveryBurst" value="0"/>
+        <property name="rateShared" value="false"/>
+        <!-- 本地暂存，redis不可用时消息先写入本地磁盘，恢复后重放；重放线程随redisMQ的start启动 -->
+        <property name="spool">
+            <bean class="git.yampery.msmq.MessageSpool">
+                <constructor-arg value="/data/rdsmq/spool"/>
+                <property name="segmentSize" value="67108864"/>
+                <property name="maxSize" value="1073741824"/>
+                <property name="fsync" value="interval"/>
+                <property name="fsyncInterval" value="100"/>
+                <property name="batchSize" value="512"/>
+                <property name="retryInterval" value="1000"/>
+                <property name="maxAttempts" value="10"/>
+            </bean>
+        </property>
+        <!-- 单机部署可使用进程内存储，不配置时使用redis -->
+        <property name="store">
+            <bean class="git.yampery.msmq.store.MemoryMessageStore"/>
+        </property>
+        <property name="codec">
+            <bean class="git.yampery.msmq.codec.BinaryMessageCodec">
+                <property name="compressThreshold" value="1024"/>
+            </bean>
+        </property>
         <property name="routes">
             <list>
-                <bean class="git.yampery.msmq.Route">
-                    <property name="queue" value="${mq.queue.first}"/>
-                    <property name="list" value="${mq.consumer.first}"/>
-                </bean>
-                <bean class="git.yampery.msmq.Route">
-                    <property name="queue" value="${mq.queue.second}"/>
-                    <property name="list" value="${mq.consumer.second}"/>
-                </bean>
+                <ref bean="routeFirst"/>
+                <ref bean="routeSecond"/>
             </list>
         </property>
+        <!-- 路由目录，运行时添加的路由写入redis后各实例定期同步 -->
+        <property name="routeCatalog">
+            <bean class="git.yampery.msmq.RouteCatalog">
+                <constructor-arg value="rdsmq:routes"/>
+            </bean>
+        </property>
+        <!-- 按主题投递，绑定的路由需为routes中的同一实例 -->
+        <property name="topicRouter">
+            <bean class="git.yampery.msmq.TopicRouter">
+                <property name="bindings">
+                    <map>
+                        <entry key="order.#">
+                            <list>
+                                <ref bean="routeFirst"/>
+                                <ref bean="routeSecond"/>
+                            </list>
+                        </entry>
+                    </map>
+                </property>
+            </bean>
+        </property>
+    </bean>
+
+    <bean id="consumerContainer" class="git.yampery.msmq.ConsumerContainer" init-method="start" destroy-method="stop">
+        <constructor-arg ref="redisMQ"/>
+        <constructor-arg ref="msgTask"/>
+        <property name="concurrency" value="8"/>
+        <property name="virtualThreads" value="true"/>
+        <property name="prefetch" value="0"/>
+        <property name="handleTime" value="-1"/>
+        <property name="dedup" value="0"/>
+    </bean>
+
+    <bean id="messageProducer" class="git.yampery.msmq.MessageProducer" init-method="start" destroy-method="stop">
+        <constructor-arg ref="redisMQ"/>
+        <property name="batchSize" value="512"/>
+        <property name="linger" value="200"/>
+        <property name="bufferSize" value="65536"/>
     </bean>
 
  * ----------------------------------------------------
@@ -40,17 +155,130 @@ import java.util.List;
 @Configuration
 public class MqConfig {
 
-    @Bean(name = "redisMQ")
+    @Bean(name = "redisMQ", initMethod = "start", destroyMethod = "stop")
     @Primary
-    public RedisMQ getRedisMq() {
+    public RedisMQ getRedisMq(ObjectProvider<LettuceUtils> lettuceUtils, ObjectProvider<MeterRegistry> meterRegistry) {
         RedisMQ redisMQ = new RedisMQ();
         // 配置监听队列元素数量
         redisMQ.setMonitorCount(monitorCount);
-        // 配置路由表
-        redisMQ.setRoutes(routeList());
+        // 配置搬运窗口上限与每轮监听的时间预算
+        redisMQ.setMonitorMaxCount(monitorMaxCount);
+        redisMQ.setMonitorBudget(monitorBudget);
+        // 配置单批消费数量
+        redisMQ.setConsumeCount(consumeCount);
+        // 配置监听线程最长休眠时间
+        redisMQ.setMonitorIdle(monitorIdle);
+        // 配置消息处理期限与重试退避
+        redisMQ.setVisibilityTimeout(visibilityTimeout);
+        redisMQ.setRetryBackoff(retryBackoff);
+        redisMQ.setMaxRetryBackoff(maxRetryBackoff);
+        // 配置本地时间轮
+        redisMQ.setWheelHorizon(wheelHorizon);
+        redisMQ.setWheelTick(wheelTick);
+        redisMQ.setWheelCapacity(wheelCapacity);
+        redisMQ.setWheelLag(wheelLag);
+        // 配置分片租约，多个实例分担搬运
+        redisMQ.setLeaseTtl(leaseTtl);
+        if (!instanceId.isEmpty()) redisMQ.setInstanceId(instanceId);
+        // 配置幂等投递的去重方式，去重窗口在路由上设置
+        redisMQ.setDedupMode(dedupMode);
+        redisMQ.setDedupCapacity(dedupCapacity);
+        // 配置过期消息的丢弃与无消息体消息id的增量清理
+        redisMQ.setDropExpired(dropExpired);
+        redisMQ.setSweepInterval(sweepInterval);
+        redisMQ.setSweepCount(sweepCount);
+        // 配置全局投递速率，按路由权重分配；令牌桶可由所有实例共用
+        redisMQ.setDeliveryRate(deliveryRate);
+        redisMQ.setDeliveryBurst(deliveryBurst);
+        redisMQ.setRateShared(rateShared);
+        // 配置消息编解码器
+        redisMQ.setCodec(messageCodec());
+        // 配置存储，默认redis，lettuce为共享连接的非阻塞客户端，memory为进程内存储；redis集群只支持lettuce
+        if ("memory".equalsIgnoreCase(storeName)) redisMQ.setStore(new MemoryMessageStore());
+        else if ("lettuce".equalsIgnoreCase(storeName) || clustered()) {
+            redisMQ.setStore(new LettuceMessageStore(lettuceUtils.getObject()));
+        }
+        // 配置路由表与主题绑定
+        List<Route> routes = routeList();
+        redisMQ.setRoutes(routes);
+        if (!topicBindings.trim().isEmpty()) redisMQ.setTopicRouter(topicRouter(routes));
+        // 配置路由目录，启动时与运行中定期同步，新租户的路由不需要重新部署
+        if (!routeCatalog.isEmpty()) {
+            redisMQ.setRouteCatalog(new RouteCatalog(routeCatalog));
+            redisMQ.setRouteRefresh(routeRefresh);
+        }
+        // 配置本地暂存，redis写入失败的消息先写入本地磁盘
+        if (!spoolDir.isEmpty()) redisMQ.setSpool(messageSpool());
+        // 注册指标，通过actuator导出
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (null != registry) redisMQ.setMeterRegistry(registry);
         return redisMQ;
     }
 
+    /**
+     * 消费容器，所有路由的消息都交给msgTask处理
+     * @param redisMQ
+     * @param msgTask
+     * @return
+     */
+    @Bean(name = "consumerContainer", initMethod = "start", destroyMethod = "stop")
+    public ConsumerContainer getConsumerContainer(RedisMQ redisMQ, MsgTask msgTask) {
+        ConsumerContainer container = new ConsumerContainer(redisMQ, msgTask);
+        // 每个路由的并发上限
+        if (0 < consumerConcurrency) container.setConcurrency(consumerConcurrency);
+        container.setVirtualThreads(virtualThreads);
+        // 每个路由的预取缓冲容量，0表示不预取
+        container.setPrefetch(consumerPrefetch);
+        // 预取的消息剩余处理时间不足时丢弃，由回收重新投递
+        container.setHandleTime(consumerHandle);
+        // 消费者去重记住的最近处理成功的消息数量，0表示不去重
+        container.setDedup(consumerDedup);
+        return container;
+    }
+
+    /**
+     * 批量消息生产者
+     * @param redisMQ
+     * @return
+     */
+    @Bean(name = "messageProducer", initMethod = "start", destroyMethod = "stop")
+    public MessageProducer getMessageProducer(RedisMQ redisMQ) {
+        MessageProducer producer = new MessageProducer(redisMQ);
+        // 单批最大消息数量与最长等待合并时间（微秒）
+        producer.setBatchSize(producerBatch);
+        producer.setLinger(producerLinger);
+        producer.setBufferSize(producerBuffer);
+        return producer;
+    }
+
+    /**
+     * 生产者的本地暂存，由redisMQ启动与停止
+     * @return
+     */
+    public MessageSpool messageSpool() {
+        MessageSpool spool = new MessageSpool(spoolDir);
+        spool.setSegmentSize(spoolSegment);
+        spool.setMaxSize(spoolMax);
+        // 刷盘策略：always、interval或never
+        spool.setFsync(spoolFsync);
+        spool.setFsyncInterval(spoolFsyncInterval);
+        spool.setBatchSize(spoolBatch);
+        spool.setRetryInterval(spoolRetry);
+        spool.setMaxAttempts(spoolAttempts);
+        return spool;
+    }
+
+    /**
+     * 消息编解码器，默认紧凑二进制格式，可选json
+     * @return
+     */
+    public AbstractMessageCodec messageCodec() {
+        AbstractMessageCodec codec = "json".equalsIgnoreCase(codecName)
+                ? new JsonMessageCodec() : new BinaryMessageCodec();
+        codec.setCompressThreshold(compressThreshold);
+        return codec;
+    }
+
     /**
      * 返回路由表
      * @return
@@ -59,13 +287,173 @@ public class MqConfig {
         List<Route> routeList = new ArrayList<>();
         Route routeFirst = new Route(queueFirst, listFirst);
         Route routeSecond = new Route(queueSecond, listSecond);
+        // 消息队列分片数量
+        routeFirst.setShards(queueShards);
+        routeSecond.setShards(queueShards);
+        // 优先级通道数量
+        routeFirst.setLanes(queueLanes);
+        routeSecond.setLanes(queueLanes);
+        // 最大投递次数，超过后转入死信队列
+        routeFirst.setMaxAttempts(maxAttempts);
+        routeSecond.setMaxAttempts(maxAttempts);
+        // redis集群中路由的所有key使用同一hash tag
+        routeFirst.setHashTag(queueHashTag || clustered());
+        routeSecond.setHashTag(queueHashTag || clustered());
+        // 去重窗口，窗口内同一消息id只投递一次
+        routeFirst.setDedupWindow(dedupWindow);
+        routeSecond.setDedupWindow(dedupWindow);
+        // 搬运限流与分配全局投递额度的权重
+        routeFirst.setRate(rateFirst);
+        routeSecond.setRate(rateSecond);
+        routeFirst.setBurst(rateBurst);
+        routeSecond.setBurst(rateBurst);
+        routeFirst.setWeight(weightFirst);
+        routeSecond.setWeight(weightSecond);
         routeList.add(routeFirst);
         routeList.add(routeSecond);
         return routeList;
     }
 
+    /**
+     * 按主题绑定路由，绑定中的消息队列需为路由表中的消息队列
+     * @param routes 路由表
+     * @return
+     */
+    public TopicRouter topicRouter(List<Route> routes) {
+        Map<String, Route> byQueue = new HashMap<>();
+        routes.forEach(route -> byQueue.put(route.getQueue(), route));
+        TopicRouter router = new TopicRouter();
+        for (String binding : topicBindings.split(";")) {
+            if (binding.trim().isEmpty()) continue;
+            String[] pair = binding.split("=", 2);
+            if (2 != pair.length) throw new IllegalArgumentException("invalid topic binding: " + binding);
+            for (String queue : pair[1].split(",")) {
+                Route route = byQueue.get(queue.trim());
+                if (null == route) throw new IllegalArgumentException("unknown queue in topic binding: " + binding);
+                router.bind(pair[0].trim(), route);
+            }
+        }
+        return router;
+    }
+
+    /**
+     * 是否部署在redis集群
+     * @return
+     */
+    private boolean clustered() {
+        return RedisConfig.MODE_CLUSTER.equalsIgnoreCase(redisMode);
+    }
+
+    @Value("${redis.mode:standalone}")
+    private String redisMode;
     @Value("${mq.monitor.count}")
     private int monitorCount;
+    @Value("${mq.monitor.count.max:1000}")
+    private int monitorMaxCount;
+    @Value("${mq.monitor.budget:100}")
+    private long monitorBudget;
+    @Value("${mq.consume.count:100}")
+    private int consumeCount;
+    @Value("${mq.monitor.idle:1000}")
+    private long monitorIdle;
+    @Value("${mq.consumer.visibility:30000}")
+    private long visibilityTimeout;
+    @Value("${mq.retry.backoff:1000}")
+    private long retryBackoff;
+    @Value("${mq.retry.backoff.max:60000}")
+    private long maxRetryBackoff;
+    @Value("${mq.retry.attempts:0}")
+    private int maxAttempts;
+    @Value("${mq.wheel.horizon:1000}")
+    private long wheelHorizon;
+    @Value("${mq.wheel.tick:1}")
+    private long wheelTick;
+    @Value("${mq.wheel.capacity:65536}")
+    private int wheelCapacity;
+    @Value("${mq.wheel.lag:0}")
+    private long wheelLag;
+    @Value("${mq.lease.ttl:5000}")
+    private long leaseTtl;
+    @Value("${mq.instance.id:}")
+    private String instanceId;
+    @Value("${mq.consumer.concurrency:0}")
+    private int consumerConcurrency;
+    @Value("${mq.consumer.virtual:true}")
+    private boolean virtualThreads;
+    @Value("${mq.consumer.prefetch:0}")
+    private int consumerPrefetch;
+    @Value("${mq.consumer.handle:-1}")
+    private long consumerHandle;
+    @Value("${mq.consumer.dedup:0}")
+    private int consumerDedup;
+    @Value("${mq.dedup.window:0}")
+    private long dedupWindow;
+    @Value("${mq.dedup.mode:server}")
+    private String dedupMode;
+    @Value("${mq.dedup.capacity:100000}")
+    private int dedupCapacity;
+    @Value("${mq.expire.drop:true}")
+    private boolean dropExpired;
+    @Value("${mq.sweep.interval:1000}")
+    private long sweepInterval;
+    @Value("${mq.sweep.count:200}")
+    private int sweepCount;
+    @Value("${mq.topic.bindings:}")
+    private String topicBindings;
+    @Value("${mq.routes.catalog:}")
+    private String routeCatalog;
+    @Value("${mq.routes.refresh:5000}")
+    private long routeRefresh;
+    @Value("${mq.rate.first:0}")
+    private int rateFirst;
+    @Value("${mq.rate.second:0}")
+    private int rateSecond;
+    @Value("${mq.rate.burst:0}")
+    private int rateBurst;
+    @Value("${mq.weight.first:1}")
+    private int weightFirst;
+    @Value("${mq.weight.second:1}")
+    private int weightSecond;
+    @Value("${mq.delivery.rate:0}")
+    private int deliveryRate;
+    @Value("${mq.delivery.burst:0}")
+    private int deliveryBurst;
+    @Value("${mq.rate.shared:false}")
+    private boolean rateShared;
+    @Value("${mq.store:redis}")
+    private String storeName;
+    @Value("${mq.codec:binary}")
+    private String codecName;
+    @Value("${mq.codec.compress.threshold:1024}")
+    private int compressThreshold;
+    @Value("${mq.producer.batch:512}")
+    private int producerBatch;
+    @Value("${mq.producer.linger:200}")
+    private long producerLinger;
+    @Value("${mq.producer.buffer:65536}")
+    private int producerBuffer;
+    @Value("${mq.spool.dir:}")
+    private String spoolDir;
+    @Value("${mq.spool.segment:67108864}")
+    private int spoolSegment;
+    @Value("${mq.spool.max:1073741824}")
+    private long spoolMax;
+    @Value("${mq.spool.fsync:interval}")
+    private String spoolFsync;
+    @Value("${mq.spool.fsync.interval:100}")
+    private long spoolFsyncInterval;
+    @Value("${mq.spool.batch:512}")
+    private int spoolBatch;
+    @Value("${mq.spool.retry:1000}")
+    private long spoolRetry;
+    @Value("${mq.spool.attempts:10}")
+    private int spoolAttempts;
+    @Value("${mq.queue.shards:1}")
+    private int queueShards;
+    @Value("${mq.queue.lanes:1}")
+    private int queueLanes;
+    @Value("${mq.queue.hashtag:false}")
+    private boolean queueHashTag;
     @Value("${mq.queue.first}")
     private String queueFirst;
     @Value("${mq.queue.second}")
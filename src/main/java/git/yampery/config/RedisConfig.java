@@ -1,16 +1,32 @@
 package git.yampery.config;
 
+import com.lambdaworks.redis.RedisClient;
+import com.lambdaworks.redis.RedisURI;
+import com.lambdaworks.redis.cluster.RedisClusterClient;
+import git.yampery.utils.LettuceUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.PropertySource;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.util.Pool;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * @decription RedisConfig
- * <p>redis连接池配置</p>
+ * <p>redis连接池配置<br>
+ * 使用lettuce存储时另外创建共享连接的非阻塞客户端<br>
+ * redis.mode选择部署方式：standalone（单机）、sentinel（哨兵，通过哨兵发现主节点并在切换后重连）
+ * 或cluster（集群，只支持lettuce客户端，路由的key使用hash tag落在同一slot）</p>
  * @author Yampery
  * @date 2018/2/9 12:54
  */
@@ -18,12 +34,72 @@ import redis.clients.jedis.JedisPoolConfig;
 @PropertySource("classpath:redis.properties")
 public class RedisConfig {
 
+    public static final String MODE_SENTINEL = "sentinel";
+    public static final String MODE_CLUSTER = "cluster";
+
     @Bean(name = "jedisPool")
     @Primary
-    public JedisPool getJedisPool() {
+    public Pool<Jedis> getJedisPool() {
+        if (MODE_SENTINEL.equalsIgnoreCase(mode)) {
+            return new JedisSentinelPool(sentinelMaster, new LinkedHashSet<>(nodes(sentinelNodes)),
+                    jedisPoolConfig(), 2000, emptyToNull(password), database);
+        }
         return new JedisPool(jedisPoolConfig(), host, port, 0, password, database);
     }
 
+    /**
+     * lettuce客户端，只在使用lettuce存储时创建
+     * @return
+     */
+    @Bean(name = "lettuceUtils", destroyMethod = "shutdown")
+    @Lazy
+    public LettuceUtils getLettuceUtils() {
+        if (MODE_CLUSTER.equalsIgnoreCase(mode)) {
+            List<RedisURI> uris = new ArrayList<>();
+            for (String node : nodes(clusterNodes)) {
+                uris.add(withPassword(RedisURI.create("redis://" + node)));
+            }
+            return new LettuceUtils(RedisClusterClient.create(uris), lettuceConnections, lettuceBlocking);
+        }
+        RedisURI uri;
+        if (MODE_SENTINEL.equalsIgnoreCase(mode)) {
+            RedisURI.Builder builder = null;
+            for (String node : nodes(sentinelNodes)) {
+                String[] hostPort = node.split(":");
+                int sentinelPort = Integer.parseInt(hostPort[1]);
+                builder = null == builder ? RedisURI.Builder.sentinel(hostPort[0], sentinelPort, sentinelMaster)
+                        : builder.withSentinel(hostPort[0], sentinelPort);
+            }
+            if (null == builder) throw new IllegalStateException("redis.sentinel.nodes is empty");
+            uri = builder.withDatabase(database).build();
+        } else {
+            uri = RedisURI.Builder.redis(host, port).withDatabase(database).build();
+        }
+        return new LettuceUtils(RedisClient.create(withPassword(uri)), lettuceConnections, lettuceBlocking);
+    }
+
+    private RedisURI withPassword(RedisURI uri) {
+        if (null != password && !password.isEmpty()) uri.setPassword(password);
+        return uri;
+    }
+
+    /**
+     * 解析逗号分隔的host:port列表
+     * @param nodes
+     * @return
+     */
+    private static Set<String> nodes(String nodes) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String node : nodes.split(",")) {
+            if (!node.trim().isEmpty()) result.add(node.trim());
+        }
+        return result;
+    }
+
+    private static String emptyToNull(String val) {
+        return null == val || val.isEmpty() ? null : val;
+    }
+
     public JedisPoolConfig jedisPoolConfig() {
         JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
         jedisPoolConfig.setMaxTotal(maxTotal);
@@ -43,6 +119,14 @@ public class RedisConfig {
         return jedisPoolConfig;
     }
 
+    @Value("${redis.mode:standalone}")
+    private String mode;
+    @Value("${redis.sentinel.master:mymaster}")
+    private String sentinelMaster;
+    @Value("${redis.sentinel.nodes:}")
+    private String sentinelNodes;
+    @Value("${redis.cluster.nodes:}")
+    private String clusterNodes;
     @Value("${redis.master.host}")
     private String host;
     @Value("${redis.master.port}")
@@ -63,4 +147,8 @@ public class RedisConfig {
     private boolean testOnBorrow;
     @Value("${redis.pool.testOnReturn}")
     private boolean testOnReturn;
+    @Value("${redis.lettuce.connections:2}")
+    private int lettuceConnections;
+    @Value("${redis.lettuce.blocking:64}")
+    private int lettuceBlocking;
 }
@@ -0,0 +1,204 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @decription BlockingConsumer
+ * <p>阻塞式可靠消费者，在独立线程上通过{@link RedisMQ#receive}等待路由的待消费列表，有消息到达立即批量取出并回调处理器<br>
+ * 空闲时不轮询redis。处理器正常返回视为确认（ack），抛出异常视为失败（nack）稍后重试，达到路由的最大投递次数后转入死信队列，
+ * 确认在拉取下一批之前或已拉取的消息全部处理完时批量提交，未能处理的消息到期后重新投递<br>
+ * 开启去重后记住最近处理成功的消息id，确认丢失而重新投递的消息直接确认，不再交给处理器</p>
+ * @author Yampery
+ * @date 2026/10/18 13:24
+ */
+public class BlockingConsumer implements Runnable {
+
+    /**
+     * 默认阻塞等待时间（秒），超时后检查是否需要停止
+     */
+    private static final int DEFAULT_TIMEOUT = 1;
+
+    private final RedisMQ redisMQ;
+    private final Route route;
+    private final MessageHandler handler;
+    /**
+     * 处理消息的线程，为null时在拉取线程上处理
+     */
+    private final Executor executor;
+    /**
+     * 同时处理消息数量的许可，为null时不限制
+     */
+    private final Semaphore permits;
+    private final String consumerId = UUID.randomUUID().toString();
+    private int timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * 已处理完成、等待提交的消息id
+     */
+    private final Queue<String> acked = new ConcurrentLinkedQueue<>();
+    private final Queue<String> nacked = new ConcurrentLinkedQueue<>();
+    /**
+     * 已拉取但尚未处理完成的消息数量
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * 最近处理成功的消息id，为null时不去重
+     */
+    private volatile RecentIds handled;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public BlockingConsumer(RedisMQ redisMQ, Route route, MessageHandler handler) {
+        this(redisMQ, route, handler, null, null);
+    }
+
+    public BlockingConsumer(RedisMQ redisMQ, Route route, MessageHandler handler,
+                            Executor executor, Semaphore permits) {
+        this.redisMQ = redisMQ;
+        this.route = route;
+        this.handler = handler;
+        this.executor = executor;
+        this.permits = permits;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "rdsmq-consumer-" + route.getList());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (null != thread) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        MessageBatch batch;
+        while (running) {
+            try {
+                // 拉取前先提交之前完成的消息，慢消息不会拖住同批其他消息的确认
+                flush();
+                batch = redisMQ.receive(route, consumerId, redisMQ.getConsumeCount(), timeout);
+                if (!batch.isEmpty()) dispatch(batch);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        } /// while end~
+    }
+
+    private void dispatch(MessageBatch batch) {
+        pending.addAndGet(batch.size());
+        for (Message message : batch.getMessages()) {
+            if (!running) {
+                // 停止时剩余消息留在处理中集合，到期后重新投递
+                skip();
+                continue;
+            }
+            if (null == executor) {
+                handle(message);
+                continue;
+            }
+            try {
+                if (null != permits) permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                skip();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        handle(message);
+                    } finally {
+                        if (null != permits) permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                if (null != permits) permits.release();
+                skip();
+            }
+        } /// for end~
+    }
+
+    private void handle(Message message) {
+        RecentIds recent = handled;
+        if (null != recent && recent.contains(message.getId())) {
+            // 已处理过，确认丢失后被重新投递
+            redisMQ.getMetrics().route(route).redelivered(1);
+            acked.add(message.getId());
+            skip();
+            return;
+        }
+        try {
+            handler.onMessage(message);
+            message.setStatus(Message.STATUS_SENT);
+            acked.add(message.getId());
+            if (null != recent) recent.add(message.getId());
+        } catch (Exception e) {
+            e.printStackTrace();
+            message.setStatus(Message.STATUS_FAILED);
+            nacked.add(message.getId());
+        }
+        skip();
+    }
+
+    /**
+     * 一条消息处理结束，所有已拉取的消息都处理完时立即提交
+     */
+    private void skip() {
+        if (0 == pending.decrementAndGet()) flush();
+    }
+
+    /**
+     * 批量提交已完成消息的确认与重试
+     */
+    private void flush() {
+        List<String> ids = drain(acked);
+        if (!ids.isEmpty()) redisMQ.ack(route, consumerId, ids);
+        ids = drain(nacked);
+        if (!ids.isEmpty()) redisMQ.nack(route, consumerId, ids);
+    }
+
+    private static List<String> drain(Queue<String> queue) {
+        List<String> ids = new ArrayList<>();
+        String id;
+        while (null != (id = queue.poll())) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    public String getConsumerId() {
+        return consumerId;
+    }
+
+    /**
+     * 设置消费者去重记住的消息数量，0表示不去重
+     * @param capacity
+     */
+    public void setDedup(int capacity) {
+        this.handled = 0 < capacity ? new RecentIds(capacity) : null;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,243 @@
+package git.yampery.msmq;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @decription ConsumerContainer
+ * <p>消费容器，为每个路由{@link Route}启动一个阻塞式消费者{@link BlockingConsumer}，
+ * 消息交由共享的工作线程池处理<br>
+ * 每个路由用信号量限制同时处理的消息数量，某个路由处理缓慢时只会阻塞它自己的拉取线程，不会占满线程池<br>
+ * 配置了预取数量时改用预取式消费者{@link PrefetchConsumer}，每个路由按并发上限启动处理线程从本地缓冲取消息<br>
+ * 消息采用可靠消费，处理器抛出异常的消息会退避后重试<br>
+ * JVM支持虚拟线程时每条消息使用一个虚拟线程，否则使用大小为各路由并发上限之和的线程池<br>
+ * 监听路由表{@link RouteRegistry}，运行时添加的路由立即启动消费者并扩大线程池，移除的路由停止消费者</p>
+ * @author Yampery
+ * @date 2026/10/18 14:30
+ */
+public class ConsumerContainer {
+
+    /**
+     * 默认每个路由的并发上限
+     */
+    private static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+    /**
+     * 停止时等待处理中消息完成的时间（秒）
+     */
+    private static final int SHUTDOWN_WAIT = 10;
+
+    private final RedisMQ redisMQ;
+    private final MessageHandler handler;
+
+    /**
+     * 每个路由默认的并发上限，路由自身配置了则以路由为准
+     */
+    private int concurrency = DEFAULT_CONCURRENCY;
+    /**
+     * 是否在JVM支持时使用虚拟线程
+     */
+    private boolean virtualThreads = true;
+    /**
+     * 每个路由预取缓冲的容量，0表示不预取
+     */
+    private int prefetch;
+    /**
+     * 预取的消息交给处理线程时距处理期限至少还剩的时间（毫秒），小于0时为处理期限的一半
+     */
+    private long handleTime = -1;
+    /**
+     * 每个路由的消费者去重记住的最近处理成功的消息数量，0表示不去重
+     */
+    private int dedup;
+
+    private ExecutorService workers;
+    /**
+     * 平台线程池当前的大小，即已启动路由的并发上限之和
+     */
+    private int threads;
+    private final Map<Route, BlockingConsumer> consumers = new LinkedHashMap<>();
+    private final Map<Route, PrefetchConsumer> prefetchers = new LinkedHashMap<>();
+    private final RouteRegistry.Listener listener = new RouteRegistry.Listener() {
+
+        @Override
+        public void added(Route route) {
+            startRoute(route);
+        }
+
+        @Override
+        public void removed(Route route) {
+            stopRoute(route);
+        }
+    };
+
+    public ConsumerContainer(RedisMQ redisMQ, MessageHandler handler) {
+        this.redisMQ = redisMQ;
+        this.handler = handler;
+    }
+
+    public synchronized void start() {
+        if (null != workers) return;
+        List<Route> routes = redisMQ.getRoutes();
+        int total = 0;
+        for (Route route : routes) {
+            total += concurrencyOf(route);
+        }
+        workers = newWorkers(Math.max(1, total));
+        threads = 0;
+        // 先监听再启动，启动期间添加的路由不会遗漏，重复的启动被忽略
+        redisMQ.getRegistry().addListener(listener);
+        for (Route route : redisMQ.getRoutes()) {
+            startRoute(route);
+        }
+    }
+
+    /**
+     * 为路由启动消费者，已启动或容器未启动时忽略
+     * @param route
+     */
+    private synchronized void startRoute(Route route) {
+        if (null == workers || consumers.containsKey(route) || prefetchers.containsKey(route)) return;
+        int n = concurrencyOf(route);
+        resize(n);
+        if (0 < prefetch) {
+            PrefetchConsumer prefetcher = new PrefetchConsumer(redisMQ, route, prefetch);
+            prefetcher.setDedup(dedup);
+            prefetcher.setHandleTime(handleTime);
+            prefetchers.put(route, prefetcher);
+            prefetcher.start();
+            for (int i = 0; i < n; i++) {
+                workers.execute(() -> prefetcher.serve(handler));
+            }
+            return;
+        }
+        BlockingConsumer consumer = new BlockingConsumer(redisMQ, route, handler, workers, new Semaphore(n));
+        consumer.setDedup(dedup);
+        consumers.put(route, consumer);
+        consumer.start();
+    }
+
+    /**
+     * 停止路由的消费者，处理中的消息继续完成
+     * @param route
+     */
+    private synchronized void stopRoute(Route route) {
+        BlockingConsumer consumer = consumers.remove(route);
+        if (null != consumer) consumer.stop();
+        PrefetchConsumer prefetcher = prefetchers.remove(route);
+        if (null != prefetcher) prefetcher.stop();
+        if (null != consumer || null != prefetcher) resize(-concurrencyOf(route));
+    }
+
+    /**
+     * 路由启动或停止时调整平台线程池的大小，虚拟线程不需要调整
+     * @param delta
+     */
+    private void resize(int delta) {
+        int size = threads + delta;
+        if (threads == size || !(workers instanceof ThreadPoolExecutor)) return;
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) workers;
+        int target = Math.max(1, size);
+        // 核心线程数不能大于最大线程数
+        if (target > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(target);
+            pool.setCorePoolSize(target);
+        } else {
+            pool.setCorePoolSize(target);
+            pool.setMaximumPoolSize(target);
+        }
+        threads = size;
+    }
+
+    public synchronized void stop() {
+        redisMQ.getRegistry().removeListener(listener);
+        consumers.values().forEach(BlockingConsumer::stop);
+        consumers.clear();
+        prefetchers.values().forEach(PrefetchConsumer::stop);
+        if (null == workers) return;
+        workers.shutdown();
+        try {
+            workers.awaitTermination(SHUTDOWN_WAIT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers = null;
+        threads = 0;
+        // 提交停止期间处理完成的消息
+        prefetchers.values().forEach(PrefetchConsumer::flush);
+        prefetchers.clear();
+    }
+
+    private int concurrencyOf(Route route) {
+        return 0 < route.getConcurrency() ? route.getConcurrency() : Math.max(1, concurrency);
+    }
+
+    /**
+     * 创建工作线程池，优先使用虚拟线程（JDK 21+）
+     * @param size 平台线程池大小
+     * @return
+     */
+    private ExecutorService newWorkers(int size) {
+        if (virtualThreads) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // 不支持虚拟线程，使用平台线程
+            }
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(size, r -> {
+            Thread thread = new Thread(r, "rdsmq-worker-" + seq.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public long getHandleTime() {
+        return handleTime;
+    }
+
+    public void setHandleTime(long handleTime) {
+        this.handleTime = handleTime;
+    }
+
+    public int getDedup() {
+        return dedup;
+    }
+
+    public void setDedup(int dedup) {
+        this.dedup = dedup;
+    }
+}
@@ -0,0 +1,174 @@
+package git.yampery.msmq;
+
+import java.util.List;
+
+/**
+ * @decription DelayMonitor
+ * <p>延迟队列监听线程<br>
+ * 每轮搬运所有路由中到期的消息，然后休眠到最早的消息到期为止；
+ * 本机投递了更早到期的消息时立即被唤醒。<br>
+ * 其他实例投递的消息无法唤醒本线程，因此休眠时间不超过maxIdle，这类消息到期后至多maxIdle被搬运<br>
+ * 本地时间轮中有消息且配置了延后时间时到期后再等待{@link RedisMQ#getWheelLag()}，近期消息优先由时间轮精确搬运，本线程只兜底<br>
+ * 搬运超出时间预算仍有积压时不休眠，立即开始下一轮<br>
+ * 每轮开始时按需续约分片租约，每隔maxIdle顺带回收超过处理期限未确认的消息，每隔sweepInterval增量清理一批无消息体的消息id，
+ * 每隔routeRefresh同步一次路由目录</p>
+ * @author Yampery
+ * @date 2026/10/18 13:40
+ */
+public class DelayMonitor implements Runnable {
+
+    /**
+     * 默认最长休眠时间（毫秒）
+     */
+    private static final long DEFAULT_MAX_IDLE = 1000L;
+
+    private final RedisMQ redisMQ;
+    private long maxIdle = DEFAULT_MAX_IDLE;
+
+    private final Object lock = new Object();
+    /**
+     * 本轮开始后是否有更早的消息到达
+     */
+    private boolean signalled;
+    /**
+     * 计划醒来的时间，Long.MAX_VALUE表示正在搬运
+     */
+    private long wakeAt = Long.MAX_VALUE;
+
+    private long lastReap;
+
+    /**
+     * 增量清理间隔（毫秒），0表示不清理
+     */
+    private long sweepInterval;
+    private long lastSweep;
+
+    /**
+     * 路由目录同步间隔（毫秒），0表示不同步
+     */
+    private long routeRefresh;
+    private long lastRefresh;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public DelayMonitor(RedisMQ redisMQ) {
+        this.redisMQ = redisMQ;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "rdsmq-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (null != thread) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * 通知有消息将在dueTime到期，早于计划醒来时间则立即唤醒
+     * @param dueTime
+     */
+    public void wakeup(long dueTime) {
+        synchronized (lock) {
+            if (dueTime < wakeAt) {
+                signalled = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            synchronized (lock) {
+                signalled = false;
+                wakeAt = Long.MAX_VALUE;
+            }
+            long next;
+            boolean backlog = false;
+            try {
+                if (0 < routeRefresh && System.currentTimeMillis() - lastRefresh >= routeRefresh) {
+                    lastRefresh = System.currentTimeMillis();
+                    redisMQ.refreshRoutes();
+                }
+                redisMQ.renewLeases();
+                if (System.currentTimeMillis() - lastReap >= maxIdle) {
+                    lastReap = System.currentTimeMillis();
+                    redisMQ.reap();
+                }
+                if (0 < sweepInterval && System.currentTimeMillis() - lastSweep >= sweepInterval) {
+                    lastSweep = System.currentTimeMillis();
+                    redisMQ.sweep();
+                }
+                backlog = redisMQ.monitor();
+                next = backlog ? System.currentTimeMillis() : nextDue();
+            } catch (Exception e) {
+                e.printStackTrace();
+                next = System.currentTimeMillis() + maxIdle;
+            }
+            try {
+                synchronized (lock) {
+                    if (!signalled && !backlog) {
+                        wakeAt = next + redisMQ.monitorLag();
+                        long wait = Math.min(wakeAt - System.currentTimeMillis(), maxIdle);
+                        if (0 < wait) lock.wait(wait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } /// while end~
+    }
+
+    /**
+     * 所有路由中最早到期的时间，限流的路由取到期与恢复搬运中较晚的时间，没有消息时返回当前时间加maxIdle
+     * @return
+     */
+    private long nextDue() {
+        long next = System.currentTimeMillis() + maxIdle;
+        List<Route> routes = redisMQ.getRegistry().active();
+        Long due;
+        for (Route route : routes) {
+            due = redisMQ.peekDueTime(route);
+            // 限流的路由到令牌补充后再搬运
+            if (null != due) due = Math.max(due, redisMQ.throttledUntil(route));
+            if (null != due && due < next) {
+                next = due;
+            }
+        }
+        return next;
+    }
+
+    public long getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(long maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    public long getRouteRefresh() {
+        return routeRefresh;
+    }
+
+    public void setRouteRefresh(long routeRefresh) {
+        this.routeRefresh = routeRefresh;
+    }
+}
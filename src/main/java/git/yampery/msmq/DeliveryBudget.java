@@ -0,0 +1,262 @@
+package git.yampery.msmq;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @decription DeliveryBudget
+ * <p>搬运限流与全局投递额度，由{@link RedisMQ#monitor()}在每轮搬运时使用<br>
+ * 设置了速率的路由每次搬运前从令牌桶{@link TokenBucket}取令牌，至多搬运取得的数量，令牌用完后到补充出一批令牌为止不再搬运；
+ * 配置了全局投递速率时，每轮取出全局令牌按权重分给有到期消息的路由（未满一条的份额累计到下一轮），
+ * 搬完到期消息的路由剩下的额度再按权重分给仍有积压的路由，用不完的令牌归还<br>
+ * 令牌桶默认在本地，配置共用时存放在redis中，多个实例限制的是总速率</p>
+ * @author Yampery
+ * @date 2026/10/19 04:20
+ */
+final class DeliveryBudget {
+
+    /**
+     * 限流的路由每秒至多搬运的轮数
+     */
+    private static final int THROTTLE_ROUNDS = 20;
+
+    private final RedisMQ redisMQ;
+
+    /**
+     * 全局投递速率，所有路由每秒最多搬运的消息数量之和，0表示不限
+     */
+    private volatile int rate;
+    /**
+     * 全局投递允许的突发数量，0表示与rate相同
+     */
+    private volatile int burst;
+    /**
+     * 令牌桶是否存放在redis中由所有实例共用
+     */
+    private volatile boolean shared;
+
+    /**
+     * 各路由的本地令牌桶
+     */
+    private final Map<Route, TokenBucket> buckets = new ConcurrentHashMap<>();
+    /**
+     * 全局投递的本地令牌桶
+     */
+    private volatile TokenBucket deliveryBucket;
+
+    DeliveryBudget(RedisMQ redisMQ) {
+        this.redisMQ = redisMQ;
+    }
+
+    /**
+     * 是否配置了全局投递速率
+     * @return
+     */
+    boolean global() {
+        return 0 < rate;
+    }
+
+    /**
+     * 路由是否限流，限流的路由只由监听线程按令牌搬运
+     * @param route
+     * @return
+     */
+    boolean limited(Route route) {
+        return 0 < route.getRate() || 0 < rate;
+    }
+
+    /**
+     * 按权重分配全局投递额度并搬运
+     * @param due 有到期消息的路由
+     * @param deadline
+     * @param leases
+     * @return 是否因超出时间预算仍有积压
+     */
+    boolean share(List<Route> due, long deadline, ShardLeases leases) {
+        int size = due.size();
+        if (0 == size) return false;
+        long now = System.currentTimeMillis();
+        int budget = (int) acquire(null, deliveryBucketSize(), now);
+        int[] limits = new int[size];
+        int[] moved = new int[size];
+        double weights = 0;
+        for (Route route : due) weights += weight(route);
+        for (int i = 0; i < size; i++) {
+            limits[i] = redisMQ.window(due.get(i)).share(budget * weight(due.get(i)) / weights);
+        }
+        boolean backlog = false;
+        int used = 0;
+        ScanWindow window;
+        for (int i = 0; i < size; i++) {
+            window = redisMQ.window(due.get(i));
+            if (0 < limits[i]) {
+                moved[i] = deliver(due.get(i), window, System.currentTimeMillis(), limits[i], deadline, leases);
+                used += moved[i];
+                backlog |= !window.drained();
+            }
+            if (moved[i] < limits[i]) window.resetCredit();
+        }
+        // 搬完到期消息的路由剩下的额度按权重分给仍有积压的路由
+        double hungry = 0;
+        for (int i = 0; i < size; i++) {
+            if (moved[i] >= limits[i] && !redisMQ.window(due.get(i)).idle(now)) hungry += weight(due.get(i));
+        }
+        int rest = budget - used;
+        if (0 < rest && 0 < hungry && !RedisMQ.expired(deadline)) {
+            for (int i = 0; i < size; i++) {
+                window = redisMQ.window(due.get(i));
+                if (moved[i] < limits[i] || window.idle(now)) continue;
+                limits[i] = window.share(rest * weight(due.get(i)) / hungry);
+                moved[i] = 0 < limits[i] ? deliver(due.get(i), window, System.currentTimeMillis(), limits[i], deadline, leases) : 0;
+                used += moved[i];
+                backlog |= !window.drained();
+            }
+        }
+        now = System.currentTimeMillis();
+        refund(null, budget - used, now);
+        // 用完额度仍有积压的路由等全局令牌补充后再搬运
+        long until = now + waitTime(null, now);
+        for (int i = 0; i < size; i++) {
+            window = redisMQ.window(due.get(i));
+            if (moved[i] >= limits[i] && !window.idle(now)) {
+                window.throttle(until);
+                redisMQ.getMetrics().route(due.get(i)).throttled();
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * 按路由的令牌桶限流搬运，令牌用完时到补充出一批令牌为止不再搬运该路由
+     * @param route
+     * @param window
+     * @param now
+     * @param limit 本轮分得的额度
+     * @param deadline
+     * @param leases
+     * @return 实际搬运的数量
+     */
+    int deliver(Route route, ScanWindow window, long now, int limit, long deadline, ShardLeases leases) {
+        if (0 >= route.getRate()) return redisMQ.promote(route, now, window.size(), deadline, window, leases, limit);
+        int granted = (int) acquire(route, Math.min(limit, route.bucketSize()), now);
+        int moved = 0 < granted ? redisMQ.promote(route, now, window.size(), deadline, window, leases, granted) : 0;
+        refund(route, granted - moved, now);
+        if (moved >= granted && granted < limit) {
+            window.settle(moved, true);
+            window.throttle(now + waitTime(route, now));
+            redisMQ.getMetrics().route(route).throttled();
+        }
+        return moved;
+    }
+
+    /**
+     * 路由移除或替换时丢弃其本地令牌桶
+     * @param route
+     */
+    void forget(Route route) {
+        buckets.remove(route);
+    }
+
+    private static double weight(Route route) {
+        return Math.max(1, route.getWeight());
+    }
+
+    private int deliveryBucketSize() {
+        return 0 < burst ? burst : Math.max(1, rate);
+    }
+
+    /**
+     * 从令牌桶取出令牌，共用令牌桶读取失败时不取得令牌
+     * @param route 为null时为全局投递令牌桶
+     * @param want
+     * @param now
+     * @return 取得的令牌数
+     */
+    private long acquire(Route route, long want, long now) {
+        if (0 >= want) return 0;
+        if (shared) {
+            long granted = null == route
+                    ? redisMQ.store().tokens(RedisMQ.DELIVERY_RATE_KEY, rate, deliveryBucketSize(), now, want)
+                    : redisMQ.store().tokens(route.rateKey(), route.getRate(), route.bucketSize(), now, want);
+            return Math.max(0, granted);
+        }
+        return bucket(route, now).acquire(want, now);
+    }
+
+    /**
+     * 归还未用完的令牌
+     * @param route 为null时为全局投递令牌桶
+     * @param count
+     * @param now
+     */
+    private void refund(Route route, long count, long now) {
+        if (0 >= count) return;
+        if (shared) {
+            if (null == route) redisMQ.store().tokens(RedisMQ.DELIVERY_RATE_KEY, rate, deliveryBucketSize(), now, -count);
+            else redisMQ.store().tokens(route.rateKey(), route.getRate(), route.bucketSize(), now, -count);
+            return;
+        }
+        bucket(route, now).refund(count, now);
+    }
+
+    /**
+     * 限流后恢复搬运前的等待时间，即令牌桶攒够一批令牌的时间，共用令牌桶时按速率估算<br>
+     * 一批为每秒速率的{@link #THROTTLE_ROUNDS}分之一，限流的路由每秒至多搬运这么多轮，不会每补充一个令牌就搬运一次
+     * @param route 为null时为全局投递令牌桶
+     * @param now
+     * @return
+     */
+    private long waitTime(Route route, long now) {
+        int perSecond = Math.max(1, null == route ? rate : route.getRate());
+        int batch = Math.max(1, Math.min(null == route ? deliveryBucketSize() : route.bucketSize(), perSecond / THROTTLE_ROUNDS));
+        if (!shared) return bucket(route, now).waitTime(batch, now);
+        return (1000L * batch + perSecond - 1) / perSecond;
+    }
+
+    /**
+     * 本地令牌桶，速率或容量修改后重建
+     * @param route 为null时为全局投递令牌桶
+     * @param now
+     * @return
+     */
+    private TokenBucket bucket(Route route, long now) {
+        if (null == route) {
+            TokenBucket bucket = deliveryBucket;
+            if (null == bucket || !bucket.matches(rate, deliveryBucketSize())) {
+                deliveryBucket = bucket = new TokenBucket(rate, deliveryBucketSize(), now);
+            }
+            return bucket;
+        }
+        TokenBucket bucket = buckets.get(route);
+        if (null == bucket || !bucket.matches(route.getRate(), route.bucketSize())) {
+            bucket = new TokenBucket(route.getRate(), route.bucketSize(), now);
+            buckets.put(route, bucket);
+        }
+        return bucket;
+    }
+
+    int getRate() {
+        return rate;
+    }
+
+    void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    int getBurst() {
+        return burst;
+    }
+
+    void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    void setShared(boolean shared) {
+        this.shared = shared;
+    }
+}
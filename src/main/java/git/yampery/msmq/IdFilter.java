@@ -0,0 +1,111 @@
+package git.yampery.msmq;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @decription IdFilter
+ * <p>本机投递过的消息id的布隆过滤器，用于去重的本地预检<br>
+ * 分为当前与上一代两个过滤器，每个去重窗口轮换一次，查询两代，记录写入当前代，
+ * 窗口内投递过的id一定命中，超过两个窗口的id逐渐被淘汰；内存固定，与投递量无关<br>
+ * 未命中的id一定是新消息，直接写入不做服务端检查；命中的id可能误判，交给服务端确认</p>
+ * @author Yampery
+ * @date 2026/10/19 00:50
+ */
+final class IdFilter {
+
+    /**
+     * 哈希函数数量，约1%的误判率
+     */
+    private static final int HASHES = 7;
+    /**
+     * 每个元素占用的位数，约1%的误判率
+     */
+    private static final int BITS_PER_ID = 10;
+
+    private final long window;
+    private final int bits;
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private volatile long rotateAt;
+
+    /**
+     * @param capacity 一个去重窗口内预计投递的消息数量
+     * @param window 去重窗口（毫秒）
+     */
+    IdFilter(int capacity, long window) {
+        long size = Math.max(64L, (long) Math.max(1, capacity) * BITS_PER_ID);
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, size);
+        this.window = Math.max(1, window);
+        this.current = new AtomicLongArray((bits + 63) >>> 6);
+        this.previous = new AtomicLongArray((bits + 63) >>> 6);
+        this.rotateAt = System.currentTimeMillis() + this.window;
+    }
+
+    /**
+     * 记录id
+     * @param id
+     * @param now
+     * @return 之前可能记录过（包括误判）时为true，一定没有记录过时为false
+     */
+    boolean put(String id, long now) {
+        rotate(now);
+        long hash = hash(id);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        AtomicLongArray cur = current, prev = previous;
+        boolean seen = true, seenBefore = true;
+        int index;
+        for (int i = 0; i < HASHES; i++) {
+            index = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            if (!set(cur, index)) seen = false;
+            if (seenBefore && !get(prev, index)) seenBefore = false;
+        }
+        return seen || seenBefore;
+    }
+
+    private void rotate(long now) {
+        if (now < rotateAt) return;
+        synchronized (this) {
+            if (now < rotateAt) return;
+            previous = current;
+            current = new AtomicLongArray(previous.length());
+            rotateAt = now + window;
+        }
+    }
+
+    /**
+     * 置位
+     * @return 之前是否已置位
+     */
+    private static boolean set(AtomicLongArray array, int index) {
+        int slot = index >>> 6;
+        long mask = 1L << (index & 63), word;
+        do {
+            word = array.get(slot);
+            if (0 != (word & mask)) return true;
+        } while (!array.compareAndSet(slot, word, word | mask));
+        return false;
+    }
+
+    private static boolean get(AtomicLongArray array, int index) {
+        return 0 != (array.get(index >>> 6) & (1L << (index & 63)));
+    }
+
+    /**
+     * 64位FNV-1a哈希再做一次混合，高低32位作为两个独立的哈希值
+     * @param id
+     * @return
+     */
+    private static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
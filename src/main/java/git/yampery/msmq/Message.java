@@ -1,5 +1,7 @@
 package git.yampery.msmq;
 
+import com.alibaba.fastjson.annotation.JSONField;
+
 /**
  * @decription Message
  * <p>封装消息元数据</p>
@@ -8,6 +10,23 @@ package git.yampery.msmq;
  */
 public class Message {
 
+    /**
+     * 消息状态：延迟
+     */
+    public static final int STATUS_DELAY = 0;
+    /**
+     * 消息状态：待发送
+     */
+    public static final int STATUS_READY = 1;
+    /**
+     * 消息状态：已发送
+     */
+    public static final int STATUS_SENT = 2;
+    /**
+     * 消息状态：发送失败
+     */
+    public static final int STATUS_FAILED = 3;
+
     /**
      * 消息主题
      */
@@ -41,6 +60,11 @@ public class Message {
      * 消息状态（延迟-0；待发送-1；已发送-2；发送失败-3）
      */
     private int status;
+    /**
+     * 此前已失败的次数，可靠消费时由路由的重试次数填充，不随消息体编码
+     */
+    @JSONField(serialize = false, deserialize = false)
+    private int attempts;
 
     public String getTopic() {
         return topic;
@@ -105,4 +129,12 @@ public class Message {
     public void setStatus(int status) {
         this.status = status;
     }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
 }
@@ -0,0 +1,62 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @decription MessageBatch
+ * <p>一次批量消费得到的消息，消息顺序与待消费列表中的顺序一致<br>
+ * 消息包含编码时写入的主题、优先级、创建时间等完整信息</p>
+ * @author Yampery
+ * @date 2026/10/18 11:05
+ */
+public class MessageBatch {
+
+    private static final MessageBatch EMPTY = new MessageBatch(null, Collections.<Message>emptyList());
+
+    /**
+     * 消息来源的待消费列表
+     */
+    private final String list;
+
+    /**
+     * 消息，消息体已过期的消息body为空字符串
+     */
+    private final List<Message> messages;
+
+    public MessageBatch(String list, List<Message> messages) {
+        this.list = list;
+        this.messages = messages;
+    }
+
+    public static MessageBatch empty() {
+        return EMPTY;
+    }
+
+    public String getList() {
+        return list;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * 消息体列表，消息体已过期的返回空字符串
+     * @return
+     */
+    public List<String> getBodies() {
+        List<String> bodies = new ArrayList<>(messages.size());
+        messages.forEach(m -> bodies.add(m.getBody()));
+        return bodies;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+}
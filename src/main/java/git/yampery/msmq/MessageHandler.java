@@ -0,0 +1,17 @@
+package git.yampery.msmq;
+
+/**
+ * @decription MessageHandler
+ * <p>消息处理器，由消费者线程回调</p>
+ * @author Yampery
+ * @date 2026/10/18 13:20
+ */
+public interface MessageHandler {
+
+    /**
+     * 处理一条消息
+     * @param message 包含消息id与消息体
+     * @throws Exception
+     */
+    void onMessage(Message message) throws Exception;
+}
@@ -0,0 +1,235 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @decription MessageProducer
+ * <p>批量消息生产者<br>
+ * 每条消息的消息体与队列元素通过lua脚本原子写入；并发的发送请求在本地合并，
+ * 攒满batchSize条或最早的消息等待超过linger微秒后，由发送线程用一个pipeline批量写入redis<br>
+ * 每条消息返回一个{@link CompletableFuture}，写入成功时完成为消息id；
+ * 配置本地暂存{@link MessageSpool}时，写入失败或缓冲区已满的消息追加到暂存，暂存成功也视为写入成功</p>
+ * @author Yampery
+ * @date 2026/10/18 16:10
+ */
+public class MessageProducer implements Runnable {
+
+    /**
+     * 默认单批最大消息数量
+     */
+    private static final int DEFAULT_BATCH_SIZE = 512;
+    /**
+     * 默认最长等待合并时间（微秒）
+     */
+    private static final long DEFAULT_LINGER = 200L;
+    /**
+     * 默认本地最多缓冲的消息数量
+     */
+    private static final int DEFAULT_BUFFER = 65536;
+    /**
+     * 空闲时发送线程的休眠时间（纳秒）
+     */
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final RedisMQ redisMQ;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long linger = DEFAULT_LINGER;
+    private int bufferSize = DEFAULT_BUFFER;
+
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    public MessageProducer(RedisMQ redisMQ) {
+        this.redisMQ = redisMQ;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "rdsmq-producer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止发送线程，已缓冲的消息发送完后退出
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        Thread t = thread;
+        if (null != t) {
+            LockSupport.unpark(t);
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+        // 停止过程中才进入缓冲区的消息不再发送
+        Pending p;
+        while (null != (p = pending.poll())) {
+            size.decrementAndGet();
+            p.future.completeExceptionally(new IllegalStateException("producer is stopped"));
+        }
+    }
+
+    /**
+     * 发送消息到指定消息队列
+     * @param queue 消息队列，需为已配置的路由
+     * @param message
+     * @return 写入成功时完成为消息id
+     */
+    public CompletableFuture<String> send(String queue, Message message) {
+        Route route = redisMQ.routeOf(queue);
+        if (null == route) {
+            return failed(new IllegalArgumentException("no route for queue " + queue));
+        }
+        return send(route, message);
+    }
+
+    /**
+     * 发送消息到指定路由
+     * @param route
+     * @param message
+     * @return 写入成功时完成为消息id
+     */
+    public CompletableFuture<String> send(Route route, Message message) {
+        if (!running) {
+            return failed(new IllegalStateException("producer is not running"));
+        }
+        int buffered = size.incrementAndGet();
+        if (buffered > bufferSize) {
+            size.decrementAndGet();
+            // 缓冲区满通常是redis写入变慢，配置了本地暂存时直接追加到暂存
+            if (redisMQ.spool(route, message)) {
+                return CompletableFuture.completedFuture(message.getId());
+            }
+            return failed(new IllegalStateException("producer buffer is full"));
+        }
+        Pending p = new Pending(route, message);
+        pending.offer(p);
+        // 缓冲区由空变为非空时发送线程可能处于空闲休眠，唤醒它开始计算等待时间
+        if (1 == buffered || buffered >= batchSize) {
+            LockSupport.unpark(thread);
+        }
+        return p.future;
+    }
+
+    @Override
+    public void run() {
+        long lingerNanos = TimeUnit.MICROSECONDS.toNanos(linger);
+        while (running || !pending.isEmpty()) {
+            Pending head = pending.peek();
+            if (null == head) {
+                LockSupport.parkNanos(this, IDLE_PARK);
+                continue;
+            }
+            long wait = head.enqueued + lingerNanos - System.nanoTime();
+            if (running && 0 < wait && size.get() < batchSize) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            flush();
+        } /// while end~
+    }
+
+    /**
+     * 取出至多batchSize条消息批量写入
+     */
+    private void flush() {
+        List<Pending> batch = new ArrayList<>(Math.min(batchSize, size.get()));
+        Pending p;
+        while (batch.size() < batchSize && null != (p = pending.poll())) {
+            batch.add(p);
+        }
+        if (batch.isEmpty()) return;
+        size.addAndGet(-batch.size());
+        List<Route> routes = new ArrayList<>(batch.size());
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Pending b : batch) {
+            routes.add(b.route);
+            messages.add(b.message);
+        }
+        List<Object> results;
+        try {
+            results = redisMQ.publish(routes, messages);
+        } catch (RuntimeException e) {
+            batch.forEach(b -> b.future.completeExceptionally(e));
+            return;
+        }
+        if (null == results) {
+            IllegalStateException e = new IllegalStateException("failed to write message batch");
+            batch.forEach(b -> b.future.completeExceptionally(e));
+            return;
+        }
+        Object result;
+        for (int i = 0; i < batch.size(); i++) {
+            result = i < results.size() ? results.get(i) : null;
+            if (result instanceof Throwable) {
+                batch.get(i).future.completeExceptionally((Throwable) result);
+            } else if (null == result) {
+                batch.get(i).future.completeExceptionally(new IllegalStateException("no reply"));
+            } else {
+                batch.get(i).future.complete(batch.get(i).message.getId());
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * 等待发送的消息
+     */
+    private static final class Pending {
+
+        final Route route;
+        final Message message;
+        final long enqueued = System.nanoTime();
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Pending(Route route, Message message) {
+            this.route = route;
+            this.message = message;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getLinger() {
+        return linger;
+    }
+
+    public void setLinger(long linger) {
+        this.linger = linger;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+}
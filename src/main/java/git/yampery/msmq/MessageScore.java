@@ -0,0 +1,85 @@
+package git.yampery.msmq;
+
+/**
+ * @decription MessageScore
+ * <p>消息在延迟队列中的score编码<br>
+ * score = (到期时间 - EPOCH) * PRIORITY_SLOTS + 优先级，到期时间为主序，同一毫秒内按优先级排序，
+ * 优先级数值越小越先发送<br>
+ * 以2020-01-01为起点，在2^53以内可精确表示约278年的毫秒时间，redis中的double score不会丢失精度<br>
+ * 跨毫秒的严格优先级由路由的优先级通道{@link Route#getLanes()}保证</p>
+ * @author Yampery
+ * @date 2026/10/18 17:20
+ */
+public final class MessageScore {
+
+    private MessageScore() {}
+
+    /**
+     * 到期时间的起点，2020-01-01 00:00:00 UTC
+     */
+    public static final long EPOCH = 1577836800000L;
+
+    /**
+     * 每毫秒可区分的优先级数量，优先级取值范围 [0, PRIORITY_SLOTS)
+     */
+    public static final int PRIORITY_SLOTS = 1024;
+
+    /**
+     * 编码score
+     * @param dueTime 到期时间（毫秒）
+     * @param priority 优先级，超出范围时取边界值
+     * @return
+     */
+    public static long encode(long dueTime, int priority) {
+        return (dueTime - EPOCH) * PRIORITY_SLOTS + clamp(priority);
+    }
+
+    /**
+     * 到期时间为now时可以发送的最大score，包含所有优先级
+     * @param now
+     * @return
+     */
+    public static long due(long now) {
+        return encode(now, PRIORITY_SLOTS - 1);
+    }
+
+    /**
+     * 从score还原到期时间
+     * @param score
+     * @return
+     */
+    public static long dueTime(double score) {
+        return Math.floorDiv((long) score, PRIORITY_SLOTS) + EPOCH;
+    }
+
+    /**
+     * 从score还原优先级
+     * @param score
+     * @return
+     */
+    public static int priority(double score) {
+        return (int) Math.floorMod((long) score, PRIORITY_SLOTS);
+    }
+
+    /**
+     * 时长（毫秒）换算为score的增量
+     * @param millis
+     * @return
+     */
+    public static long span(long millis) {
+        return millis * PRIORITY_SLOTS;
+    }
+
+    /**
+     * 消息的score：创建时间 + 延迟为到期时间
+     * @param message
+     * @return
+     */
+    public static long of(Message message) {
+        return encode(message.getCreateTime() + message.getDelay(), message.getPriority());
+    }
+
+    private static int clamp(int priority) {
+        return Math.max(0, Math.min(priority, PRIORITY_SLOTS - 1));
+    }
+}
@@ -0,0 +1,616 @@
+package git.yampery.msmq;
+
+import git.yampery.msmq.codec.BinaryMessageCodec;
+import git.yampery.msmq.codec.MessageCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @decription MessageSpool
+ * <p>生产者的本地暂存（预写日志），redis不可用或写入超时时消息先追加到本地磁盘，不丢失也不阻塞生产者<br>
+ * 暂存为只追加的段文件{@link SpoolSegment}，每个段整体映射到内存，追加一条消息只是一次内存拷贝；
+ * 一条记录包含暂存时间、已重放失败的次数、消息id、写入的消息队列（共用消息池的一组路由）与编码后的消息<br>
+ * 重放线程按顺序读取，每批在一个pipeline中写入redis，成功后推进检查点（段序号与位置）并删除已重放完的段；
+ * redis仍不可用或拒绝整批写入时整批保留，隔retryInterval重试；重放时扣除已暂存的时间，存活时间已过的消息丢弃，
+ * 消息队列已没有路由的消息丢弃；部分消息写入失败时重新追加到末尾，同样隔retryInterval后再重放；
+ * 同批其他消息写入成功说明redis可用，失败的消息计一次失败，达到maxAttempts次后丢弃，不会因一条总被拒绝的消息一直占住暂存
+ * （暂存非空时新的投递都经过暂存）；整批失败不计次数，总被拒绝的消息单独成批时，下一条投递进入暂存后即同批重放<br>
+ * 刷盘策略：always每条消息写入后刷盘，interval由重放线程每隔fsyncInterval刷盘（停止时再刷一次），never由操作系统决定；
+ * 进程崩溃不丢失已追加的消息，机器掉电时最多丢失最近一个刷盘间隔的消息<br>
+ * 配置到{@link RedisMQ}时随{@link RedisMQ#start()}启动、{@link RedisMQ#stop()}停止，只在重放线程运行期间接收投递失败的消息，
+ * 未启动时投递失败照常返回给生产者，不会写入无人重放、也不定期刷盘的暂存<br>
+ * 启动时从检查点恢复，未重放的消息重新计入；检查点之后已写入redis但检查点未推进的一批会再写入一次，
+ * 路由设置去重窗口时不会重复投递<br>
+ * 无法解码或重新暂存失败而丢失的消息计入指标rdsmq.spool.lost，无法删除的段计入rdsmq.spool.undeleted</p>
+ * @author Yampery
+ * @date 2026/10/19 05:20
+ */
+public class MessageSpool implements Runnable {
+
+    /**
+     * 刷盘策略：每条消息写入后刷盘
+     */
+    public static final String FSYNC_ALWAYS = "always";
+    /**
+     * 刷盘策略：定期刷盘
+     */
+    public static final String FSYNC_INTERVAL = "interval";
+    /**
+     * 刷盘策略：由操作系统决定
+     */
+    public static final String FSYNC_NEVER = "never";
+
+    /**
+     * 默认段文件大小
+     */
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /**
+     * 默认暂存占用磁盘的上限
+     */
+    private static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    /**
+     * 默认刷盘间隔（毫秒）
+     */
+    private static final long DEFAULT_FSYNC_INTERVAL = 100L;
+    /**
+     * 默认每批重放的消息数量
+     */
+    private static final int DEFAULT_BATCH = 512;
+    /**
+     * 默认重放失败后的重试间隔（毫秒）
+     */
+    private static final long DEFAULT_RETRY_INTERVAL = 1000L;
+    /**
+     * 默认一条消息重放失败多少次后丢弃
+     */
+    private static final int DEFAULT_MAX_ATTEMPTS = 10;
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final File dir;
+    private final MessageCodec codec = new BinaryMessageCodec();
+
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private String fsync = FSYNC_INTERVAL;
+    private long fsyncInterval = DEFAULT_FSYNC_INTERVAL;
+    private int batchSize = DEFAULT_BATCH;
+    private long retryInterval = DEFAULT_RETRY_INTERVAL;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    /**
+     * 所有未删除的段，按序号排列，最后一个为正在写入的段；由本对象的锁保护
+     */
+    private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+    private SpoolSegment writing;
+    private long nextSeq;
+    private long diskSize;
+    private boolean dirty;
+    private RandomAccessFile checkpoint;
+    private volatile boolean opened;
+
+    /**
+     * 读取位置，只由重放线程读写
+     */
+    private SpoolSegment reading;
+    private int readPosition;
+
+    /**
+     * 已暂存、尚未写入redis的消息数量
+     */
+    private final AtomicLong pending = new AtomicLong();
+
+    private volatile RedisMQ redisMQ;
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    /**
+     * @param dir 暂存目录，只能由一个实例使用
+     */
+    public MessageSpool(String dir) {
+        this.dir = new File(dir);
+    }
+
+    /**
+     * 打开暂存目录，从检查点恢复未重放的消息，只执行一次
+     * @throws UncheckedIOException 目录无法创建或读写
+     */
+    public synchronized void open() {
+        if (opened) return;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create spool directory " + dir);
+            checkpoint = new RandomAccessFile(new File(dir, CHECKPOINT), "rw");
+            long seq = 0, position = 0;
+            if (16 <= checkpoint.length()) {
+                seq = checkpoint.readLong();
+                position = checkpoint.readLong();
+            }
+            File[] files = dir.listFiles();
+            long[] seqs = new long[null == files ? 0 : files.length];
+            int n = 0;
+            for (int i = 0; i < seqs.length; i++) {
+                long s = SpoolSegment.seqOf(files[i].getName());
+                if (0 > s) continue;
+                // 检查点之前的段已重放完
+                if (s < seq) {
+                    if (!files[i].delete()) undeleted(files[i]);
+                    continue;
+                }
+                seqs[n++] = s;
+            }
+            Arrays.sort(seqs, 0, n);
+            for (int i = 0; i < n; i++) {
+                SpoolSegment segment = SpoolSegment.open(new File(dir, SpoolSegment.name(seqs[i])), seqs[i]);
+                segments.addLast(segment);
+                diskSize += segment.capacity();
+                pending.addAndGet(count(segment, seqs[i] == seq ? (int) position : 0));
+                nextSeq = seqs[i] + 1;
+            }
+            nextSeq = Math.max(nextSeq, seq);
+            reading = segments.peekFirst();
+            readPosition = null != reading && reading.seq == seq ? (int) position : 0;
+            // 恢复的段不再追加，新的消息写入新段
+            opened = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 启动重放线程
+     * @param redisMQ 重放时写入的消息队列
+     */
+    public synchronized void start(RedisMQ redisMQ) {
+        if (running) return;
+        this.redisMQ = redisMQ;
+        open();
+        running = true;
+        thread = new Thread(this, "rdsmq-spool");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止重放线程并刷盘，未重放的消息留在磁盘上，下次启动时继续重放
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (null != t) {
+            LockSupport.unpark(t);
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        force();
+    }
+
+    /**
+     * 停止重放并关闭暂存目录，之后同一目录可以由新的实例打开；段文件的映射在缓冲区被回收后释放
+     */
+    public void close() {
+        stop();
+        synchronized (this) {
+            if (!opened) return;
+            opened = false;
+            try {
+                checkpoint.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            checkpoint = null;
+            segments.clear();
+            writing = null;
+            reading = null;
+            readPosition = 0;
+            diskSize = 0;
+            nextSeq = 0;
+            dirty = false;
+            pending.set(0);
+        }
+    }
+
+    /**
+     * 暂存一条消息
+     * @param group 写入的路由，共用消息池，重放时作为一次扇出写入
+     * @param message
+     * @return 是否已暂存，超出磁盘上限或写入失败时返回false
+     */
+    public boolean append(List<Route> group, Message message) {
+        return append(group, message, System.currentTimeMillis(), 0);
+    }
+
+    private boolean append(List<Route> group, Message message, long spooledAt, int attempts) {
+        if (!opened) open();
+        byte[] data;
+        try {
+            data = encode(group, message, spooledAt, attempts);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        boolean wake;
+        synchronized (this) {
+            try {
+                if (null == writing || !writing.fits(data.length)) {
+                    int size = Math.max(segmentSize, SpoolSegment.HEADER + data.length);
+                    if (0 < maxSize && diskSize + size > maxSize) return false;
+                    // 定期刷盘只刷正在写入的段，换段前刷完旧段
+                    if (null != writing && FSYNC_INTERVAL.equals(fsync)) writing.force();
+                    writing = SpoolSegment.create(dir, nextSeq++, size);
+                    segments.addLast(writing);
+                    diskSize += size;
+                }
+                writing.append(data);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            if (FSYNC_ALWAYS.equals(fsync)) writing.force();
+            else dirty = true;
+            wake = 1 == pending.incrementAndGet();
+        }
+        // 由空变为非空时唤醒重放线程
+        if (wake) LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * 重放线程是否在运行
+     * @return
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 是否没有待重放的消息
+     * @return
+     */
+    public boolean isEmpty() {
+        return 0 == pending.get();
+    }
+
+    /**
+     * 待重放的消息数量
+     * @return
+     */
+    public long pending() {
+        return pending.get();
+    }
+
+    @Override
+    public void run() {
+        long lastForce = System.currentTimeMillis();
+        while (running) {
+            long wait;
+            try {
+                if (FSYNC_INTERVAL.equals(fsync) && System.currentTimeMillis() - lastForce >= fsyncInterval) {
+                    lastForce = System.currentTimeMillis();
+                    force();
+                }
+                int replayed = replay();
+                if (0 < replayed) continue;
+                wait = 0 > replayed ? retryInterval : fsyncInterval;
+            } catch (Exception e) {
+                e.printStackTrace();
+                wait = retryInterval;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, wait)));
+        } /// while end~
+    }
+
+    /**
+     * 重放一批消息，由重放线程调用
+     * @return 本批读取的消息数量，没有待重放的消息时为0，写入redis失败时为-1，之后隔retryInterval重试
+     */
+    public int replay() {
+        RedisMQ mq = redisMQ;
+        if (null == mq) return 0;
+        SpoolSegment segment = reading;
+        int position = readPosition;
+        List<byte[]> records = new ArrayList<>();
+        byte[] data;
+        while (records.size() < batchSize) {
+            if (null == segment) {
+                synchronized (this) {
+                    segment = segments.peekFirst();
+                }
+                position = 0;
+                if (null == segment) break;
+            }
+            data = segment.read(position, segment.committed());
+            if (null == data) {
+                boolean sealed;
+                synchronized (this) {
+                    sealed = segment != writing;
+                }
+                // 读取之后、换段之前可能又追加了一条，段不再写入后再读一次
+                if (sealed) data = segment.read(position, segment.committed());
+            }
+            if (null != data) {
+                records.add(data);
+                position += SpoolSegment.HEADER + data.length;
+                continue;
+            }
+            SpoolSegment next;
+            synchronized (this) {
+                // 正在写入的段读到末尾时等待新的消息，其他段读到末尾后读取下一个段
+                if (segment == writing) break;
+                next = after(segment);
+            }
+            if (null == next) break;
+            segment = next;
+            position = 0;
+        } /// while end~
+        if (records.isEmpty()) {
+            commit(segment, position);
+            return 0;
+        }
+        int failed = write(mq, records);
+        if (0 > failed) return -1;
+        commit(segment, position);
+        pending.addAndGet(-records.size());
+        // 部分消息失败时已重新追加到末尾，同样等待重试间隔，不立即重放
+        return 0 < failed ? -1 : records.size();
+    }
+
+    /**
+     * 将一批记录写入redis，部分消息失败时重新追加到末尾
+     * @param mq
+     * @param records
+     * @return 失败的消息数量；整批写入失败时返回-1，不推进检查点
+     */
+    private int write(RedisMQ mq, List<byte[]> records) {
+        long now = System.currentTimeMillis();
+        List<List<Route>> groups = new ArrayList<>(records.size());
+        List<Message> messages = new ArrayList<>(records.size());
+        List<Long> spooledAt = new ArrayList<>(records.size());
+        List<Integer> attempts = new ArrayList<>(records.size());
+        int corrupted = 0;
+        for (byte[] record : records) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+                long at = in.readLong();
+                int attempt = in.readUnsignedShort();
+                String id = in.readUTF();
+                int size = in.readUnsignedShort();
+                List<Route> group = new ArrayList<>(size);
+                Route route;
+                for (int i = 0; i < size; i++) {
+                    route = mq.routeOf(in.readUTF());
+                    if (null != route) group.add(route);
+                }
+                byte[] data = new byte[in.available()];
+                in.readFully(data);
+                Message message = codec.decode(data);
+                message.setId(id);
+                if (0 < message.getTtl()) {
+                    int ttl = message.getTtl() - (int) TimeUnit.MILLISECONDS.toSeconds(now - at);
+                    // 暂存期间消息体已过期
+                    if (0 >= ttl) continue;
+                    message.setTtl(ttl);
+                }
+                // 路由已移除的消息无处投递
+                if (group.isEmpty()) continue;
+                groups.add(group);
+                messages.add(message);
+                spooledAt.add(at);
+                attempts.add(attempt);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                corrupted++;
+            }
+        }
+        if (messages.isEmpty()) {
+            mq.getMetrics().spoolLost(corrupted);
+            return 0;
+        }
+        List<Object> results = mq.replay(groups, messages);
+        if (null == results) return -1;
+        int failed = 0;
+        for (Object result : results) {
+            if (!(result instanceof Long)) failed++;
+        }
+        // redis可以连接但拒绝写入（故障切换后的READONLY、内存已满等）时每条都失败，整批保留，不重新追加
+        if (failed == messages.size()) return -1;
+        // 无法解码的记录在检查点越过时才计入丢失，整批保留重试时不重复计数
+        mq.getMetrics().spoolLost(corrupted);
+        Object result;
+        for (int i = 0; i < messages.size(); i++) {
+            result = results.get(i);
+            if (result instanceof Long) continue;
+            int attempt = attempts.get(i) + 1;
+            Throwable cause = result instanceof Throwable ? (Throwable) result : null;
+            // 同批其他消息已写入，总被拒绝的消息不再重新追加
+            if (attempt >= maxAttempts) {
+                new IOException("message " + messages.get(i).getId() + " rejected " + attempt + " times, dropped", cause).printStackTrace();
+                mq.getMetrics().spoolLost(1);
+            } else if (!append(groups.get(i), messages.get(i), spooledAt.get(i), attempt)) {
+                new IOException("failed to respool message " + messages.get(i).getId(), cause).printStackTrace();
+                mq.getMetrics().spoolLost(1);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * 推进检查点并删除已重放完的段
+     * @param segment 读取位置所在的段
+     * @param position
+     */
+    private void commit(SpoolSegment segment, int position) {
+        List<SpoolSegment> done = new ArrayList<>();
+        synchronized (this) {
+            SpoolSegment first;
+            while (null != (first = segments.peekFirst()) && first != segment && first != writing) {
+                done.add(segments.pollFirst());
+                diskSize -= first.capacity();
+            }
+        }
+        reading = segment;
+        readPosition = position;
+        if (null == segment || (done.isEmpty() && 0 == position)) return;
+        try {
+            checkpoint.seek(0);
+            checkpoint.writeLong(segment.seq);
+            checkpoint.writeLong(position);
+            if (FSYNC_ALWAYS.equals(fsync)) checkpoint.getFD().sync();
+            else markDirty();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // 检查点已越过这些段
+        for (SpoolSegment s : done) {
+            if (!s.delete()) undeleted(s.file);
+        }
+    }
+
+    /**
+     * 记录无法删除的段，已重放完的段留在磁盘上，下次打开时再删除
+     * @param file
+     */
+    private void undeleted(File file) {
+        new IOException("failed to delete spool segment " + file).printStackTrace();
+        RedisMQ mq = redisMQ;
+        if (null != mq) mq.getMetrics().spoolUndeleted();
+    }
+
+    /**
+     * 将写入的内容刷到磁盘
+     */
+    public void force() {
+        SpoolSegment current;
+        synchronized (this) {
+            if (!dirty) return;
+            dirty = false;
+            current = writing;
+        }
+        if (null != current) current.force();
+        try {
+            if (null != checkpoint) checkpoint.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    private SpoolSegment after(SpoolSegment segment) {
+        boolean found = false;
+        for (SpoolSegment s : segments) {
+            if (found) return s;
+            found = s == segment;
+        }
+        // 读取的段已被删除时从第一个段开始
+        return found ? null : segments.peekFirst();
+    }
+
+    private static long count(SpoolSegment segment, int position) {
+        long count = 0;
+        byte[] data;
+        while (null != (data = segment.read(position, segment.committed()))) {
+            position += SpoolSegment.HEADER + data.length;
+            count++;
+        }
+        return count;
+    }
+
+    private byte[] encode(List<Route> group, Message message, long spooledAt, int attempts) throws IOException {
+        byte[] data = codec.encode(message);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(spooledAt);
+        out.writeShort(Math.min(attempts, 0xFFFF));
+        out.writeUTF(message.getId());
+        out.writeShort(group.size());
+        for (Route route : group) {
+            out.writeUTF(route.getQueue());
+        }
+        out.write(data);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public String getDir() {
+        return dir.getPath();
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public String getFsync() {
+        return fsync;
+    }
+
+    public void setFsync(String fsync) {
+        this.fsync = fsync;
+    }
+
+    public long getFsyncInterval() {
+        return fsyncInterval;
+    }
+
+    public void setFsyncInterval(long fsyncInterval) {
+        this.fsyncInterval = fsyncInterval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getRetryInterval() {
+        return retryInterval;
+    }
+
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+}
@@ -0,0 +1,239 @@
+package git.yampery.msmq;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * @decription MqMetrics
+ * <p>消息队列指标<br>
+ * 每个路由一组计数器（投递、搬运、消费、确认、重试、回收、限流）、延迟队列、待消费列表与死信队列深度，
+ * 以及从到期到被取走的延迟分布、当前的搬运窗口；另有监听线程每轮耗时与持有的分片数量，本地暂存的积压、丢失的消息与未删除的段<br>
+ * 路由的指标在第一次使用时注册并缓存，之后的记录只有一次map查找，不分配对象；路由移除或替换时丢弃缓存<br>
+ * 深度与窗口的仪表在读取时按消息队列名称取当前的路由，路由已移除时为NaN、不再访问redis，替换后读取新路由的key
+ * （当前的micrometer版本不能注销指标，同名同标签的指标注册后一直存在）<br>
+ * 未设置{@link MeterRegistry}时使用空的组合注册表，记录操作为空操作</p>
+ * @author Yampery
+ * @date 2026/10/18 21:30
+ */
+public class MqMetrics {
+
+    private final MeterRegistry registry;
+    private final RedisMQ redisMQ;
+    private final Map<Route, RouteMeters> routes = new ConcurrentHashMap<>();
+    private final Timer monitor;
+    private final Counter spoolLost;
+    private final Counter spoolUndeleted;
+
+    public MqMetrics(MeterRegistry registry, RedisMQ redisMQ) {
+        this.registry = null == registry ? new CompositeMeterRegistry() : registry;
+        this.redisMQ = redisMQ;
+        this.monitor = Timer.builder("rdsmq.monitor")
+                .description("监听线程每轮搬运耗时")
+                .register(this.registry);
+        Gauge.builder("rdsmq.lease.owned", redisMQ, RedisMQ::ownedShards)
+                .description("本实例负责搬运的分片数量")
+                .register(this.registry);
+        Gauge.builder("rdsmq.spool.pending", redisMQ, RedisMQ::spooled)
+                .description("本地暂存中待重放的消息数量")
+                .register(this.registry);
+        this.spoolLost = Counter.builder("rdsmq.spool.lost")
+                .description("重放时无法解码、或写入失败后无法重新暂存而丢失的消息数量")
+                .register(this.registry);
+        this.spoolUndeleted = Counter.builder("rdsmq.spool.undeleted")
+                .description("已重放完但无法删除、仍占用磁盘的暂存段数量")
+                .register(this.registry);
+    }
+
+    /**
+     * 路由的指标
+     * @param route
+     * @return
+     */
+    public RouteMeters route(Route route) {
+        RouteMeters meters = routes.get(route);
+        return null != meters ? meters : routes.computeIfAbsent(route, RouteMeters::new);
+    }
+
+    /**
+     * 路由移除或替换时丢弃其指标缓存，再次使用时重新注册（已注册的计数器按名称与标签复用）
+     * @param route
+     */
+    void remove(Route route) {
+        routes.remove(route);
+    }
+
+    /**
+     * 记录一轮监听的耗时
+     * @param start 开始时间（纳秒）
+     */
+    void monitor(long start) {
+        monitor.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录暂存中丢失的消息
+     * @param count
+     */
+    void spoolLost(int count) {
+        spoolLost.increment(count);
+    }
+
+    /**
+     * 记录无法删除的暂存段
+     */
+    void spoolUndeleted() {
+        spoolUndeleted.increment();
+    }
+
+    /**
+     * 读取失败时返回NaN
+     */
+    private static double depth(Long size) {
+        return null == size ? Double.NaN : size;
+    }
+
+    /**
+     * 按名称取当前的路由读取仪表的值
+     * @param queue
+     * @param list
+     * @param value
+     * @return 路由已移除或待消费列表已改变时为NaN
+     */
+    private double live(String queue, String list, ToDoubleFunction<Route> value) {
+        Route route = redisMQ.routeOf(queue);
+        return null != route && list.equals(route.getList()) ? value.applyAsDouble(route) : Double.NaN;
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 一个路由的指标
+     */
+    public final class RouteMeters {
+
+        private final Counter enqueued;
+        private final Counter duplicated;
+        private final Counter redelivered;
+        private final Counter promoted;
+        private final Counter consumed;
+        private final Counter acked;
+        private final Counter nacked;
+        private final Counter reaped;
+        private final Counter expired;
+        private final Counter purged;
+        private final Counter throttled;
+        private final Timer lag;
+
+        private RouteMeters(Route route) {
+            String[] tags = {"queue", route.getQueue(), "list", route.getList()};
+            enqueued = counter("rdsmq.enqueued", "投递成功的消息数量", tags);
+            duplicated = counter("rdsmq.enqueue.duplicated", "去重窗口内重复投递而未写入的消息数量", tags);
+            redelivered = counter("rdsmq.consume.duplicated", "消费者已处理过、重新投递后直接确认的消息数量", tags);
+            promoted = counter("rdsmq.promoted", "搬运到待消费列表的消息数量", tags);
+            consumed = counter("rdsmq.consumed", "被取走的消息数量", tags);
+            acked = counter("rdsmq.acked", "确认的消息数量", tags);
+            nacked = counter("rdsmq.nacked", "处理失败重新入队的消息数量", tags);
+            reaped = counter("rdsmq.reaped", "超过处理期限被回收的消息数量", tags);
+            expired = counter("rdsmq.expired", "消息体已过期、搬运或消费时丢弃的消息数量", tags);
+            purged = counter("rdsmq.purged", "增量清理删除的无消息体的消息id数量", tags);
+            throttled = counter("rdsmq.throttled", "令牌或全局额度用完、推迟搬运的次数", tags);
+            lag = Timer.builder("rdsmq.delivery.lag")
+                    .description("消息从到期到被取走的延迟")
+                    .tags(tags)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            String queue = route.getQueue(), list = route.getList();
+            Gauge.builder("rdsmq.queue.depth", redisMQ, mq -> live(queue, list, r -> depth(mq.queueSize(r))))
+                    .description("延迟队列中的消息数量")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("rdsmq.list.depth", redisMQ, mq -> live(queue, list, r -> depth(mq.listSize(r))))
+                    .description("待消费列表长度")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("rdsmq.dead.depth", redisMQ, mq -> live(queue, list, r -> depth(mq.deadSize(r))))
+                    .description("死信队列中的消息数量")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("rdsmq.monitor.window", redisMQ, mq -> live(queue, list, mq::scanWindow))
+                    .description("监听线程当前的搬运窗口")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        private Counter counter(String name, String description, String[] tags) {
+            return Counter.builder(name).description(description).tags(tags).register(registry);
+        }
+
+        public void enqueued(int count) {
+            enqueued.increment(count);
+        }
+
+        public void duplicated(int count) {
+            if (0 < count) duplicated.increment(count);
+        }
+
+        public void redelivered(int count) {
+            if (0 < count) redelivered.increment(count);
+        }
+
+        public void promoted(int count) {
+            if (0 < count) promoted.increment(count);
+        }
+
+        public void acked(int count) {
+            if (0 < count) acked.increment(count);
+        }
+
+        public void nacked(int count) {
+            if (0 < count) nacked.increment(count);
+        }
+
+        public void reaped(int count) {
+            if (0 < count) reaped.increment(count);
+        }
+
+        public void expired(int count) {
+            if (0 < count) expired.increment(count);
+        }
+
+        public void purged(int count) {
+            if (0 < count) purged.increment(count);
+        }
+
+        public void throttled() {
+            throttled.increment();
+        }
+
+        /**
+         * 记录被取走的消息及其到期后的等待时间
+         * @param messages
+         * @param now
+         */
+        public void consumed(List<Message> messages, long now) {
+            int size = messages.size();
+            if (0 == size) return;
+            consumed.increment(size);
+            Message message;
+            for (int i = 0; i < size; i++) {
+                message = messages.get(i);
+                // 只记录消息体完整的消息
+                if (0 < message.getCreateTime()) {
+                    lag.record(Math.max(0, now - message.getCreateTime() - message.getDelay()), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+}
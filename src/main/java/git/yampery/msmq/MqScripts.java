@@ -0,0 +1,475 @@
+package git.yampery.msmq;
+
+/**
+ * @decription MqScripts
+ * <p>消息队列使用的lua脚本，在redis服务端原子执行<br>
+ * 脚本通过{@link git.yampery.utils.JedisUtils#evalScript}执行，优先使用EVALSHA<br>
+ * 待消费列表采用左进右出：搬运时LPUSH，消费时从右端取出，与BRPOPLPUSH方向一致；
+ * 有多个优先级通道时最高优先级通道的消息从右端插入<br>
+ * 消息队列的score由{@link MessageScore}编码</p>
+ * @author Yampery
+ * @date 2026/10/18 10:12
+ */
+public final class MqScripts {
+
+    private MqScripts() {}
+
+    /**
+     * 单次LPUSH/ZREM展开的元素数量，避免unpack超出lua栈限制
+     */
+    public static final int UNPACK_CHUNK = 1000;
+
+    /**
+     * 计算消息所在分片（从1开始），与{@link Route#shardOf}的算法一致
+     */
+    private static final String SHARD_FN =
+            "local function shard(id, n) " +
+            "  if n <= 1 then return 1 end " +
+            "  local h = 0 " +
+            "  for i = 1, #id do h = (h * 31 + string.byte(id, i)) % 4294967296 end " +
+            "  return h % n + 1 " +
+            "end ";
+
+    /**
+     * 将到期消息从ZSET队列搬运到待消费LIST，按优先级通道从高到低依次搬运
+     * <p>KEYS[1] 待消费列表（list）<br>
+     * KEYS[2..] 同一分片的各个优先级通道（zset），按优先级从高到低排列<br>
+     * ARGV[1] 到期score，score小于等于该值的消息视为到期<br>
+     * ARGV[2] 单次最多搬运的消息数量<br>
+     * ARGV[3] 为1时最高优先级通道的消息放到列表的消费端，越过列表中已积压的消息<br>
+     * ARGV[4] 消息池key前缀（可选），消息体已过期的消息直接丢弃，不进入待消费列表</p>
+     * 每个通道都从最早到期的消息开始扫描，高优先级通道的到期消息搬完后才搬运下一通道；
+     * 只用EXISTS检查消息体是否存在，不读取消息体。开启hash tag时消息池key与通道在同一slot<br>
+     * 返回{搬运的消息数量, 丢弃的过期消息数量}
+     */
+    public static final String PROMOTE =
+            "local limit = tonumber(ARGV[2]) " +
+            "local pool = ARGV[4] " +
+            "local total, dropped = 0, 0 " +
+            "for k = 2, #KEYS do " +
+            "  if total + dropped >= limit then break end " +
+            "  local ids = redis.call('ZRANGEBYSCORE', KEYS[k], '-inf', ARGV[1], 'LIMIT', 0, limit - total - dropped) " +
+            "  local n = #ids " +
+            "  if n > 0 then " +
+            "    for i = 1, n, " + UNPACK_CHUNK + " do " +
+            "      redis.call('ZREM', KEYS[k], unpack(ids, i, math.min(i + " + (UNPACK_CHUNK - 1) + ", n))) " +
+            "    end " +
+            "    if pool then " +
+            "      local live = {} " +
+            "      for _, id in ipairs(ids) do " +
+            "        if redis.call('EXISTS', pool .. id) == 1 then live[#live + 1] = id end " +
+            "      end " +
+            "      dropped = dropped + n - #live " +
+            "      ids = live " +
+            "      n = #live " +
+            "    end " +
+            "  end " +
+            "  if n > 0 then " +
+            "    if k == 2 and ARGV[3] == '1' then " +
+            // 从消费端插入时倒序写入，保持通道内的到期顺序
+            "      local rev = {} " +
+            "      for i = n, 1, -1 do rev[#rev + 1] = ids[i] end " +
+            "      for i = 1, n, " + UNPACK_CHUNK + " do " +
+            "        redis.call('RPUSH', KEYS[1], unpack(rev, i, math.min(i + " + (UNPACK_CHUNK - 1) + ", n))) " +
+            "      end " +
+            "    else " +
+            "      for i = 1, n, " + UNPACK_CHUNK + " do " +
+            "        redis.call('LPUSH', KEYS[1], unpack(ids, i, math.min(i + " + (UNPACK_CHUNK - 1) + ", n))) " +
+            "      end " +
+            "    end " +
+            "    total = total + n " +
+            "  end " +
+            "end " +
+            "return {total, dropped}";
+
+    /**
+     * 将本地时间轮中到期的指定消息搬运到待消费列表
+     * <p>KEYS[1] 待消费列表（list）<br>
+     * KEYS[2..] 每条消息所在的消息队列（zset）<br>
+     * ARGV[1] 为1时放到列表的消费端<br>
+     * ARGV[2] 消息池key前缀，为空字符串时不检查消息体<br>
+     * ARGV[2k+1], ARGV[2k+2] 与KEYS[k+1]对应的消息id与加入时的score</p>
+     * 只搬运score未变化的消息，已被其他实例搬运、删除或重新调度的消息保持不动；消息体已过期的消息出队后丢弃<br>
+     * 返回{搬运的消息数量, 丢弃的过期消息数量}
+     */
+    public static final String PROMOTE_IDS =
+            "local ids = {} " +
+            "local dropped = 0 " +
+            "for k = 2, #KEYS do " +
+            "  local id = ARGV[2 * k - 1] " +
+            "  local s = redis.call('ZSCORE', KEYS[k], id) " +
+            "  if s and tonumber(s) == tonumber(ARGV[2 * k]) then " +
+            "    redis.call('ZREM', KEYS[k], id) " +
+            "    if ARGV[2] == '' or redis.call('EXISTS', ARGV[2] .. id) == 1 then " +
+            "      ids[#ids + 1] = id " +
+            "    else " +
+            "      dropped = dropped + 1 " +
+            "    end " +
+            "  end " +
+            "end " +
+            "local n = #ids " +
+            "if n == 0 then return {0, dropped} end " +
+            "if ARGV[1] == '1' then " +
+            "  local rev = {} " +
+            "  for i = n, 1, -1 do rev[#rev + 1] = ids[i] end " +
+            "  ids = rev " +
+            "end " +
+            "local cmd = ARGV[1] == '1' and 'RPUSH' or 'LPUSH' " +
+            "for i = 1, n, " + UNPACK_CHUNK + " do " +
+            "  redis.call(cmd, KEYS[1], unpack(ids, i, math.min(i + " + (UNPACK_CHUNK - 1) + ", n))) " +
+            "end " +
+            "return {n, dropped}";
+
+    /**
+     * 原子地写入消息体并将消息id加入消息队列，可选去重与扇出
+     * <p>KEYS[1] 消息池key<br>
+     * KEYS[2] 消息队列（zset）<br>
+     * KEYS[3] 去重标记key（去重或扇出时必须）<br>
+     * KEYS[4..] 扇出时其他路由的消息队列，与KEYS[1]在同一slot<br>
+     * ARGV[1] 消息体<br>
+     * ARGV[2] 消息存活时间（秒）<br>
+     * ARGV[3] score<br>
+     * ARGV[4] 消息id<br>
+     * ARGV[5] 去重方式（可选）：p表示消息体仍存在时视为重复；数字表示去重窗口（毫秒），窗口内已有标记时视为重复；空字符串表示不去重</p>
+     * 扇出时消息体只写一次，另以消息池key加:refs记录引用的路由数量，与消息体同时过期，
+     * 由{@link #ACK}与{@link #TAKE}逐个释放，最后一个路由释放时删除消息体<br>
+     * 返回1，重复时不写入并返回0
+     */
+    public static final String ENQUEUE =
+            "if ARGV[5] == 'p' then " +
+            "  if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end " +
+            "elseif ARGV[5] and ARGV[5] ~= '' then " +
+            "  if not redis.call('SET', KEYS[3], '1', 'NX', 'PX', ARGV[5]) then return 0 end " +
+            "end " +
+            "redis.call('SETEX', KEYS[1], ARGV[2], ARGV[1]) " +
+            "redis.call('ZADD', KEYS[2], ARGV[3], ARGV[4]) " +
+            "if #KEYS > 3 then " +
+            "  redis.call('SETEX', KEYS[1] .. ':refs', ARGV[2], #KEYS - 2) " +
+            "  for i = 4, #KEYS do redis.call('ZADD', KEYS[i], ARGV[3], ARGV[4]) end " +
+            "end " +
+            "return 1";
+
+    /**
+     * 从待消费列表右端原子弹出一批消息id
+     * <p>KEYS[1] 待消费列表（list）<br>
+     * ARGV[1] 单次最多弹出的数量</p>
+     * 返回弹出的消息id，按入列顺序排列
+     */
+    public static final String POP =
+            "local ids = redis.call('LRANGE', KEYS[1], -tonumber(ARGV[1]), -1) " +
+            "local m = #ids " +
+            "if m == 0 then return ids end " +
+            "redis.call('LTRIM', KEYS[1], 0, -m - 1) " +
+            "local out = {} " +
+            "for i = m, 1, -1 do out[#out + 1] = ids[i] end " +
+            "return out";
+
+    /**
+     * 可靠消费：从待消费列表取出一批消息id放入消费者的处理中集合，并记录处理期限
+     * <p>KEYS[1] 待消费列表（list）<br>
+     * KEYS[2] 消费者处理中集合（zset，score为处理期限）<br>
+     * KEYS[3] 消费者暂存列表（BRPOPLPUSH的目标）<br>
+     * KEYS[4] 消费者登记表（zset，score为最近活跃时间）<br>
+     * ARGV[1] 当前时间<br>
+     * ARGV[2] 处理期限<br>
+     * ARGV[3] 单次最多取出的数量（包含暂存的消息）<br>
+     * ARGV[4] 消费者id<br>
+     * ARGV[5] 已通过BRPOPLPUSH暂存的消息id，没有则为空字符串</p>
+     * 返回取出的消息id，按入列顺序排列
+     */
+    public static final String CLAIM =
+            "local out = {} " +
+            "if ARGV[5] ~= '' then " +
+            "  redis.call('LREM', KEYS[3], 1, ARGV[5]) " +
+            "  out[1] = ARGV[5] " +
+            "end " +
+            "local n = tonumber(ARGV[3]) - #out " +
+            "if n > 0 then " +
+            "  local ids = redis.call('LRANGE', KEYS[1], -n, -1) " +
+            "  local m = #ids " +
+            "  if m > 0 then " +
+            "    redis.call('LTRIM', KEYS[1], 0, -m - 1) " +
+            "    for i = m, 1, -1 do out[#out + 1] = ids[i] end " +
+            "  end " +
+            "end " +
+            "for _, id in ipairs(out) do redis.call('ZADD', KEYS[2], ARGV[2], id) end " +
+            "redis.call('ZADD', KEYS[4], ARGV[1], ARGV[4]) " +
+            "return out";
+
+    /**
+     * 处理失败的消息增加重试次数后按指数退避放回所在分片的重试通道，达到最大投递次数时转入死信队列<br>
+     * 调用前需定义attempts（重试次数hash）、dead（死信队列）、lane(id)（所在分片的重试通道）、
+     * max（最大投递次数，0表示不限）与deadScore（转入死信队列的时间）
+     */
+    private static final String RETRY_FN =
+            "local function retry(id, score, backoff, maxBackoff) " +
+            "  local a = redis.call('HINCRBY', attempts, id, 1) " +
+            "  if max > 0 and a >= max then " +
+            "    redis.call('HDEL', attempts, id) " +
+            "    redis.call('ZADD', dead, deadScore, id) " +
+            "    return " +
+            "  end " +
+            "  local d = math.min(backoff * 2 ^ (a - 1), maxBackoff) " +
+            "  redis.call('ZADD', lane(id), score + d, id) " +
+            "end ";
+
+    /**
+     * 释放一个路由对消息体的引用，扇出的消息体在最后一个路由释放时删除，其他消息体直接删除<br>
+     * owned为0表示消息已不在该路由中（重复确认），不减少扇出消息的引用<br>
+     * 引用计数key由消息池key派生，带有同一个hash tag，与消息池key在同一slot
+     */
+    private static final String RELEASE_FN =
+            "local function release(key, owned) " +
+            "  local refs = key .. ':refs' " +
+            "  if redis.call('EXISTS', refs) == 1 then " +
+            "    if owned == 0 or redis.call('DECR', refs) > 0 then return end " +
+            "  end " +
+            "  redis.call('DEL', key, refs) " +
+            "end ";
+
+    /**
+     * 读取并释放一批消息体，用于非可靠消费
+     * <p>KEYS[1..] 消息池key</p>
+     * 返回与KEYS一一对应的消息体，不存在的为nil
+     */
+    public static final String TAKE = RELEASE_FN +
+            "local out = {} " +
+            "for i = 1, #KEYS do " +
+            "  out[i] = redis.call('GET', KEYS[i]) " +
+            "  if out[i] then release(KEYS[i], 1) end " +
+            "end " +
+            "return out";
+
+    /**
+     * 确认消息处理成功，删除处理中记录、重试次数，释放消息体
+     * <p>KEYS[1] 消费者处理中集合<br>
+     * KEYS[2] 重试次数（hash）<br>
+     * KEYS[3] 死信队列（zset）<br>
+     * KEYS[4..N+3] 消息队列N个分片的重试通道（zset）<br>
+     * KEYS[N+4..] 与消息id一一对应的消息池key<br>
+     * ARGV[1] 分片数量N<br>
+     * ARGV[2..] 消息id</p>
+     * 已超时被重新入队或转入死信队列的消息同时撤回<br>
+     * 返回按期确认的消息数量
+     */
+    public static final String ACK = SHARD_FN + RELEASE_FN +
+            "local n = tonumber(ARGV[1]) " +
+            "local acked = 0 " +
+            "for i = 2, #ARGV do " +
+            "  local id = ARGV[i] " +
+            "  local owned = redis.call('ZREM', KEYS[1], id) " +
+            "  if owned == 1 then " +
+            "    acked = acked + 1 " +
+            "  else " +
+            "    owned = redis.call('ZREM', KEYS[3 + shard(id, n)], id) " +
+            "    if owned == 0 then owned = redis.call('ZREM', KEYS[3], id) end " +
+            "  end " +
+            "  redis.call('HDEL', KEYS[2], id) " +
+            "  release(KEYS[n + i + 2], owned) " +
+            "end " +
+            "return acked";
+
+    /**
+     * 消息处理失败，从处理中集合移回消息所在分片的重试通道，按重试次数指数退避，达到最大投递次数时转入死信队列
+     * <p>KEYS[1] 消费者处理中集合<br>
+     * KEYS[2] 重试次数（hash）<br>
+     * KEYS[3] 死信队列（zset，score为转入时间）<br>
+     * KEYS[4..] 消息队列各个分片的重试通道（zset）<br>
+     * ARGV[1] 当前时间对应的score<br>
+     * ARGV[2] 首次重试的退避时间（换算为score增量）<br>
+     * ARGV[3] 最大退避时间（换算为score增量）<br>
+     * ARGV[4] 最大投递次数，0表示不限<br>
+     * ARGV[5] 当前时间<br>
+     * ARGV[6..] 消息id</p>
+     * 返回从处理中集合移出（重新入队或转入死信队列）的消息数量
+     */
+    public static final String NACK = SHARD_FN +
+            "local attempts, dead, max, deadScore = KEYS[2], KEYS[3], tonumber(ARGV[4]), ARGV[5] " +
+            "local shards = #KEYS - 3 " +
+            "local function lane(id) return KEYS[3 + shard(id, shards)] end " +
+            RETRY_FN +
+            "local now, backoff, maxBackoff = tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]) " +
+            "local n = 0 " +
+            "for i = 6, #ARGV do " +
+            "  local id = ARGV[i] " +
+            "  if redis.call('ZREM', KEYS[1], id) == 1 then " +
+            "    retry(id, now, backoff, maxBackoff) " +
+            "    n = n + 1 " +
+            "  end " +
+            "end " +
+            "return n";
+
+    /**
+     * 回收一个消费者超过处理期限的消息，按重试次数指数退避重新放入消息所在分片的重试通道
+     * <p>KEYS[1] 消费者处理中集合<br>
+     * KEYS[2] 消费者暂存列表<br>
+     * KEYS[3] 重试次数（hash）<br>
+     * KEYS[4] 消费者登记表<br>
+     * KEYS[5] 死信队列（zset）<br>
+     * KEYS[6..] 消息队列各个分片的重试通道（zset）<br>
+     * ARGV[1] 当前时间<br>
+     * ARGV[2] 处理期限时长<br>
+     * ARGV[3] 首次重试的退避时间（换算为score增量）<br>
+     * ARGV[4] 最大退避时间（换算为score增量）<br>
+     * ARGV[5] 单次最多回收的数量<br>
+     * ARGV[6] 消费者id<br>
+     * ARGV[7] 消费者不活跃多久后注销<br>
+     * ARGV[8] 当前时间对应的score<br>
+     * ARGV[9] 最大投递次数，0表示不限</p>
+     * 暂存列表中遗留的消息补记处理期限；达到最大投递次数的消息转入死信队列；消费者长期不活跃且没有处理中的消息时注销<br>
+     * 返回回收的消息数量
+     */
+    public static final String REAP = SHARD_FN +
+            "local attempts, dead, max, deadScore = KEYS[3], KEYS[5], tonumber(ARGV[9]), ARGV[1] " +
+            "local shards = #KEYS - 5 " +
+            "local function lane(id) return KEYS[5 + shard(id, shards)] end " +
+            RETRY_FN +
+            "local now = tonumber(ARGV[1]) " +
+            "local staged = redis.call('LRANGE', KEYS[2], 0, -1) " +
+            "for _, id in ipairs(staged) do " +
+            "  if not redis.call('ZSCORE', KEYS[1], id) then " +
+            "    redis.call('ZADD', KEYS[1], now + tonumber(ARGV[2]), id) " +
+            "  end " +
+            "end " +
+            "if #staged > 0 then redis.call('DEL', KEYS[2]) end " +
+            "local ids = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', now, 'LIMIT', 0, tonumber(ARGV[5])) " +
+            "for _, id in ipairs(ids) do " +
+            "  redis.call('ZREM', KEYS[1], id) " +
+            "  retry(id, tonumber(ARGV[8]), tonumber(ARGV[3]), tonumber(ARGV[4])) " +
+            "end " +
+            "if redis.call('ZCARD', KEYS[1]) == 0 then " +
+            "  local seen = redis.call('ZSCORE', KEYS[4], ARGV[6]) " +
+            "  if seen and tonumber(seen) < now - tonumber(ARGV[7]) then " +
+            "    redis.call('ZREM', KEYS[4], ARGV[6]) " +
+            "  end " +
+            "end " +
+            "return #ids";
+
+    /**
+     * 清理消息体已不存在的消息id，由增量清理在SCAN之后调用
+     * <p>KEYS[1] 消息队列或死信队列（zset）<br>
+     * KEYS[2..] 与ARGV一一对应的消息池key<br>
+     * ARGV[1..] 消息id</p>
+     * 在脚本中再次确认消息体不存在，SCAN之后重新写入的消息不会被误删<br>
+     * 返回删除的消息id数量
+     */
+    public static final String PURGE =
+            "local n = 0 " +
+            "for i = 1, #ARGV do " +
+            "  if redis.call('EXISTS', KEYS[i + 1]) == 0 then " +
+            "    n = n + redis.call('ZREM', KEYS[1], ARGV[i]) " +
+            "  end " +
+            "end " +
+            "return n";
+
+    /**
+     * 将死信队列中最早转入的一批消息重新放入所在分片的重试通道，重试次数清零
+     * <p>KEYS[1] 死信队列（zset）<br>
+     * KEYS[2] 重试次数（hash）<br>
+     * KEYS[3..] 消息队列各个分片的重试通道（zset）<br>
+     * ARGV[1] 当前时间对应的score<br>
+     * ARGV[2] 最多重放的数量</p>
+     * 返回重放的消息数量
+     */
+    public static final String REPLAY = SHARD_FN +
+            "local shards = #KEYS - 2 " +
+            "local ids = redis.call('ZRANGE', KEYS[1], 0, tonumber(ARGV[2]) - 1) " +
+            "for _, id in ipairs(ids) do " +
+            "  redis.call('ZADD', KEYS[2 + shard(id, shards)], ARGV[1], id) " +
+            "  redis.call('ZREM', KEYS[1], id) " +
+            "  redis.call('HDEL', KEYS[2], id) " +
+            "end " +
+            "return #ids";
+
+    /**
+     * 登记监听实例，续约并平衡分片租约
+     * <p>KEYS[1] 监听实例登记表（zset，score为最近续约时间）<br>
+     * KEYS[2..] 所有路由各个分片的租约<br>
+     * ARGV[1] 实例id<br>
+     * ARGV[2] 当前时间<br>
+     * ARGV[3] 租约时长（毫秒）</p>
+     * 超过租约时长未续约的实例注销；每个实例至多持有分片总数除以存活实例数（向上取整）个租约，
+     * 先续约已持有的租约并释放超出的部分，再获取无人持有的租约<br>
+     * 返回与KEYS[2..]一一对应的持有状态，持有为1
+     */
+    public static final String LEASE =
+            "local ttl = tonumber(ARGV[3]) " +
+            "redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1]) " +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', tonumber(ARGV[2]) - ttl) " +
+            "redis.call('PEXPIRE', KEYS[1], 2 * ttl) " +
+            "local want = math.ceil((#KEYS - 1) / redis.call('ZCARD', KEYS[1])) " +
+            "local held = 0 " +
+            "local owned = {} " +
+            "for i = 2, #KEYS do " +
+            "  owned[i - 1] = 0 " +
+            "  if redis.call('GET', KEYS[i]) == ARGV[1] then " +
+            "    if held < want then " +
+            "      redis.call('PEXPIRE', KEYS[i], ttl) " +
+            "      owned[i - 1] = 1 " +
+            "      held = held + 1 " +
+            "    else " +
+            "      redis.call('DEL', KEYS[i]) " +
+            "    end " +
+            "  end " +
+            "end " +
+            "for i = 2, #KEYS do " +
+            "  if held >= want then break end " +
+            "  if owned[i - 1] == 0 and redis.call('SET', KEYS[i], ARGV[1], 'PX', ttl, 'NX') then " +
+            "    owned[i - 1] = 1 " +
+            "    held = held + 1 " +
+            "  end " +
+            "end " +
+            "return owned";
+
+    /**
+     * 注销监听实例并释放其持有的租约
+     * <p>KEYS[1] 监听实例登记表<br>
+     * KEYS[2..] 分片租约<br>
+     * ARGV[1] 实例id</p>
+     * 返回释放的租约数量
+     */
+    public static final String RELEASE =
+            "redis.call('ZREM', KEYS[1], ARGV[1]) " +
+            "local n = 0 " +
+            "for i = 2, #KEYS do " +
+            "  if redis.call('GET', KEYS[i]) == ARGV[1] then " +
+            "    redis.call('DEL', KEYS[i]) " +
+            "    n = n + 1 " +
+            "  end " +
+            "end " +
+            "return n";
+
+    /**
+     * 从多个实例共用的令牌桶中取出或归还令牌
+     * <p>KEYS[1] 令牌桶（hash，t为令牌数，ts为上次补充时间）<br>
+     * ARGV[1] 每秒补充的令牌数<br>
+     * ARGV[2] 令牌桶容量<br>
+     * ARGV[3] 当前时间<br>
+     * ARGV[4] 取出的令牌数，负数表示归还</p>
+     * 按距上次补充的时间补充令牌，各实例的时钟回拨时不补充；令牌桶不存在时为满；
+     * 闲置到补满之后令牌桶过期<br>
+     * 返回取得的令牌数，令牌不足时为现有的整数部分，归还时为0
+     */
+    public static final String TOKENS =
+            "local rate = tonumber(ARGV[1]) " +
+            "local capacity = tonumber(ARGV[2]) " +
+            "local now = tonumber(ARGV[3]) " +
+            "local want = tonumber(ARGV[4]) " +
+            "local bucket = redis.call('HMGET', KEYS[1], 't', 'ts') " +
+            "local tokens = tonumber(bucket[1]) or capacity " +
+            "local last = tonumber(bucket[2]) or now " +
+            "if now > last then " +
+            "  tokens = math.min(capacity, tokens + (now - last) * rate / 1000) " +
+            "  last = now " +
+            "end " +
+            "local granted = 0 " +
+            "if want < 0 then " +
+            "  tokens = math.min(capacity, tokens - want) " +
+            "else " +
+            "  granted = math.min(want, math.floor(tokens)) " +
+            "  tokens = tokens - granted " +
+            "end " +
+            "redis.call('HMSET', KEYS[1], 't', tostring(tokens), 'ts', tostring(last)) " +
+            "redis.call('PEXPIRE', KEYS[1], math.ceil(capacity * 1000 / rate) + 1000) " +
+            "return granted";
+}
@@ -0,0 +1,332 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @decription PrefetchConsumer
+ * <p>预取式可靠消费者，独立的拉取线程把路由的消息预先取到容量固定的本地缓冲，处理线程通过{@link #poll}从缓冲取消息<br>
+ * 缓冲降到低水位时按批补满，高于低水位时拉取线程暂停，处理跟不上时不会继续从redis取消息，占用的内存不超过缓冲容量；
+ * 积压时缓冲里总有消息，处理线程不需要等待网络往返<br>
+ * 确认与重试由拉取线程批量提交。预取的消息已进入处理中集合，处理期限从拉取时开始计算，
+ * 缓冲容量应小于处理期限内能处理完的消息数量；取出时距处理期限已不足处理时间handleTime的消息丢弃，由回收重新投递<br>
+ * 处理时间超过handleTime的消息仍可能在处理期间被回收、重新投递给其他消费者，消费是至少一次，
+ * handleTime应不小于处理一条消息的最长时间，需要去重时开启去重或由处理器保证幂等<br>
+ * 开启去重后记住最近确认的消息id，确认丢失而重新投递的消息直接确认，不再交给处理线程</p>
+ * @author Yampery
+ * @date 2026/10/18 23:40
+ */
+public class PrefetchConsumer implements Runnable {
+
+    /**
+     * 默认阻塞等待时间（秒），超时后检查是否需要停止
+     */
+    private static final int DEFAULT_TIMEOUT = 1;
+    /**
+     * 缓冲高于低水位时拉取线程的最长等待时间（毫秒），到时提交已完成的确认
+     */
+    private static final long FLUSH_INTERVAL = 50;
+
+    private final RedisMQ redisMQ;
+    private final Route route;
+    private final int capacity;
+    /**
+     * 缓冲降到该数量时补满
+     */
+    private int lowWatermark;
+    private final BlockingQueue<Prefetched> buffer;
+    private final String consumerId = UUID.randomUUID().toString();
+    private int timeout = DEFAULT_TIMEOUT;
+    /**
+     * 交给处理线程时距处理期限至少还剩的时间（毫秒），小于0时为处理期限的一半
+     */
+    private long handleTime = -1;
+
+    /**
+     * 已处理完成、等待提交的消息id
+     */
+    private final Queue<String> acked = new ConcurrentLinkedQueue<>();
+    private final Queue<String> nacked = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 最近确认的消息id，为null时不去重
+     */
+    private volatile RecentIds handled;
+
+    private final Object refill = new Object();
+    /**
+     * 拉取线程在等待缓冲降到的数量，-1表示没有等待
+     */
+    private volatile int awaiting = -1;
+    private volatile boolean running;
+    private Thread thread;
+
+    public PrefetchConsumer(RedisMQ redisMQ, Route route, int capacity) {
+        this.redisMQ = redisMQ;
+        this.route = route;
+        this.capacity = Math.max(1, capacity);
+        this.lowWatermark = this.capacity / 4;
+        this.buffer = new ArrayBlockingQueue<>(this.capacity);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "rdsmq-prefetch-" + route.getList());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止拉取并提交已完成的确认，缓冲中未处理的消息留在处理中集合，到期后重新投递<br>
+     * 停止后仍在处理的消息由{@link #serve}在完成时自行提交
+     */
+    public synchronized void stop() {
+        running = false;
+        if (null != thread) {
+            // 不中断拉取线程，阻塞中的拉取至多timeout秒后返回，中断会打断客户端正在等待的命令
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(timeout + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        buffer.clear();
+        flush();
+    }
+
+    @Override
+    public void run() {
+        MessageBatch batch;
+        long now;
+        int room;
+        while (running) {
+            try {
+                flush();
+                if (buffer.size() > lowWatermark) {
+                    await(lowWatermark);
+                    continue;
+                }
+                room = capacity - buffer.size();
+                now = System.currentTimeMillis();
+                // 缓冲里还有消息时不阻塞，处理线程不会因为拉取而等待
+                batch = redisMQ.receive(route, consumerId, Math.min(room, redisMQ.getConsumeCount()),
+                        buffer.isEmpty() ? timeout : 0);
+                // 处理期限在拉取前开始计算，偏早不偏晚
+                long deadline = now + redisMQ.getVisibilityTimeout();
+                for (Message message : batch.getMessages()) {
+                    // 只有拉取线程放入，剩余空间足够
+                    buffer.offer(new Prefetched(message, deadline));
+                }
+                // 暂时没有消息，缓冲取空后再阻塞等待
+                if (batch.isEmpty()) await(0);
+            } catch (InterruptedException e) {
+                if (!running) break;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        } /// while end~
+    }
+
+    /**
+     * 等待缓冲降到level，至多等待{@link #FLUSH_INTERVAL}
+     * @param level
+     * @throws InterruptedException
+     */
+    private void await(int level) throws InterruptedException {
+        synchronized (refill) {
+            awaiting = level;
+            try {
+                if (buffer.size() > level) refill.wait(FLUSH_INTERVAL);
+            } finally {
+                awaiting = -1;
+            }
+        }
+    }
+
+    /**
+     * 从缓冲取一条消息
+     * @param timeout
+     * @param unit
+     * @return 等待超时或已停止时返回null
+     * @throws InterruptedException
+     */
+    public Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long until = System.nanoTime() + unit.toNanos(timeout);
+        Prefetched prefetched;
+        while (running) {
+            prefetched = buffer.poll(Math.max(0, until - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (null == prefetched) return null;
+            if (buffer.size() <= awaiting) {
+                synchronized (refill) {
+                    refill.notifyAll();
+                }
+            }
+            // 剩余时间不够处理的消息可能在处理期间被回收重新投递，丢弃
+            if (prefetched.deadline - System.currentTimeMillis() < handleTime()) continue;
+            if (duplicate(prefetched.message)) continue;
+            return prefetched.message;
+        }
+        return null;
+    }
+
+    private long handleTime() {
+        return 0 <= handleTime ? handleTime : redisMQ.getVisibilityTimeout() / 2;
+    }
+
+    /**
+     * 确认消息处理完成，由拉取线程批量提交
+     * @param message
+     */
+    public void ack(Message message) {
+        message.setStatus(Message.STATUS_SENT);
+        acked.add(message.getId());
+        RecentIds recent = handled;
+        if (null != recent) recent.add(message.getId());
+    }
+
+    /**
+     * 已确认过的消息被重新投递时直接确认
+     * @param message
+     * @return
+     */
+    private boolean duplicate(Message message) {
+        RecentIds recent = handled;
+        if (null == recent || !recent.contains(message.getId())) return false;
+        redisMQ.getMetrics().route(route).redelivered(1);
+        acked.add(message.getId());
+        return true;
+    }
+
+    /**
+     * 消息处理失败，由拉取线程批量提交，退避后重试
+     * @param message
+     */
+    public void nack(Message message) {
+        message.setStatus(Message.STATUS_FAILED);
+        nacked.add(message.getId());
+    }
+
+    /**
+     * 持续从缓冲取消息交给处理器，直到停止，供工作线程使用
+     * @param handler
+     */
+    public void serve(MessageHandler handler) {
+        Message message;
+        while (running) {
+            try {
+                message = poll(timeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (null == message) continue;
+            try {
+                handler.onMessage(message);
+                ack(message);
+            } catch (Exception e) {
+                e.printStackTrace();
+                nack(message);
+            }
+            // 已停止时拉取线程不再提交，处理完的消息自行提交，否则会被回收重新投递
+            if (!running) flush();
+        } /// while end~
+    }
+
+    /**
+     * 批量提交已完成消息的确认与重试<br>
+     * 拉取线程会定期提交，{@link #serve}在停止后自行提交；直接使用{@link #poll}时，停止后还在处理的消息完成时需再调用一次
+     */
+    public void flush() {
+        List<String> ids = drain(acked);
+        if (!ids.isEmpty()) redisMQ.ack(route, consumerId, ids);
+        ids = drain(nacked);
+        if (!ids.isEmpty()) redisMQ.nack(route, consumerId, ids);
+    }
+
+    private static List<String> drain(Queue<String> queue) {
+        List<String> ids = new ArrayList<>();
+        String id;
+        while (null != (id = queue.poll())) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * 缓冲中的消息数量
+     * @return
+     */
+    public int buffered() {
+        return buffer.size();
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public String getConsumerId() {
+        return consumerId;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = Math.max(0, Math.min(capacity - 1, lowWatermark));
+    }
+
+    /**
+     * 设置消费者去重记住的消息数量，0表示不去重
+     * @param capacity
+     */
+    public void setDedup(int capacity) {
+        this.handled = 0 < capacity ? new RecentIds(capacity) : null;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getHandleTime() {
+        return handleTime;
+    }
+
+    /**
+     * 设置处理一条消息所需的时间，取出时距处理期限不足该时间的消息丢弃，由回收重新投递
+     * @param handleTime 毫秒，小于0时为处理期限的一半
+     */
+    public void setHandleTime(long handleTime) {
+        this.handleTime = handleTime;
+    }
+
+    /**
+     * 缓冲中的消息与其处理期限
+     */
+    private static final class Prefetched {
+
+        private final Message message;
+        private final long deadline;
+
+        private Prefetched(Message message, long deadline) {
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+}
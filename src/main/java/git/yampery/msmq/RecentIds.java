@@ -0,0 +1,34 @@
+package git.yampery.msmq;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @decription RecentIds
+ * <p>消费者最近处理成功的消息id，容量固定，超出时淘汰最早的记录<br>
+ * 确认丢失或提交前超过处理期限的消息会被重新投递，再次收到时直接确认而不重复处理；
+ * 精确记录，不会把新消息误判为重复，只覆盖本消费者处理过的消息</p>
+ * @author Yampery
+ * @date 2026/10/19 01:10
+ */
+final class RecentIds {
+
+    private final Map<String, Boolean> ids;
+
+    RecentIds(int capacity) {
+        this.ids = new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized void add(String id) {
+        ids.put(id, Boolean.TRUE);
+    }
+
+    synchronized boolean contains(String id) {
+        return ids.containsKey(id);
+    }
+}
@@ -1,56 +1,328 @@
 package git.yampery.msmq;
 
+import git.yampery.msmq.codec.BinaryMessageCodec;
+import git.yampery.msmq.codec.MessageCodec;
+import git.yampery.msmq.store.AsyncMessageStore;
+import git.yampery.msmq.store.Envelope;
+import git.yampery.msmq.store.JedisMessageStore;
+import git.yampery.msmq.store.MessageStore;
+import git.yampery.msmq.store.SweepPage;
 import git.yampery.utils.JedisUtils;
-import org.springframework.scheduling.annotation.Scheduled;
+import io.micrometer.core.instrument.MeterRegistry;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @decription RedisMQ
  * <p>基于redis的消息队列</p>
  * <p>将整个redis作为消息池存储消息体，以ZSET为消息队列，LIST作为待消费列表<br>
- * 用Spring定时器作为监听器，每次监听ZSET中指定数量的消息<br>
- * 根据SCORE确定是否达到发送要求，如果达到，利用消息路由{@link Route}将消息路由到待消费list</p>
+ * 用独立的监听线程{@link DelayMonitor}作为监听器，在最早的消息到期时通过lua脚本在服务端原子搬运到期消息，
+ * 每个路由的搬运窗口随积压自适应调整{@link ScanWindow}；多个实例通过分片租约{@link ShardLeases}分担搬运<br>
+ * 根据SCORE确定是否达到发送要求，如果达到，利用消息路由{@link Route}将消息路由到待消费list<br>
+ * SCORE由到期时间与优先级编码而成{@link MessageScore}，路由可按优先级拆分为多个通道<br>
+ * 即将到期的消息同时放入本地时间轮{@link TimingWheel}，到期时按id精确搬运，ZSET仍是唯一的持久存储；
+ * 时间轮之外的消息（超出范围、限流的路由、其他实例投递的）由监听线程在到期时搬运，
+ * 其他实例投递的消息无法唤醒本实例，到期后至多monitorIdle才被搬运<br>
+ * 可靠消费{@link #receive}将消息移入消费者的处理中集合，确认后才删除，保证至少投递一次<br>
+ * 所有存储操作通过{@link MessageStore}完成，默认使用redis，也可替换为进程内存储<br>
+ * 各路由的计数、队列深度与投递延迟记录在{@link MqMetrics}中<br>
+ * 投递、消费与确认另有返回{@link CompletableFuture}的异步版本，存储实现{@link AsyncMessageStore}时不阻塞调用线程<br>
+ * 路由表{@link RouteRegistry}可在运行时添加、暂停与移除路由，也可从redis中的路由目录{@link RouteCatalog}定期同步<br>
+ * 按主题投递{@link #publish(Message)}通过{@link TopicRouter}找到路由，扇出到多个路由时消息体只写一次<br>
+ * 搬运时按路由的令牌桶{@link TokenBucket}限流，配置全局投递速率时各路由按权重分配全局额度{@link DeliveryBudget}<br>
+ * 配置本地暂存{@link MessageSpool}时，写入redis失败的消息追加到本地磁盘{@link SpoolFallback}，redis恢复后由重放线程写入；
+ * 暂存的重放线程随{@link #start()}启动、{@link #stop()}停止，只在这期间接收写入失败的消息</p>
  * @author Yampery
  * @date 2017/11/2 15:49
  */
 public class RedisMQ {
 
-    /**
-     * 消息池前缀，以此前缀加上传递的消息id作为key，以消息{@link Message}
-     * 的消息体body作为值存储
-     */
-    private static final String MSG_POOL = "Message:Pool:";
     /**
      * 默认监听数量，对应监听zset队列前多少个元素
      */
     private static final int DEFAUT_MONITOR = 10;
+    /**
+     * 默认最大搬运窗口
+     */
+    private static final int DEFAUT_MONITOR_MAX = 1000;
+    /**
+     * 默认每轮监听的时间预算（毫秒）
+     */
+    private static final long DEFAUT_MONITOR_BUDGET = 100L;
+    /**
+     * 默认单批消费数量
+     */
+    private static final int DEFAUT_CONSUME = 100;
+    /**
+     * 默认监听线程最长休眠时间（毫秒）
+     */
+    private static final long DEFAUT_MONITOR_IDLE = 1000L;
+    /**
+     * 默认处理期限（毫秒）
+     */
+    private static final long DEFAUT_VISIBILITY = 30000L;
+    /**
+     * 默认首次重试退避时间（毫秒）
+     */
+    private static final long DEFAUT_RETRY_BACKOFF = 1000L;
+    /**
+     * 默认最大重试退避时间（毫秒）
+     */
+    private static final long DEFAUT_MAX_RETRY_BACKOFF = 60000L;
+    /**
+     * 默认时间轮范围（毫秒），在此时间内到期的消息由时间轮搬运
+     */
+    private static final long DEFAUT_WHEEL_HORIZON = 1000L;
+    /**
+     * 默认时间轮精度（毫秒）
+     */
+    private static final long DEFAUT_WHEEL_TICK = 1L;
+    /**
+     * 默认时间轮容量
+     */
+    private static final int DEFAUT_WHEEL_CAPACITY = 65536;
+    /**
+     * 时间轮槽数
+     */
+    private static final int WHEEL_SIZE = 1024;
+    /**
+     * 默认分片租约时长（毫秒）
+     */
+    private static final long DEFAUT_LEASE_TTL = 5000L;
+    /**
+     * 默认本地去重预检的容量，即一个去重窗口内预计投递的消息数量
+     */
+    private static final int DEFAUT_DEDUP_CAPACITY = 100000;
+    /**
+     * 默认增量清理间隔（毫秒）
+     */
+    private static final long DEFAUT_SWEEP_INTERVAL = 1000L;
+    /**
+     * 默认每个消息队列单次清理扫描的数量
+     */
+    private static final int DEFAUT_SWEEP_COUNT = 200;
+
+    /**
+     * 默认路由目录同步间隔（毫秒）
+     */
+    private static final long DEFAUT_ROUTE_REFRESH = 5000L;
+
+    /**
+     * 去重方式：每次投递都由服务端在去重窗口内记录标记
+     */
+    public static final String DEDUP_SERVER = "server";
+    /**
+     * 去重方式：本地布隆过滤器预检，只有可能重复的投递由服务端确认
+     */
+    public static final String DEDUP_LOCAL = "local";
+
+    /**
+     * 多个实例共用的全局投递令牌桶
+     */
+    public static final String DELIVERY_RATE_KEY = "rdsmq:rate";
     @Resource private JedisUtils jedisUtils;
 
 
     /**
-     * 每次监听queue中元素的数量，可配置
+     * 每批搬运queue中到期元素的数量，即搬运窗口的下限，可配置
      */
     private int monitorCount = DEFAUT_MONITOR;
 
+    /**
+     * 搬运窗口的上限，积压时窗口逐轮翻倍直到此值，可配置
+     */
+    private int monitorMaxCount = DEFAUT_MONITOR_MAX;
+
+    /**
+     * 每轮监听的时间预算，超出后各路由不再继续搬运，积压留到紧接着的下一轮，可配置
+     */
+    private long monitorBudget = DEFAUT_MONITOR_BUDGET;
+
+    /**
+     * 每批从待消费列表取出的消息数量，可配置
+     */
+    private int consumeCount = DEFAUT_CONSUME;
+
+    /**
+     * 监听线程最长休眠时间，用于发现其他实例投递的消息，可配置
+     */
+    private long monitorIdle = DEFAUT_MONITOR_IDLE;
+
+    /**
+     * 可靠消费时消息的处理期限，超过期限未确认则重新投递，可配置
+     */
+    private long visibilityTimeout = DEFAUT_VISIBILITY;
+
+    /**
+     * 首次重试的退避时间，之后每次翻倍，可配置
+     */
+    private long retryBackoff = DEFAUT_RETRY_BACKOFF;
+
+    /**
+     * 最大重试退避时间，可配置
+     */
+    private long maxRetryBackoff = DEFAUT_MAX_RETRY_BACKOFF;
+
+    /**
+     * 时间轮范围，投递时在此时间内到期的消息放入本地时间轮，0表示不使用时间轮，可配置
+     */
+    private long wheelHorizon = DEFAUT_WHEEL_HORIZON;
+
+    /**
+     * 时间轮精度，可配置
+     */
+    private long wheelTick = DEFAUT_WHEEL_TICK;
+
+    /**
+     * 时间轮最多容纳的消息数量，超出的消息由监听线程搬运，可配置
+     */
+    private int wheelCapacity = DEFAUT_WHEEL_CAPACITY;
+
+    /**
+     * 时间轮中有消息时监听线程延后搬运的时间，让时间轮先搬运、减少重复的搬运，0表示不延后，可配置<br>
+     * 时间轮为空时不延后，时间轮之外的消息不受影响
+     */
+    private long wheelLag;
+
+    /**
+     * 分片租约时长，多个实例监听同一组路由时每个分片只由持有租约的实例搬运，0表示不使用租约，可配置
+     */
+    private long leaseTtl = DEFAUT_LEASE_TTL;
+
+    /**
+     * 实例id，用于持有分片租约，默认随机生成，可配置
+     */
+    private String instanceId = UUID.randomUUID().toString();
+
+    /**
+     * 去重方式，对设置了去重窗口的路由生效，可配置<br>
+     * server：投递脚本中以SET NX记录去重标记，所有生产者之间去重，每条消息多占用一个短期key；<br>
+     * local：本地布隆过滤器预检，本机没有投递过的id直接写入，可能投递过的由投递脚本检查消息体是否仍存在，
+     * 只对本机的重试去重，不占用额外的key
+     */
+    private String dedupMode = DEDUP_SERVER;
+
+    /**
+     * 本地去重预检的容量，可配置
+     */
+    private int dedupCapacity = DEFAUT_DEDUP_CAPACITY;
+
+    /**
+     * 搬运时是否丢弃消息体已过期的消息，只检查消息体是否存在，不读取消息体，可配置
+     */
+    private boolean dropExpired = true;
+
+    /**
+     * 增量清理间隔，每次对每个消息队列扫描一批消息id，删除消息体已不存在的id，0表示不清理，可配置
+     */
+    private long sweepInterval = DEFAUT_SWEEP_INTERVAL;
+
+    /**
+     * 每个消息队列单次清理扫描的数量，可配置
+     */
+    private int sweepCount = DEFAUT_SWEEP_COUNT;
+
+    /**
+     * 消息编解码器，默认紧凑二进制格式，可配置
+     */
+    private MessageCodec codec = new BinaryMessageCodec();
+
+    /**
+     * 存储，未设置时使用基于{@link JedisUtils}的redis存储
+     */
+    private volatile MessageStore store;
+
+    private volatile DelayMonitor delayMonitor;
+
+    private volatile TimingWheel<Held> timingWheel;
+
+    private volatile ShardLeases leases;
+
+    /**
+     * 指标，未设置注册表时为空操作
+     */
+    private volatile MqMetrics metrics = new MqMetrics(null, this);
+
+
+    /**
+     * 消息路由，运行时可添加、暂停与移除
+     */
+    private final RouteRegistry registry = new RouteRegistry();
+
+    /**
+     * 路由目录，为null时只使用本地配置的路由，可配置
+     */
+    private volatile RouteCatalog routeCatalog;
+
+    /**
+     * 路由目录的同步间隔，可配置
+     */
+    private long routeRefresh = DEFAUT_ROUTE_REFRESH;
+
+    /**
+     * 主题路由，按主题投递时使用，可配置
+     */
+    private volatile TopicRouter topicRouter;
+
+    /**
+     * 投递失败时的本地暂存，暂存可配置
+     */
+    private final SpoolFallback fallback = new SpoolFallback();
+
+    /**
+     * 各路由的搬运窗口与最早到期时间
+     */
+    private final Map<Route, ScanWindow> windows = new ConcurrentHashMap<>();
+
+    /**
+     * 各路由本地去重预检的过滤器
+     */
+    private final Map<Route, IdFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * 各消息队列增量清理的扫描游标
+     */
+    private final Map<String, String> sweepCursors = new ConcurrentHashMap<>();
 
     /**
-     * 消息路由
+     * 搬运限流与全局投递额度，速率可配置
      */
-    private List<Route> routes;
+    private final DeliveryBudget budget = new DeliveryBudget(this);
+
+    public RedisMQ() {
+        registry.addListener(new RouteChanges());
+    }
 
     /**
-     * 存入消息池
+     * 存入消息池，只适用于未开启hash tag的路由，开启时使用{@link #addMsgPool(Route, Message)}
      * @param message
      * @return
      */
     public boolean addMsgPool(Message message) {
 
+        return addMsgPool(null, message);
+    }
+
+    /**
+     * 存入路由的消息池，路由开启hash tag时消息体写入路由的slot，之后由{@link #enMessage(Route, long, String)}加入消息队列
+     * @param route 为null时写入不带tag的消息池
+     * @param message
+     * @return
+     */
+    public boolean addMsgPool(Route route, Message message) {
+
         if (null != message) {
-            return jedisUtils.setex(MSG_POOL + message.getId(), message.getBody(), message.getTtl());
+            return store().put(route, message.getId(), codec.encode(message), message.getTtl());
         }
         return false;
     }
@@ -62,100 +334,1570 @@ public class RedisMQ {
      */
     public boolean deMsgPool(String id) {
 
-        return jedisUtils.del(MSG_POOL + id);
+        return store().remove(id);
     }
 
     /**
-     * 像队列中添加消息
-     * @param key
-     * @param score 优先级
+     * 从路由的消息池中删除消息
+     * @param route
+     * @param id
+     * @return
+     */
+    public boolean deMsgPool(Route route, String id) {
+
+        return store().remove(route, id);
+    }
+
+    /**
+     * 像队列中添加消息，以最高优先级发送
+     * @param key 消息队列，对应路由分片时按消息id写入所在分片
+     * @param dueTime 到期时间（毫秒）
      * @param val
      * @return 返回消息id
      */
-    public String enMessage(String key, long score, String val) {
+    public String enMessage(String key, long dueTime, String val) {
 
-        if (jedisUtils.zadd(key, score, val)) {
-            return val;
-        }
-        return "";
+        Route route = registry.byQueue(key);
+        if (null != route) return enMessage(route, dueTime, val);
+        if (!store().schedule(key, MessageScore.encode(dueTime, 0), val)) return "";
+        wakeup(dueTime);
+        return val;
     }
 
     /**
-     * 从队列删除消息
+     * 像路由的消息队列中添加消息，分片时按消息id分散写入，以最高优先级发送
+     * @param route
+     * @param dueTime 到期时间（毫秒）
      * @param id
+     * @return 返回消息id
+     */
+    public String enMessage(Route route, long dueTime, String id) {
+
+        String queue = route.queueOf(id);
+        long score = MessageScore.encode(dueTime, 0);
+        if (!store().schedule(queue, score, id)) return "";
+        metrics.route(route).enqueued(1);
+        if (!hold(route, queue, id, score)) wakeup(route, dueTime);
+        return id;
+    }
+
+    /**
+     * 投递消息，原子地写入消息体并加入路由的消息队列
+     * @param route 消息路由
+     * @param message 消息
+     * @return 是否成功
+     */
+    public boolean publish(Route route, Message message) {
+
+        if (fallback.active()) return fallback.append(Collections.singletonList(route), message);
+        Envelope envelope = envelope(route, message);
+        // 去重时通过批量接口区分写入与重复，仍是一次往返
+        if (Envelope.DEDUP_NONE != envelope.getDedup()) {
+            return accepted(route, envelope, store().enqueue(Collections.singletonList(envelope)))
+                    || fallback.append(Collections.singletonList(route), message);
+        }
+        if (!store().enqueue(envelope)) return fallback.append(Collections.singletonList(route), message);
+        enqueued(route, envelope);
+        return true;
+    }
+
+    /**
+     * 异步投递消息
+     * @param route 消息路由
+     * @param message 消息
+     * @return 是否成功
+     */
+    public CompletableFuture<Boolean> publishAsync(Route route, Message message) {
+
+        AsyncMessageStore async = async();
+        if (null == async || fallback.active()) return CompletableFuture.completedFuture(publish(route, message));
+        Envelope envelope = envelope(route, message);
+        if (Envelope.DEDUP_NONE != envelope.getDedup()) {
+            // 写入异常时同样暂存
+            return async.enqueueAsync(Collections.singletonList(envelope))
+                    .handle((results, e) -> accepted(route, envelope, fallback.result(results, e))
+                            || fallback.append(Collections.singletonList(route), message));
+        }
+        return async.enqueueAsync(envelope).handle((ok, e) -> {
+            if (Boolean.TRUE.equals(fallback.result(ok, e))) {
+                enqueued(route, envelope);
+                return true;
+            }
+            return fallback.append(Collections.singletonList(route), message);
+        });
+    }
+
+    /**
+     * 按消息主题投递，主题匹配多个路由时扇出<br>
+     * 共用消息池的路由为一组，每组一次原子写入：消息体只写一次，消息id写入组内每个路由的消息队列；
+     * 各组在一个pipeline中发送
+     * @param message 消息
+     * @return 所有路由都写入成功时为true，没有匹配的路由时为false
+     */
+    public boolean publish(Message message) {
+
+        List<List<Route>> groups = groups(message);
+        if (groups.isEmpty()) return false;
+        if (1 == groups.size() && 1 == groups.get(0).size()) return publish(groups.get(0).get(0), message);
+        if (fallback.active()) return fallback.fanout(groups, message, null);
+        List<Envelope> envelopes = fanout(groups, message);
+        List<Object> results = store().enqueue(envelopes);
+        return fanned(groups, envelopes, results) || fallback.fanout(groups, message, results);
+    }
+
+    /**
+     * 异步按消息主题投递
+     * @param message 消息
+     * @return 所有路由都写入成功时为true，没有匹配的路由时为false
+     */
+    public CompletableFuture<Boolean> publishAsync(Message message) {
+
+        AsyncMessageStore async = async();
+        if (null == async || fallback.active()) return CompletableFuture.completedFuture(publish(message));
+        List<List<Route>> groups = groups(message);
+        if (groups.isEmpty()) return CompletableFuture.completedFuture(false);
+        if (1 == groups.size() && 1 == groups.get(0).size()) return publishAsync(groups.get(0).get(0), message);
+        List<Envelope> envelopes = fanout(groups, message);
+        return async.enqueueAsync(envelopes).handle((results, e) -> {
+            List<Object> done = fallback.result(results, e);
+            return fanned(groups, envelopes, done) || fallback.fanout(groups, message, done);
+        });
+    }
+
+    private List<List<Route>> groups(Message message) {
+
+        TopicRouter router = topicRouter;
+        return null == router ? Collections.emptyList() : router.groups(message.getTopic());
+    }
+
+    /**
+     * 每组一个扇出的写入，以组内第一个路由为主，去重按主路由的配置
+     * @param groups
+     * @param message
      * @return
      */
-    public boolean deMessage(String key, String id) {
+    private List<Envelope> fanout(List<List<Route>> groups, Message message) {
+
+        List<Envelope> envelopes = new ArrayList<>(groups.size());
+        List<String> queues;
+        for (List<Route> group : groups) {
+            Envelope envelope = envelope(group.get(0), message);
+            if (1 < group.size()) {
+                queues = new ArrayList<>(group.size() - 1);
+                for (int i = 1; i < group.size(); i++) {
+                    queues.add(group.get(i).queueOf(message.getId(), message.getPriority()));
+                }
+                envelope = envelope.fanout(queues);
+            }
+            envelopes.add(envelope);
+        }
+        return envelopes;
+    }
+
+    /**
+     * 扇出写入后逐个路由记录指标，放入时间轮或通知监听线程
+     * @param groups
+     * @param envelopes 与组一一对应
+     * @param results 与组一一对应
+     * @return 所有组都写入成功（包括重复）时为true
+     */
+    private boolean fanned(List<List<Route>> groups, List<Envelope> envelopes, List<Object> results) {
+
+        if (null == results) return false;
+        boolean ok = true;
+        long first = Long.MAX_VALUE;
+        Envelope envelope;
+        List<Route> group;
+        List<String> queues;
+        Route route;
+        for (int i = 0; i < groups.size(); i++) {
+            if (!(results.get(i) instanceof Long)) {
+                ok = false;
+                continue;
+            }
+            group = groups.get(i);
+            if (Long.valueOf(0L).equals(results.get(i))) {
+                group.forEach(r -> metrics.route(r).duplicated(1));
+                continue;
+            }
+            envelope = envelopes.get(i);
+            queues = envelope.getQueues();
+            for (int j = 0; j < group.size(); j++) {
+                route = group.get(j);
+                metrics.route(route).enqueued(1);
+                if (!hold(route, queues.get(j), envelope.getId(), envelope.getScore())) {
+                    window(route).offer(MessageScore.dueTime(envelope.getScore()));
+                    first = Math.min(first, envelope.getScore());
+                }
+            }
+        }
+        if (Long.MAX_VALUE != first) wakeup(MessageScore.dueTime(first));
+        return ok;
+    }
+
+    /**
+     * 批量投递消息，每条消息原子写入，所有消息在一个pipeline中发送
+     * @param routes 每条消息对应的路由
+     * @param messages 消息
+     * @return 与消息一一对应的结果，成功为1，失败为异常对象；整体失败返回null
+     */
+    public List<Object> publish(List<Route> routes, List<Message> messages) {
+
+        if (fallback.active()) return fallback.batch(routes, messages, null);
+        int size = messages.size();
+        List<Envelope> envelopes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            envelopes.add(envelope(routes.get(i), messages.get(i)));
+        }
+        List<Object> results = store().enqueue(envelopes);
+        if (null != results) enqueued(routes, envelopes, results);
+        return fallback.batch(routes, messages, results);
+    }
+
+    /**
+     * 异步批量投递消息，所有消息连续发出，不等待前一条的结果
+     * @param routes 每条消息对应的路由
+     * @param messages 消息
+     * @return 与消息一一对应的结果，成功为1，失败为异常对象
+     */
+    public CompletableFuture<List<Object>> publishAsync(List<Route> routes, List<Message> messages) {
+
+        AsyncMessageStore async = async();
+        if (null == async || fallback.active()) return CompletableFuture.completedFuture(publish(routes, messages));
+        int size = messages.size();
+        List<Envelope> envelopes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            envelopes.add(envelope(routes.get(i), messages.get(i)));
+        }
+        return async.enqueueAsync(envelopes).handle((results, e) -> {
+            List<Object> done = fallback.result(results, e);
+            if (null != done) enqueued(routes, envelopes, done);
+            return fallback.batch(routes, messages, done);
+        });
+    }
+
+    /**
+     * 重放本地暂存的消息，每条消息作为一次扇出写入一组共用消息池的路由，所有消息在一个pipeline中发送
+     * @param groups 每条消息对应的一组路由
+     * @param messages 消息
+     * @return 与消息一一对应的结果，成功（包括重复）为Long，失败为异常对象；整体失败返回null
+     */
+    List<Object> replay(List<List<Route>> groups, List<Message> messages) {
+
+        int size = messages.size();
+        List<Envelope> envelopes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            envelopes.add(fanout(Collections.singletonList(groups.get(i)), messages.get(i)).get(0));
+        }
+        List<Object> results = store().enqueue(envelopes);
+        if (null != results) fanned(groups, envelopes, results);
+        return results;
+    }
 
-        return jedisUtils.zdel(key, id);
+    /**
+     * 消息写入后放入时间轮或通知监听线程
+     * @param route
+     * @param envelope
+     */
+    private void enqueued(Route route, Envelope envelope) {
+
+        metrics.route(route).enqueued(1);
+        if (!hold(route, envelope.getQueue(), envelope.getId(), envelope.getScore())) {
+            wakeup(route, MessageScore.dueTime(envelope.getScore()));
+        }
     }
 
     /**
-     * 消费
+     * 单条去重投递的结果，重复视为成功
+     * @param route
+     * @param envelope
+     * @param results
      * @return
      */
-    public List<String> consume(String key) {
+    private boolean accepted(Route route, Envelope envelope, List<Object> results) {
+
+        if (null == results || !(results.get(0) instanceof Long)) return false;
+        enqueued(Collections.singletonList(route), Collections.singletonList(envelope), results);
+        return true;
+    }
+
+    private void enqueued(List<Route> routes, List<Envelope> envelopes, List<Object> results) {
+
+        int size = envelopes.size();
+        long first = Long.MAX_VALUE;
+        Envelope envelope;
+        for (int i = 0; i < size; i++) {
+            if (null == results.get(i) || results.get(i) instanceof Throwable) continue;
+            if (Long.valueOf(0L).equals(results.get(i))) {
+                // 重复投递，消息已存在，不改变其到期时间
+                metrics.route(routes.get(i)).duplicated(1);
+                continue;
+            }
+            metrics.route(routes.get(i)).enqueued(1);
+            envelope = envelopes.get(i);
+            if (!hold(routes.get(i), envelope.getQueue(), envelope.getId(), envelope.getScore())) {
+                window(routes.get(i)).offer(MessageScore.dueTime(envelope.getScore()));
+                first = Math.min(first, envelope.getScore());
+            }
+        }
+        if (Long.MAX_VALUE != first) wakeup(MessageScore.dueTime(first));
+    }
+
+    private Envelope envelope(Route route, Message message) {
 
-        long count = jedisUtils.countList(key);
-        if (0 < count) {
-            // 可根据需求做限制
-            List<String> ids = jedisUtils.rangeList(key, 0, count - 1);
-            if (ids != null) {
-                List<String> result = new ArrayList<>();
-                ids.forEach(l -> result.add(jedisUtils.get(MSG_POOL + l, "")));
-                jedisUtils.removeListValue(key, ids);
-                return result;
-            } /// if end~
+        Envelope envelope = new Envelope(message.getId(), codec.encode(message), message.getTtl(),
+                route.queueOf(message.getId(), message.getPriority()), MessageScore.of(message),
+                route.poolKey(message.getId()));
+        long window = route.getDedupWindow();
+        if (0 >= window) return envelope;
+        if (DEDUP_LOCAL.equalsIgnoreCase(dedupMode)) {
+            // 本机一定没有投递过的id直接写入，可能投递过的由服务端检查消息是否仍未被消费
+            if (!filter(route).put(message.getId(), System.currentTimeMillis())) return envelope;
+            return envelope.dedup(Envelope.DEDUP_PENDING, null, window);
         }
+        return envelope.dedup(Envelope.DEDUP_MARKER, route.dedupKey(message.getId()), window);
+    }
+
+    private IdFilter filter(Route route) {
 
-        return null;
+        return filters.computeIfAbsent(route, r -> new IdFilter(dedupCapacity, r.getDedupWindow()));
     }
 
     /**
-     * 消息队列监听器<br>
-     * 监听所有路由器，将消息队列中的消息路由到待消费列表
+     * 查找消息队列对应的路由
+     * @param queue
+     * @return 不存在返回null
      */
-    @Scheduled(cron="*/5 * * * * *")
-    public void monitor() {
-        // 获取消息路由
-        int route_size;
-        if (null == routes || 1 > (route_size = routes.size())) return;
-        String queue, list;
-        Set<String> set;
-        for (int i = 0; i < route_size; i++) {
-            queue = routes.get(i).getQueue();
-            list = routes.get(i).getList();
-            set = jedisUtils.getSoredSetByRange(queue, 0, monitorCount, true);
-            if (null != set) {
-                long current = System.currentTimeMillis();
-                long score;
-                for (String id : set) {
-                     score = jedisUtils.getScore(queue, id).longValue();
-                    if (current >= score) {
-                        // 添加到list
-                        if (jedisUtils.insertList(list, id)) {
-                            // 删除queue中的元素
-                            deMessage(queue, id);
-                        } /// if end~
-                    } /// if end~
-                } /// for end~
-            } /// if end~
-        } /// for end~
+    public Route routeOf(String queue) {
+
+        return registry.byQueue(queue);
     }
 
-    public int getMonitorCount() {
-        return monitorCount;
+    /**
+     * 将即将到期的消息放入时间轮
+     * @param route
+     * @param queue 消息所在的消息队列
+     * @param id
+     * @param score 消息加入队列时的score
+     * @return 时间轮未启用、路由限流、消息不在时间轮范围内或时间轮已满时返回false，由监听线程搬运
+     */
+    private boolean hold(Route route, String queue, String id, long score) {
+
+        TimingWheel<Held> wheel = timingWheel;
+        // 限流的路由只由监听线程按令牌搬运
+        if (null == wheel || budget.limited(route)) return false;
+        long dueTime = MessageScore.dueTime(score);
+        if (dueTime - System.currentTimeMillis() > wheelHorizon) return false;
+        // 多通道时最高优先级通道的消息放到列表的消费端，与监听线程的搬运一致
+        boolean express = 1 < route.getLanes() && queue.equals(route.laneKey(Route.shardOf(id, route.getShards()), 0));
+        return wheel.add(new Held(route, queue, id, score, express), dueTime);
     }
 
-    public void setMonitorCount(int monitorCount) {
-        this.monitorCount = monitorCount;
+    /**
+     * 时间轮回调，按路由分组搬运同一tick到期的消息
+     * @param due
+     */
+    private void fire(List<Held> due) {
+
+        Map<Route, List<Held>> normal = new HashMap<>();
+        Map<Route, List<Held>> express = new HashMap<>();
+        for (Held held : due) {
+            (held.express ? express : normal).computeIfAbsent(held.route, r -> new ArrayList<>()).add(held);
+        }
+        express.forEach((route, helds) -> promoteHeld(route, helds, true));
+        normal.forEach((route, helds) -> promoteHeld(route, helds, false));
     }
 
-    public List<Route> getRoutes() {
-        return routes;
+    private void promoteHeld(Route route, List<Held> helds, boolean express) {
+
+        // 暂停或已移除的路由不搬运，消息留在消息队列中
+        if (route != registry.byQueue(route.getQueue()) || registry.isPaused(route)) return;
+
+        List<String> queues = new ArrayList<>(helds.size());
+        List<String> ids = new ArrayList<>(helds.size());
+        List<Long> scores = new ArrayList<>(helds.size());
+        for (Held held : helds) {
+            queues.add(held.queue);
+            ids.add(held.id);
+            scores.add(held.score);
+        }
+        try {
+            int[] moved = store().promoteIds(route.getList(), queues, ids, scores, pool(route), express);
+            metrics.route(route).promoted(moved[0]);
+            metrics.route(route).expired(moved[1]);
+        } catch (RuntimeException e) {
+            // 搬运失败的消息仍在消息队列中，由监听线程搬运
+            e.printStackTrace();
+            wakeup(route, System.currentTimeMillis());
+        }
     }
 
-    public void setRoutes(List<Route> routes) {
-        this.routes = routes;
+    /**
+     * 通知监听线程路由中有消息将在dueTime到期
+     * @param route
+     * @param dueTime
+     */
+    private void wakeup(Route route, long dueTime) {
+
+        window(route).offer(dueTime);
+        wakeup(dueTime);
+    }
+
+    /**
+     * 通知监听线程有消息将在dueTime到期
+     * @param dueTime
+     */
+    void wakeup(long dueTime) {
+
+        DelayMonitor monitor = delayMonitor;
+        if (null != monitor) monitor.wakeup(dueTime);
+    }
+
+    /**
+     * 从队列删除消息
+     * @param id
+     * @return
+     */
+    public boolean deMessage(String key, String id) {
+
+        Route route = registry.byQueue(key);
+        if (null == route) return store().unschedule(key, id);
+        boolean deleted = false;
+        for (String lane : route.laneKeys(Route.shardOf(id, route.getShards()))) {
+            deleted |= store().unschedule(lane, id);
+        }
+        return deleted;
+    }
+
+    /**
+     * 消费，按批次取出待消费列表中当前所有消息<br>
+     * 占用的内存与积压成正比，持续消费请使用{@link ConsumerContainer}或{@link PrefetchConsumer}
+     * @return 消息体，列表为空返回null
+     */
+    public List<String> consume(String key) {
+
+        List<String> result = null;
+        List<String> ids;
+        MessageBatch batch;
+        do {
+            // 按弹出的id数量判断是否取完，过期丢弃的消息不影响
+            ids = popIds(key, consumeCount);
+            if (ids.isEmpty()) break;
+            batch = fetch(key, ids);
+            if (batch.isEmpty()) continue;
+            if (null == result) result = new ArrayList<>();
+            result.addAll(batch.getBodies());
+        } while (ids.size() >= consumeCount);
+
+        return result;
+    }
+
+    /**
+     * 批量消费<br>
+     * 原子地从待消费列表弹出至多count个消息id，
+     * 再用一次pipeline取出消息池中的消息体并删除；消息体已过期的消息丢弃，批次可能少于弹出的数量
+     * @param key 待消费列表
+     * @param count 单批最大数量
+     * @return 消息批次，没有消息时返回空批次
+     */
+    public MessageBatch consume(String key, int count) {
+
+        if (0 >= count) return MessageBatch.empty();
+        return fetch(key, popIds(key, count));
+    }
+
+    /**
+     * 异步批量消费，弹出消息id后再取出消息体，两步均不阻塞调用线程
+     * @param key 待消费列表
+     * @param count 单批最大数量
+     * @return 消息批次，没有消息时返回空批次
+     */
+    public CompletableFuture<MessageBatch> consumeAsync(String key, int count) {
+
+        AsyncMessageStore async = async();
+        if (null == async) return CompletableFuture.completedFuture(consume(key, count));
+        if (0 >= count) return CompletableFuture.completedFuture(MessageBatch.empty());
+        return async.popAsync(key, count).thenCompose(ids -> {
+            if (ids.isEmpty()) return CompletableFuture.completedFuture(MessageBatch.empty());
+            return async.takeAsync(registry.byList(key), ids).handle((data, e) ->
+                    consumed(new MessageBatch(key, decode(key, ids, null == e ? data : null))));
+        });
+    }
+
+    /**
+     * 阻塞式批量消费<br>
+     * 列表为空时阻塞等待至多timeout秒，被唤醒后顺带取出同时到达的其他消息
+     * @param key 待消费列表
+     * @param count 单批最大数量
+     * @param timeout 最长阻塞时间（秒）
+     * @return 消息批次，超时返回空批次
+     */
+    public MessageBatch consume(String key, int count, int timeout) {
+
+        MessageBatch batch = consume(key, count);
+        if (!batch.isEmpty() || 0 >= count) return batch;
+        String id = store().blockingPop(key, timeout);
+        if (null == id) return MessageBatch.empty();
+        List<String> ids = new ArrayList<>();
+        ids.add(id);
+        if (1 < count) ids.addAll(popIds(key, count - 1));
+        return fetch(key, ids);
+    }
+
+    /**
+     * 原子弹出一批消息id
+     * @param key
+     * @param count
+     * @return
+     */
+    private List<String> popIds(String key, int count) {
+
+        return store().pop(key, count);
+    }
+
+    /**
+     * 可靠消费<br>
+     * 原子地将至多count个消息id从待消费列表移入消费者的处理中集合并记录处理期限，消息体保留在消息池中。
+     * 列表为空时通过BRPOPLPUSH阻塞等待至多timeout秒，等待期间到达的消息先进入消费者的暂存列表，不会丢失。<br>
+     * 处理完成后需调用{@link #ack}或{@link #nack}，超过期限未确认的消息由{@link #reap}重新入队
+     * @param route 消息路由
+     * @param consumerId 消费者id
+     * @param count 单批最大数量
+     * @param timeout 最长阻塞时间（秒），0表示不阻塞
+     * @return 消息批次，没有消息时返回空批次
+     */
+    public MessageBatch receive(Route route, String consumerId, int count, int timeout) {
+
+        if (0 >= count) return MessageBatch.empty();
+        List<String> ids = claim(route, consumerId, count, "");
+        if (ids.isEmpty() && 0 < timeout) {
+            String staged = store().stage(route, consumerId, timeout);
+            if (null != staged) ids = claim(route, consumerId, count, staged);
+        }
+        if (ids.isEmpty()) return MessageBatch.empty();
+        List<byte[]> data = store().get(route, ids);
+        // 读取失败时消息仍在处理中集合，到期后重新投递
+        if (null == data) return MessageBatch.empty();
+        List<Message> messages = decode(route.getList(), ids, data);
+        if (messages.size() < ids.size()) {
+            // 消息体已过期的消息不再投递，直接确认，清除处理中记录
+            List<String> expired = new ArrayList<>(ids.size() - messages.size());
+            for (int i = 0; i < ids.size(); i++) {
+                if (null == data.get(i)) expired.add(ids.get(i));
+            }
+            store().ack(route, consumerId, expired);
+            ids = new ArrayList<>(messages.size());
+            for (Message message : messages) ids.add(message.getId());
+        }
+        if (messages.isEmpty()) return MessageBatch.empty();
+        if (0 < route.getMaxAttempts()) {
+            // 设置了最大投递次数时带上已失败的次数，处理器可据此判断是否为最后一次投递
+            List<Integer> attempts = store().attempts(route, ids);
+            if (null != attempts) {
+                for (int i = 0; i < messages.size(); i++) messages.get(i).setAttempts(attempts.get(i));
+            }
+        }
+        return consumed(new MessageBatch(route.getList(), messages));
+    }
+
+    private List<String> claim(Route route, String consumerId, int count, String staged) {
+
+        long now = System.currentTimeMillis();
+        return store().claim(route, consumerId, now, now + visibilityTimeout, count, staged);
+    }
+
+    /**
+     * 确认消息处理成功，删除处理中记录与消息体
+     * @param route 消息路由
+     * @param consumerId 消费者id
+     * @param ids 消息id
+     * @return 按期确认的消息数量
+     */
+    public int ack(Route route, String consumerId, List<String> ids) {
+
+        if (null == ids || ids.isEmpty()) return 0;
+        int acked = store().ack(route, consumerId, ids);
+        metrics.route(route).acked(acked);
+        return acked;
+    }
+
+    /**
+     * 异步确认消息
+     * @param route 消息路由
+     * @param consumerId 消费者id
+     * @param ids 消息id
+     * @return 按期确认的消息数量
+     */
+    public CompletableFuture<Integer> ackAsync(Route route, String consumerId, List<String> ids) {
+
+        AsyncMessageStore async = async();
+        if (null == async || null == ids || ids.isEmpty()) {
+            return CompletableFuture.completedFuture(ack(route, consumerId, ids));
+        }
+        return async.ackAsync(route, consumerId, ids).thenApply(acked -> {
+            metrics.route(route).acked(acked);
+            return acked;
+        });
+    }
+
+    /**
+     * 消息处理失败，将消息移回消息队列的重试通道，按重试次数指数退避后重新投递；
+     * 达到路由的最大投递次数时转入死信队列<br>
+     * 一批失败的消息在一次脚本调用中重新调度
+     * @param route 消息路由
+     * @param consumerId 消费者id
+     * @param ids 消息id
+     * @return 重新入队或转入死信队列的消息数量
+     */
+    public int nack(Route route, String consumerId, List<String> ids) {
+
+        if (null == ids || ids.isEmpty()) return 0;
+        long now = System.currentTimeMillis();
+        int requeued = store().nack(route, consumerId, ids, MessageScore.encode(now, route.retryLane()),
+                MessageScore.span(retryBackoff), MessageScore.span(maxRetryBackoff));
+        metrics.route(route).nacked(requeued);
+        wakeup(route, now + retryBackoff);
+        return requeued;
+    }
+
+    /**
+     * 异步将处理失败的消息移回重试通道
+     * @param route 消息路由
+     * @param consumerId 消费者id
+     * @param ids 消息id
+     * @return 重新入队的消息数量
+     */
+    public CompletableFuture<Integer> nackAsync(Route route, String consumerId, List<String> ids) {
+
+        AsyncMessageStore async = async();
+        if (null == async || null == ids || ids.isEmpty()) {
+            return CompletableFuture.completedFuture(nack(route, consumerId, ids));
+        }
+        long now = System.currentTimeMillis();
+        return async.nackAsync(route, consumerId, ids, MessageScore.encode(now, route.retryLane()),
+                MessageScore.span(retryBackoff), MessageScore.span(maxRetryBackoff)).thenApply(requeued -> {
+            metrics.route(route).nacked(requeued);
+            wakeup(route, now + retryBackoff);
+            return requeued;
+        });
+    }
+
+    /**
+     * 回收所有路由中超过处理期限未确认的消息，按重试次数指数退避重新放入消息队列的重试通道
+     * @return 回收的消息数量
+     */
+    public int reap() {
+
+        int total = 0;
+        ShardLeases leases = this.leases;
+        Set<String> consumers;
+        for (Route route : registry.getRoutes()) {
+            // 使用分片租约时由第一个分片的持有者回收
+            if (null != leases && !leases.owns(route, 0)) continue;
+            consumers = store().consumers(route);
+            if (null == consumers) continue;
+            for (String consumerId : consumers) {
+                total += reap(route, consumerId);
+            }
+        } /// for end~
+        return total;
+    }
+
+    private int reap(Route route, String consumerId) {
+
+        int total = 0;
+        int reaped;
+        long now;
+        do {
+            now = System.currentTimeMillis();
+            reaped = store().reap(route, consumerId, now, visibilityTimeout,
+                    MessageScore.encode(now, route.retryLane()),
+                    MessageScore.span(retryBackoff), MessageScore.span(maxRetryBackoff),
+                    monitorCount, 2 * Math.max(visibilityTimeout, monitorIdle));
+            total += reaped;
+        } while (0 < reaped && reaped >= monitorCount);
+        metrics.route(route).reaped(total);
+        return total;
+    }
+
+    /**
+     * 增量清理所有路由的消息队列与死信队列：每次对每个队列从上次的游标继续扫描一批消息id，
+     * 删除消息体已不存在（已过期或被删除）的id，扫描完一轮后从头开始<br>
+     * 到期的过期消息在搬运时丢弃，清理主要回收延迟超过存活时间、迟迟不会到期的消息，以及死信队列中的过期消息；
+     * 待消费列表与处理中集合中的过期消息在取出时丢弃。使用分片租约时只清理持有的分片，死信队列由第一个分片的持有者清理
+     * @return 删除的消息id数量
+     */
+    public int sweep() {
+
+        int total = 0;
+        ShardLeases leases = this.leases;
+        List<String> keys;
+        SweepPage page;
+        int purged;
+        for (Route route : registry.getRoutes()) {
+            keys = new ArrayList<>();
+            for (int i = 0, n = Math.max(1, route.getShards()); i < n; i++) {
+                if (null == leases || leases.owns(route, i)) keys.addAll(route.laneKeys(i));
+            }
+            if (null == leases || leases.owns(route, 0)) keys.add(route.deadKey());
+            purged = 0;
+            for (String key : keys) {
+                page = store().sweep(route, key, sweepCursors.getOrDefault(key, SweepPage.START), sweepCount);
+                if (null == page) continue;
+                if (page.isFinished()) {
+                    sweepCursors.remove(key);
+                } else {
+                    sweepCursors.put(key, page.getCursor());
+                }
+                purged += page.getPurged();
+            }
+            metrics.route(route).purged(purged);
+            total += purged;
+        } /// for end~
+        return total;
+    }
+
+    /**
+     * 死信队列中最早转入的消息id
+     * @param route
+     * @param count 最多数量
+     * @return 读取失败返回null
+     */
+    public List<String> deadLetters(Route route, int count) {
+
+        return store().deadLetters(route, count);
+    }
+
+    /**
+     * 死信队列中的消息数量
+     * @param route
+     * @return 读取失败返回null
+     */
+    public Long deadSize(Route route) {
+
+        return store().queueSize(Collections.singletonList(route.deadKey()));
+    }
+
+    /**
+     * 批量重放死信，按转入顺序将至多count个消息放回重试通道立即投递，重试次数清零<br>
+     * 消息体仍受原存活时间限制，已过期的消息搬运时丢弃
+     * @param route
+     * @param count 最多重放数量
+     * @return 重放的消息数量
+     */
+    public int replayDead(Route route, int count) {
+
+        if (0 >= count) return 0;
+        int total = 0;
+        int batch, replayed;
+        long now = System.currentTimeMillis();
+        long score = MessageScore.encode(now, route.retryLane());
+        do {
+            batch = Math.min(MqScripts.UNPACK_CHUNK, count - total);
+            replayed = store().replay(route, score, batch);
+            total += replayed;
+        } while (replayed >= batch && total < count);
+        if (0 < total) wakeup(route, now);
+        return total;
+    }
+
+    /**
+     * 一次取出并删除一批消息体
+     * @param key
+     * @param ids
+     * @return
+     */
+    private MessageBatch fetch(String key, List<String> ids) {
+
+        if (ids.isEmpty()) return MessageBatch.empty();
+        return consumed(new MessageBatch(key, decode(key, ids, store().take(registry.byList(key), ids))));
+    }
+
+    /**
+     * 记录消费指标
+     * @param batch
+     * @return
+     */
+    private MessageBatch consumed(MessageBatch batch) {
+
+        Route route = registry.byList(batch.getList());
+        if (null != route) metrics.route(route).consumed(batch.getMessages(), System.currentTimeMillis());
+        return batch;
+    }
+
+    /**
+     * 路由延迟队列中的消息数量
+     * @param route
+     * @return 读取失败返回null
+     */
+    public Long queueSize(Route route) {
+
+        return store().queueSize(route.allKeys());
+    }
+
+    /**
+     * 路由待消费列表长度
+     * @param route
+     * @return 读取失败返回null
+     */
+    public Long listSize(Route route) {
+
+        return store().listSize(route.getList());
+    }
+
+    /**
+     * 解码一批消息，消息体已过期的消息丢弃并计入过期数量，无法解码时消息体为空字符串
+     * @param list 待消费列表
+     * @param ids
+     * @param data 与ids一一对应；为null表示读取失败，id已出列，每条消息保留id、消息体为空字符串
+     * @return
+     */
+    private List<Message> decode(String list, List<String> ids, List<byte[]> data) {
+
+        int size = ids.size();
+        List<Message> messages = new ArrayList<>(size);
+        Message message;
+        for (int i = 0; i < size; i++) {
+            message = null;
+            if (null != data) {
+                if (null == data.get(i)) continue;
+                try {
+                    message = codec.decode(data.get(i));
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (null == message) {
+                message = new Message();
+                message.setBody("");
+            }
+            message.setId(ids.get(i));
+            message.setStatus(Message.STATUS_READY);
+            messages.add(message);
+        }
+        Route route = registry.byList(list);
+        if (null != route && null != data) metrics.route(route).expired(size - messages.size());
+        return messages;
+    }
+
+    /**
+     * 获取队列中最早到期消息的score
+     * @param queue
+     * @return 队列为空返回null
+     */
+    public Double peekScore(String queue) {
+
+        List<Double> scores = store().firstScores(Collections.singletonList(queue));
+        return null == scores ? null : scores.get(0);
+    }
+
+    /**
+     * 获取路由所有分片、所有优先级通道中最早到期消息的到期时间，使用分片租约时只读取本实例持有的分片
+     * @param route
+     * @return 队列为空返回null
+     */
+    public Long peekDueTime(Route route) {
+
+        ScanWindow window = window(route);
+        long version = window.version();
+        List<String> keys = monitoredKeys(route);
+        List<Double> scores = keys.isEmpty() ? Collections.<Double>emptyList() : store().firstScores(keys);
+        if (null == scores) return null;
+        Double first = null;
+        for (Double score : scores) {
+            if (null != score && (null == first || score < first)) first = score;
+        }
+        Long due = null == first ? null : MessageScore.dueTime(first);
+        window.observe(version, null == due ? Long.MAX_VALUE : due);
+        return due;
+    }
+
+    /**
+     * 本实例负责搬运的消息队列key
+     * @param route
+     * @return
+     */
+    private List<String> monitoredKeys(Route route) {
+
+        ShardLeases current = leases;
+        if (null == current) return route.allKeys();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0, n = Math.max(1, route.getShards()); i < n; i++) {
+            if (current.owns(route, i)) keys.addAll(route.laneKeys(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 将队列中已到期的消息原子地搬运到待消费列表
+     * @param queue 消息队列
+     * @param list 待消费列表
+     * @param now 当前时间
+     * @param count 单次最多搬运数量
+     * @return 实际搬运的数量，失败返回0
+     */
+    public int promote(String queue, String list, long now, int count) {
+
+        return store().promote(list, Collections.singletonList(queue), null, MessageScore.due(now), count, false)[0];
+    }
+
+    /**
+     * 将路由所有分片中已到期的消息搬运到待消费列表<br>
+     * 每个分片内按优先级通道从高到低搬运；各分片的搬运脚本在同一个pipeline中并行执行，
+     * 每个分片每轮至多搬运count/分片数个，按轮次交替搬运使各分片的消息大致保持全局到期顺序；
+     * 仍有积压的分片继续下一轮
+     * @param route 消息路由
+     * @param now 当前时间
+     * @param count 每轮最多搬运数量
+     * @return 实际搬运的数量
+     */
+    public int promote(Route route, long now, int count) {
+
+        return promote(route, now, count, Long.MAX_VALUE, null, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 搬运路由中已到期的消息，至少搬运一轮，超过deadline后不再继续
+     * @param route
+     * @param now
+     * @param count 首轮最多搬运数量
+     * @param deadline 截止时间（{@link System#nanoTime()}），Long.MAX_VALUE表示不限
+     * @param window 路由的搬运窗口，不为null时每搬满一轮窗口翻倍，之后的轮次按新窗口搬运
+     * @param leases 分片租约，不为null时只搬运持有的分片
+     * @param limit 最多搬运的数量，即取得的令牌数，达到后视为本轮已搬完
+     * @return 实际搬运的数量
+     */
+    int promote(Route route, long now, int count, long deadline, ScanWindow window, ShardLeases leases, int limit) {
+
+        int shards = Math.max(1, route.getShards());
+        int perShard = Math.max(1, (count + shards - 1) / shards);
+        long maxScore = MessageScore.due(now);
+        boolean express = 1 < route.getLanes();
+        String pool = pool(route);
+        int total = 0, dropped = 0, batch;
+        boolean full;
+        if (1 == shards && (null == leases || leases.owns(route, 0))) {
+            List<String> lanes = route.laneKeys(0);
+            int[] moved;
+            do {
+                batch = Math.min(perShard, limit - total);
+                moved = store().promote(route.getList(), lanes, pool, maxScore, batch, express);
+                total += moved[0];
+                dropped += moved[1];
+                // 丢弃的过期消息同样占用本批数量
+                full = 0 < moved[0] + moved[1] && moved[0] + moved[1] >= batch;
+                if (full && null != window) perShard = window.grow();
+            } while (full && total < limit && !expired(deadline));
+            metrics.route(route).promoted(total);
+            metrics.route(route).expired(dropped);
+            if (null != window) window.settle(total, !full || total >= limit);
+            return total;
+        }
+        List<List<String>> backlog = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            if (null == leases || leases.owns(route, i)) backlog.add(route.laneKeys(i));
+        }
+        while (!backlog.isEmpty() && total < limit) {
+            List<List<String>> round = backlog;
+            batch = perShard;
+            if ((long) batch * round.size() > limit - total) {
+                batch = Math.max(1, (limit - total) / round.size());
+                // 剩余额度不足每个分片一条时从随机位置起取部分分片，各分片轮流获得额度
+                if (batch * round.size() > limit - total) round = pick(round, limit - total);
+            }
+            List<int[]> results = store().promoteAll(route.getList(), round, pool, maxScore, batch, express);
+            if (null == results) break;
+            List<List<String>> next = new ArrayList<>();
+            int[] moved;
+            for (int i = 0; i < results.size(); i++) {
+                if (null == (moved = results.get(i))) continue;
+                total += moved[0];
+                dropped += moved[1];
+                if (moved[0] + moved[1] >= batch) next.add(round.get(i));
+            }
+            if (round != backlog) {
+                for (List<String> lanes : backlog) {
+                    if (!round.contains(lanes)) next.add(lanes);
+                }
+            }
+            backlog = next;
+            if (!backlog.isEmpty() && null != window) perShard = Math.max(1, (window.grow() + shards - 1) / shards);
+            if (expired(deadline)) break;
+        } /// while end~
+        metrics.route(route).promoted(total);
+        metrics.route(route).expired(dropped);
+        if (null != window) window.settle(total, backlog.isEmpty() || total >= limit);
+        return total;
+    }
+
+    /**
+     * 从随机位置起依次取count个分片
+     * @param backlog
+     * @param count
+     * @return
+     */
+    private static List<List<String>> pick(List<List<String>> backlog, int count) {
+        int size = backlog.size();
+        int from = ThreadLocalRandom.current().nextInt(size);
+        List<List<String>> picked = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            picked.add(backlog.get((from + i) % size));
+        }
+        return picked;
+    }
+
+    static boolean expired(long deadline) {
+        return Long.MAX_VALUE != deadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * 搬运时检查消息体使用的消息池key前缀
+     * @param route
+     * @return 不丢弃过期消息时为null
+     */
+    private String pool(Route route) {
+        return dropExpired ? route.poolPrefix() : null;
+    }
+
+    /**
+     * 启动监听线程
+     */
+    public synchronized void start() {
+        if (null != delayMonitor) return;
+        if (0 < wheelHorizon) {
+            timingWheel = new TimingWheel<>(wheelTick, WHEEL_SIZE, wheelCapacity, this::fire);
+            timingWheel.start();
+        }
+        if (0 < leaseTtl) leases = new ShardLeases(instanceId, leaseTtl);
+        delayMonitor = new DelayMonitor(this);
+        // 休眠时间不超过续约间隔
+        delayMonitor.setMaxIdle(0 < leaseTtl ? Math.min(monitorIdle, Math.max(1, leaseTtl / 3)) : monitorIdle);
+        delayMonitor.setSweepInterval(sweepInterval);
+        if (null != routeCatalog) {
+            // 先同步一次路由目录，消费容器启动时即可看到目录中的路由
+            refreshRoutes();
+            delayMonitor.setRouteRefresh(routeRefresh);
+        }
+        delayMonitor.start();
+        fallback.start(this);
+    }
+
+    /**
+     * 停止监听线程
+     */
+    public synchronized void stop() {
+        if (null == delayMonitor) return;
+        // 先停止重放，未重放的消息留在磁盘上
+        fallback.stop();
+        if (null != timingWheel) {
+            // 时间轮中的消息仍在消息队列中，重启后由监听线程搬运
+            timingWheel.stop();
+            timingWheel = null;
+        }
+        delayMonitor.stop();
+        delayMonitor = null;
+        if (null != leases) {
+            // 主动释放租约，其他实例在下次续约时接管
+            ShardLeases current = leases;
+            leases = null;
+            try {
+                current.release(store(), registry.getRoutes());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 续约分片租约，由{@link DelayMonitor}线程每轮调用，未到续约时间时不访问存储
+     */
+    void renewLeases() {
+        ShardLeases current = leases;
+        if (null != current) current.renew(store(), registry.getRoutes(), System.currentTimeMillis());
+    }
+
+    /**
+     * 本实例持有的分片数量，不使用租约时为所有路由的分片总数
+     * @return
+     */
+    public int ownedShards() {
+        ShardLeases current = leases;
+        if (null != current) return current.count();
+        int total = 0;
+        for (Route route : registry.getRoutes()) total += Math.max(1, route.getShards());
+        return total;
+    }
+
+    /**
+     * 消息队列监听器<br>
+     * 监听所有路由器，将消息队列中的消息路由到待消费列表<br>
+     * 每个路由按自适应窗口{@link ScanWindow}批量搬运，搬满一批说明仍有积压，立即继续搬运，直到没有到期消息；
+     * 积压时窗口逐轮翻倍至monitorMaxCount，空闲时回落到monitorCount<br>
+     * 已知最早到期时间晚于当前的路由跳过，使用分片租约时只搬运本实例持有的分片{@link ShardLeases}；每个路由至少搬运一轮，超出monitorBudget后不再继续，
+     * 避免一个路由的积压拖延其他路由<br>
+     * 限流与全局投递额度的分配由{@link DeliveryBudget}完成，一个租户的突发只能用完自己的额度，不会挤占其他路由<br>
+     * 由{@link DelayMonitor}线程在最早的消息到期时调用
+     * @return 是否因超出时间预算仍有积压
+     */
+    public boolean monitor() {
+        // 获取消息路由，暂停的路由不搬运
+        List<Route> routes = registry.active();
+        int route_size;
+        if (1 > (route_size = routes.size())) return false;
+        long start = System.nanoTime();
+        long deadline = start + monitorBudget * 1000000L;
+        boolean backlog = false;
+        ShardLeases leases = this.leases;
+        List<Route> due = new ArrayList<>(route_size);
+        Route route;
+        ScanWindow window;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < route_size; i++) {
+            route = routes.get(i);
+            window = window(route);
+            if (window.idle(now) || (null != leases && !leases.ownsAny(route))) {
+                window.settle(0, true);
+                window.resetCredit();
+                continue;
+            }
+            due.add(route);
+        } /// for end~
+        if (budget.global()) {
+            backlog = budget.share(due, deadline, leases);
+        } else {
+            for (int i = 0; i < due.size(); i++) {
+                route = due.get(i);
+                window = window(route);
+                budget.deliver(route, window, System.currentTimeMillis(), Integer.MAX_VALUE, deadline, leases);
+                backlog |= !window.drained();
+            } /// for end~
+        }
+        metrics.monitor(start);
+        return backlog;
+    }
+
+    /**
+     * 路由限流恢复的时间，由{@link DelayMonitor}计算休眠时间时使用
+     * @param route
+     * @return 未限流时为Long.MIN_VALUE
+     */
+    long throttledUntil(Route route) {
+        return window(route).throttled();
+    }
+
+    /**
+     * 路由的监听状态
+     * @param route
+     * @return
+     */
+    ScanWindow window(Route route) {
+        ScanWindow window = windows.get(route);
+        return null != window ? window
+                : windows.computeIfAbsent(route, r -> new ScanWindow(monitorCount, monitorMaxCount));
+    }
+
+    /**
+     * 路由当前的搬运窗口
+     * @param route
+     * @return
+     */
+    public int scanWindow(Route route) {
+        return window(route).size();
+    }
+
+    public int getMonitorCount() {
+        return monitorCount;
+    }
+
+    public void setMonitorCount(int monitorCount) {
+        this.monitorCount = monitorCount;
+    }
+
+    public long getLeaseTtl() {
+        return leaseTtl;
+    }
+
+    public void setLeaseTtl(long leaseTtl) {
+        this.leaseTtl = leaseTtl;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public int getMonitorMaxCount() {
+        return monitorMaxCount;
+    }
+
+    public void setMonitorMaxCount(int monitorMaxCount) {
+        this.monitorMaxCount = monitorMaxCount;
+    }
+
+    public long getMonitorBudget() {
+        return monitorBudget;
+    }
+
+    public void setMonitorBudget(long monitorBudget) {
+        this.monitorBudget = monitorBudget;
+    }
+
+    public boolean isDropExpired() {
+        return dropExpired;
+    }
+
+    public void setDropExpired(boolean dropExpired) {
+        this.dropExpired = dropExpired;
+    }
+
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    public int getSweepCount() {
+        return sweepCount;
+    }
+
+    public void setSweepCount(int sweepCount) {
+        this.sweepCount = sweepCount;
+    }
+
+    public String getDedupMode() {
+        return dedupMode;
+    }
+
+    public void setDedupMode(String dedupMode) {
+        this.dedupMode = dedupMode;
+    }
+
+    public int getDedupCapacity() {
+        return dedupCapacity;
+    }
+
+    public void setDedupCapacity(int dedupCapacity) {
+        this.dedupCapacity = dedupCapacity;
+    }
+
+    public int getConsumeCount() {
+        return consumeCount;
+    }
+
+    public void setConsumeCount(int consumeCount) {
+        this.consumeCount = consumeCount;
+    }
+
+    public long getMonitorIdle() {
+        return monitorIdle;
+    }
+
+    public void setMonitorIdle(long monitorIdle) {
+        this.monitorIdle = monitorIdle;
+    }
+
+    public long getVisibilityTimeout() {
+        return visibilityTimeout;
+    }
+
+    public void setVisibilityTimeout(long visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    public long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public void setRetryBackoff(long retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    public long getMaxRetryBackoff() {
+        return maxRetryBackoff;
+    }
+
+    public void setMaxRetryBackoff(long maxRetryBackoff) {
+        this.maxRetryBackoff = maxRetryBackoff;
+    }
+
+    public long getWheelHorizon() {
+        return wheelHorizon;
+    }
+
+    public void setWheelHorizon(long wheelHorizon) {
+        this.wheelHorizon = wheelHorizon;
+    }
+
+    /**
+     * 监听线程到期后延后搬运的时间，时间轮中有消息时为wheelLag，否则为0
+     * @return
+     */
+    long monitorLag() {
+        TimingWheel<Held> wheel = timingWheel;
+        return null != wheel && 0 < wheel.size() ? wheelLag : 0;
+    }
+
+    public long getWheelLag() {
+        return wheelLag;
+    }
+
+    public void setWheelLag(long wheelLag) {
+        this.wheelLag = wheelLag;
+    }
+
+    public long getWheelTick() {
+        return wheelTick;
+    }
+
+    public void setWheelTick(long wheelTick) {
+        this.wheelTick = wheelTick;
+    }
+
+    public int getWheelCapacity() {
+        return wheelCapacity;
+    }
+
+    public void setWheelCapacity(int wheelCapacity) {
+        this.wheelCapacity = wheelCapacity;
+    }
+
+    /**
+     * 当前使用的存储
+     * @return
+     */
+    public MessageStore store() {
+        MessageStore current = store;
+        if (null == current) {
+            synchronized (this) {
+                if (null == (current = store)) {
+                    store = current = new JedisMessageStore(jedisUtils);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 存储的异步接口
+     * @return 存储不支持异步时返回null，异步方法退化为同步执行后返回已完成的future
+     */
+    private AsyncMessageStore async() {
+        MessageStore current = store();
+        return current instanceof AsyncMessageStore ? (AsyncMessageStore) current : null;
+    }
+
+    public MqMetrics getMetrics() {
+        return metrics;
+    }
+
+    public TopicRouter getTopicRouter() {
+        return topicRouter;
+    }
+
+    public void setTopicRouter(TopicRouter topicRouter) {
+        this.topicRouter = topicRouter;
+    }
+
+    public MessageSpool getSpool() {
+        return fallback.getSpool();
+    }
+
+    /**
+     * 设置本地暂存，已启动时立即启动其重放线程
+     * @param spool
+     */
+    public synchronized void setSpool(MessageSpool spool) {
+        fallback.setSpool(spool);
+        if (null != delayMonitor) fallback.start(this);
+    }
+
+    /**
+     * 本地暂存中待重放的消息数量，未配置暂存时为0
+     * @return
+     */
+    public long spooled() {
+        return fallback.pending();
+    }
+
+    /**
+     * 暂存一条消息，生产者缓冲区已满时使用
+     * @param route
+     * @param message
+     * @return 是否已暂存，未配置暂存时为false
+     */
+    boolean spool(Route route, Message message) {
+        return fallback.append(Collections.singletonList(route), message);
+    }
+
+    /**
+     * 设置指标注册表，立即注册所有路由的指标
+     * @param meterRegistry
+     */
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        MqMetrics metrics = new MqMetrics(meterRegistry, this);
+        registry.getRoutes().forEach(metrics::route);
+        this.metrics = metrics;
+    }
+
+    public void setStore(MessageStore store) {
+        this.store = store;
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 所有路由，包括暂停的路由
+     * @return 不可修改的快照
+     */
+    public List<Route> getRoutes() {
+        return registry.getRoutes();
+    }
+
+    /**
+     * 替换路由表，同一实例的路由保持不变
+     * @param routes
+     */
+    public void setRoutes(List<Route> routes) {
+        registry.setRoutes(routes);
+    }
+
+    /**
+     * 运行时的路由表，可添加、暂停与移除路由
+     * @return
+     */
+    public RouteRegistry getRegistry() {
+        return registry;
+    }
+
+    public RouteCatalog getRouteCatalog() {
+        return routeCatalog;
+    }
+
+    public void setRouteCatalog(RouteCatalog routeCatalog) {
+        this.routeCatalog = routeCatalog;
+    }
+
+    /**
+     * 全局投递速率，所有路由每秒最多搬运的消息数量之和，按路由权重分配，0表示不限
+     * @return
+     */
+    public int getDeliveryRate() {
+        return budget.getRate();
+    }
+
+    public void setDeliveryRate(int deliveryRate) {
+        budget.setRate(deliveryRate);
+    }
+
+    /**
+     * 全局投递允许的突发数量，0表示与deliveryRate相同
+     * @return
+     */
+    public int getDeliveryBurst() {
+        return budget.getBurst();
+    }
+
+    public void setDeliveryBurst(int deliveryBurst) {
+        budget.setBurst(deliveryBurst);
+    }
+
+    /**
+     * 令牌桶是否存放在redis中由所有实例共用，否则每个实例各自限流
+     * @return
+     */
+    public boolean isRateShared() {
+        return budget.isShared();
+    }
+
+    public void setRateShared(boolean rateShared) {
+        budget.setShared(rateShared);
+    }
+
+    public long getRouteRefresh() {
+        return routeRefresh;
+    }
+
+    public void setRouteRefresh(long routeRefresh) {
+        this.routeRefresh = routeRefresh;
+    }
+
+    /**
+     * 同步路由目录，由{@link DelayMonitor}线程每隔routeRefresh调用，启动时先同步一次
+     * @return 发生变化的路由数量，未配置目录或读取失败时返回-1
+     */
+    public int refreshRoutes() {
+        RouteCatalog catalog = routeCatalog;
+        return null == catalog ? -1 : catalog.sync(store(), registry);
+    }
+
+    /**
+     * 路由变化时清理本地状态，重新平衡分片租约
+     */
+    private final class RouteChanges implements RouteRegistry.Listener {
+
+        @Override
+        public void added(Route route) {
+            metrics.route(route);
+            ShardLeases current = leases;
+            if (null != current) current.reset();
+        }
+
+        @Override
+        public void removed(Route route) {
+            clear(route);
+            // 移除的路由不再接收按主题投递的消息
+            TopicRouter router = topicRouter;
+            if (null != router) router.replace(route, null);
+        }
+
+        @Override
+        public void replaced(Route previous, Route route) {
+            clear(previous);
+            added(route);
+            TopicRouter router = topicRouter;
+            if (null != router) router.replace(previous, route);
+        }
+
+        private void clear(Route route) {
+            windows.remove(route);
+            filters.remove(route);
+            budget.forget(route);
+            metrics.remove(route);
+            sweepCursors.keySet().removeAll(route.allKeys());
+            sweepCursors.remove(route.deadKey());
+            ShardLeases current = leases;
+            if (null != current) current.reset();
+        }
+    }
+
+    /**
+     * 时间轮中等待到期的消息
+     */
+    private static final class Held {
+
+        final Route route;
+        final String queue;
+        final String id;
+        final long score;
+        final boolean express;
+
+        Held(Route route, String queue, String id, long score, boolean express) {
+            this.route = route;
+            this.queue = queue;
+            this.id = id;
+            this.score = score;
+            this.express = express;
+        }
     }
 }
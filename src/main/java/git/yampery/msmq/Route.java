@@ -1,14 +1,30 @@
 package git.yampery.msmq;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @decription Route
  * <p>消息路由器，主要控制将消息从指定的队列路由到待消费的list<br>
- * 通过这种方式实现自定义延迟以及优先级发送</p>
+ * 通过这种方式实现自定义延迟以及优先级发送<br>
+ * 写入压力大时可将消息队列拆分为多个分片，分散到不同的key以及集群节点<br>
+ * redis集群中开启hash tag后路由的所有key（包括消息体）都以待消费列表为tag落在同一slot，
+ * 投递、搬运、消费与确认的脚本都只访问一个slot，不同路由分布到不同节点<br>
+ * 处理失败的消息按指数退避重试，达到最大投递次数后转入死信队列<br>
+ * 设置去重窗口后按消息id幂等投递，生产者超时重试不会重复写入或改变已投递消息的到期时间<br>
+ * 可通过{@link TopicRouter}按消息主题投递到一个或多个路由<br>
+ * 设置速率后搬运按令牌桶限流，保护下游；配置了全局投递速率时各路由按权重分配全局额度</p>
  * @author Yampery
  * @date 2017/11/3 14:33
  */
 public class Route {
 
+    /**
+     * 消息池前缀，以此前缀加上消息id作为消息体的key，未开启hash tag的路由与未路由的消息共用
+     */
+    public static final String POOL_PREFIX = "Message:Pool:";
+
     /**
      * 存放消息的队列
      */
@@ -19,6 +35,47 @@ public class Route {
      */
     private String list;
 
+    /**
+     * 该路由同时处理消息的最大数量，0表示使用消费容器的默认值
+     */
+    private int concurrency;
+
+    /**
+     * 消息队列的分片数量，大于1时消息按id分散到多个带hash tag的zset中
+     */
+    private int shards = 1;
+
+    /**
+     * 优先级通道数量，大于1时每个分片按优先级拆分为多个zset，
+     * 搬运时总是先搬完高优先级通道中的到期消息，积压时高优先级消息优先发送
+     */
+    private int lanes = 1;
+
+    /**
+     * 最大投递次数，处理失败或超时达到该次数的消息转入死信队列，0表示不限
+     */
+    private int maxAttempts;
+    /**
+     * 是否以待消费列表为hash tag，使路由的所有key落在同一slot，redis集群时开启
+     */
+    private boolean hashTag;
+    /**
+     * 去重窗口（毫秒），窗口内重复投递的同一消息id只写入一次，0表示不去重
+     */
+    private long dedupWindow;
+    /**
+     * 每秒最多搬运到待消费列表的消息数量，0表示不限
+     */
+    private int rate;
+    /**
+     * 限流允许的突发数量，即令牌桶容量，0表示与rate相同
+     */
+    private int burst;
+    /**
+     * 分配全局投递额度时的权重
+     */
+    private int weight = 1;
+
     public Route(String queue, String list) {
         this.queue = queue;
         this.list = list;
@@ -39,4 +96,334 @@ public class Route {
     public void setList(String list) {
         this.list = list;
     }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public boolean isHashTag() {
+        return hashTag;
+    }
+
+    public void setHashTag(boolean hashTag) {
+        this.hashTag = hashTag;
+    }
+
+    public long getDedupWindow() {
+        return dedupWindow;
+    }
+
+    public void setDedupWindow(long dedupWindow) {
+        this.dedupWindow = dedupWindow;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * 令牌桶容量，未设置burst时为一秒的速率
+     * @return
+     */
+    public int bucketSize() {
+        return 0 < burst ? burst : Math.max(1, rate);
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public void setLanes(int lanes) {
+        this.lanes = lanes;
+    }
+
+    /**
+     * 分片对应的消息队列key，只有一个分片时即为queue本身<br>
+     * 开启hash tag时各分片都在路由的slot中，分片只用于缩小单个zset，不再分散到不同节点
+     * @param shard
+     * @return
+     */
+    public String shardKey(int shard) {
+        if (hashTag) return prefix() + ":" + (1 >= shards ? queue : queue + ":" + shard);
+        return 1 >= shards ? queue : "{" + queue + ":" + shard + "}";
+    }
+
+    /**
+     * 所有分片的消息队列key
+     * @return
+     */
+    public List<String> shardKeys() {
+        int n = Math.max(1, shards);
+        List<String> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(shardKey(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 分片中优先级通道对应的key，通道0即为分片本身，其余通道与分片使用相同的hash tag
+     * @param shard
+     * @param lane
+     * @return
+     */
+    public String laneKey(int shard, int lane) {
+        return 0 >= lane ? shardKey(shard) : shardKey(shard) + ":lane:" + lane;
+    }
+
+    /**
+     * 分片的所有优先级通道key，按优先级从高到低排列
+     * @param shard
+     * @return
+     */
+    public List<String> laneKeys(int shard) {
+        int n = Math.max(1, lanes);
+        List<String> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(laneKey(shard, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 所有分片的所有优先级通道key
+     * @return
+     */
+    public List<String> allKeys() {
+        int n = Math.max(1, shards);
+        List<String> keys = new ArrayList<>(n * Math.max(1, lanes));
+        for (int i = 0; i < n; i++) {
+            keys.addAll(laneKeys(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 所有分片中重试通道的key，失败与超时的消息重新放入最低优先级通道，避免挤占正常消息
+     * @return
+     */
+    public List<String> retryKeys() {
+        int n = Math.max(1, shards);
+        List<String> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(laneKey(i, retryLane()));
+        }
+        return keys;
+    }
+
+    /**
+     * 重试通道，即最低优先级通道
+     * @return
+     */
+    public int retryLane() {
+        return Math.max(1, lanes) - 1;
+    }
+
+    /**
+     * 优先级对应的通道，优先级数值越小越优先，超出通道数量的优先级都落在最低优先级通道
+     * @param priority
+     * @return
+     */
+    public int laneOf(int priority) {
+        return Math.max(0, Math.min(priority, retryLane()));
+    }
+
+    /**
+     * 消息所在分片的消息队列key（最高优先级通道），开启hash tag时单个分片也带路由的tag
+     * @param id 消息id，同一id总是落在同一分片
+     * @return
+     */
+    public String queueOf(String id) {
+        return shardKey(shardOf(id, shards));
+    }
+
+    /**
+     * 消息所在分片中对应优先级通道的key
+     * @param id 消息id
+     * @param priority 消息优先级
+     * @return
+     */
+    public String queueOf(String id, int priority) {
+        return laneKey(shardOf(id, shards), laneOf(priority));
+    }
+
+    /**
+     * 计算消息所在分片，对id的UTF-8字节做31进制哈希，与lua脚本中的算法一致
+     * @param id
+     * @param shards
+     * @return
+     */
+    public static int shardOf(String id, int shards) {
+        if (1 >= shards) return 0;
+        int h = 0;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            h = 31 * h + (b & 0xFF);
+        }
+        return (int) ((h & 0xFFFFFFFFL) % shards);
+    }
+
+    /**
+     * 消费者的处理中集合（zset，score为处理期限）
+     * @param consumerId
+     * @return
+     */
+    public String inflightKey(String consumerId) {
+        return prefix() + ":inflight:" + consumerId;
+    }
+
+    /**
+     * 消费者阻塞等待时的暂存列表
+     * @param consumerId
+     * @return
+     */
+    public String stagingKey(String consumerId) {
+        return prefix() + ":staging:" + consumerId;
+    }
+
+    /**
+     * 消费者登记表（zset，score为最近活跃时间）
+     * @return
+     */
+    public String consumersKey() {
+        return prefix() + ":consumers";
+    }
+
+    /**
+     * 消息重试次数（hash）
+     * @return
+     */
+    public String attemptsKey() {
+        return prefix() + ":attempts";
+    }
+
+    /**
+     * 死信队列（zset，score为转入时间），达到最大投递次数的消息转入此处，可批量重放
+     * @return
+     */
+    public String deadKey() {
+        return prefix() + ":dead";
+    }
+
+    /**
+     * 分片的监听租约，持有者负责搬运该分片
+     * @param shard
+     * @return
+     */
+    public String leaseKey(int shard) {
+        return (hashTag ? prefix() + ":" + queue : queue) + ":lease:" + shard;
+    }
+
+    /**
+     * 消息的去重标记，存在期间同一id的投递视为重复
+     * @param id
+     * @return
+     */
+    public String dedupKey(String id) {
+        return prefix() + ":dedup:" + id;
+    }
+
+    /**
+     * 多个实例共用的限流令牌桶（hash）
+     * @return
+     */
+    public String rateKey() {
+        return (hashTag ? prefix() + ":" + queue : queue) + ":rate";
+    }
+
+    /**
+     * 监听实例登记表，开启hash tag时每个路由一个，否则所有路由共用{@link ShardLeases#MEMBERS}
+     * @return
+     */
+    public String membersKey() {
+        return hashTag ? prefix() + ":monitors" : ShardLeases.MEMBERS;
+    }
+
+    /**
+     * 消息在消息池中的key，开启hash tag时以tag为前缀，与路由的其他key在同一slot；
+     * tag相同的路由共用消息池，主题扇出时消息体只写一次
+     * @param id
+     * @return
+     */
+    public String poolKey(String id) {
+        return hashTag ? tag() + ":" + POOL_PREFIX + id : POOL_PREFIX + id;
+    }
+
+    /**
+     * 消息池key前缀，加上消息id即为{@link #poolKey}
+     * @return
+     */
+    public String poolPrefix() {
+        return poolKey("");
+    }
+
+    /**
+     * 派生key的前缀，开启hash tag时为带tag的待消费列表，与待消费列表本身在同一slot：
+     * 列表不含tag时整个列表名即为tag，含tag时直接沿用
+     * @return
+     */
+    private String prefix() {
+        return hashTag && !hasTag(list) ? "{" + list + "}" : list;
+    }
+
+    /**
+     * 开启hash tag时待消费列表的tag（含括号），列表不含tag时为整个列表名
+     * @return
+     */
+    private String tag() {
+        if (!hasTag(list)) return "{" + list + "}";
+        int start = list.indexOf('{');
+        return list.substring(start, list.indexOf('}', start + 1) + 1);
+    }
+
+    /**
+     * key是否含有redis集群的hash tag，即第一个'{'之后有非空内容并以'}'结束
+     * @param key
+     * @return
+     */
+    public static boolean hasTag(String key) {
+        int start = key.indexOf('{');
+        if (0 > start) return false;
+        int end = key.indexOf('}', start + 1);
+        return end > start + 1;
+    }
 }
@@ -0,0 +1,191 @@
+package git.yampery.msmq;
+
+import git.yampery.msmq.store.MessageStore;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @decription RouteCatalog
+ * <p>存放在redis中的路由目录，新租户的队列写入目录后各实例定期同步到自己的路由表{@link RouteRegistry}，不需要重新部署<br>
+ * 目录为一个hash，字段为消息队列，值为路由配置，如list=list:3,shards=2,lanes=1,rate=100,weight=2,paused=false，
+ * 未写出的配置项取默认值；目录中的路由覆盖本地同一消息队列的路由<br>
+ * 同步时配置没有变化的路由保持原实例，搬运窗口、指标与主题绑定不受影响；配置变化的路由被替换；
+ * 从目录中删除的路由只在曾由目录添加时移除，本地配置的路由不受影响<br>
+ * 读取目录失败时保持当前路由表</p>
+ * @author Yampery
+ * @date 2026/10/19 03:20
+ */
+public class RouteCatalog {
+
+    /**
+     * 默认目录key
+     */
+    public static final String DEFAULT_KEY = "rdsmq:routes";
+
+    private final String key;
+    /**
+     * 由目录添加的消息队列
+     */
+    private final Set<String> managed = new HashSet<>();
+
+    public RouteCatalog() {
+        this(DEFAULT_KEY);
+    }
+
+    public RouteCatalog(String key) {
+        this.key = key;
+    }
+
+    /**
+     * 将目录同步到路由表
+     * @param store
+     * @param registry
+     * @return 发生变化的路由数量，读取失败返回-1
+     */
+    public synchronized int sync(MessageStore store, RouteRegistry registry) {
+        Map<String, String> entries = store.catalog(key);
+        if (null == entries) return -1;
+        int changed = 0;
+        Route route, current;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            try {
+                route = parse(entry.getKey(), entry.getValue());
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                continue;
+            }
+            current = registry.byQueue(route.getQueue());
+            if (null == current || !sameLayout(current, route)) {
+                try {
+                    registry.add(route);
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                current = route;
+                changed++;
+            }
+            managed.add(route.getQueue());
+            if (paused(entry.getValue()) != registry.isPaused(current)) {
+                if (paused(entry.getValue())) registry.pause(current.getQueue());
+                else registry.resume(current.getQueue());
+                changed++;
+            }
+        }
+        for (String queue : new HashSet<>(managed)) {
+            if (entries.containsKey(queue)) continue;
+            managed.remove(queue);
+            if (null != registry.remove(queue)) changed++;
+        }
+        return changed;
+    }
+
+    /**
+     * 写入目录，各实例下次同步时生效
+     * @param store
+     * @param route
+     * @param paused 是否暂停搬运
+     * @return 是否成功
+     */
+    public boolean save(MessageStore store, Route route, boolean paused) {
+        return store.catalog(key, route.getQueue(), format(route, paused));
+    }
+
+    /**
+     * 从目录删除，各实例下次同步时移除
+     * @param store
+     * @param queue
+     * @return 是否成功
+     */
+    public boolean delete(MessageStore store, String queue) {
+        return store.catalog(key, queue, null);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 路由配置的文本形式
+     * @param route
+     * @param paused
+     * @return
+     */
+    public static String format(Route route, boolean paused) {
+        return "list=" + route.getList()
+                + ",shards=" + route.getShards()
+                + ",lanes=" + route.getLanes()
+                + ",maxAttempts=" + route.getMaxAttempts()
+                + ",concurrency=" + route.getConcurrency()
+                + ",hashTag=" + route.isHashTag()
+                + ",dedupWindow=" + route.getDedupWindow()
+                + ",rate=" + route.getRate()
+                + ",burst=" + route.getBurst()
+                + ",weight=" + route.getWeight()
+                + ",paused=" + paused;
+    }
+
+    /**
+     * 解析路由配置
+     * @param queue 消息队列
+     * @param spec 路由配置
+     * @return
+     * @throws IllegalArgumentException 配置格式错误或缺少list
+     */
+    public static Route parse(String queue, String spec) {
+        Map<String, String> values = values(spec);
+        String list = values.get("list");
+        if (null == list || list.isEmpty()) throw new IllegalArgumentException("route " + queue + " has no list: " + spec);
+        Route route = new Route(queue, list);
+        try {
+            if (values.containsKey("shards")) route.setShards(Integer.parseInt(values.get("shards")));
+            if (values.containsKey("lanes")) route.setLanes(Integer.parseInt(values.get("lanes")));
+            if (values.containsKey("maxAttempts")) route.setMaxAttempts(Integer.parseInt(values.get("maxAttempts")));
+            if (values.containsKey("concurrency")) route.setConcurrency(Integer.parseInt(values.get("concurrency")));
+            if (values.containsKey("dedupWindow")) route.setDedupWindow(Long.parseLong(values.get("dedupWindow")));
+            if (values.containsKey("rate")) route.setRate(Integer.parseInt(values.get("rate")));
+            if (values.containsKey("burst")) route.setBurst(Integer.parseInt(values.get("burst")));
+            if (values.containsKey("weight")) route.setWeight(Integer.parseInt(values.get("weight")));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid route " + queue + ": " + spec, e);
+        }
+        route.setHashTag(Boolean.parseBoolean(values.get("hashTag")));
+        return route;
+    }
+
+    private static boolean paused(String spec) {
+        return Boolean.parseBoolean(values(spec).get("paused"));
+    }
+
+    private static Map<String, String> values(String spec) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String item : spec.split(",")) {
+            int eq = item.indexOf('=');
+            if (0 < eq) values.put(item.substring(0, eq).trim(), item.substring(eq + 1).trim());
+        }
+        return values;
+    }
+
+    /**
+     * 两个路由的配置是否相同
+     * @param a
+     * @param b
+     * @return
+     */
+    static boolean sameLayout(Route a, Route b) {
+        return a.getQueue().equals(b.getQueue())
+                && a.getList().equals(b.getList())
+                && a.getShards() == b.getShards()
+                && a.getLanes() == b.getLanes()
+                && a.getMaxAttempts() == b.getMaxAttempts()
+                && a.getConcurrency() == b.getConcurrency()
+                && a.isHashTag() == b.isHashTag()
+                && a.getDedupWindow() == b.getDedupWindow()
+                && a.getRate() == b.getRate()
+                && a.getBurst() == b.getBurst()
+                && a.getWeight() == b.getWeight();
+    }
+}
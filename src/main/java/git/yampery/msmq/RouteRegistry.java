@@ -0,0 +1,229 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @decription RouteRegistry
+ * <p>运行时可修改的路由表，支持添加、暂停、恢复与移除路由，不需要重启<br>
+ * 路由表为不可变的快照，修改时复制一份整体替换（写时复制），监听线程、消费者与投递读取快照不加锁，
+ * 修改之间串行执行；同一消息队列只对应一个路由，替换时视为移除旧路由再添加新路由<br>
+ * 暂停的路由不再搬运到期消息，投递的消息留在消息队列中，已在待消费列表中的消息仍可消费，
+ * 处理中消息的回收与清理照常进行；移除路由不删除其数据，重新添加后继续搬运与消费<br>
+ * 路由变化通过{@link Listener}通知，由消费容器启动或停止对应的消费者</p>
+ * @author Yampery
+ * @date 2026/10/19 03:00
+ */
+public class RouteRegistry {
+
+    /**
+     * 路由变化的监听器，在修改路由表的线程中按修改顺序回调
+     */
+    public interface Listener {
+
+        /**
+         * 路由已添加
+         * @param route
+         */
+        default void added(Route route) {
+        }
+
+        /**
+         * 路由已移除
+         * @param route
+         */
+        default void removed(Route route) {
+        }
+
+        /**
+         * 同一消息队列的路由被替换，默认依次回调移除与添加
+         * @param previous 被替换的路由
+         * @param route 新路由
+         */
+        default void replaced(Route previous, Route route) {
+            removed(previous);
+            added(route);
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), Collections.emptySet());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 所有路由，包括暂停的路由，按添加顺序排列
+     * @return 不可修改的快照
+     */
+    public List<Route> getRoutes() {
+        return snapshot.routes;
+    }
+
+    /**
+     * 未暂停的路由
+     * @return 不可修改的快照
+     */
+    public List<Route> active() {
+        return snapshot.active;
+    }
+
+    /**
+     * 消息队列对应的路由
+     * @param queue
+     * @return 不存在返回null
+     */
+    public Route byQueue(String queue) {
+        return snapshot.byQueue.get(queue);
+    }
+
+    /**
+     * 待消费列表对应的路由
+     * @param list
+     * @return 不存在返回null
+     */
+    public Route byList(String list) {
+        return snapshot.byList.get(list);
+    }
+
+    /**
+     * 路由是否已暂停
+     * @param route
+     * @return
+     */
+    public boolean isPaused(Route route) {
+        return snapshot.paused.contains(route);
+    }
+
+    /**
+     * 添加路由，已有同一消息队列的路由时替换
+     * @param route
+     * @throws IllegalArgumentException 待消费列表已被其他消息队列的路由使用
+     */
+    public synchronized void add(Route route) {
+        Snapshot current = snapshot;
+        Route previous = current.byQueue.get(route.getQueue());
+        if (route == previous) return;
+        Route owner = current.byList.get(route.getList());
+        if (null != owner && owner != previous) {
+            throw new IllegalArgumentException("list " + route.getList() + " is used by queue " + owner.getQueue());
+        }
+        List<Route> routes = new ArrayList<>(current.routes);
+        Set<Route> paused = new HashSet<>(current.paused);
+        if (null == previous) {
+            routes.add(route);
+        } else {
+            // 替换时保持位置与暂停状态
+            routes.set(routes.indexOf(previous), route);
+            if (paused.remove(previous)) paused.add(route);
+        }
+        snapshot = new Snapshot(routes, paused);
+        for (Listener listener : listeners) {
+            if (null == previous) listener.added(route);
+            else listener.replaced(previous, route);
+        }
+    }
+
+    /**
+     * 移除消息队列对应的路由
+     * @param queue
+     * @return 被移除的路由，不存在返回null
+     */
+    public synchronized Route remove(String queue) {
+        Snapshot current = snapshot;
+        Route route = current.byQueue.get(queue);
+        if (null == route) return null;
+        List<Route> routes = new ArrayList<>(current.routes);
+        routes.remove(route);
+        Set<Route> paused = new HashSet<>(current.paused);
+        paused.remove(route);
+        snapshot = new Snapshot(routes, paused);
+        for (Listener listener : listeners) {
+            listener.removed(route);
+        }
+        return route;
+    }
+
+    /**
+     * 暂停搬运消息队列中的到期消息
+     * @param queue
+     * @return 路由是否存在
+     */
+    public boolean pause(String queue) {
+        return paused(queue, true);
+    }
+
+    /**
+     * 恢复搬运
+     * @param queue
+     * @return 路由是否存在
+     */
+    public boolean resume(String queue) {
+        return paused(queue, false);
+    }
+
+    private synchronized boolean paused(String queue, boolean pause) {
+        Snapshot current = snapshot;
+        Route route = current.byQueue.get(queue);
+        if (null == route) return false;
+        if (pause == current.paused.contains(route)) return true;
+        Set<Route> paused = new HashSet<>(current.paused);
+        if (pause) paused.add(route);
+        else paused.remove(route);
+        snapshot = new Snapshot(current.routes, paused);
+        return true;
+    }
+
+    /**
+     * 替换整个路由表，不在新路由表中的路由被移除，同一实例的路由保持不变
+     * @param routes
+     */
+    public synchronized void setRoutes(List<Route> routes) {
+        Set<Route> keep = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (null != routes) keep.addAll(routes);
+        for (Route route : snapshot.routes) {
+            if (!keep.contains(route)) remove(route.getQueue());
+        }
+        if (null != routes) routes.forEach(this::add);
+    }
+
+    /**
+     * 注册路由变化的监听器
+     * @param listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 路由表快照，创建后不再修改
+     */
+    private static final class Snapshot {
+
+        final List<Route> routes;
+        final List<Route> active;
+        final Set<Route> paused;
+        final Map<String, Route> byQueue = new HashMap<>();
+        final Map<String, Route> byList = new HashMap<>();
+
+        Snapshot(List<Route> routes, Set<Route> paused) {
+            List<Route> active = new ArrayList<>(routes.size());
+            for (Route route : routes) {
+                byQueue.put(route.getQueue(), route);
+                byList.put(route.getList(), route);
+                if (!paused.contains(route)) active.add(route);
+            }
+            this.routes = Collections.unmodifiableList(new ArrayList<>(routes));
+            this.active = Collections.unmodifiableList(active);
+            this.paused = Collections.unmodifiableSet(paused);
+        }
+    }
+}
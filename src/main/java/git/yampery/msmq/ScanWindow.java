@@ -0,0 +1,154 @@
+package git.yampery.msmq;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @decription ScanWindow
+ * <p>一个路由的监听状态：自适应的搬运窗口与已知的最早到期时间<br>
+ * 一轮搬满一个窗口说明积压超过窗口，下一轮窗口翻倍直到上限；一次搬运的总量不足窗口的四分之一时减半直到下限，
+ * 积压时用更少的往返追上，平时每次搬运不会长时间占用redis<br>
+ * 最早到期时间来自{@link RedisMQ#peekDueTime}的读取和本机投递的通知，尚未到期的路由在本轮跳过；
+ * 读取期间有新的通知时结果作废，下一轮照常搬运，不会错过本机投递的消息<br>
+ * 限流时记录恢复搬运的时间，在此之前同样跳过；按权重分配全局额度时累计未满一条的份额，留到下一轮</p>
+ * @author Yampery
+ * @date 2026/10/18 22:10
+ */
+final class ScanWindow {
+
+    private final int min;
+    private final int max;
+    private volatile int size;
+    private volatile boolean drained = true;
+
+    /**
+     * 已知的最早到期时间，Long.MIN_VALUE表示未知
+     */
+    private final AtomicLong nextDue = new AtomicLong(Long.MIN_VALUE);
+    /**
+     * 到期通知的版本，读取最早到期时间期间有通知则不采用读取结果
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 限流恢复的时间，在此之前不搬运
+     */
+    private volatile long throttled = Long.MIN_VALUE;
+    /**
+     * 按权重分得但未满一条的额度，只由监听线程读写
+     */
+    private double credit;
+
+    ScanWindow(int min, int max) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.size = this.min;
+    }
+
+    /**
+     * 当前窗口大小
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 一轮搬满窗口，窗口翻倍
+     * @return 新的窗口大小
+     */
+    int grow() {
+        int grown = (int) Math.min(max, 2L * size);
+        size = grown;
+        return grown;
+    }
+
+    /**
+     * 一次搬运结束，搬运量不足窗口的四分之一时窗口减半
+     * @param moved 本次搬运数量
+     * @param drained 是否已搬完到期消息
+     */
+    void settle(int moved, boolean drained) {
+        this.drained = drained;
+        int current = size;
+        if (moved < current / 4) size = Math.max(min, current / 2);
+    }
+
+    /**
+     * 上一次搬运是否已搬完到期消息，超出时间预算时为false
+     * @return
+     */
+    boolean drained() {
+        return drained;
+    }
+
+    /**
+     * 本机投递了将在dueTime到期的消息
+     * @param dueTime
+     */
+    void offer(long dueTime) {
+        version.incrementAndGet();
+        nextDue.accumulateAndGet(dueTime, Math::min);
+    }
+
+    /**
+     * 读取最早到期时间前的版本
+     * @return
+     */
+    long version() {
+        return version.get();
+    }
+
+    /**
+     * 记录读取到的最早到期时间
+     * @param version 读取前的版本
+     * @param dueTime 队列为空时为Long.MAX_VALUE
+     */
+    void observe(long version, long dueTime) {
+        nextDue.set(dueTime);
+        if (this.version.get() != version) nextDue.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * 是否确定在now之前没有到期的消息
+     * @param now
+     * @return
+     */
+    boolean idle(long now) {
+        return nextDue.get() > now || throttled > now;
+    }
+
+    /**
+     * 令牌用完，until之前不再搬运
+     * @param until
+     */
+    void throttle(long until) {
+        throttled = until;
+    }
+
+    /**
+     * 限流恢复的时间
+     * @return 未限流时为Long.MIN_VALUE
+     */
+    long throttled() {
+        return throttled;
+    }
+
+    /**
+     * 累加本轮按权重分得的额度
+     * @param share 分得的额度，可以是小数
+     * @return 本轮可以搬运的数量，即累计额度的整数部分，小数部分留到下一轮
+     */
+    int share(double share) {
+        credit += share;
+        int whole = (int) Math.min(Integer.MAX_VALUE, credit);
+        credit -= whole;
+        return whole;
+    }
+
+    /**
+     * 搬完到期消息或本轮空闲时清零，没有积压的路由不积累额度
+     */
+    void resetCredit() {
+        credit = 0;
+    }
+}
@@ -0,0 +1,176 @@
+package git.yampery.msmq;
+
+import git.yampery.msmq.store.MessageStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @decription ShardLeases
+ * <p>多实例间的分片归属<br>
+ * 每个路由的每个分片有一个redis租约，同一时间只有持有者搬运该分片，redis的扫描负载不随实例数增长<br>
+ * 各实例每隔租约时长的三分之一续约一次，续约时按存活实例数平衡：
+ * 每个实例至多持有分片总数除以存活实例数（向上取整）个租约，新实例加入后其他实例释放多出的租约，
+ * 实例退出时主动释放，异常退出时租约到期后由其他实例接管<br>
+ * 续约失败时本地持有状态在租约时长后失效；搬运脚本本身是原子的，短暂的重复持有只会多一次空扫描<br>
+ * 路由开启hash tag（redis集群）时租约与登记表都在路由自己的slot，按路由分别续约与平衡</p>
+ * @author Yampery
+ * @date 2026/10/18 22:40
+ */
+public class ShardLeases {
+
+    /**
+     * 监听实例登记表
+     */
+    public static final String MEMBERS = "rdsmq:monitors";
+
+    private final String owner;
+    private final long ttl;
+
+    /**
+     * 各路由持有的分片
+     */
+    private volatile Map<Route, boolean[]> owned = Collections.emptyMap();
+    /**
+     * 本地持有状态的有效期
+     */
+    private volatile long validUntil;
+    private volatile int count;
+    private long renewedAt;
+
+    public ShardLeases(String owner, long ttl) {
+        this.owner = owner;
+        this.ttl = ttl;
+    }
+
+    /**
+     * 距上次续约超过租约时长的三分之一时续约，由监听线程调用
+     * @param store
+     * @param routes
+     * @param now
+     */
+    public void renew(MessageStore store, List<Route> routes, long now) {
+        if (null == routes || now - renewedAt < ttl / 3) return;
+        List<Boolean> result = lease(store, routes, now);
+        if (null == result) return;
+        Map<Route, boolean[]> map = new HashMap<>();
+        int index = 0, total = 0;
+        for (Route route : routes) {
+            boolean[] shards = new boolean[Math.max(1, route.getShards())];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = result.get(index++);
+                if (shards[i]) total++;
+            }
+            map.put(route, shards);
+        }
+        owned = map;
+        count = total;
+        validUntil = now + ttl;
+        renewedAt = now;
+    }
+
+    /**
+     * 下次监听时立即续约，路由变化后调用
+     */
+    public void reset() {
+        renewedAt = 0;
+    }
+
+    /**
+     * 释放持有的所有租约
+     * @param store
+     * @param routes
+     */
+    public void release(MessageStore store, List<Route> routes) {
+        owned = Collections.emptyMap();
+        count = 0;
+        renewedAt = 0;
+        if (null == routes) return;
+        if (!tagged(routes)) {
+            store.release(MEMBERS, keys(routes), owner);
+            return;
+        }
+        for (Route route : routes) {
+            store.release(route.membersKey(), keys(Collections.singletonList(route)), owner);
+        }
+    }
+
+    /**
+     * 续约所有路由的租约，开启hash tag的路由各自执行一次脚本
+     * @return 与{@link #keys}一一对应，任一次失败返回null
+     */
+    private List<Boolean> lease(MessageStore store, List<Route> routes, long now) {
+        if (!tagged(routes)) return store.lease(MEMBERS, keys(routes), owner, now, ttl);
+        List<Boolean> result = new ArrayList<>();
+        List<Boolean> owned;
+        for (Route route : routes) {
+            owned = store.lease(route.membersKey(), keys(Collections.singletonList(route)), owner, now, ttl);
+            if (null == owned) return null;
+            result.addAll(owned);
+        }
+        return result;
+    }
+
+    private static boolean tagged(List<Route> routes) {
+        for (Route route : routes) {
+            if (route.isHashTag()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 是否持有路由的分片
+     * @param route
+     * @param shard
+     * @return
+     */
+    public boolean owns(Route route, int shard) {
+        if (System.currentTimeMillis() >= validUntil) return false;
+        boolean[] shards = owned.get(route);
+        return null != shards && shard < shards.length && shards[shard];
+    }
+
+    /**
+     * 是否持有路由的任一分片
+     * @param route
+     * @return
+     */
+    public boolean ownsAny(Route route) {
+        if (System.currentTimeMillis() >= validUntil) return false;
+        boolean[] shards = owned.get(route);
+        if (null == shards) return false;
+        for (boolean shard : shards) {
+            if (shard) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 持有的分片数量
+     * @return
+     */
+    public int count() {
+        return System.currentTimeMillis() >= validUntil ? 0 : count;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    private static List<String> keys(List<Route> routes) {
+        List<String> keys = new ArrayList<>();
+        for (Route route : routes) {
+            for (int i = 0, n = Math.max(1, route.getShards()); i < n; i++) {
+                keys.add(route.leaseKey(i));
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,129 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @decription SpoolFallback
+ * <p>投递失败时的本地暂存，由{@link RedisMQ}的各投递方法使用<br>
+ * 写入redis失败的消息追加到{@link MessageSpool}；暂存中还有消息时新的投递直接追加到暂存，
+ * 保持先后顺序，也不再等待不可用的redis<br>
+ * 未配置暂存或暂存的重放线程未运行时各方法原样返回写入结果，暂存随{@link RedisMQ#start()}启动后才生效</p>
+ * @author Yampery
+ * @date 2026/10/19 05:40
+ */
+final class SpoolFallback {
+
+    private volatile MessageSpool spool;
+
+    /**
+     * 暂存中是否还有消息，有则新的投递直接追加到暂存
+     * @return
+     */
+    boolean active() {
+        MessageSpool current = running();
+        return null != current && !current.isEmpty();
+    }
+
+    /**
+     * 暂存写入redis失败的消息
+     * @param group 消息写入的一组路由
+     * @param message
+     * @return 是否已暂存，未配置暂存或重放线程未运行时为false
+     */
+    boolean append(List<Route> group, Message message) {
+        MessageSpool current = running();
+        return null != current && current.append(group, message);
+    }
+
+    /**
+     * 暂存扇出中写入失败的组
+     * @param groups
+     * @param message
+     * @param results 与组一一对应，为null时暂存所有组
+     * @return 失败的组是否都已暂存
+     */
+    boolean fanout(List<List<Route>> groups, Message message, List<Object> results) {
+        boolean ok = true;
+        for (int i = 0; i < groups.size(); i++) {
+            if (null == results || !(results.get(i) instanceof Long)) ok &= append(groups.get(i), message);
+        }
+        return ok;
+    }
+
+    /**
+     * 暂存批量投递中写入失败的消息，已暂存的消息结果记为成功
+     * @param routes
+     * @param messages
+     * @param results 与消息一一对应，为null时暂存所有消息
+     * @return 未配置暂存或重放线程未运行时原样返回results
+     */
+    List<Object> batch(List<Route> routes, List<Message> messages, List<Object> results) {
+        if (null == running()) return results;
+        int size = messages.size();
+        List<Object> spooled = null == results ? new ArrayList<>(Collections.nCopies(size, null)) : new ArrayList<>(results);
+        for (int i = 0; i < size; i++) {
+            if (spooled.get(i) instanceof Long) continue;
+            if (append(Collections.singletonList(routes.get(i)), messages.get(i))) spooled.set(i, 1L);
+            else if (null == spooled.get(i)) spooled.set(i, new IllegalStateException("failed to spool message"));
+        }
+        return spooled;
+    }
+
+    /**
+     * 异步写入的结果，写入异常时暂存在运行则视为整体失败交给暂存，否则保持原来的异常
+     * @param result
+     * @param e
+     * @return 写入异常时为null
+     */
+    <T> T result(T result, Throwable e) {
+        if (null == e) return result;
+        if (null == running()) throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        return null;
+    }
+
+    /**
+     * 启动暂存的重放线程
+     * @param redisMQ
+     */
+    void start(RedisMQ redisMQ) {
+        MessageSpool current = spool;
+        if (null != current) current.start(redisMQ);
+    }
+
+    /**
+     * 停止重放，未重放的消息留在磁盘上
+     */
+    void stop() {
+        MessageSpool current = spool;
+        if (null != current) current.stop();
+    }
+
+    /**
+     * 暂存中待重放的消息数量，未配置暂存时为0
+     * @return
+     */
+    long pending() {
+        MessageSpool current = spool;
+        return null == current ? 0 : current.pending();
+    }
+
+    /**
+     * 重放线程在运行的暂存，未启动的暂存无人重放，也不会定期刷盘
+     * @return 未配置或未启动时为null
+     */
+    private MessageSpool running() {
+        MessageSpool current = spool;
+        return null != current && current.isRunning() ? current : null;
+    }
+
+    MessageSpool getSpool() {
+        return spool;
+    }
+
+    void setSpool(MessageSpool spool) {
+        this.spool = spool;
+    }
+}
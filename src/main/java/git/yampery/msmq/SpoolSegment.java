@@ -0,0 +1,170 @@
+package git.yampery.msmq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * @decription SpoolSegment
+ * <p>本地暂存的一个段文件，整个文件映射到内存，只追加写入<br>
+ * 每条记录为：长度（4字节）、CRC32（4字节）、内容；长度为0表示之后没有记录，
+ * 长度越界或校验不通过的记录视为崩溃时未写完，连同之后的内容一起忽略<br>
+ * 写入由{@link MessageSpool}加锁串行执行，写完一条后才推进已提交位置，读取线程只读到已提交位置</p>
+ * @author Yampery
+ * @date 2026/10/19 05:00
+ */
+final class SpoolSegment {
+
+    /**
+     * 记录头：长度与校验和
+     */
+    static final int HEADER = 8;
+    static final String SUFFIX = ".spool";
+
+    final long seq;
+    final File file;
+    private final MappedByteBuffer buffer;
+    /**
+     * 读取线程使用的视图
+     */
+    private ByteBuffer reader;
+    /**
+     * 已提交位置，之前的记录都已完整写入
+     */
+    private volatile int committed;
+
+    private SpoolSegment(long seq, File file, int size) throws IOException {
+        this.seq = seq;
+        this.file = file;
+        // 映射在文件关闭后仍然有效
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) raf.setLength(size);
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+    }
+
+    /**
+     * 创建新的段文件
+     * @param dir
+     * @param seq 段序号
+     * @param size 文件大小
+     * @return
+     * @throws IOException
+     */
+    static SpoolSegment create(File dir, long seq, int size) throws IOException {
+        return new SpoolSegment(seq, new File(dir, name(seq)), size);
+    }
+
+    /**
+     * 打开已有的段文件，扫描出完整写入的记录末尾作为已提交位置
+     * @param file
+     * @param seq
+     * @return
+     * @throws IOException
+     */
+    static SpoolSegment open(File file, long seq) throws IOException {
+        SpoolSegment segment = new SpoolSegment(seq, file, 0);
+        int position = 0;
+        byte[] data;
+        while (null != (data = segment.read(position, segment.capacity()))) {
+            position += HEADER + data.length;
+        }
+        segment.committed = position;
+        return segment;
+    }
+
+    static String name(long seq) {
+        return String.format("%020d", seq) + SUFFIX;
+    }
+
+    /**
+     * 从文件名解析段序号
+     * @param name
+     * @return 不是段文件时返回-1
+     */
+    static long seqOf(String name) {
+        if (!name.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    int committed() {
+        return committed;
+    }
+
+    /**
+     * 剩余空间是否能写入一条记录
+     * @param length 记录内容长度
+     * @return
+     */
+    boolean fits(int length) {
+        return (long) committed + HEADER + length <= capacity();
+    }
+
+    /**
+     * 追加一条记录，调用方保证串行且空间足够
+     * @param data
+     */
+    void append(byte[] data) {
+        int position = committed;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        // 先写内容再写记录头，崩溃时只留下长度为0或校验不通过的记录
+        buffer.position(position + HEADER);
+        buffer.put(data);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, data.length);
+        committed = position + HEADER + data.length;
+    }
+
+    /**
+     * 读取position处的记录内容，只由读取线程调用，下一条记录位于position + HEADER + 内容长度
+     * @param position
+     * @param limit 可读取的末尾
+     * @return 没有完整记录时返回null
+     */
+    byte[] read(int position, int limit) {
+        if ((long) position + HEADER > limit) return null;
+        ByteBuffer view = view();
+        int length = view.getInt(position);
+        if (0 >= length || (long) position + HEADER + length > limit) return null;
+        byte[] data = new byte[length];
+        view.position(position + HEADER);
+        view.get(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue() == view.getInt(position + 4) ? data : null;
+    }
+
+    /**
+     * 将写入的内容刷到磁盘
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * 删除段文件，映射在缓冲区被回收后释放
+     * @return 是否已删除，文件已不存在时也为true
+     */
+    boolean delete() {
+        return file.delete() || !file.exists();
+    }
+
+    private ByteBuffer view() {
+        ByteBuffer view = reader;
+        if (null == view) reader = view = buffer.duplicate();
+        return view;
+    }
+}
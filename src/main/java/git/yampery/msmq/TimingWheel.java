@@ -0,0 +1,192 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * @decription TimingWheel
+ * <p>本地哈希时间轮<br>
+ * 时间轮有wheelSize个槽，每tick毫秒前进一格，任务按到期时间放入对应的槽，超过一圈的任务记录剩余圈数<br>
+ * 添加任务无锁，由单独的线程在每个tick把新任务放入槽中并取出到期任务，
+ * 同一tick到期的任务一次交给回调处理；空闲时线程休眠直到有新任务<br>
+ * 任务数量超过capacity时拒绝添加，由调用方走其他路径</p>
+ * @author Yampery
+ * @date 2026/10/18 20:10
+ */
+public class TimingWheel<T> implements Runnable {
+
+    private final long tick;
+    private final int mask;
+    private final int capacity;
+    private final Consumer<List<T>> handler;
+
+    private final List<Timeout<T>>[] buckets;
+    private final Queue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private long startTime;
+    /**
+     * 已处理的最后一个tick，只由时间轮线程访问
+     */
+    private long lastTick;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    /**
+     * @param tick 每格的时长（毫秒）
+     * @param wheelSize 槽的数量，向上取整为2的幂
+     * @param capacity 最多容纳的任务数量
+     * @param handler 到期任务的处理回调，在时间轮线程中执行
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tick, int wheelSize, int capacity, Consumer<List<T>> handler) {
+        this.tick = Math.max(1, tick);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.handler = handler;
+        this.buckets = (List<Timeout<T>>[]) new List<?>[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        startTime = System.currentTimeMillis();
+        lastTick = 0;
+        thread = new Thread(this, "rdsmq-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止时间轮，尚未到期的任务被丢弃
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        Thread t = thread;
+        if (null != t) {
+            LockSupport.unpark(t);
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+        pending.clear();
+        size.set(0);
+    }
+
+    /**
+     * 添加任务
+     * @param task
+     * @param deadline 到期时间（毫秒）
+     * @return 时间轮未运行或已满时返回false
+     */
+    public boolean add(T task, long deadline) {
+        if (!running) return false;
+        int count = size.incrementAndGet();
+        if (count > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        pending.offer(new Timeout<>(task, deadline));
+        // 空闲时线程一直休眠，由空变为非空的任务负责唤醒；以自增的结果判断，并发添加时恰好一个任务唤醒
+        if (1 == count) LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * 时间轮中的任务数量
+     * @return
+     */
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void run() {
+        List<T> expired = new ArrayList<>();
+        while (running) {
+            long now = System.currentTimeMillis();
+            long current = (now - startTime) / tick;
+            transfer();
+            if (0 == size.get()) {
+                // 没有任务，跳过空转的格子
+                lastTick = current;
+            }
+            while (lastTick < current) {
+                expire(buckets[(int) (++lastTick & mask)], expired);
+            }
+            if (!expired.isEmpty()) {
+                size.addAndGet(-expired.size());
+                try {
+                    handler.accept(Collections.unmodifiableList(new ArrayList<>(expired)));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                expired.clear();
+                continue;
+            }
+            if (0 == size.get()) {
+                LockSupport.park(this);
+            } else {
+                long next = startTime + (lastTick + 1) * tick;
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, next - now)));
+            }
+        } /// while end~
+    }
+
+    /**
+     * 将新任务放入对应的槽，已过期的任务放入下一格
+     */
+    private void transfer() {
+        Timeout<T> timeout;
+        while (null != (timeout = pending.poll())) {
+            long due = (timeout.deadline - startTime + tick - 1) / tick;
+            long ticks = Math.max(due, lastTick + 1);
+            timeout.rounds = (ticks - lastTick - 1) / buckets.length;
+            buckets[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout<T>> bucket, List<T> expired) {
+        if (bucket.isEmpty()) return;
+        int kept = 0;
+        Timeout<T> timeout;
+        for (int i = 0; i < bucket.size(); i++) {
+            timeout = bucket.get(i);
+            if (0 >= timeout.rounds) {
+                expired.add(timeout.task);
+            } else {
+                timeout.rounds--;
+                bucket.set(kept++, timeout);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    private static final class Timeout<T> {
+
+        final T task;
+        final long deadline;
+        long rounds;
+
+        Timeout(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package git.yampery.msmq;
+
+/**
+ * @decription TokenBucket
+ * <p>本地令牌桶，按固定速率补充令牌，最多积攒capacity个<br>
+ * 不使用定时器，每次取令牌时按距上次的时间差补充，只是几次浮点运算；
+ * 可以一次取出多个，令牌不足时取出现有的整数部分，用不完的可以归还</p>
+ * @author Yampery
+ * @date 2026/10/19 04:10
+ */
+public final class TokenBucket {
+
+    /**
+     * 每毫秒补充的令牌数
+     */
+    private final double perMillis;
+    private final int rate;
+    private final int capacity;
+    private double tokens;
+    private long last;
+
+    /**
+     * @param rate 每秒补充的令牌数
+     * @param capacity 令牌桶容量，即允许的突发数量
+     * @param now 当前时间，令牌桶初始为满
+     */
+    public TokenBucket(int rate, int capacity, long now) {
+        this.rate = Math.max(1, rate);
+        this.perMillis = this.rate / 1000D;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.last = now;
+    }
+
+    /**
+     * 取出至多want个令牌
+     * @param want
+     * @param now
+     * @return 取得的令牌数
+     */
+    public synchronized long acquire(long want, long now) {
+        refill(now);
+        long granted = Math.max(0, Math.min(want, (long) tokens));
+        tokens -= granted;
+        return granted;
+    }
+
+    /**
+     * 归还未用完的令牌，不超过容量
+     * @param count
+     * @param now
+     */
+    public synchronized void refund(long count, long now) {
+        if (0 >= count) return;
+        refill(now);
+        tokens = Math.min(capacity, tokens + count);
+    }
+
+    /**
+     * 距离攒够count个令牌的时间
+     * @param count 不超过容量
+     * @param now
+     * @return 毫秒，已足够时为0
+     */
+    public synchronized long waitTime(long count, long now) {
+        refill(now);
+        double need = Math.min(count, capacity) - tokens;
+        return 0 >= need ? 0 : (long) Math.ceil(need / perMillis);
+    }
+
+    /**
+     * 速率与容量是否与给定的一致，配置修改后重建令牌桶
+     * @param rate
+     * @param capacity
+     * @return
+     */
+    public boolean matches(int rate, int capacity) {
+        return this.rate == Math.max(1, rate) && this.capacity == Math.max(1, capacity);
+    }
+
+    private void refill(long now) {
+        if (now <= last) return;
+        tokens = Math.min(capacity, tokens + (now - last) * perMillis);
+        last = now;
+    }
+}
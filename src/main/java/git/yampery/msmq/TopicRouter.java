@@ -0,0 +1,238 @@
+package git.yampery.msmq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @decription TopicRouter
+ * <p>按消息主题{@link Message#getTopic()}路由，一个主题可以投递到多个路由（扇出）<br>
+ * 主题按“.”分段，绑定的模式中“*”匹配一段，“#”匹配零或多段，如order.*、order.#、#<br>
+ * 绑定在修改时编译为按段索引的前缀树，查找只沿匹配的分支向下，不逐个比较绑定；
+ * 查找结果按主题缓存在编译结果中，同一主题之后的查找只是一次哈希表读取；绑定修改后旧的缓存随旧树一起丢弃<br>
+ * 查找结果按消息池分组：同一组的路由共用消息体（redis单机时所有路由共用消息池，开启hash tag时待消费列表tag相同的路由共用），
+ * 扇出时每组只写一次消息体，消息id写入组内每个路由的消息队列</p>
+ * @author Yampery
+ * @date 2026/10/19 02:10
+ */
+public class TopicRouter {
+
+    /**
+     * 匹配一段
+     */
+    public static final String ONE = "*";
+    /**
+     * 匹配零或多段
+     */
+    public static final String ANY = "#";
+
+    /**
+     * 缓存的主题数量上限，超出时清空，避免主题取值过多时无限增长
+     */
+    private static final int CACHE_SIZE = 4096;
+
+    private final Map<String, List<Route>> bindings = new LinkedHashMap<>();
+    private volatile Compiled compiled = new Compiled(new Node(), Collections.emptyList());
+
+    /**
+     * 绑定主题模式与路由，同一模式可多次绑定不同路由
+     * @param pattern 主题模式
+     * @param route
+     * @return
+     */
+    public synchronized TopicRouter bind(String pattern, Route route) {
+        List<Route> routes = bindings.computeIfAbsent(pattern, p -> new ArrayList<>());
+        if (!routes.contains(route)) routes.add(route);
+        compile();
+        return this;
+    }
+
+    /**
+     * 解除主题模式与路由的绑定
+     * @param pattern
+     * @param route
+     * @return 是否存在该绑定
+     */
+    public synchronized boolean unbind(String pattern, Route route) {
+        List<Route> routes = bindings.get(pattern);
+        if (null == routes || !routes.remove(route)) return false;
+        if (routes.isEmpty()) bindings.remove(pattern);
+        compile();
+        return true;
+    }
+
+    /**
+     * 将所有绑定中的路由替换为新路由，路由表中同一消息队列的路由被替换时调用
+     * @param previous
+     * @param route 为null时解除previous的所有绑定
+     * @return 是否存在previous的绑定
+     */
+    public synchronized boolean replace(Route previous, Route route) {
+        boolean found = false;
+        for (Iterator<List<Route>> it = bindings.values().iterator(); it.hasNext(); ) {
+            List<Route> routes = it.next();
+            int i = routes.indexOf(previous);
+            if (0 > i) continue;
+            found = true;
+            if (null == route || routes.contains(route)) routes.remove(i);
+            else routes.set(i, route);
+            if (routes.isEmpty()) it.remove();
+        }
+        if (found) compile();
+        return found;
+    }
+
+    /**
+     * 替换所有绑定
+     * @param bindings 主题模式到路由的映射
+     */
+    public synchronized void setBindings(Map<String, List<Route>> bindings) {
+        this.bindings.clear();
+        bindings.forEach((pattern, routes) -> this.bindings.put(pattern, new ArrayList<>(routes)));
+        compile();
+    }
+
+    /**
+     * 当前的绑定
+     * @return
+     */
+    public synchronized Map<String, List<Route>> getBindings() {
+        Map<String, List<Route>> copy = new LinkedHashMap<>();
+        bindings.forEach((pattern, routes) -> copy.put(pattern, Collections.unmodifiableList(new ArrayList<>(routes))));
+        return copy;
+    }
+
+    /**
+     * 主题匹配的所有路由，按绑定顺序排列，不重复
+     * @param topic
+     * @return 没有匹配时为空列表
+     */
+    public List<Route> routes(String topic) {
+        List<List<Route>> groups = groups(topic);
+        if (1 == groups.size()) return groups.get(0);
+        List<Route> routes = new ArrayList<>();
+        groups.forEach(routes::addAll);
+        return routes;
+    }
+
+    /**
+     * 主题匹配的路由按消息池分组，同一组的路由共用消息体
+     * @param topic
+     * @return 没有匹配时为空列表
+     */
+    public List<List<Route>> groups(String topic) {
+        String key = null == topic ? "" : topic;
+        // 结果只缓存在查找所用的树中，查找期间绑定被修改时旧结果不会进入新树的缓存
+        Compiled current = compiled;
+        List<List<Route>> groups = current.cache.get(key);
+        if (null != groups) return groups;
+        groups = group(current.match(key));
+        if (current.cache.size() >= CACHE_SIZE) current.cache.clear();
+        current.cache.put(key, groups);
+        return groups;
+    }
+
+    /**
+     * 重新编译前缀树，新的树与空的缓存整体替换旧树，查找不需要加锁
+     */
+    private void compile() {
+        Node root = new Node();
+        Set<Route> order = new LinkedHashSet<>();
+        bindings.forEach((pattern, routes) -> {
+            Node node = root;
+            for (String segment : split(pattern)) {
+                node = node.child(segment);
+            }
+            node.routes.addAll(routes);
+            order.addAll(routes);
+        });
+        compiled = new Compiled(root, new ArrayList<>(order));
+    }
+
+    private static void match(Node node, String[] segments, int i, Set<Route> out) {
+        if (null != node.any) {
+            // “#”匹配剩余的任意段数，包括零段
+            for (int j = i; j <= segments.length; j++) {
+                match(node.any, segments, j, out);
+            }
+        }
+        if (i == segments.length) {
+            out.addAll(node.routes);
+            return;
+        }
+        Node next = node.children.get(segments[i]);
+        if (null != next) match(next, segments, i + 1, out);
+        if (null != node.one) match(node.one, segments, i + 1, out);
+    }
+
+    private static List<List<Route>> group(List<Route> routes) {
+        if (routes.isEmpty()) return Collections.emptyList();
+        Map<String, List<Route>> pools = new LinkedHashMap<>();
+        for (Route route : routes) {
+            pools.computeIfAbsent(route.poolPrefix(), p -> new ArrayList<>()).add(route);
+        }
+        List<List<Route>> groups = new ArrayList<>(pools.size());
+        pools.values().forEach(group -> groups.add(Collections.unmodifiableList(group)));
+        return Collections.unmodifiableList(groups);
+    }
+
+    private static String[] split(String topic) {
+        return topic.split("\\.", -1);
+    }
+
+    /**
+     * 编译后的绑定：前缀树、所有路由的绑定顺序与按主题缓存的查找结果
+     */
+    private static final class Compiled {
+
+        final Node root;
+        final List<Route> order;
+        final Map<String, List<List<Route>>> cache = new ConcurrentHashMap<>();
+
+        Compiled(Node root, List<Route> order) {
+            this.root = root;
+            this.order = order;
+        }
+
+        /**
+         * 匹配的路由按绑定顺序排列
+         * @param topic
+         * @return
+         */
+        List<Route> match(String topic) {
+            Set<Route> matched = new HashSet<>();
+            TopicRouter.match(root, split(topic), 0, matched);
+            if (matched.isEmpty()) return Collections.emptyList();
+            List<Route> routes = new ArrayList<>(matched.size());
+            for (Route route : order) {
+                if (matched.contains(route)) routes.add(route);
+            }
+            return routes;
+        }
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static final class Node {
+
+        final Map<String, Node> children = new HashMap<>();
+        Node one;
+        Node any;
+        final List<Route> routes = new ArrayList<>();
+
+        Node child(String segment) {
+            if (ONE.equals(segment)) return null == one ? (one = new Node()) : one;
+            if (ANY.equals(segment)) return null == any ? (any = new Node()) : any;
+            return children.computeIfAbsent(segment, s -> new Node());
+        }
+    }
+}
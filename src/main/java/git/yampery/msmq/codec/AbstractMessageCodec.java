@@ -0,0 +1,131 @@
+package git.yampery.msmq.codec;
+
+import git.yampery.msmq.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @decription AbstractMessageCodec
+ * <p>编解码器基类，负责格式标记与压缩<br>
+ * 编码结果的首字节为格式标记，解码时按标记选择格式，因此切换编码格式后旧数据仍可读取；
+ * 没有标记的数据视为旧版本直接存储的消息体字符串<br>
+ * 编码结果超过压缩阈值时整体deflate压缩，并以{@link #FORMAT_DEFLATE}标记</p>
+ * @author Yampery
+ * @date 2026/10/18 17:05
+ */
+public abstract class AbstractMessageCodec implements MessageCodec {
+
+    /**
+     * 格式标记：二进制
+     */
+    static final byte FORMAT_BINARY = 0x01;
+    /**
+     * 格式标记：JSON
+     */
+    static final byte FORMAT_JSON = 0x02;
+    /**
+     * 格式标记：deflate压缩，其后为原格式编码
+     */
+    static final byte FORMAT_DEFLATE = 0x03;
+
+    /**
+     * 压缩阈值（字节），编码结果超过该大小时压缩，0表示不压缩
+     */
+    private int compressThreshold;
+
+    /**
+     * 编码消息，不包含格式标记
+     * @param message
+     * @return
+     */
+    protected abstract byte[] write(Message message);
+
+    /**
+     * 本编解码器的格式标记
+     * @return
+     */
+    protected abstract byte marker();
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] payload = write(message);
+        byte[] data = new byte[payload.length + 1];
+        data[0] = marker();
+        System.arraycopy(payload, 0, data, 1, payload.length);
+        if (0 < compressThreshold && data.length > compressThreshold) {
+            byte[] compressed = deflate(data);
+            // 压缩后没有变小则保留原数据
+            if (compressed.length < data.length) return compressed;
+        }
+        return data;
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        if (null == data || 0 == data.length) return null;
+        switch (data[0]) {
+            case FORMAT_BINARY:
+                return BinaryMessageCodec.read(data, 1);
+            case FORMAT_JSON:
+                return JsonMessageCodec.read(data, 1);
+            case FORMAT_DEFLATE:
+                return decode(inflate(data));
+            default:
+                Message message = new Message();
+                message.setBody(new String(data, StandardCharsets.UTF_8));
+                return message;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            out.write(FORMAT_DEFLATE);
+            byte[] buf = new byte[Math.max(64, data.length)];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 1, data.length - 1);
+            byte[] buf = new byte[data.length * 4];
+            int len = 0;
+            while (!inflater.finished()) {
+                if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                int n = inflater.inflate(buf, len, buf.length - len);
+                if (0 == n && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated message data");
+                }
+                len += n;
+            }
+            return Arrays.copyOf(buf, len);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupted message data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+}
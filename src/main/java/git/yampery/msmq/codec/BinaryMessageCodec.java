@@ -0,0 +1,135 @@
+package git.yampery.msmq.codec;
+
+import git.yampery.msmq.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @decription BinaryMessageCodec
+ * <p>紧凑二进制编解码器，默认使用<br>
+ * 数值字段采用zigzag变长编码，字符串以变长长度加UTF-8字节存储，不写入消息id<br>
+ * 字段顺序：状态、优先级、延迟、创建时间、存活时间、主题、消息体</p>
+ * @author Yampery
+ * @date 2026/10/18 17:24
+ */
+public class BinaryMessageCodec extends AbstractMessageCodec {
+
+    @Override
+    protected byte marker() {
+        return FORMAT_BINARY;
+    }
+
+    @Override
+    protected byte[] write(Message message) {
+        Writer w = new Writer(32 + length(message.getTopic()) + length(message.getBody()));
+        w.writeLong(message.getStatus());
+        w.writeLong(message.getPriority());
+        w.writeLong(message.getDelay());
+        w.writeLong(message.getCreateTime());
+        w.writeLong(message.getTtl());
+        w.writeString(message.getTopic());
+        w.writeString(message.getBody());
+        return w.toByteArray();
+    }
+
+    static Message read(byte[] data, int offset) {
+        Reader r = new Reader(data, offset);
+        Message message = new Message();
+        message.setStatus((int) r.readLong());
+        message.setPriority((int) r.readLong());
+        message.setDelay(r.readLong());
+        message.setCreateTime(r.readLong());
+        message.setTtl((int) r.readLong());
+        message.setTopic(r.readString());
+        message.setBody(r.readString());
+        return message;
+    }
+
+    private static int length(String s) {
+        return null == s ? 0 : s.length() * 3;
+    }
+
+    private static final class Writer {
+
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void writeLong(long v) {
+            writeVarint((v << 1) ^ (v >> 63));
+        }
+
+        /**
+         * 字符串长度加1写入，0表示null
+         */
+        void writeString(String s) {
+            if (null == s) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void writeVarint(long v) {
+            ensure(10);
+            while (0 != (v & ~0x7FL)) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        long readLong() {
+            long v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String readString() {
+            int len = (int) readVarint();
+            if (0 == len) return null;
+            len--;
+            if (pos + len > buf.length) throw new IllegalArgumentException("truncated message data");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        private long readVarint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= buf.length) throw new IllegalArgumentException("truncated message data");
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (0 == (b & 0x80)) return v;
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+    }
+}
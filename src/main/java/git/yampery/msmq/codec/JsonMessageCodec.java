@@ -0,0 +1,29 @@
+package git.yampery.msmq.codec;
+
+import com.alibaba.fastjson.JSON;
+import git.yampery.msmq.Message;
+
+/**
+ * @decription JsonMessageCodec
+ * <p>JSON编解码器，可读性好，便于直接在redis中查看消息</p>
+ * @author Yampery
+ * @date 2026/10/18 17:20
+ */
+public class JsonMessageCodec extends AbstractMessageCodec {
+
+    @Override
+    protected byte marker() {
+        return FORMAT_JSON;
+    }
+
+    @Override
+    protected byte[] write(Message message) {
+        return JSON.toJSONBytes(message);
+    }
+
+    static Message read(byte[] data, int offset) {
+        byte[] json = new byte[data.length - offset];
+        System.arraycopy(data, offset, json, 0, json.length);
+        return JSON.parseObject(json, Message.class);
+    }
+}
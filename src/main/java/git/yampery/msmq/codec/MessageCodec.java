@@ -0,0 +1,26 @@
+package git.yampery.msmq.codec;
+
+import git.yampery.msmq.Message;
+
+/**
+ * @decription MessageCodec
+ * <p>消息编解码器，将完整的消息{@link Message}（主题、优先级、创建时间、状态等）编码为消息池中存储的字节</p>
+ * @author Yampery
+ * @date 2026/10/18 17:02
+ */
+public interface MessageCodec {
+
+    /**
+     * 编码消息，消息id作为消息池key的一部分，不要求写入
+     * @param message
+     * @return
+     */
+    byte[] encode(Message message);
+
+    /**
+     * 解码消息
+     * @param data 消息池中存储的字节
+     * @return 消息，id可能为空，由调用方补齐
+     */
+    Message decode(byte[] data);
+}
@@ -0,0 +1,78 @@
+package git.yampery.msmq.store;
+
+import git.yampery.msmq.Route;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @decription AsyncMessageStore
+ * <p>存储的非阻塞扩展，生产与消费的热路径操作返回{@link CompletableFuture}，
+ * 调用线程不等待redis响应<br>
+ * 语义与{@link MessageStore}中的同名操作一致，失败时future以异常结束</p>
+ * @author Yampery
+ * @date 2026/10/18 21:00
+ */
+public interface AsyncMessageStore {
+
+    /**
+     * 原子地写入消息体并加入延迟队列
+     * @param envelope
+     * @return
+     */
+    CompletableFuture<Boolean> enqueueAsync(Envelope envelope);
+
+    /**
+     * 批量写入，每条消息原子写入
+     * @param envelopes
+     * @return 与envelopes一一对应的结果，成功为1，失败为异常对象
+     */
+    CompletableFuture<List<Object>> enqueueAsync(List<Envelope> envelopes);
+
+    /**
+     * 从待消费列表按入列顺序弹出至多count个消息id
+     * @param list
+     * @param count
+     * @return
+     */
+    CompletableFuture<List<String>> popAsync(String list, int count);
+
+    /**
+     * 读取并删除消息体
+     * @param ids
+     * @return 与ids一一对应，不存在的消息为null
+     */
+    CompletableFuture<List<byte[]>> takeAsync(List<String> ids);
+
+    /**
+     * 读取并删除路由的消息体
+     * @param route 为null时同{@link #takeAsync(List)}
+     * @param ids
+     * @return 与ids一一对应，不存在的消息为null
+     */
+    default CompletableFuture<List<byte[]>> takeAsync(Route route, List<String> ids) {
+        return takeAsync(ids);
+    }
+
+    /**
+     * 确认消息
+     * @param route
+     * @param consumerId
+     * @param ids
+     * @return 按期确认的消息数量
+     */
+    CompletableFuture<Integer> ackAsync(Route route, String consumerId, List<String> ids);
+
+    /**
+     * 将处理失败的消息放回重试通道
+     * @param route
+     * @param consumerId
+     * @param ids
+     * @param retryScore 重试通道中当前时间对应的score
+     * @param backoff 首次退避（score单位）
+     * @param maxBackoff 最大退避（score单位）
+     * @return 重新入队的消息数量
+     */
+    CompletableFuture<Integer> nackAsync(Route route, String consumerId, List<String> ids,
+                                         long retryScore, long backoff, long maxBackoff);
+}
@@ -0,0 +1,158 @@
+package git.yampery.msmq.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @decription Envelope
+ * <p>一次写入的消息：编码后的消息体及其在延迟队列中的位置<br>
+ * 扇出时消息体只写一次，消息id同时写入其他路由的延迟队列，这些队列需与消息池key在同一slot</p>
+ * @author Yampery
+ * @date 2026/10/18 19:10
+ */
+public final class Envelope {
+
+    /**
+     * 不去重
+     */
+    public static final int DEDUP_NONE = 0;
+    /**
+     * 消息体仍存在（尚未被消费确认）时视为重复
+     */
+    public static final int DEDUP_PENDING = 1;
+    /**
+     * 去重窗口内写过标记时视为重复
+     */
+    public static final int DEDUP_MARKER = 2;
+
+    private final String id;
+    private final byte[] data;
+    private final int ttl;
+    private final String queue;
+    private final long score;
+    private final String pool;
+    private int dedup = DEDUP_NONE;
+    private String dedupKey;
+    private long dedupWindow;
+    private List<String> fanout = Collections.emptyList();
+
+    /**
+     * @param id 消息id
+     * @param data 编码后的消息
+     * @param ttl 存活时间（秒）
+     * @param queue 延迟队列key
+     * @param score
+     */
+    public Envelope(String id, byte[] data, int ttl, String queue, long score) {
+        this(id, data, ttl, queue, score, JedisMessageStore.poolKey(id));
+    }
+
+    /**
+     * @param id 消息id
+     * @param data 编码后的消息
+     * @param ttl 存活时间（秒）
+     * @param queue 延迟队列key
+     * @param score
+     * @param pool 消息池key，redis集群中需与queue在同一slot
+     */
+    public Envelope(String id, byte[] data, int ttl, String queue, long score, String pool) {
+        this.id = id;
+        this.data = data;
+        this.ttl = ttl;
+        this.queue = queue;
+        this.score = score;
+        this.pool = pool;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public long getScore() {
+        return score;
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    /**
+     * 返回带去重方式的副本
+     * @param dedup 去重方式
+     * @param dedupKey 去重标记key，DEDUP_MARKER时使用
+     * @param dedupWindow 去重窗口（毫秒），DEDUP_MARKER时使用
+     * @return
+     */
+    public Envelope dedup(int dedup, String dedupKey, long dedupWindow) {
+        Envelope envelope = copy();
+        envelope.dedup = dedup;
+        envelope.dedupKey = dedupKey;
+        envelope.dedupWindow = dedupWindow;
+        return envelope;
+    }
+
+    /**
+     * 返回扇出到其他延迟队列的副本
+     * @param queues 其他路由的延迟队列key，不含{@link #getQueue()}
+     * @return
+     */
+    public Envelope fanout(List<String> queues) {
+        Envelope envelope = copy();
+        envelope.fanout = Collections.unmodifiableList(new ArrayList<>(queues));
+        return envelope;
+    }
+
+    private Envelope copy() {
+        Envelope envelope = new Envelope(id, data, ttl, queue, score, pool);
+        envelope.dedup = dedup;
+        envelope.dedupKey = dedupKey;
+        envelope.dedupWindow = dedupWindow;
+        envelope.fanout = fanout;
+        return envelope;
+    }
+
+    public int getDedup() {
+        return dedup;
+    }
+
+    public String getDedupKey() {
+        return dedupKey;
+    }
+
+    public long getDedupWindow() {
+        return dedupWindow;
+    }
+
+    /**
+     * 扇出的其他延迟队列key
+     * @return 不扇出时为空列表
+     */
+    public List<String> getFanout() {
+        return fanout;
+    }
+
+    /**
+     * 消息id写入的所有延迟队列，{@link #getQueue()}在前
+     * @return
+     */
+    public List<String> getQueues() {
+        if (fanout.isEmpty()) return Collections.singletonList(queue);
+        List<String> queues = new ArrayList<>(fanout.size() + 1);
+        queues.add(queue);
+        queues.addAll(fanout);
+        return queues;
+    }
+}
@@ -0,0 +1,453 @@
+package git.yampery.msmq.store;
+
+import git.yampery.msmq.MessageScore;
+import git.yampery.msmq.MqScripts;
+import git.yampery.msmq.Route;
+import git.yampery.utils.JedisUtils;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @decription JedisMessageStore
+ * <p>基于redis的存储实现<br>
+ * 整个redis作为消息池，以消息池前缀加消息id为key存储编码后的消息；ZSET为延迟队列，LIST为待消费列表<br>
+ * 跨多个key的操作由{@link MqScripts}中的lua脚本在服务端原子执行</p>
+ * @author Yampery
+ * @date 2026/10/18 19:10
+ */
+public class JedisMessageStore implements MessageStore {
+
+    private final JedisUtils jedisUtils;
+
+    public JedisMessageStore(JedisUtils jedisUtils) {
+        this.jedisUtils = jedisUtils;
+    }
+
+    /**
+     * 消息在消息池中的key，前缀见{@link Route#POOL_PREFIX}
+     * @param id
+     * @return
+     */
+    public static String poolKey(String id) {
+        return Route.POOL_PREFIX + id;
+    }
+
+    @Override
+    public boolean put(String id, byte[] data, int ttl) {
+        return jedisUtils.setex(poolKey(id), data, ttl);
+    }
+
+    @Override
+    public boolean remove(String id) {
+        return jedisUtils.del(poolKey(id));
+    }
+
+    @Override
+    public boolean put(Route route, String id, byte[] data, int ttl) {
+        return jedisUtils.setex(null == route ? poolKey(id) : route.poolKey(id), data, ttl);
+    }
+
+    @Override
+    public boolean remove(Route route, String id) {
+        return jedisUtils.del(null == route ? poolKey(id) : route.poolKey(id));
+    }
+
+    @Override
+    public List<byte[]> get(List<String> ids) {
+        return jedisUtils.mgetBytes(poolKeys(ids));
+    }
+
+    @Override
+    public List<byte[]> take(List<String> ids) {
+        return jedisUtils.mgetAndDelBytes(poolKeys(ids));
+    }
+
+    @Override
+    public List<byte[]> get(Route route, List<String> ids) {
+        return jedisUtils.mgetBytes(poolKeys(route, ids));
+    }
+
+    @Override
+    public List<byte[]> take(Route route, List<String> ids) {
+        if (null == route) return take(ids);
+        if (ids.isEmpty()) return new ArrayList<>();
+        // 扇出的消息体由多个路由共用，逐个释放引用
+        Object bodies = jedisUtils.evalScriptBinary(MqScripts.TAKE, poolKeys(route, ids), Collections.emptyList());
+        return null == bodies ? null : bodies(bodies);
+    }
+
+    /**
+     * {@link MqScripts#TAKE}的返回值
+     * @param result
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static List<byte[]> bodies(Object result) {
+        List<Object> values = (List<Object>) result;
+        List<byte[]> bodies = new ArrayList<>(values.size());
+        for (Object value : values) {
+            bodies.add((byte[]) value);
+        }
+        return bodies;
+    }
+
+    @Override
+    public boolean schedule(String queue, long score, String id) {
+        return jedisUtils.zadd(queue, score, id);
+    }
+
+    @Override
+    public boolean unschedule(String queue, String id) {
+        return jedisUtils.zdel(queue, id);
+    }
+
+    @Override
+    public boolean enqueue(Envelope envelope) {
+        return null != jedisUtils.evalScriptBinary(MqScripts.ENQUEUE, enqueueKeys(envelope), enqueueArgs(envelope));
+    }
+
+    @Override
+    public List<Object> enqueue(List<Envelope> envelopes) {
+        List<List<String>> keys = new ArrayList<>(envelopes.size());
+        List<List<byte[]>> args = new ArrayList<>(envelopes.size());
+        for (Envelope envelope : envelopes) {
+            keys.add(enqueueKeys(envelope));
+            args.add(enqueueArgs(envelope));
+        }
+        return jedisUtils.evalScriptsBinary(MqScripts.ENQUEUE, keys, args);
+    }
+
+    static List<String> enqueueKeys(Envelope envelope) {
+        if (envelope.getFanout().isEmpty()) {
+            if (Envelope.DEDUP_MARKER != envelope.getDedup()) return Arrays.asList(envelope.getPool(), envelope.getQueue());
+            return Arrays.asList(envelope.getPool(), envelope.getQueue(), envelope.getDedupKey());
+        }
+        // 扇出的队列从KEYS[4]开始，不去重时以消息池key占住KEYS[3]，保证所有key在同一slot
+        List<String> keys = new ArrayList<>(3 + envelope.getFanout().size());
+        keys.add(envelope.getPool());
+        keys.add(envelope.getQueue());
+        keys.add(Envelope.DEDUP_MARKER == envelope.getDedup() ? envelope.getDedupKey() : envelope.getPool());
+        keys.addAll(envelope.getFanout());
+        return keys;
+    }
+
+    static List<byte[]> enqueueArgs(Envelope envelope) {
+        List<byte[]> args = new ArrayList<>(5);
+        args.add(envelope.getData());
+        args.add(SafeEncoder.encode(String.valueOf(envelope.getTtl())));
+        args.add(SafeEncoder.encode(String.valueOf(envelope.getScore())));
+        args.add(SafeEncoder.encode(envelope.getId()));
+        if (Envelope.DEDUP_PENDING == envelope.getDedup()) args.add(SafeEncoder.encode("p"));
+        if (Envelope.DEDUP_MARKER == envelope.getDedup()) {
+            args.add(SafeEncoder.encode(String.valueOf(envelope.getDedupWindow())));
+        }
+        if (Envelope.DEDUP_NONE == envelope.getDedup() && !envelope.getFanout().isEmpty()) args.add(new byte[0]);
+        return args;
+    }
+
+    @Override
+    public List<Double> firstScores(List<String> queues) {
+        if (1 == queues.size()) {
+            return Collections.singletonList(jedisUtils.firstScore(queues.get(0)));
+        }
+        return jedisUtils.firstScores(queues);
+    }
+
+    @Override
+    public Long queueSize(List<String> queues) {
+        return jedisUtils.zcards(queues);
+    }
+
+    @Override
+    public Long listSize(String list) {
+        return jedisUtils.countList(list);
+    }
+
+    @Override
+    public int[] promote(String list, List<String> lanes, String pool, long maxScore, int count, boolean express) {
+        return promoted(jedisUtils.evalScript(MqScripts.PROMOTE,
+                promoteKeys(list, lanes), promoteArgs(pool, maxScore, count, express)));
+    }
+
+    @Override
+    public List<int[]> promoteAll(String list, List<List<String>> shards, String pool, long maxScore, int count, boolean express) {
+        List<List<String>> keys = new ArrayList<>(shards.size());
+        for (List<String> lanes : shards) {
+            keys.add(promoteKeys(list, lanes));
+        }
+        List<Object> results = jedisUtils.evalScripts(MqScripts.PROMOTE, keys,
+                Collections.nCopies(shards.size(), promoteArgs(pool, maxScore, count, express)));
+        if (null == results) return null;
+        List<int[]> moved = new ArrayList<>(results.size());
+        for (Object result : results) {
+            moved.add(result instanceof List ? promoted(result) : null);
+        }
+        return moved;
+    }
+
+    @Override
+    public int[] promoteIds(String list, List<String> queues, List<String> ids, List<Long> scores, String pool, boolean express) {
+        return promoted(jedisUtils.evalScript(MqScripts.PROMOTE_IDS,
+                promoteKeys(list, queues), promoteIdsArgs(ids, scores, pool, express)));
+    }
+
+    static List<String> promoteKeys(String list, List<String> lanes) {
+        List<String> keys = new ArrayList<>(lanes.size() + 1);
+        keys.add(list);
+        keys.addAll(lanes);
+        return keys;
+    }
+
+    static List<String> promoteArgs(String pool, long maxScore, int count, boolean express) {
+        if (null == pool) return Arrays.asList(String.valueOf(maxScore), String.valueOf(count), express ? "1" : "0");
+        return Arrays.asList(String.valueOf(maxScore), String.valueOf(count), express ? "1" : "0", pool);
+    }
+
+    static List<String> promoteIdsArgs(List<String> ids, List<Long> scores, String pool, boolean express) {
+        List<String> args = new ArrayList<>(ids.size() * 2 + 2);
+        args.add(express ? "1" : "0");
+        args.add(null == pool ? "" : pool);
+        for (int i = 0; i < ids.size(); i++) {
+            args.add(ids.get(i));
+            args.add(String.valueOf(scores.get(i)));
+        }
+        return args;
+    }
+
+    /**
+     * 搬运脚本的返回值{搬运数量, 丢弃数量}，执行失败时为{0, 0}
+     * @param result
+     * @return
+     */
+    static int[] promoted(Object result) {
+        if (!(result instanceof List) || 2 > ((List<?>) result).size()) return new int[2];
+        List<?> counts = (List<?>) result;
+        return new int[] {((Long) counts.get(0)).intValue(), ((Long) counts.get(1)).intValue()};
+    }
+
+    @Override
+    public SweepPage sweep(Route route, String queue, String cursor, int count) {
+        ScanResult<Tuple> page = jedisUtils.zscan(queue, cursor, count);
+        if (null == page) return null;
+        List<String> ids = new ArrayList<>(page.getResult().size());
+        page.getResult().forEach(tuple -> ids.add(tuple.getElement()));
+        if (ids.isEmpty()) return new SweepPage(page.getStringCursor(), 0, 0);
+        Object purged = jedisUtils.evalScript(MqScripts.PURGE, purgeKeys(route, queue, ids), ids);
+        return new SweepPage(page.getStringCursor(), ids.size(), null == purged ? 0 : ((Long) purged).intValue());
+    }
+
+    static List<String> purgeKeys(Route route, String queue, List<String> ids) {
+        List<String> keys = new ArrayList<>(ids.size() + 1);
+        keys.add(queue);
+        keys.addAll(poolKeys(route, ids));
+        return keys;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> pop(String list, int count) {
+        Object popped = jedisUtils.evalScript(MqScripts.POP,
+                Collections.singletonList(list),
+                Collections.singletonList(String.valueOf(count)));
+        return popped instanceof List ? (List<String>) popped : Collections.<String>emptyList();
+    }
+
+    @Override
+    public String blockingPop(String list, int timeout) {
+        return jedisUtils.brpop(list, timeout);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> claim(Route route, String consumerId, long now, long deadline, int count, String staged) {
+        Object claimed = jedisUtils.evalScript(MqScripts.CLAIM,
+                Arrays.asList(route.getList(), route.inflightKey(consumerId),
+                        route.stagingKey(consumerId), route.consumersKey()),
+                Arrays.asList(String.valueOf(now), String.valueOf(deadline),
+                        String.valueOf(count), consumerId, staged));
+        return claimed instanceof List ? (List<String>) claimed : Collections.<String>emptyList();
+    }
+
+    @Override
+    public String stage(Route route, String consumerId, int timeout) {
+        return jedisUtils.brpoplpush(route.getList(), route.stagingKey(consumerId), timeout);
+    }
+
+    @Override
+    public int ack(Route route, String consumerId, List<String> ids) {
+        List<String> retryKeys = route.retryKeys();
+        List<String> keys = new ArrayList<>(ids.size() + retryKeys.size() + 3);
+        keys.add(route.inflightKey(consumerId));
+        keys.add(route.attemptsKey());
+        keys.add(route.deadKey());
+        keys.addAll(retryKeys);
+        keys.addAll(poolKeys(route, ids));
+        List<String> args = new ArrayList<>(ids.size() + 1);
+        args.add(String.valueOf(retryKeys.size()));
+        args.addAll(ids);
+        Object acked = jedisUtils.evalScript(MqScripts.ACK, keys, args);
+        return null == acked ? 0 : ((Long) acked).intValue();
+    }
+
+    @Override
+    public int nack(Route route, String consumerId, List<String> ids, long retryScore, long backoff, long maxBackoff) {
+        Object requeued = jedisUtils.evalScript(MqScripts.NACK, nackKeys(route, consumerId),
+                nackArgs(route, ids, retryScore, backoff, maxBackoff));
+        return null == requeued ? 0 : ((Long) requeued).intValue();
+    }
+
+    static List<String> nackKeys(Route route, String consumerId) {
+        List<String> keys = new ArrayList<>();
+        keys.add(route.inflightKey(consumerId));
+        keys.add(route.attemptsKey());
+        keys.add(route.deadKey());
+        keys.addAll(route.retryKeys());
+        return keys;
+    }
+
+    static List<String> nackArgs(Route route, List<String> ids, long retryScore, long backoff, long maxBackoff) {
+        List<String> args = new ArrayList<>(ids.size() + 5);
+        args.add(String.valueOf(retryScore));
+        args.add(String.valueOf(backoff));
+        args.add(String.valueOf(maxBackoff));
+        args.add(String.valueOf(route.getMaxAttempts()));
+        args.add(String.valueOf(MessageScore.dueTime(retryScore)));
+        args.addAll(ids);
+        return args;
+    }
+
+    @Override
+    public int reap(Route route, String consumerId, long now, long visibility,
+                    long retryScore, long backoff, long maxBackoff, int count, long inactivity) {
+        List<String> keys = new ArrayList<>();
+        keys.add(route.inflightKey(consumerId));
+        keys.add(route.stagingKey(consumerId));
+        keys.add(route.attemptsKey());
+        keys.add(route.consumersKey());
+        keys.add(route.deadKey());
+        keys.addAll(route.retryKeys());
+        Object reaped = jedisUtils.evalScript(MqScripts.REAP, keys,
+                Arrays.asList(String.valueOf(now),
+                        String.valueOf(visibility),
+                        String.valueOf(backoff),
+                        String.valueOf(maxBackoff),
+                        String.valueOf(count),
+                        consumerId,
+                        String.valueOf(inactivity),
+                        String.valueOf(retryScore),
+                        String.valueOf(route.getMaxAttempts())));
+        return null == reaped ? 0 : ((Long) reaped).intValue();
+    }
+
+    @Override
+    public Set<String> consumers(Route route) {
+        return jedisUtils.getSoredSetByRange(route.consumersKey(), 0, -1, false);
+    }
+
+    @Override
+    public List<Integer> attempts(Route route, List<String> ids) {
+        List<String> counts = jedisUtils.hmget(route.attemptsKey(), ids);
+        return null == counts ? null : counts(counts);
+    }
+
+    @Override
+    public List<String> deadLetters(Route route, int count) {
+        Set<String> ids = jedisUtils.getSoredSetByRange(route.deadKey(), 0, count - 1, false);
+        return null == ids ? null : new ArrayList<>(ids);
+    }
+
+    @Override
+    public int replay(Route route, long score, int count) {
+        Object replayed = jedisUtils.evalScript(MqScripts.REPLAY, replayKeys(route),
+                Arrays.asList(String.valueOf(score), String.valueOf(count)));
+        return null == replayed ? 0 : ((Long) replayed).intValue();
+    }
+
+    static List<String> replayKeys(Route route) {
+        List<String> keys = new ArrayList<>();
+        keys.add(route.deadKey());
+        keys.add(route.attemptsKey());
+        keys.addAll(route.retryKeys());
+        return keys;
+    }
+
+    static List<Integer> counts(List<String> counts) {
+        List<Integer> attempts = new ArrayList<>(counts.size());
+        for (String count : counts) {
+            attempts.add(null == count ? 0 : Integer.parseInt(count));
+        }
+        return attempts;
+    }
+
+    @Override
+    public List<Boolean> lease(String members, List<String> leases, String owner, long now, long ttl) {
+        Object owned = jedisUtils.evalScript(MqScripts.LEASE, leaseKeys(members, leases),
+                Arrays.asList(owner, String.valueOf(now), String.valueOf(ttl)));
+        return owned instanceof List ? owned((List<?>) owned) : null;
+    }
+
+    @Override
+    public void release(String members, List<String> leases, String owner) {
+        jedisUtils.evalScript(MqScripts.RELEASE, leaseKeys(members, leases), Collections.singletonList(owner));
+    }
+
+    static List<String> leaseKeys(String members, List<String> leases) {
+        List<String> keys = new ArrayList<>(leases.size() + 1);
+        keys.add(members);
+        keys.addAll(leases);
+        return keys;
+    }
+
+    static List<Boolean> owned(List<?> flags) {
+        List<Boolean> owned = new ArrayList<>(flags.size());
+        for (Object flag : flags) {
+            owned.add(flag instanceof Long && 1L == (Long) flag);
+        }
+        return owned;
+    }
+
+    @Override
+    public Map<String, String> catalog(String catalog) {
+        return jedisUtils.hgetAll(catalog);
+    }
+
+    @Override
+    public boolean catalog(String catalog, String queue, String spec) {
+        return jedisUtils.hset(catalog, queue, spec);
+    }
+
+    @Override
+    public long tokens(String bucket, int rate, int capacity, long now, long want) {
+        Object granted = jedisUtils.evalScript(MqScripts.TOKENS, Collections.singletonList(bucket), tokenArgs(rate, capacity, now, want));
+        return granted instanceof Long ? (Long) granted : -1;
+    }
+
+    static List<String> tokenArgs(int rate, int capacity, long now, long want) {
+        return Arrays.asList(String.valueOf(Math.max(1, rate)), String.valueOf(Math.max(1, capacity)),
+                String.valueOf(now), String.valueOf(want));
+    }
+
+    private List<String> poolKeys(List<String> ids) {
+        return poolKeys(null, ids);
+    }
+
+    /**
+     * 路由中消息的消息池key
+     * @param route 为null时使用不带hash tag的key
+     * @param ids
+     * @return
+     */
+    static List<String> poolKeys(Route route, List<String> ids) {
+        List<String> poolKeys = new ArrayList<>(ids.size());
+        ids.forEach(id -> poolKeys.add(null == route ? poolKey(id) : route.poolKey(id)));
+        return poolKeys;
+    }
+}
@@ -0,0 +1,375 @@
+package git.yampery.msmq.store;
+
+import com.lambdaworks.redis.ScoredValueScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+import git.yampery.msmq.MqScripts;
+import git.yampery.msmq.Route;
+import git.yampery.utils.LettuceUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @decription LettuceMessageStore
+ * <p>基于lettuce的redis存储实现，key布局与lua脚本和{@link JedisMessageStore}相同，两者可以混用<br>
+ * 所有命令在少量共享连接上异步发出，不占用连接池；
+ * 同步接口等待异步结果，失败时与{@link JedisMessageStore}一样返回null或false</p>
+ * @author Yampery
+ * @date 2026/10/18 21:00
+ */
+public class LettuceMessageStore implements MessageStore, AsyncMessageStore {
+
+    private final LettuceUtils lettuceUtils;
+
+    public LettuceMessageStore(LettuceUtils lettuceUtils) {
+        this.lettuceUtils = lettuceUtils;
+    }
+
+    @Override
+    public boolean put(String id, byte[] data, int ttl) {
+        return join(lettuceUtils.setex(JedisMessageStore.poolKey(id), data, ttl), false);
+    }
+
+    @Override
+    public boolean remove(String id) {
+        return join(lettuceUtils.del(JedisMessageStore.poolKey(id)), false);
+    }
+
+    @Override
+    public boolean put(Route route, String id, byte[] data, int ttl) {
+        return join(lettuceUtils.setex(null == route ? JedisMessageStore.poolKey(id) : route.poolKey(id), data, ttl), false);
+    }
+
+    @Override
+    public boolean remove(Route route, String id) {
+        return join(lettuceUtils.del(null == route ? JedisMessageStore.poolKey(id) : route.poolKey(id)), false);
+    }
+
+    @Override
+    public List<byte[]> get(List<String> ids) {
+        return join(lettuceUtils.mgetBytes(poolKeys(ids)), null);
+    }
+
+    @Override
+    public List<byte[]> take(List<String> ids) {
+        return join(takeAsync(ids), null);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> takeAsync(List<String> ids) {
+        return lettuceUtils.mgetAndDelBytes(poolKeys(ids));
+    }
+
+    @Override
+    public List<byte[]> get(Route route, List<String> ids) {
+        return join(lettuceUtils.mgetBytes(JedisMessageStore.poolKeys(route, ids)), null);
+    }
+
+    @Override
+    public List<byte[]> take(Route route, List<String> ids) {
+        return join(takeAsync(route, ids), null);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> takeAsync(Route route, List<String> ids) {
+        if (null == route) return takeAsync(ids);
+        if (ids.isEmpty()) return CompletableFuture.completedFuture(new ArrayList<>());
+        // 扇出的消息体由多个路由共用，逐个释放引用
+        return lettuceUtils.evalScriptBinary(MqScripts.TAKE, ScriptOutputType.MULTI,
+                JedisMessageStore.poolKeys(route, ids), Collections.emptyList())
+                .thenApply(JedisMessageStore::bodies);
+    }
+
+    @Override
+    public boolean schedule(String queue, long score, String id) {
+        return join(lettuceUtils.zadd(queue, score, id), false);
+    }
+
+    @Override
+    public boolean unschedule(String queue, String id) {
+        return join(lettuceUtils.zdel(queue, id), false);
+    }
+
+    @Override
+    public boolean enqueue(Envelope envelope) {
+        return join(enqueueAsync(envelope), false);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> enqueueAsync(Envelope envelope) {
+        return lettuceUtils.evalScriptBinary(MqScripts.ENQUEUE, ScriptOutputType.INTEGER,
+                JedisMessageStore.enqueueKeys(envelope), JedisMessageStore.enqueueArgs(envelope))
+                .thenApply(r -> null != r);
+    }
+
+    @Override
+    public List<Object> enqueue(List<Envelope> envelopes) {
+        return join(enqueueAsync(envelopes), null);
+    }
+
+    @Override
+    public CompletableFuture<List<Object>> enqueueAsync(List<Envelope> envelopes) {
+        List<List<String>> keys = new ArrayList<>(envelopes.size());
+        List<List<byte[]>> args = new ArrayList<>(envelopes.size());
+        for (Envelope envelope : envelopes) {
+            keys.add(JedisMessageStore.enqueueKeys(envelope));
+            args.add(JedisMessageStore.enqueueArgs(envelope));
+        }
+        return lettuceUtils.evalScriptsBinary(MqScripts.ENQUEUE, ScriptOutputType.INTEGER, keys, args);
+    }
+
+    @Override
+    public List<Double> firstScores(List<String> queues) {
+        return join(lettuceUtils.firstScores(queues), null);
+    }
+
+    @Override
+    public Long queueSize(List<String> queues) {
+        return join(lettuceUtils.zcards(queues), null);
+    }
+
+    @Override
+    public Long listSize(String list) {
+        return join(lettuceUtils.llen(list), null);
+    }
+
+    @Override
+    public int[] promote(String list, List<String> lanes, String pool, long maxScore, int count, boolean express) {
+        return JedisMessageStore.promoted(join(lettuceUtils.evalScript(MqScripts.PROMOTE, ScriptOutputType.MULTI,
+                JedisMessageStore.promoteKeys(list, lanes),
+                JedisMessageStore.promoteArgs(pool, maxScore, count, express)), null));
+    }
+
+    @Override
+    public List<int[]> promoteAll(String list, List<List<String>> shards, String pool, long maxScore, int count, boolean express) {
+        List<List<String>> keys = new ArrayList<>(shards.size());
+        List<List<byte[]>> args = new ArrayList<>(shards.size());
+        for (List<String> lanes : shards) {
+            keys.add(JedisMessageStore.promoteKeys(list, lanes));
+            args.add(encode(JedisMessageStore.promoteArgs(pool, maxScore, count, express)));
+        }
+        List<Object> results = join(lettuceUtils.evalScriptsBinary(MqScripts.PROMOTE, ScriptOutputType.MULTI,
+                keys, args), null);
+        if (null == results) return null;
+        List<int[]> moved = new ArrayList<>(results.size());
+        for (Object result : results) {
+            moved.add(result instanceof List ? JedisMessageStore.promoted(result) : null);
+        }
+        return moved;
+    }
+
+    @Override
+    public int[] promoteIds(String list, List<String> queues, List<String> ids, List<Long> scores, String pool, boolean express) {
+        return JedisMessageStore.promoted(join(lettuceUtils.evalScript(MqScripts.PROMOTE_IDS, ScriptOutputType.MULTI,
+                JedisMessageStore.promoteKeys(list, queues),
+                JedisMessageStore.promoteIdsArgs(ids, scores, pool, express)), null));
+    }
+
+    @Override
+    public SweepPage sweep(Route route, String queue, String cursor, int count) {
+        ScoredValueScanCursor<byte[]> page = join(lettuceUtils.zscan(queue, cursor, count), null);
+        if (null == page) return null;
+        List<String> ids = new ArrayList<>(page.getValues().size());
+        page.getValues().forEach(value -> ids.add(new String(value.value, StandardCharsets.UTF_8)));
+        String next = page.isFinished() ? SweepPage.START : page.getCursor();
+        if (ids.isEmpty()) return new SweepPage(next, 0, 0);
+        Object purged = join(lettuceUtils.evalScript(MqScripts.PURGE, ScriptOutputType.INTEGER,
+                JedisMessageStore.purgeKeys(route, queue, ids), ids), null);
+        return new SweepPage(next, ids.size(), count(purged));
+    }
+
+    @Override
+    public List<String> pop(String list, int count) {
+        return join(popAsync(list, count), Collections.<String>emptyList());
+    }
+
+    @Override
+    public CompletableFuture<List<String>> popAsync(String list, int count) {
+        return lettuceUtils.evalScript(MqScripts.POP, ScriptOutputType.MULTI,
+                Collections.singletonList(list), Collections.singletonList(String.valueOf(count)))
+                .thenApply(LettuceMessageStore::strings);
+    }
+
+    @Override
+    public String blockingPop(String list, int timeout) {
+        try {
+            return lettuceUtils.brpop(list, timeout);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public List<String> claim(Route route, String consumerId, long now, long deadline, int count, String staged) {
+        return join(lettuceUtils.evalScript(MqScripts.CLAIM, ScriptOutputType.MULTI,
+                Arrays.asList(route.getList(), route.inflightKey(consumerId),
+                        route.stagingKey(consumerId), route.consumersKey()),
+                Arrays.asList(String.valueOf(now), String.valueOf(deadline),
+                        String.valueOf(count), consumerId, staged))
+                .thenApply(LettuceMessageStore::strings), Collections.<String>emptyList());
+    }
+
+    @Override
+    public String stage(Route route, String consumerId, int timeout) {
+        try {
+            return lettuceUtils.brpoplpush(route.getList(), route.stagingKey(consumerId), timeout);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public int ack(Route route, String consumerId, List<String> ids) {
+        return join(ackAsync(route, consumerId, ids), 0);
+    }
+
+    @Override
+    public CompletableFuture<Integer> ackAsync(Route route, String consumerId, List<String> ids) {
+        List<String> retryKeys = route.retryKeys();
+        List<String> keys = new ArrayList<>(ids.size() + retryKeys.size() + 3);
+        keys.add(route.inflightKey(consumerId));
+        keys.add(route.attemptsKey());
+        keys.add(route.deadKey());
+        keys.addAll(retryKeys);
+        keys.addAll(JedisMessageStore.poolKeys(route, ids));
+        List<String> args = new ArrayList<>(ids.size() + 1);
+        args.add(String.valueOf(retryKeys.size()));
+        args.addAll(ids);
+        return lettuceUtils.evalScript(MqScripts.ACK, ScriptOutputType.INTEGER, keys, args)
+                .thenApply(LettuceMessageStore::count);
+    }
+
+    @Override
+    public int nack(Route route, String consumerId, List<String> ids, long retryScore, long backoff, long maxBackoff) {
+        return join(nackAsync(route, consumerId, ids, retryScore, backoff, maxBackoff), 0);
+    }
+
+    @Override
+    public CompletableFuture<Integer> nackAsync(Route route, String consumerId, List<String> ids,
+                                                long retryScore, long backoff, long maxBackoff) {
+        return lettuceUtils.evalScript(MqScripts.NACK, ScriptOutputType.INTEGER,
+                JedisMessageStore.nackKeys(route, consumerId),
+                JedisMessageStore.nackArgs(route, ids, retryScore, backoff, maxBackoff))
+                .thenApply(LettuceMessageStore::count);
+    }
+
+    @Override
+    public int reap(Route route, String consumerId, long now, long visibility,
+                    long retryScore, long backoff, long maxBackoff, int count, long inactivity) {
+        List<String> keys = new ArrayList<>();
+        keys.add(route.inflightKey(consumerId));
+        keys.add(route.stagingKey(consumerId));
+        keys.add(route.attemptsKey());
+        keys.add(route.consumersKey());
+        keys.add(route.deadKey());
+        keys.addAll(route.retryKeys());
+        return count(join(lettuceUtils.evalScript(MqScripts.REAP, ScriptOutputType.INTEGER, keys,
+                Arrays.asList(String.valueOf(now),
+                        String.valueOf(visibility),
+                        String.valueOf(backoff),
+                        String.valueOf(maxBackoff),
+                        String.valueOf(count),
+                        consumerId,
+                        String.valueOf(inactivity),
+                        String.valueOf(retryScore),
+                        String.valueOf(route.getMaxAttempts()))), null));
+    }
+
+    @Override
+    public Set<String> consumers(Route route) {
+        return join(lettuceUtils.zmembers(route.consumersKey()), null);
+    }
+
+    @Override
+    public List<Integer> attempts(Route route, List<String> ids) {
+        List<String> counts = join(lettuceUtils.hmget(route.attemptsKey(), ids), null);
+        return null == counts ? null : JedisMessageStore.counts(counts);
+    }
+
+    @Override
+    public List<String> deadLetters(Route route, int count) {
+        return join(lettuceUtils.zrange(route.deadKey(), 0, count - 1), null);
+    }
+
+    @Override
+    public int replay(Route route, long score, int count) {
+        return count(join(lettuceUtils.evalScript(MqScripts.REPLAY, ScriptOutputType.INTEGER,
+                JedisMessageStore.replayKeys(route),
+                Arrays.asList(String.valueOf(score), String.valueOf(count))), null));
+    }
+
+    @Override
+    public List<Boolean> lease(String members, List<String> leases, String owner, long now, long ttl) {
+        Object owned = join(lettuceUtils.evalScript(MqScripts.LEASE, ScriptOutputType.MULTI,
+                JedisMessageStore.leaseKeys(members, leases),
+                Arrays.asList(owner, String.valueOf(now), String.valueOf(ttl))), null);
+        return owned instanceof List ? JedisMessageStore.owned((List<?>) owned) : null;
+    }
+
+    @Override
+    public void release(String members, List<String> leases, String owner) {
+        join(lettuceUtils.evalScript(MqScripts.RELEASE, ScriptOutputType.INTEGER,
+                JedisMessageStore.leaseKeys(members, leases), Collections.singletonList(owner)), null);
+    }
+
+    @Override
+    public Map<String, String> catalog(String catalog) {
+        return join(lettuceUtils.hgetAll(catalog), null);
+    }
+
+    @Override
+    public boolean catalog(String catalog, String queue, String spec) {
+        return join(lettuceUtils.hset(catalog, queue, spec), false);
+    }
+
+    @Override
+    public long tokens(String bucket, int rate, int capacity, long now, long want) {
+        Object granted = join(lettuceUtils.evalScript(MqScripts.TOKENS, ScriptOutputType.INTEGER,
+                Collections.singletonList(bucket), JedisMessageStore.tokenArgs(rate, capacity, now, want)), null);
+        return granted instanceof Long ? (Long) granted : -1;
+    }
+
+    /**
+     * 等待异步结果，失败时打印异常并返回failed
+     */
+    private static <T> T join(CompletableFuture<T> future, T failed) {
+        try {
+            return future.join();
+        } catch (RuntimeException e) {
+            (null != e.getCause() ? e.getCause() : e).printStackTrace();
+        }
+        return failed;
+    }
+
+    private static int count(Object result) {
+        return result instanceof Long ? ((Long) result).intValue() : 0;
+    }
+
+    private static List<String> strings(Object result) {
+        if (!(result instanceof List)) return Collections.emptyList();
+        List<?> list = (List<?>) result;
+        List<String> strings = new ArrayList<>(list.size());
+        for (Object o : list) {
+            strings.add(o instanceof byte[] ? LettuceUtils.decode((byte[]) o) : String.valueOf(o));
+        }
+        return strings;
+    }
+
+    private static List<byte[]> encode(List<String> vals) {
+        List<byte[]> encoded = new ArrayList<>(vals.size());
+        vals.forEach(v -> encoded.add(LettuceUtils.encode(v)));
+        return encoded;
+    }
+
+    private List<String> poolKeys(List<String> ids) {
+        return JedisMessageStore.poolKeys(null, ids);
+    }
+}
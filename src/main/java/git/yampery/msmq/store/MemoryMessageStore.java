@@ -0,0 +1,729 @@
+package git.yampery.msmq.store;
+
+import git.yampery.msmq.MessageScore;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.TokenBucket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @decription MemoryMessageStore
+ * <p>进程内的存储实现，不依赖redis，用于单机低延迟场景与测试<br>
+ * 延迟队列为按(score, id)排序的并发跳表，配合id到score的索引实现更新与删除；
+ * 待消费列表为无锁双端队列，与redis的LIST一样左进右出，只有阻塞等待时才加锁<br>
+ * 每个key上的单个操作是线程安全的，同一消息id的搬运、确认等通过条件删除保证只生效一次；
+ * 数据不持久化，进程退出即丢失</p>
+ * @author Yampery
+ * @date 2026/10/18 19:10
+ */
+public class MemoryMessageStore implements MessageStore {
+
+    private final ConcurrentMap<String, Stored> pool = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DelayIndex> indexes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ReadyQueue> queues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> counters = new ConcurrentHashMap<>();
+    /**
+     * 去重标记及其到期时间
+     */
+    private final ConcurrentMap<String, Long> markers = new ConcurrentHashMap<>();
+    private final AtomicInteger markerWrites = new AtomicInteger();
+    /**
+     * 路由目录
+     */
+    private final ConcurrentMap<String, Map<String, String>> catalogs = new ConcurrentHashMap<>();
+    /**
+     * 限流令牌桶
+     */
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean put(String id, byte[] data, int ttl) {
+        pool.put(id, new Stored(data, 0 < ttl ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl) : 0));
+        return true;
+    }
+
+    @Override
+    public boolean remove(String id) {
+        pool.remove(id);
+        return true;
+    }
+
+    @Override
+    public List<byte[]> get(List<String> ids) {
+        long now = System.currentTimeMillis();
+        List<byte[]> data = new ArrayList<>(ids.size());
+        Stored stored;
+        for (String id : ids) {
+            stored = pool.get(id);
+            if (null != stored && stored.expired(now)) {
+                pool.remove(id, stored);
+                stored = null;
+            }
+            data.add(null == stored ? null : stored.data);
+        }
+        return data;
+    }
+
+    @Override
+    public List<byte[]> take(List<String> ids) {
+        long now = System.currentTimeMillis();
+        List<byte[]> data = new ArrayList<>(ids.size());
+        Stored stored;
+        for (String id : ids) {
+            stored = pool.get(id);
+            if (null != stored) release(id, stored, true);
+            data.add(null == stored || stored.expired(now) ? null : stored.data);
+        }
+        return data;
+    }
+
+    /**
+     * 释放一个路由对消息体的引用，扇出的消息体在最后一个路由释放时删除，其他消息体直接删除
+     * @param id
+     * @param stored
+     * @param owned 消息是否仍在该路由中，重复确认时不减少扇出消息的引用
+     */
+    private void release(String id, Stored stored, boolean owned) {
+        if (null != stored.refs && (!owned || 0 < stored.refs.decrementAndGet())) return;
+        pool.remove(id, stored);
+    }
+
+    @Override
+    public boolean schedule(String queue, long score, String id) {
+        index(queue).add(id, score);
+        return true;
+    }
+
+    @Override
+    public boolean unschedule(String queue, String id) {
+        DelayIndex index = indexes.get(queue);
+        return null != index && index.remove(id);
+    }
+
+    @Override
+    public boolean enqueue(Envelope envelope) {
+        write(envelope);
+        return true;
+    }
+
+    @Override
+    public List<Object> enqueue(List<Envelope> envelopes) {
+        List<Object> results = new ArrayList<>(envelopes.size());
+        for (Envelope envelope : envelopes) {
+            results.add(write(envelope) ? 1L : 0L);
+        }
+        return results;
+    }
+
+    /**
+     * 写入一条消息
+     * @param envelope
+     * @return 重复时不写入并返回false
+     */
+    private boolean write(Envelope envelope) {
+        if (duplicate(envelope)) return false;
+        // 先写消息体，消息id出现在队列中时消息体一定已存在
+        List<String> queues = envelope.getQueues();
+        long expireAt = 0 < envelope.getTtl()
+                ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(envelope.getTtl()) : 0;
+        pool.put(envelope.getId(), new Stored(envelope.getData(), expireAt,
+                1 < queues.size() ? new AtomicInteger(queues.size()) : null));
+        for (String queue : queues) {
+            schedule(queue, envelope.getScore(), envelope.getId());
+        }
+        return true;
+    }
+
+    private boolean duplicate(Envelope envelope) {
+        long now = System.currentTimeMillis();
+        if (Envelope.DEDUP_PENDING == envelope.getDedup()) {
+            Stored stored = pool.get(envelope.getId());
+            return null != stored && !stored.expired(now);
+        }
+        if (Envelope.DEDUP_MARKER != envelope.getDedup()) return false;
+        // 定期清理过期的标记
+        if (0 == (markerWrites.incrementAndGet() & 1023)) markers.values().removeIf(until -> until <= now);
+        Long until = now + envelope.getDedupWindow();
+        Long previous = markers.putIfAbsent(envelope.getDedupKey(), until);
+        if (null == previous) return false;
+        return previous > now || !markers.replace(envelope.getDedupKey(), previous, until);
+    }
+
+    @Override
+    public List<Double> firstScores(List<String> queues) {
+        List<Double> scores = new ArrayList<>(queues.size());
+        DelayIndex index;
+        for (String queue : queues) {
+            index = indexes.get(queue);
+            scores.add(null == index ? null : index.first());
+        }
+        return scores;
+    }
+
+    @Override
+    public Long queueSize(List<String> queues) {
+        long size = 0;
+        DelayIndex index;
+        for (String queue : queues) {
+            index = indexes.get(queue);
+            if (null != index) size += index.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Long listSize(String list) {
+        ReadyQueue ready = queues.get(list);
+        return null == ready ? 0L : ready.size();
+    }
+
+    @Override
+    public int[] promote(String list, List<String> lanes, String pool, long maxScore, int count, boolean express) {
+        ReadyQueue ready = queue(list);
+        List<String> ids = new ArrayList<>();
+        int total = 0, dropped = 0;
+        DelayIndex index;
+        for (int k = 0; k < lanes.size() && total + dropped < count; k++) {
+            index = indexes.get(lanes.get(k));
+            if (null == index) continue;
+            ids.clear();
+            index.pollDue(maxScore, count - total - dropped, ids);
+            if (null != pool) dropped += dropExpired(ids);
+            if (ids.isEmpty()) continue;
+            if (0 == k && express) {
+                ready.pushFront(ids);
+            } else {
+                ready.pushBack(ids);
+            }
+            total += ids.size();
+        }
+        return new int[] {total, dropped};
+    }
+
+    @Override
+    public List<int[]> promoteAll(String list, List<List<String>> shards, String pool, long maxScore, int count, boolean express) {
+        List<int[]> moved = new ArrayList<>(shards.size());
+        for (List<String> lanes : shards) {
+            moved.add(promote(list, lanes, pool, maxScore, count, express));
+        }
+        return moved;
+    }
+
+    @Override
+    public int[] promoteIds(String list, List<String> queues, List<String> ids, List<Long> scores, String pool, boolean express) {
+        List<String> moved = new ArrayList<>(ids.size());
+        DelayIndex index;
+        for (int i = 0; i < ids.size(); i++) {
+            index = indexes.get(queues.get(i));
+            if (null != index && index.remove(ids.get(i), scores.get(i))) moved.add(ids.get(i));
+        }
+        int dropped = null == pool ? 0 : dropExpired(moved);
+        if (moved.isEmpty()) return new int[] {0, dropped};
+        if (express) {
+            queue(list).pushFront(moved);
+        } else {
+            queue(list).pushBack(moved);
+        }
+        return new int[] {moved.size(), dropped};
+    }
+
+    /**
+     * 移除消息体已不存在的id
+     * @param ids
+     * @return 移除的数量
+     */
+    private int dropExpired(List<String> ids) {
+        long now = System.currentTimeMillis();
+        int size = ids.size();
+        ids.removeIf(id -> !live(id, now));
+        return size - ids.size();
+    }
+
+    private boolean live(String id, long now) {
+        Stored stored = pool.get(id);
+        return null != stored && !stored.expired(now);
+    }
+
+    /**
+     * 游标为已扫描的元素数量，扫描期间的增删可能导致少量元素被跳过或重复扫描，与SCAN的保证一致
+     */
+    @Override
+    public SweepPage sweep(Route route, String queue, String cursor, int count) {
+        DelayIndex index = indexes.get(queue);
+        if (null == index) return new SweepPage(SweepPage.START, 0, 0);
+        long offset = Long.parseLong(cursor);
+        long now = System.currentTimeMillis();
+        List<String> ids = new ArrayList<>();
+        index.range(offset, count, ids);
+        int purged = 0;
+        for (String id : ids) {
+            if (!live(id, now) && index.remove(id)) purged++;
+        }
+        String next = ids.size() < count ? SweepPage.START : String.valueOf(offset + ids.size() - purged);
+        return new SweepPage(next, ids.size(), purged);
+    }
+
+    @Override
+    public List<String> pop(String list, int count) {
+        ReadyQueue ready = queues.get(list);
+        if (null == ready) return Collections.emptyList();
+        List<String> ids = new ArrayList<>(Math.min(count, 64));
+        String id;
+        while (ids.size() < count && null != (id = ready.poll())) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Override
+    public String blockingPop(String list, int timeout) {
+        try {
+            return queue(list).take(TimeUnit.SECONDS.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public List<String> claim(Route route, String consumerId, long now, long deadline, int count, String staged) {
+        List<String> out = new ArrayList<>();
+        if (!staged.isEmpty()) {
+            queue(route.stagingKey(consumerId)).remove(staged);
+            out.add(staged);
+        }
+        if (count > out.size()) out.addAll(pop(route.getList(), count - out.size()));
+        DelayIndex inflight = index(route.inflightKey(consumerId));
+        for (String id : out) {
+            inflight.add(id, deadline);
+        }
+        index(route.consumersKey()).add(consumerId, now);
+        return out;
+    }
+
+    @Override
+    public String stage(Route route, String consumerId, int timeout) {
+        String id = blockingPop(route.getList(), timeout);
+        if (null != id) queue(route.stagingKey(consumerId)).pushBack(Collections.singletonList(id));
+        return id;
+    }
+
+    @Override
+    public int ack(Route route, String consumerId, List<String> ids) {
+        DelayIndex inflight = index(route.inflightKey(consumerId));
+        Map<String, Integer> attempts = counter(route.attemptsKey());
+        int acked = 0;
+        boolean owned;
+        Stored stored;
+        for (String id : ids) {
+            owned = inflight.remove(id);
+            if (owned) {
+                acked++;
+            } else {
+                owned = unschedule(retryKey(route, id), id) || unschedule(route.deadKey(), id);
+            }
+            attempts.remove(id);
+            stored = pool.get(id);
+            if (null != stored) release(id, stored, owned);
+        }
+        return acked;
+    }
+
+    @Override
+    public int nack(Route route, String consumerId, List<String> ids, long retryScore, long backoff, long maxBackoff) {
+        DelayIndex inflight = index(route.inflightKey(consumerId));
+        int requeued = 0;
+        for (String id : ids) {
+            if (inflight.remove(id)) {
+                retry(route, id, retryScore, backoff, maxBackoff);
+                requeued++;
+            }
+        }
+        return requeued;
+    }
+
+    @Override
+    public int reap(Route route, String consumerId, long now, long visibility,
+                    long retryScore, long backoff, long maxBackoff, int count, long inactivity) {
+        DelayIndex inflight = index(route.inflightKey(consumerId));
+        ReadyQueue staging = queues.get(route.stagingKey(consumerId));
+        String staged;
+        while (null != staging && null != (staged = staging.poll())) {
+            if (null == inflight.score(staged)) inflight.add(staged, now + visibility);
+        }
+        List<String> expired = new ArrayList<>();
+        inflight.pollDue(now, count, expired);
+        for (String id : expired) {
+            retry(route, id, retryScore, backoff, maxBackoff);
+        }
+        if (inflight.isEmpty()) {
+            DelayIndex consumers = index(route.consumersKey());
+            Long seen = consumers.score(consumerId);
+            if (null != seen && seen < now - inactivity) consumers.remove(consumerId);
+        }
+        return expired.size();
+    }
+
+    private void retry(Route route, String id, long retryScore, long backoff, long maxBackoff) {
+        int attempt = counter(route.attemptsKey()).merge(id, 1, Integer::sum);
+        if (0 < route.getMaxAttempts() && attempt >= route.getMaxAttempts()) {
+            counter(route.attemptsKey()).remove(id);
+            schedule(route.deadKey(), MessageScore.dueTime(retryScore), id);
+            return;
+        }
+        long delay = (long) Math.min(backoff * Math.pow(2, attempt - 1), maxBackoff);
+        schedule(retryKey(route, id), retryScore + delay, id);
+    }
+
+    private String retryKey(Route route, String id) {
+        return route.laneKey(Route.shardOf(id, route.getShards()), route.retryLane());
+    }
+
+    @Override
+    public Set<String> consumers(Route route) {
+        DelayIndex consumers = indexes.get(route.consumersKey());
+        return null == consumers ? Collections.<String>emptySet() : new HashSet<>(consumers.members());
+    }
+
+    @Override
+    public List<Integer> attempts(Route route, List<String> ids) {
+        Map<String, Integer> attempts = counter(route.attemptsKey());
+        List<Integer> counts = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            counts.add(attempts.getOrDefault(id, 0));
+        }
+        return counts;
+    }
+
+    @Override
+    public List<String> deadLetters(Route route, int count) {
+        DelayIndex dead = indexes.get(route.deadKey());
+        List<String> ids = new ArrayList<>();
+        if (null != dead) dead.first(count, ids);
+        return ids;
+    }
+
+    @Override
+    public int replay(Route route, long score, int count) {
+        List<String> ids = deadLetters(route, count);
+        Map<String, Integer> attempts = counter(route.attemptsKey());
+        for (String id : ids) {
+            if (unschedule(route.deadKey(), id)) {
+                attempts.remove(id);
+                schedule(retryKey(route, id), score, id);
+            }
+        }
+        return ids.size();
+    }
+
+    /**
+     * 进程内存储只在一个实例中使用，始终持有所有租约
+     */
+    @Override
+    public List<Boolean> lease(String members, List<String> leases, String owner, long now, long ttl) {
+        return new ArrayList<>(Collections.nCopies(leases.size(), Boolean.TRUE));
+    }
+
+    @Override
+    public void release(String members, List<String> leases, String owner) {
+    }
+
+    @Override
+    public Map<String, String> catalog(String catalog) {
+        Map<String, String> routes = catalogs.get(catalog);
+        return null == routes ? new HashMap<>() : new HashMap<>(routes);
+    }
+
+    @Override
+    public boolean catalog(String catalog, String queue, String spec) {
+        if (null == spec) {
+            Map<String, String> routes = catalogs.get(catalog);
+            if (null != routes) routes.remove(queue);
+        } else {
+            catalogs.computeIfAbsent(catalog, c -> new ConcurrentHashMap<>()).put(queue, spec);
+        }
+        return true;
+    }
+
+    @Override
+    public long tokens(String bucket, int rate, int capacity, long now, long want) {
+        TokenBucket current = buckets.compute(bucket,
+                (key, b) -> null == b || !b.matches(rate, capacity) ? new TokenBucket(rate, capacity, now) : b);
+        if (0 <= want) return current.acquire(want, now);
+        current.refund(-want, now);
+        return 0;
+    }
+
+    /**
+     * 清空所有数据
+     */
+    public void clear() {
+        pool.clear();
+        indexes.clear();
+        queues.clear();
+        counters.clear();
+        markers.clear();
+        catalogs.clear();
+        buckets.clear();
+    }
+
+    private DelayIndex index(String key) {
+        return indexes.computeIfAbsent(key, k -> new DelayIndex());
+    }
+
+    private ReadyQueue queue(String key) {
+        return queues.computeIfAbsent(key, k -> new ReadyQueue());
+    }
+
+    private ConcurrentMap<String, Integer> counter(String key) {
+        return counters.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 消息池中的消息
+     */
+    private static final class Stored {
+
+        final byte[] data;
+        final long expireAt;
+        /**
+         * 扇出时尚未释放消息体的路由数量，不扇出时为null
+         */
+        final AtomicInteger refs;
+
+        Stored(byte[] data, long expireAt) {
+            this(data, expireAt, null);
+        }
+
+        Stored(byte[] data, long expireAt, AtomicInteger refs) {
+            this.data = data;
+            this.expireAt = expireAt;
+            this.refs = refs;
+        }
+
+        boolean expired(long now) {
+            return 0 < expireAt && expireAt <= now;
+        }
+    }
+
+    /**
+     * 延迟索引，相当于redis的ZSET<br>
+     * 同一id的增删在索引的compute中进行，跳表与索引保持一致
+     */
+    static final class DelayIndex {
+
+        private final ConcurrentSkipListSet<Item> items = new ConcurrentSkipListSet<>();
+        private final ConcurrentHashMap<String, Long> scores = new ConcurrentHashMap<>();
+
+        void add(String id, long score) {
+            scores.compute(id, (k, old) -> {
+                if (null != old) items.remove(new Item(old, k));
+                items.add(new Item(score, k));
+                return score;
+            });
+        }
+
+        boolean remove(String id) {
+            boolean[] removed = new boolean[1];
+            scores.computeIfPresent(id, (k, old) -> {
+                items.remove(new Item(old, k));
+                removed[0] = true;
+                return null;
+            });
+            return removed[0];
+        }
+
+        /**
+         * 仅当元素的score等于给定值时删除
+         */
+        boolean remove(String id, long score) {
+            boolean[] removed = new boolean[1];
+            scores.computeIfPresent(id, (k, old) -> {
+                if (old != score) return old;
+                items.remove(new Item(old, k));
+                removed[0] = true;
+                return null;
+            });
+            return removed[0];
+        }
+
+        /**
+         * 从最早的元素开始取出score不大于maxScore的元素，至多limit个
+         */
+        void pollDue(long maxScore, int limit, List<String> out) {
+            Iterator<Item> it = items.iterator();
+            Item item;
+            boolean[] taken = new boolean[1];
+            while (out.size() < limit && it.hasNext()) {
+                item = it.next();
+                if (item.score > maxScore) break;
+                final Item due = item;
+                taken[0] = false;
+                scores.computeIfPresent(due.id, (k, old) -> {
+                    if (old != due.score) return old;
+                    items.remove(due);
+                    taken[0] = true;
+                    return null;
+                });
+                if (taken[0]) out.add(due.id);
+            }
+        }
+
+        /**
+         * 跳过最早的offset个元素后的至多limit个元素
+         */
+        void range(long offset, int limit, List<String> out) {
+            Iterator<Item> it = items.iterator();
+            for (long i = 0; i < offset && it.hasNext(); i++) it.next();
+            while (out.size() < limit && it.hasNext()) {
+                out.add(it.next().id);
+            }
+        }
+
+        /**
+         * 最早的至多limit个元素
+         */
+        void first(int limit, List<String> out) {
+            Iterator<Item> it = items.iterator();
+            while (out.size() < limit && it.hasNext()) {
+                out.add(it.next().id);
+            }
+        }
+
+        Double first() {
+            Iterator<Item> it = items.iterator();
+            return it.hasNext() ? (double) it.next().score : null;
+        }
+
+        Long score(String id) {
+            return scores.get(id);
+        }
+
+        boolean isEmpty() {
+            return scores.isEmpty();
+        }
+
+        int size() {
+            return scores.size();
+        }
+
+        Set<String> members() {
+            return scores.keySet();
+        }
+    }
+
+    static final class Item implements Comparable<Item> {
+
+        final long score;
+        final String id;
+
+        Item(long score, String id) {
+            this.score = score;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Item o) {
+            int c = Long.compare(score, o.score);
+            return 0 != c ? c : id.compareTo(o.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Item && score == ((Item) o).score && id.equals(((Item) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(score) + id.hashCode();
+        }
+    }
+
+    /**
+     * 待消费列表，相当于redis的LIST：普通消息从尾部进入，从头部取出<br>
+     * 入列与出列无锁，只有列表为空需要阻塞等待时才使用监视器
+     */
+    static final class ReadyQueue {
+
+        private final ConcurrentLinkedDeque<String> deque = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        /**
+         * 按顺序加入列表尾部，相当于LPUSH
+         */
+        void pushBack(List<String> ids) {
+            for (String id : ids) {
+                deque.addLast(id);
+            }
+            signal();
+        }
+
+        /**
+         * 加入列表头部并保持ids的先后顺序，越过已积压的消息
+         */
+        void pushFront(List<String> ids) {
+            for (int i = ids.size() - 1; i >= 0; i--) {
+                deque.addFirst(ids.get(i));
+            }
+            signal();
+        }
+
+        String poll() {
+            return deque.pollFirst();
+        }
+
+        /**
+         * 需要遍历整个队列，只用于统计
+         */
+        long size() {
+            return deque.size();
+        }
+
+        boolean remove(String id) {
+            return deque.removeFirstOccurrence(id);
+        }
+
+        /**
+         * 取出头部元素，列表为空时等待至多timeout毫秒，0表示一直等待（与BRPOP一致）
+         */
+        String take(long timeout) throws InterruptedException {
+            String id = deque.pollFirst();
+            if (null != id) return id;
+            long deadline = 0 < timeout ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+            waiters.incrementAndGet();
+            try {
+                synchronized (this) {
+                    long wait;
+                    while (null == (id = deque.pollFirst())
+                            && 0 < (wait = deadline - System.currentTimeMillis())) {
+                        wait(Long.MAX_VALUE == deadline ? 0 : wait);
+                    }
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+            return id;
+        }
+
+        private void signal() {
+            if (0 < waiters.get()) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package git.yampery.msmq.store;
+
+import git.yampery.msmq.Route;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @decription MessageStore
+ * <p>消息队列的存储接口，涵盖{@link git.yampery.msmq.RedisMQ}使用的消息池、延迟队列与待消费列表操作<br>
+ * 延迟队列、待消费列表等的key由{@link Route}计算，各实现按同样的key组织数据<br>
+ * 默认实现为基于redis的{@link JedisMessageStore}，单机低延迟场景与测试可使用进程内的{@link MemoryMessageStore}</p>
+ * @author Yampery
+ * @date 2026/10/18 19:10
+ */
+public interface MessageStore {
+
+    /**
+     * 存入消息池
+     * @param id 消息id
+     * @param data 编码后的消息
+     * @param ttl 存活时间（秒）
+     * @return
+     */
+    boolean put(String id, byte[] data, int ttl);
+
+    /**
+     * 从消息池删除消息
+     * @param id
+     * @return
+     */
+    boolean remove(String id);
+
+    /**
+     * 存入路由的消息池，路由开启hash tag时消息体与路由的其他key在同一slot
+     * @param route 为null时同{@link #put(String, byte[], int)}
+     * @param id
+     * @param data
+     * @param ttl
+     * @return
+     */
+    default boolean put(Route route, String id, byte[] data, int ttl) {
+        return put(id, data, ttl);
+    }
+
+    /**
+     * 从路由的消息池删除消息
+     * @param route 为null时同{@link #remove(String)}
+     * @param id
+     * @return
+     */
+    default boolean remove(Route route, String id) {
+        return remove(id);
+    }
+
+    /**
+     * 批量读取消息池
+     * @param ids
+     * @return 与ids一一对应，不存在的为null；读取失败返回null
+     */
+    List<byte[]> get(List<String> ids);
+
+    /**
+     * 批量读取并删除消息池中的消息
+     * @param ids
+     * @return 与ids一一对应，不存在的为null；读取失败返回null
+     */
+    List<byte[]> take(List<String> ids);
+
+    /**
+     * 批量读取路由的消息，路由开启hash tag时消息体与路由的其他key在同一slot
+     * @param route 为null时同{@link #get(List)}
+     * @param ids
+     * @return 与ids一一对应，不存在的为null；读取失败返回null
+     */
+    default List<byte[]> get(Route route, List<String> ids) {
+        return get(ids);
+    }
+
+    /**
+     * 批量读取并删除路由的消息
+     * @param route 为null时同{@link #take(List)}
+     * @param ids
+     * @return 与ids一一对应，不存在的为null；读取失败返回null
+     */
+    default List<byte[]> take(Route route, List<String> ids) {
+        return take(ids);
+    }
+
+    /**
+     * 将消息id加入延迟队列，已存在时更新score
+     * @param queue 延迟队列key
+     * @param score
+     * @param id
+     * @return
+     */
+    boolean schedule(String queue, long score, String id);
+
+    /**
+     * 从延迟队列删除消息id
+     * @param queue
+     * @param id
+     * @return 是否存在并删除
+     */
+    boolean unschedule(String queue, String id);
+
+    /**
+     * 原子地写入消息池并加入延迟队列，按{@link Envelope#getDedup()}判定为重复时不写入
+     * @param envelope
+     * @return 是否成功，重复也视为成功
+     */
+    boolean enqueue(Envelope envelope);
+
+    /**
+     * 批量写入，每条消息各自原子写入
+     * @param envelopes
+     * @return 与消息一一对应的结果，成功为1，重复为0，失败为异常对象；整体失败返回null
+     */
+    List<Object> enqueue(List<Envelope> envelopes);
+
+    /**
+     * 延迟队列中最小的score
+     * @param queues
+     * @return 与queues一一对应，队列为空的为null；读取失败返回null
+     */
+    List<Double> firstScores(List<String> queues);
+
+    /**
+     * 延迟队列中的消息总数
+     * @param queues
+     * @return 失败返回null
+     */
+    Long queueSize(List<String> queues);
+
+    /**
+     * 待消费列表长度
+     * @param list
+     * @return 失败返回null
+     */
+    Long listSize(String list);
+
+    /**
+     * 将一个分片各优先级通道中已到期的消息搬运到待消费列表，先搬完高优先级通道
+     * @param list 待消费列表
+     * @param lanes 优先级通道，按优先级从高到低排列
+     * @param pool 消息池key前缀，不为null时消息体已过期的消息出队后丢弃，不读取消息体
+     * @param maxScore 到期score
+     * @param count 最多出队数量（包含丢弃的）
+     * @param express 是否将最高优先级通道的消息放到列表的消费端
+     * @return {搬运数量, 丢弃的过期消息数量}
+     */
+    int[] promote(String list, List<String> lanes, String pool, long maxScore, int count, boolean express);
+
+    /**
+     * 并行搬运多个分片
+     * @param list 待消费列表
+     * @param shards 每个分片的优先级通道
+     * @param pool 消息池key前缀，不为null时丢弃消息体已过期的消息
+     * @param maxScore 到期score
+     * @param count 每个分片最多出队数量
+     * @param express 是否将最高优先级通道的消息放到列表的消费端
+     * @return 与分片一一对应的{搬运数量, 丢弃数量}，失败的分片为null；整体失败返回null
+     */
+    List<int[]> promoteAll(String list, List<List<String>> shards, String pool, long maxScore, int count, boolean express);
+
+    /**
+     * 按id搬运指定消息，消息的score与加入时不一致（已被搬运、删除或重新调度）时跳过
+     * @param list 待消费列表
+     * @param queues 每条消息所在的消息队列
+     * @param ids 消息id，按到期顺序排列
+     * @param scores 每条消息加入时的score
+     * @param pool 消息池key前缀，不为null时丢弃消息体已过期的消息
+     * @param express 是否放到列表的消费端
+     * @return {搬运数量, 丢弃的过期消息数量}
+     */
+    int[] promoteIds(String list, List<String> queues, List<String> ids, List<Long> scores, String pool, boolean express);
+
+    /**
+     * 增量清理：从cursor开始扫描消息队列中的一批消息id，删除消息体已不存在的id
+     * @param route
+     * @param queue 消息队列或死信队列
+     * @param cursor 扫描游标，从"0"开始
+     * @param count 单次扫描的数量提示
+     * @return 扫描结果，读取失败返回null
+     */
+    SweepPage sweep(Route route, String queue, String cursor, int count);
+
+    /**
+     * 从待消费列表按入列顺序弹出至多count个消息id
+     * @param list
+     * @param count
+     * @return
+     */
+    List<String> pop(String list, int count);
+
+    /**
+     * 阻塞等待待消费列表中的一个消息id
+     * @param list
+     * @param timeout 最长阻塞时间（秒）
+     * @return 超时返回null
+     */
+    String blockingPop(String list, int timeout);
+
+    /**
+     * 可靠消费：从待消费列表取出一批消息id放入消费者的处理中集合，记录处理期限并登记消费者
+     * @param route
+     * @param consumerId
+     * @param now 当前时间
+     * @param deadline 处理期限
+     * @param count 最多取出数量（包含暂存的消息）
+     * @param staged 已暂存的消息id，没有则为空字符串
+     * @return 取出的消息id，按入列顺序排列
+     */
+    List<String> claim(Route route, String consumerId, long now, long deadline, int count, String staged);
+
+    /**
+     * 阻塞等待待消费列表中的一个消息id，并移入消费者的暂存列表
+     * @param route
+     * @param consumerId
+     * @param timeout 最长阻塞时间（秒）
+     * @return 超时返回null
+     */
+    String stage(Route route, String consumerId, int timeout);
+
+    /**
+     * 确认消息处理成功，删除处理中记录、重试次数与消息体，已重新入队的消息从重试通道撤回
+     * @param route
+     * @param consumerId
+     * @param ids
+     * @return 按期确认的消息数量
+     */
+    int ack(Route route, String consumerId, List<String> ids);
+
+    /**
+     * 消息处理失败，移回重试通道，score为retryScore加上按重试次数翻倍的退避；
+     * 达到路由的最大投递次数时转入死信队列
+     * @param route
+     * @param consumerId
+     * @param ids
+     * @param retryScore 当前时间对应的score
+     * @param backoff 首次退避（score增量）
+     * @param maxBackoff 最大退避（score增量）
+     * @return 重新入队或转入死信队列的消息数量
+     */
+    int nack(Route route, String consumerId, List<String> ids, long retryScore, long backoff, long maxBackoff);
+
+    /**
+     * 回收一个消费者超过处理期限的消息，补记暂存消息的处理期限，注销长期不活跃的消费者；
+     * 达到路由的最大投递次数的消息转入死信队列
+     * @param route
+     * @param consumerId
+     * @param now 当前时间
+     * @param visibility 处理期限时长
+     * @param retryScore 当前时间对应的score
+     * @param backoff 首次退避（score增量）
+     * @param maxBackoff 最大退避（score增量）
+     * @param count 最多回收数量
+     * @param inactivity 消费者不活跃多久后注销
+     * @return 回收数量
+     */
+    int reap(Route route, String consumerId, long now, long visibility,
+             long retryScore, long backoff, long maxBackoff, int count, long inactivity);
+
+    /**
+     * 路由的所有消费者
+     * @param route
+     * @return 读取失败返回null
+     */
+    Set<String> consumers(Route route);
+
+    /**
+     * 消息已失败的次数
+     * @param route
+     * @param ids
+     * @return 与ids一一对应；读取失败返回null
+     */
+    List<Integer> attempts(Route route, List<String> ids);
+
+    /**
+     * 死信队列中最早转入的消息id
+     * @param route
+     * @param count
+     * @return 读取失败返回null
+     */
+    List<String> deadLetters(Route route, int count);
+
+    /**
+     * 将死信队列中最早转入的至多count个消息放回重试通道，重试次数清零
+     * @param route
+     * @param score 当前时间对应的score
+     * @param count
+     * @return 重放的消息数量
+     */
+    int replay(Route route, long score, int count);
+
+    /**
+     * 登记监听实例，续约并平衡分片租约，每个分片同一时间只由一个实例搬运
+     * @param members 监听实例登记表
+     * @param leases 所有分片的租约
+     * @param owner 实例id
+     * @param now 当前时间
+     * @param ttl 租约时长（毫秒）
+     * @return 与leases一一对应的持有状态；失败返回null
+     */
+    List<Boolean> lease(String members, List<String> leases, String owner, long now, long ttl);
+
+    /**
+     * 注销监听实例并释放其持有的租约
+     * @param members
+     * @param leases
+     * @param owner
+     */
+    void release(String members, List<String> leases, String owner);
+
+    /**
+     * 读取路由目录
+     * @param catalog 路由目录（hash）
+     * @return 消息队列到路由配置的映射；读取失败返回null
+     */
+    Map<String, String> catalog(String catalog);
+
+    /**
+     * 写入或删除路由目录中的一个路由
+     * @param catalog 路由目录
+     * @param queue 消息队列
+     * @param spec 路由配置，为null时删除
+     * @return 是否成功
+     */
+    boolean catalog(String catalog, String queue, String spec);
+
+    /**
+     * 从多个实例共用的令牌桶中取出或归还令牌
+     * @param bucket 令牌桶
+     * @param rate 每秒补充的令牌数
+     * @param capacity 令牌桶容量
+     * @param now 当前时间
+     * @param want 取出的令牌数，负数表示归还
+     * @return 取得的令牌数；失败返回-1
+     */
+    long tokens(String bucket, int rate, int capacity, long now, long want);
+}
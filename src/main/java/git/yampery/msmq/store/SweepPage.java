@@ -0,0 +1,54 @@
+package git.yampery.msmq.store;
+
+/**
+ * @decription SweepPage
+ * <p>一次增量清理的结果：下一次扫描的游标与本批清理的数量<br>
+ * 游标为"0"表示已扫描完一轮</p>
+ * @author Yampery
+ * @date 2026/10/19 01:30
+ */
+public final class SweepPage {
+
+    /**
+     * 扫描的起始游标
+     */
+    public static final String START = "0";
+
+    private final String cursor;
+    private final int scanned;
+    private final int purged;
+
+    public SweepPage(String cursor, int scanned, int purged) {
+        this.cursor = cursor;
+        this.scanned = scanned;
+        this.purged = purged;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * 本批扫描的消息id数量
+     * @return
+     */
+    public int getScanned() {
+        return scanned;
+    }
+
+    /**
+     * 本批删除的无消息体的消息id数量
+     * @return
+     */
+    public int getPurged() {
+        return purged;
+    }
+
+    /**
+     * 是否已扫描完一轮
+     * @return
+     */
+    public boolean isFinished() {
+        return START.equals(cursor);
+    }
+}
@@ -1,41 +1,28 @@
 package git.yampery.task;
 
 import com.alibaba.fastjson.JSONObject;
-import git.yampery.msmq.RedisMQ;
-import org.springframework.scheduling.annotation.Scheduled;
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageHandler;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
-import javax.annotation.Resource;
-import java.util.List;
-
 /**
  * @decription MsgTask
- * <p>发送消息</p>
+ * <p>发送消息，由消费容器{@link git.yampery.msmq.ConsumerContainer}在消息到达时回调<br>
+ * 所有路由的消息都会交给该处理器，回调可能来自多个线程</p>
  * @author Yampery
  * @date 2018/2/9 18:04
  */
 @Component
-public class MsgTask {
-
-    @Resource private RedisMQ redisMQ;
-    // @Value("${mq.list.first}") private String MQ_LIST_FIRST;
+public class MsgTask implements MessageHandler {
 
-    @Scheduled(cron="*/5 * * * * *")
-    public void sendMsg() {
-        // 消费
-        List<String> msgs = redisMQ.consume(redisMQ.getRoutes().get(0).getList());
-        int len;
-        if (null != msgs && 0 < (len = msgs.size())) {
-            // 将每一条消息转为JSONObject
-            JSONObject jObj;
-            for (int i = 0; i < len; i++) {
-                if (!StringUtils.isEmpty(msgs.get(i))) {
-                    jObj = JSONObject.parseObject(msgs.get(i));
-                    // 取出消息
-                    System.out.println(jObj.toJSONString());
-                }
-            }
+    @Override
+    public void onMessage(Message message) {
+        // 将每一条消息转为JSONObject
+        if (!StringUtils.isEmpty(message.getBody())) {
+            JSONObject jObj = JSONObject.parseObject(message.getBody());
+            // 取出消息
+            System.out.println(jObj.toJSONString());
         }
     }
 }
@@ -1,24 +1,129 @@
 package git.yampery.utils;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @decription JedisUtils
- * <p>redis操作工具</p>
+ * <p>redis操作工具<br>
+ * 连接池为单机的JedisPool或哨兵的JedisSentinelPool，主从切换后自动连接新的主节点<br>
+ * 设置了{@link MeterRegistry}时记录每个命令的耗时与失败次数、从连接池获取连接的等待时间以及连接池状态</p>
  * @author Yampery
  * @date 2018/2/9 12:53
  */
 @Component
 public class JedisUtils {
 
-    @Resource private JedisPool jedisPool;
+    @Resource private Pool<Jedis> jedisPool;
+
+    /**
+     * 脚本内容到SHA1的缓存，避免每次计算摘要
+     */
+    private final Map<String, String> scriptShas = new ConcurrentHashMap<>();
+
+    private volatile MeterRegistry meterRegistry;
+    private volatile Timer borrowTimer;
+    private final Map<String, Timer> commandTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> errorCounters = new ConcurrentHashMap<>();
+
+    /**
+     * 设置指标注册表，注册连接池指标
+     * @param meterRegistry
+     */
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.borrowTimer = Timer.builder("rdsmq.redis.pool.wait")
+                .description("从连接池获取连接的等待时间")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("rdsmq.redis.pool.active", this, u -> u.jedisPool.getNumActive())
+                .description("正在使用的连接数").register(meterRegistry);
+        Gauge.builder("rdsmq.redis.pool.idle", this, u -> u.jedisPool.getNumIdle())
+                .description("空闲连接数").register(meterRegistry);
+        Gauge.builder("rdsmq.redis.pool.waiters", this, u -> u.jedisPool.getNumWaiters())
+                .description("等待连接的线程数").register(meterRegistry);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 从连接池获取连接，记录等待时间
+     * @return
+     */
+    private Jedis borrow() {
+        Timer timer = borrowTimer;
+        if (null == timer) return jedisPool.getResource();
+        long start = System.nanoTime();
+        try {
+            return jedisPool.getResource();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 记录命令耗时（含获取连接）
+     * @param command
+     * @param start 开始时间（纳秒）
+     */
+    private void record(String command, long start) {
+        MeterRegistry registry = meterRegistry;
+        if (null == registry) return;
+        Timer timer = commandTimers.get(command);
+        if (null == timer) {
+            timer = commandTimers.computeIfAbsent(command, c -> Timer.builder("rdsmq.redis.command")
+                    .description("redis命令耗时")
+                    .tag("command", c)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录命令失败
+     * @param command
+     * @param e
+     */
+    private void error(String command, Exception e) {
+        e.printStackTrace();
+        MeterRegistry registry = meterRegistry;
+        if (null == registry) return;
+        Counter counter = errorCounters.get(command);
+        if (null == counter) {
+            counter = errorCounters.computeIfAbsent(command, c -> Counter.builder("rdsmq.redis.errors")
+                    .description("redis命令失败次数")
+                    .tag("command", c)
+                    .register(registry));
+        }
+        counter.increment();
+    }
 
     /**
      * 获取值
@@ -28,14 +133,16 @@ public class JedisUtils {
      */
     public String get(String key, String defaultVal) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             String val = jedis.get(key);
             return val == null ? defaultVal : val;
         } catch (Exception e) {
-            e.printStackTrace();
+            error("get", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("get", start);
         }
         return defaultVal;
     }
@@ -49,14 +156,16 @@ public class JedisUtils {
      */
     public boolean setex(String key, String val, int seconds) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             jedis.setex(key, seconds, val);
             return true;
         } catch (Exception e) {
-            e.printStackTrace();
+            error("setex", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("setex", start);
         }
         return false;
     }
@@ -68,14 +177,16 @@ public class JedisUtils {
      */
     public boolean del(String key) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             jedis.del(key);
             return true;
         } catch (Exception e) {
-            e.printStackTrace();
+            error("del", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("del", start);
         }
         return false;
     }
@@ -89,14 +200,16 @@ public class JedisUtils {
      */
     public boolean zadd(String key, long score, String val) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             jedis.zadd(key, score, val);
             return true;
         } catch (Exception e) {
-            e.printStackTrace();
+            error("zadd", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("zadd", start);
         }
         return false;
     }
@@ -109,13 +222,15 @@ public class JedisUtils {
      */
     public boolean zdel(String key, String... val) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             return jedis.zrem(key, val) > 0;
         } catch (Exception e) {
-            e.printStackTrace();
+            error("zdel", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("zdel", start);
         }
         return false;
     }
@@ -130,17 +245,40 @@ public class JedisUtils {
      */
     public Set<String> getSoredSetByRange(String key, int startRange, int endRange, boolean orderByDesc) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             if (orderByDesc) {
                 return jedis.zrevrange(key, startRange, endRange);
             } else {
                 return jedis.zrange(key, startRange, endRange);
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            error("getSoredSetByRange", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("getSoredSetByRange", start);
+        }
+        return null;
+    }
+
+    /**
+     * 获取zset中score最小的元素的score
+     * @param key
+     * @return 集合为空或失败时返回null
+     */
+    public Double firstScore(String key) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            Set<Tuple> first = jedis.zrangeWithScores(key, 0, 0);
+            return first.isEmpty() ? null : first.iterator().next().getScore();
+        } catch (Exception e) {
+            error("firstScore", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("firstScore", start);
         }
         return null;
     }
@@ -153,13 +291,15 @@ public class JedisUtils {
      */
     public Double getScore(String key, String member) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             return jedis.zscore(key, member);
         } catch (Exception e) {
-            e.printStackTrace();
+            error("getScore", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("getScore", start);
         }
         return null;
     }
@@ -174,13 +314,15 @@ public class JedisUtils {
             return 0;
         }
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             return jedis.llen(key);
         } catch (Exception e) {
-            e.printStackTrace();
+            error("countList", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("countList", start);
         }
         return 0L;
     }
@@ -196,14 +338,16 @@ public class JedisUtils {
             return false;
         }
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             jedis.rpush(key, val);
             return true;
         } catch (Exception e) {
-            e.printStackTrace();
+            error("insertList", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("insertList", start);
         }
         return false;
     }
@@ -220,13 +364,59 @@ public class JedisUtils {
             return null;
         }
         Jedis jedis = null;
+        long begin = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             return jedis.lrange(key, start, end);
         } catch (Exception e) {
-            e.printStackTrace();
+            error("rangeList", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("rangeList", begin);
+        }
+        return null;
+    }
+
+    /**
+     * 阻塞地从list右端弹出元素
+     * @param key
+     * @param timeout 最长阻塞时间（秒），0表示一直阻塞
+     * @return 弹出的元素，超时或失败返回null
+     */
+    public String brpop(String key, int timeout) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            List<String> kv = jedis.brpop(timeout, key);
+            return null == kv || kv.size() < 2 ? null : kv.get(1);
+        } catch (Exception e) {
+            error("brpop", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("brpop", start);
+        }
+        return null;
+    }
+
+    /**
+     * 阻塞地从source右端弹出元素并放入destination左端
+     * @param source
+     * @param destination
+     * @param timeout 最长阻塞时间（秒），0表示一直阻塞
+     * @return 移动的元素，超时或失败返回null
+     */
+    public String brpoplpush(String source, String destination, int timeout) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            return jedis.brpoplpush(source, destination, timeout);
+        } catch (Exception e) {
+            error("brpoplpush", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("brpoplpush", start);
         }
         return null;
     }
@@ -240,14 +430,16 @@ public class JedisUtils {
      */
     public boolean removeListValue(String key, long count, String value) {
         Jedis jedis = null;
+        long start = System.nanoTime();
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrow();
             jedis.lrem(key, count, value);
             return true;
         } catch (Exception e) {
-            e.printStackTrace();
+            error("removeListValue", e);
         } finally {
-            jedis.close();
+            if (null != jedis) jedis.close();
+            record("removeListValue", start);
         }
         return false;
     }
@@ -268,4 +460,366 @@ public class JedisUtils {
         return removeListValue(key, 1, values);
     }
 
+    /**
+     * 设置二进制值
+     * @param key
+     * @param val
+     * @param seconds 有效期（秒）
+     * @return
+     */
+    public boolean setex(String key, byte[] val, int seconds) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            jedis.setex(SafeEncoder.encode(key), seconds, val);
+            return true;
+        } catch (Exception e) {
+            error("setex", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("setex", start);
+        }
+        return false;
+    }
+
+    /**
+     * 批量获取二进制值
+     * @param keys
+     * @return 与keys一一对应的值，key不存在时对应位置为null，执行失败返回null
+     */
+    public List<byte[]> mgetBytes(List<String> keys) {
+        if (null == keys || keys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            return jedis.mget(encodeAll(keys));
+        } catch (Exception e) {
+            error("mgetBytes", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("mgetBytes", start);
+        }
+        return null;
+    }
+
+    /**
+     * 批量获取并删除二进制值，MGET与DEL在同一个pipeline中发送
+     * @param keys
+     * @return 与keys一一对应的值，key不存在时对应位置为null，执行失败返回null
+     */
+    public List<byte[]> mgetAndDelBytes(List<String> keys) {
+        if (null == keys || keys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            byte[][] arr = encodeAll(keys);
+            Pipeline pipeline = jedis.pipelined();
+            Response<List<byte[]>> vals = pipeline.mget(arr);
+            pipeline.del(arr);
+            pipeline.sync();
+            return vals.get();
+        } catch (Exception e) {
+            error("mgetAndDelBytes", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("mgetAndDelBytes", start);
+        }
+        return null;
+    }
+
+    private static byte[][] encodeAll(List<String> keys) {
+        byte[][] arr = new byte[keys.size()][];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = SafeEncoder.encode(keys.get(i));
+        }
+        return arr;
+    }
+
+    /**
+     * 执行lua脚本，优先使用EVALSHA，服务端未缓存脚本时退回EVAL
+     * @param script 脚本内容
+     * @param keys
+     * @param args
+     * @return 脚本返回值，执行失败返回null
+     */
+    public Object evalScript(String script, List<String> keys, List<String> args) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            String sha = scriptShas.computeIfAbsent(script, JedisUtils::sha1);
+            try {
+                return jedis.evalsha(sha, keys, args);
+            } catch (JedisNoScriptException e) {
+                // EVAL同时会将脚本缓存到服务端
+                return jedis.eval(script, keys, args);
+            }
+        } catch (Exception e) {
+            error("evalScript", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("evalScript", start);
+        }
+        return null;
+    }
+
+    /**
+     * 执行lua脚本，参数为二进制
+     * @param script 脚本内容
+     * @param keys
+     * @param args
+     * @return 脚本返回值，执行失败返回null
+     */
+    public Object evalScriptBinary(String script, List<String> keys, List<byte[]> args) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            byte[] sha = SafeEncoder.encode(scriptShas.computeIfAbsent(script, JedisUtils::sha1));
+            try {
+                return jedis.evalsha(sha, encode(keys), args);
+            } catch (JedisNoScriptException e) {
+                return jedis.eval(SafeEncoder.encode(script), encode(keys), args);
+            }
+        } catch (Exception e) {
+            error("evalScriptBinary", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("evalScriptBinary", start);
+        }
+        return null;
+    }
+
+    /**
+     * 在一个pipeline中对多组key执行同一个lua脚本
+     * <p>脚本应返回整数，数组与字符串结果以二进制形式返回</p>
+     * @param script 脚本内容
+     * @param keys 每次执行的keys
+     * @param args 每次执行的参数，与keys一一对应
+     * @return 与keys一一对应的执行结果，单次执行出错时对应位置为异常对象，整体失败返回null
+     */
+    public List<Object> evalScripts(String script, List<List<String>> keys, List<List<String>> args) {
+        List<List<byte[]>> encoded = new ArrayList<>(args.size());
+        args.forEach(a -> encoded.add(encode(a)));
+        return evalScriptsBinary(script, keys, encoded);
+    }
+
+    /**
+     * 在一个pipeline中对多组key执行同一个lua脚本，参数为二进制
+     * @param script 脚本内容
+     * @param keys 每次执行的keys
+     * @param args 每次执行的参数，与keys一一对应
+     * @return 与keys一一对应的执行结果，单次执行出错时对应位置为异常对象，整体失败返回null
+     */
+    public List<Object> evalScriptsBinary(String script, List<List<String>> keys, List<List<byte[]>> args) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            byte[] sha = SafeEncoder.encode(scriptShas.computeIfAbsent(script, JedisUtils::sha1));
+            List<Object> results = evalshaPipelined(jedis, sha, keys, args);
+            for (Object result : results) {
+                if (result instanceof JedisDataException
+                        && String.valueOf(((JedisDataException) result).getMessage()).startsWith("NOSCRIPT")) {
+                    // 脚本未缓存时所有调用均未执行，加载后整体重试
+                    jedis.scriptLoad(script);
+                    return evalshaPipelined(jedis, sha, keys, args);
+                }
+            }
+            return results;
+        } catch (Exception e) {
+            error("evalScriptsBinary", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("evalScriptsBinary", start);
+        }
+        return null;
+    }
+
+    private static List<Object> evalshaPipelined(Jedis jedis, byte[] sha,
+                                                 List<List<String>> keys, List<List<byte[]>> args) {
+        Pipeline pipeline = jedis.pipelined();
+        for (int i = 0; i < keys.size(); i++) {
+            pipeline.evalsha(sha, encode(keys.get(i)), args.get(i));
+        }
+        return pipeline.syncAndReturnAll();
+    }
+
+    private static List<byte[]> encode(List<String> vals) {
+        List<byte[]> result = new ArrayList<>(vals.size());
+        vals.forEach(v -> result.add(SafeEncoder.encode(v)));
+        return result;
+    }
+
+    /**
+     * 批量读取hash字段
+     * @param key
+     * @param fields
+     * @return 与fields一一对应，不存在的为null；失败返回null
+     */
+    public List<String> hmget(String key, List<String> fields) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            return jedis.hmget(key, fields.toArray(new String[fields.size()]));
+        } catch (Exception e) {
+            error("hmget", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("hmget", start);
+        }
+        return null;
+    }
+
+    /**
+     * 读取hash的所有字段
+     * @param key
+     * @return 不存在时为空map；失败返回null
+     */
+    public Map<String, String> hgetAll(String key) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            return jedis.hgetAll(key);
+        } catch (Exception e) {
+            error("hgetAll", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("hgetAll", start);
+        }
+        return null;
+    }
+
+    /**
+     * 写入或删除hash字段
+     * @param key
+     * @param field
+     * @param value 为null时删除字段
+     * @return 是否成功
+     */
+    public boolean hset(String key, String field, String value) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            if (null == value) jedis.hdel(key, field);
+            else jedis.hset(key, field, value);
+            return true;
+        } catch (Exception e) {
+            error("hset", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("hset", start);
+        }
+        return false;
+    }
+
+    /**
+     * 增量扫描zset
+     * @param key
+     * @param cursor 游标，从"0"开始
+     * @param count 单次扫描的数量提示
+     * @return 下一个游标与本批元素，失败返回null
+     */
+    public ScanResult<Tuple> zscan(String key, String cursor, int count) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            return jedis.zscan(key, cursor, new ScanParams().count(count));
+        } catch (Exception e) {
+            error("zscan", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("zscan", start);
+        }
+        return null;
+    }
+
+    /**
+     * 多个zset的元素总数，所有ZCARD在一个pipeline中发送
+     * @param keys
+     * @return 执行失败返回null
+     */
+    public Long zcards(List<String> keys) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Long>> responses = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                responses.add(pipeline.zcard(key));
+            }
+            pipeline.sync();
+            long total = 0;
+            for (Response<Long> response : responses) {
+                total += response.get();
+            }
+            return total;
+        } catch (Exception e) {
+            error("zcards", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("zcards", start);
+        }
+        return null;
+    }
+
+    /**
+     * 批量获取zset中score最小的元素的score
+     * @param keys
+     * @return 与keys一一对应，集合为空时对应位置为null，整体失败返回null
+     */
+    public List<Double> firstScores(List<String> keys) {
+        Jedis jedis = null;
+        long start = System.nanoTime();
+        try {
+            jedis = borrow();
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Set<Tuple>>> responses = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                responses.add(pipeline.zrangeWithScores(key, 0, 0));
+            }
+            pipeline.sync();
+            List<Double> result = new ArrayList<>(keys.size());
+            Set<Tuple> first;
+            for (Response<Set<Tuple>> response : responses) {
+                first = response.get();
+                result.add(first.isEmpty() ? null : first.iterator().next().getScore());
+            }
+            return result;
+        } catch (Exception e) {
+            error("firstScores", e);
+        } finally {
+            if (null != jedis) jedis.close();
+            record("firstScores", start);
+        }
+        return null;
+    }
+
+    private static String sha1(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
 }
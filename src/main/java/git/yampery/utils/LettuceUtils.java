@@ -0,0 +1,548 @@
+package git.yampery.utils;
+
+import com.lambdaworks.redis.AbstractRedisClient;
+import com.lambdaworks.redis.KeyValue;
+import com.lambdaworks.redis.RedisClient;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScoredValue;
+import com.lambdaworks.redis.ScoredValueScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+import com.lambdaworks.redis.api.StatefulConnection;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+import com.lambdaworks.redis.cluster.RedisClusterClient;
+import com.lambdaworks.redis.cluster.api.StatefulRedisClusterConnection;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import com.lambdaworks.redis.cluster.api.sync.RedisClusterCommands;
+import com.lambdaworks.redis.codec.ByteArrayCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @decription LettuceUtils
+ * <p>基于lettuce的非阻塞redis操作工具<br>
+ * 少量长连接由所有线程共享，命令写出后不等待响应，同一连接上并发的命令自动合并为pipeline；
+ * 所有操作返回{@link CompletableFuture}，失败时以异常结束<br>
+ * 阻塞命令（BRPOP等）会占住连接，使用单独的连接执行，用完放回空闲队列；阻塞连接数量有上限，用满时等待空闲连接，
+ * 命令失败的连接直接关闭，不放回空闲队列<br>
+ * 支持单机、哨兵（由{@link RedisClient}通过哨兵地址发现主节点）与集群（{@link RedisClusterClient}，命令按key所在slot路由到对应节点）</p>
+ * @author Yampery
+ * @date 2026/10/18 21:00
+ */
+public class LettuceUtils {
+
+    /**
+     * 阻塞命令的超时余量（秒），避免客户端先于服务端超时
+     */
+    private static final long BLOCKING_GRACE = 5L;
+    /**
+     * 默认阻塞命令连接数量上限
+     */
+    public static final int DEFAULT_MAX_BLOCKING = 64;
+
+    private final AbstractRedisClient redisClient;
+    private final Supplier<StatefulConnection<byte[], byte[]>> connector;
+    private final List<StatefulConnection<byte[], byte[]>> connections;
+    private final List<RedisClusterAsyncCommands<byte[], byte[]>> commands;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * 空闲的阻塞命令连接
+     */
+    private final Queue<StatefulConnection<byte[], byte[]>> blocking = new ConcurrentLinkedQueue<>();
+    /**
+     * 阻塞命令连接的许可，使用中与空闲的连接总数不超过上限
+     */
+    private final Semaphore blockingPermits;
+
+    /**
+     * 脚本内容到SHA1的缓存，避免每次计算摘要
+     */
+    private final Map<String, String> scriptShas = new ConcurrentHashMap<>();
+
+    /**
+     * @param redisClient
+     * @param connections 共享连接数量
+     */
+    public LettuceUtils(RedisClient redisClient, int connections) {
+        this(redisClient, connections, DEFAULT_MAX_BLOCKING);
+    }
+
+    /**
+     * @param redisClient
+     * @param connections 共享连接数量
+     * @param maxBlocking 阻塞命令连接数量上限
+     */
+    public LettuceUtils(RedisClient redisClient, int connections, int maxBlocking) {
+        this(redisClient, () -> redisClient.connect(ByteArrayCodec.INSTANCE), connections, maxBlocking);
+    }
+
+    /**
+     * 连接redis集群
+     * @param clusterClient
+     * @param connections 共享连接数量，每个连接内部维护到各节点的连接
+     */
+    public LettuceUtils(RedisClusterClient clusterClient, int connections) {
+        this(clusterClient, connections, DEFAULT_MAX_BLOCKING);
+    }
+
+    /**
+     * 连接redis集群
+     * @param clusterClient
+     * @param connections 共享连接数量，每个连接内部维护到各节点的连接
+     * @param maxBlocking 阻塞命令连接数量上限
+     */
+    public LettuceUtils(RedisClusterClient clusterClient, int connections, int maxBlocking) {
+        this(clusterClient, () -> clusterClient.connect(ByteArrayCodec.INSTANCE), connections, maxBlocking);
+    }
+
+    private LettuceUtils(AbstractRedisClient redisClient,
+                         Supplier<StatefulConnection<byte[], byte[]>> connector, int connections, int maxBlocking) {
+        this.redisClient = redisClient;
+        this.connector = connector;
+        this.blockingPermits = new Semaphore(Math.max(1, maxBlocking));
+        this.connections = new ArrayList<>(Math.max(1, connections));
+        this.commands = new ArrayList<>(Math.max(1, connections));
+        StatefulConnection<byte[], byte[]> connection;
+        for (int i = 0; i < Math.max(1, connections); i++) {
+            connection = connector.get();
+            this.connections.add(connection);
+            this.commands.add(async(connection));
+        }
+    }
+
+    /**
+     * 轮流使用共享连接
+     * @return
+     */
+    private RedisClusterAsyncCommands<byte[], byte[]> async() {
+        int i = next.getAndIncrement() & Integer.MAX_VALUE;
+        return commands.get(i % commands.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisClusterAsyncCommands<byte[], byte[]> async(StatefulConnection<byte[], byte[]> connection) {
+        if (connection instanceof StatefulRedisClusterConnection) {
+            return ((StatefulRedisClusterConnection<byte[], byte[]>) connection).async();
+        }
+        return ((StatefulRedisConnection<byte[], byte[]>) connection).async();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisClusterCommands<byte[], byte[]> sync(StatefulConnection<byte[], byte[]> connection) {
+        if (connection instanceof StatefulRedisClusterConnection) {
+            return ((StatefulRedisClusterConnection<byte[], byte[]>) connection).sync();
+        }
+        return ((StatefulRedisConnection<byte[], byte[]>) connection).sync();
+    }
+
+    /**
+     * 设置二进制值及过期时间
+     * @param key
+     * @param val
+     * @param seconds
+     * @return
+     */
+    public CompletableFuture<Boolean> setex(String key, byte[] val, int seconds) {
+        return future(async().setex(encode(key), seconds, val)).thenApply("OK"::equals);
+    }
+
+    /**
+     * 删除key
+     * @param key
+     * @return
+     */
+    public CompletableFuture<Boolean> del(String key) {
+        return future(async().del(encode(key))).thenApply(n -> true);
+    }
+
+    /**
+     * 向zset添加元素
+     * @param key
+     * @param score
+     * @param val
+     * @return
+     */
+    public CompletableFuture<Boolean> zadd(String key, long score, String val) {
+        return future(async().zadd(encode(key), score, encode(val))).thenApply(n -> true);
+    }
+
+    /**
+     * 删除zset元素
+     * @param key
+     * @param val
+     * @return 元素存在并被删除时为true
+     */
+    public CompletableFuture<Boolean> zdel(String key, String val) {
+        return future(async().zrem(encode(key), encode(val))).thenApply(n -> 0 < n);
+    }
+
+    /**
+     * 获取zset所有元素
+     * @param key
+     * @return
+     */
+    public CompletableFuture<Set<String>> zmembers(String key) {
+        return future(async().zrange(encode(key), 0, -1)).thenApply(vals -> {
+            Set<String> members = new LinkedHashSet<>(vals.size());
+            vals.forEach(v -> members.add(decode(v)));
+            return members;
+        });
+    }
+
+    /**
+     * 多个zset的元素总数
+     * @param keys
+     * @return
+     */
+    public CompletableFuture<Long> zcards(List<String> keys) {
+        RedisClusterAsyncCommands<byte[], byte[]> commands = async();
+        List<CompletableFuture<Long>> futures = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            futures.add(future(commands.zcard(encode(key))));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            long total = 0;
+            for (CompletableFuture<Long> f : futures) {
+                total += f.join();
+            }
+            return total;
+        });
+    }
+
+    /**
+     * 增量扫描zset
+     * @param key
+     * @param cursor 游标，从"0"开始
+     * @param count 单次扫描的数量提示
+     * @return 下一个游标与本批元素
+     */
+    public CompletableFuture<ScoredValueScanCursor<byte[]>> zscan(String key, String cursor, int count) {
+        return future(async().zscan(encode(key), ScanCursor.of(cursor), ScanArgs.Builder.limit(count)));
+    }
+
+    /**
+     * 按score从小到大获取zset的一段元素
+     * @param key
+     * @param start
+     * @param end
+     * @return
+     */
+    public CompletableFuture<List<String>> zrange(String key, long start, long end) {
+        return future(async().zrange(encode(key), start, end)).thenApply(LettuceUtils::decodeAll);
+    }
+
+    /**
+     * 批量读取hash字段
+     * @param key
+     * @param fields
+     * @return 与fields一一对应，不存在的为null
+     */
+    public CompletableFuture<List<String>> hmget(String key, List<String> fields) {
+        byte[][] encoded = new byte[fields.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = encode(fields.get(i));
+        }
+        return future(async().hmget(encode(key), encoded)).thenApply(LettuceUtils::decodeAll);
+    }
+
+    /**
+     * 读取hash的所有字段
+     * @param key
+     * @return 不存在时为空map
+     */
+    public CompletableFuture<Map<String, String>> hgetAll(String key) {
+        return future(async().hgetall(encode(key))).thenApply(map -> {
+            Map<String, String> decoded = new HashMap<>();
+            map.forEach((field, value) -> decoded.put(decode(field), decode(value)));
+            return decoded;
+        });
+    }
+
+    /**
+     * 写入或删除hash字段
+     * @param key
+     * @param field
+     * @param value 为null时删除字段
+     * @return
+     */
+    public CompletableFuture<Boolean> hset(String key, String field, String value) {
+        if (null == value) return future(async().hdel(encode(key), encode(field))).thenApply(n -> true);
+        return future(async().hset(encode(key), encode(field), encode(value))).thenApply(r -> true);
+    }
+
+    /**
+     * 获取list长度
+     * @param key
+     * @return
+     */
+    public CompletableFuture<Long> llen(String key) {
+        return future(async().llen(encode(key)));
+    }
+
+    /**
+     * 批量获取zset中score最小的元素的score，所有命令在同一连接上连续发出
+     * @param keys
+     * @return 与keys一一对应，集合为空时对应位置为null
+     */
+    public CompletableFuture<List<Double>> firstScores(List<String> keys) {
+        RedisClusterAsyncCommands<byte[], byte[]> commands = async();
+        List<CompletableFuture<List<ScoredValue<byte[]>>>> futures = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            futures.add(future(commands.zrangeWithScores(encode(key), 0, 0)));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Double> scores = new ArrayList<>(futures.size());
+            List<ScoredValue<byte[]>> first;
+            for (CompletableFuture<List<ScoredValue<byte[]>>> f : futures) {
+                first = f.join();
+                scores.add(first.isEmpty() ? null : first.get(0).score);
+            }
+            return scores;
+        });
+    }
+
+    /**
+     * 批量获取二进制值
+     * @param keys
+     * @return 与keys一一对应的值，key不存在时对应位置为null
+     */
+    public CompletableFuture<List<byte[]>> mgetBytes(List<String> keys) {
+        if (keys.isEmpty()) return CompletableFuture.completedFuture(new ArrayList<>());
+        return future(async().mget(encodeAll(keys)));
+    }
+
+    /**
+     * 批量获取并删除二进制值，MGET与DEL在同一连接上连续发出
+     * @param keys
+     * @return 与keys一一对应的值，key不存在时对应位置为null
+     */
+    public CompletableFuture<List<byte[]>> mgetAndDelBytes(List<String> keys) {
+        if (keys.isEmpty()) return CompletableFuture.completedFuture(new ArrayList<>());
+        RedisClusterAsyncCommands<byte[], byte[]> commands = async();
+        byte[][] arr = encodeAll(keys);
+        CompletableFuture<List<byte[]>> vals = future(commands.mget(arr));
+        return future(commands.del(arr)).thenCombine(vals, (n, v) -> v);
+    }
+
+    /**
+     * 执行lua脚本，参数为字符串
+     * @param script 脚本内容
+     * @param type 返回值类型
+     * @param keys
+     * @param args
+     * @return 脚本返回值
+     */
+    public CompletableFuture<Object> evalScript(String script, ScriptOutputType type, List<String> keys, List<String> args) {
+        List<byte[]> encoded = new ArrayList<>(args.size());
+        args.forEach(a -> encoded.add(encode(a)));
+        return evalScriptBinary(script, type, keys, encoded);
+    }
+
+    /**
+     * 执行lua脚本，优先使用EVALSHA，服务端未缓存脚本时退回EVAL
+     * @param script 脚本内容
+     * @param type 返回值类型，INTEGER返回Long，MULTI返回元素为二进制的List
+     * @param keys
+     * @param args
+     * @return 脚本返回值
+     */
+    public CompletableFuture<Object> evalScriptBinary(String script, ScriptOutputType type, List<String> keys, List<byte[]> args) {
+        RedisClusterAsyncCommands<byte[], byte[]> commands = async();
+        String sha = scriptShas.computeIfAbsent(script, LettuceUtils::sha1);
+        byte[][] keyArr = encodeAll(keys);
+        byte[][] argArr = args.toArray(new byte[args.size()][]);
+        CompletableFuture<Object> evalsha = future(commands.evalsha(sha, type, keyArr, argArr));
+        return evalsha.handle((result, e) -> {
+            if (null == e) return CompletableFuture.completedFuture(result);
+            if (String.valueOf(cause(e).getMessage()).startsWith("NOSCRIPT")) {
+                // EVAL同时会将脚本缓存到服务端
+                return future(commands.<Object>eval(script, type, keyArr, argArr));
+            }
+            CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(cause(e));
+            return failed;
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * 对多组key执行同一个lua脚本，所有调用连续发出，不等待前一次的结果
+     * @param script 脚本内容
+     * @param type 返回值类型
+     * @param keys 每次执行的keys
+     * @param args 每次执行的参数，与keys一一对应
+     * @return 与keys一一对应的执行结果，单次执行出错时对应位置为异常对象
+     */
+    public CompletableFuture<List<Object>> evalScriptsBinary(String script, ScriptOutputType type,
+                                                             List<List<String>> keys, List<List<byte[]>> args) {
+        List<CompletableFuture<Object>> futures = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            futures.add(evalScriptBinary(script, type, keys.get(i), args.get(i)).exceptionally(LettuceUtils::cause));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Object> results = new ArrayList<>(futures.size());
+            futures.forEach(f -> results.add(f.join()));
+            return results;
+        });
+    }
+
+    /**
+     * 阻塞地从列表右端弹出一个元素
+     * @param key
+     * @param timeout 最长阻塞时间（秒），0表示一直等待
+     * @return 超时返回null
+     */
+    public String brpop(String key, int timeout) {
+        StatefulConnection<byte[], byte[]> connection = borrow(timeout);
+        if (null == connection) return null;
+        boolean ok = false;
+        try {
+            KeyValue<byte[], byte[]> popped = sync(connection).brpop(timeout, encode(key));
+            ok = true;
+            return null == popped ? null : decode(popped.value);
+        } finally {
+            giveBack(connection, ok);
+        }
+    }
+
+    /**
+     * 阻塞地从source右端弹出一个元素并放入destination左端
+     * @param source
+     * @param destination
+     * @param timeout 最长阻塞时间（秒），0表示一直等待
+     * @return 超时返回null
+     */
+    public String brpoplpush(String source, String destination, int timeout) {
+        StatefulConnection<byte[], byte[]> connection = borrow(timeout);
+        if (null == connection) return null;
+        boolean ok = false;
+        try {
+            byte[] val = sync(connection).brpoplpush(timeout, encode(source), encode(destination));
+            ok = true;
+            return null == val ? null : decode(val);
+        } finally {
+            giveBack(connection, ok);
+        }
+    }
+
+    /**
+     * 取得一个阻塞命令连接，连接数量已达上限时等待其他线程归还
+     * @param timeout 最长等待时间（秒），0表示一直等待
+     * @return 等待超时或被中断时返回null，视为命令超时
+     */
+    private StatefulConnection<byte[], byte[]> borrow(int timeout) {
+        try {
+            if (0 < timeout) {
+                if (!blockingPermits.tryAcquire(timeout, TimeUnit.SECONDS)) return null;
+            } else {
+                blockingPermits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        StatefulConnection<byte[], byte[]> connection;
+        try {
+            connection = blocking.poll();
+            if (null != connection && !connection.isOpen()) {
+                connection.close();
+                connection = null;
+            }
+            if (null == connection) connection = connector.get();
+        } catch (RuntimeException e) {
+            blockingPermits.release();
+            throw e;
+        }
+        connection.setTimeout(0 < timeout ? timeout + BLOCKING_GRACE : TimeUnit.DAYS.toSeconds(1), TimeUnit.SECONDS);
+        return connection;
+    }
+
+    /**
+     * 归还阻塞命令连接，命令失败（超时或连接断开）时连接上可能还有未读的响应，直接关闭
+     * @param connection
+     * @param ok 命令是否正常返回
+     */
+    private void giveBack(StatefulConnection<byte[], byte[]> connection, boolean ok) {
+        try {
+            if (ok && connection.isOpen()) blocking.offer(connection);
+            else connection.close();
+        } finally {
+            blockingPermits.release();
+        }
+    }
+
+    /**
+     * 关闭所有连接与客户端
+     */
+    public void shutdown() {
+        connections.forEach(StatefulConnection::close);
+        StatefulConnection<byte[], byte[]> connection;
+        while (null != (connection = blocking.poll())) {
+            connection.close();
+        }
+        redisClient.shutdown();
+    }
+
+    private static <T> CompletableFuture<T> future(RedisFuture<T> future) {
+        return future.toCompletableFuture();
+    }
+
+    private static Throwable cause(Throwable e) {
+        return e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+    }
+
+    public static byte[] encode(String val) {
+        return val.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> decodeAll(List<byte[]> vals) {
+        List<String> decoded = new ArrayList<>(vals.size());
+        vals.forEach(v -> decoded.add(null == v ? null : decode(v)));
+        return decoded;
+    }
+
+    public static String decode(byte[] val) {
+        return new String(val, StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] encodeAll(List<String> keys) {
+        byte[][] arr = new byte[keys.size()][];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = encode(keys.get(i));
+        }
+        return arr;
+    }
+
+    private static String sha1(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.MessageScore;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.store.MemoryMessageStore;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription MemoryStoreSupport
+ * <p>使用进程内存储的消息队列测试基类，不依赖redis<br>
+ * 等待异步结果时轮询条件，判断消息是否超过处理期限时直接传入时间，不依赖固定的休眠时长</p>
+ * @author Yampery
+ * @date 2026/10/19 23:10
+ */
+public abstract class MemoryStoreSupport {
+
+    /**
+     * 等待条件成立的最长时间
+     */
+    private static final long AWAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    protected RedisMQ redisMQ;
+    protected Route route;
+
+    @Before
+    public void setup() {
+        redisMQ = new RedisMQ();
+        redisMQ.setStore(new MemoryMessageStore());
+        redisMQ.setMonitorCount(10);
+        redisMQ.setRetryBackoff(50);
+        redisMQ.setVisibilityTimeout(50);
+        route = new Route("queue:1", "list:1");
+        route.setShards(4);
+        route.setLanes(3);
+        redisMQ.setRoutes(Collections.singletonList(route));
+    }
+
+    protected Message message(String id, int priority, long delay) {
+        Message message = new Message();
+        message.setId(id);
+        message.setBody("body-" + id);
+        message.setTopic("SMS");
+        message.setPriority(priority);
+        message.setDelay(delay);
+        message.setTtl(60);
+        message.setCreateTime(System.currentTimeMillis());
+        return message;
+    }
+
+    protected List<String> ids(MessageBatch batch) {
+        List<String> ids = new ArrayList<>();
+        batch.getMessages().forEach(m -> ids.add(m.getId()));
+        return ids;
+    }
+
+    /**
+     * 轮询等待条件成立，超时则测试失败
+     * @param condition
+     * @throws InterruptedException
+     */
+    protected static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in " + AWAIT_TIMEOUT + "ms", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+
+    /**
+     * 以指定时间回收路由中超过处理期限的消息，用于断言没有未确认的消息而不必等到处理期限
+     * @param route
+     * @param now
+     * @return 回收的消息数量
+     */
+    protected int reapAt(Route route, long now) {
+        int reaped = 0;
+        for (String consumerId : redisMQ.store().consumers(route)) {
+            reaped += redisMQ.store().reap(route, consumerId, now, redisMQ.getVisibilityTimeout(),
+                    MessageScore.encode(now, route.retryLane()), MessageScore.span(redisMQ.getRetryBackoff()),
+                    MessageScore.span(redisMQ.getRetryBackoff()), Integer.MAX_VALUE, Long.MAX_VALUE);
+        }
+        return reaped;
+    }
+
+    protected static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
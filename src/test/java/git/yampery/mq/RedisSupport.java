@@ -0,0 +1,86 @@
+package git.yampery.mq;
+
+import git.yampery.config.RedisConfig;
+import git.yampery.msmq.Message;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import git.yampery.utils.JedisUtils;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription RedisSupport
+ * <p>依赖redis的消息队列测试基类，只加载redis连接池，使用redis.properties中的redis<br>
+ * 每个测试自行创建并配置消息队列，不启动应用中的监听与消费者；各测试使用自己的key，开始前清理</p>
+ * @author Yampery
+ * @date 2026/10/18 10:20
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = {RedisConfig.class, JedisUtils.class})
+public abstract class RedisSupport {
+
+    /**
+     * 等待条件成立的最长时间
+     */
+    private static final long AWAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    @Resource
+    protected JedisUtils jedisUtils;
+    @Resource
+    private AutowireCapableBeanFactory beanFactory;
+
+    /**
+     * 创建使用测试redis的消息队列
+     * @param routes
+     * @return
+     */
+    protected RedisMQ redisMQ(Route... routes) {
+        RedisMQ redisMQ = new RedisMQ();
+        redisMQ.setRoutes(Arrays.asList(routes));
+        beanFactory.autowireBean(redisMQ);
+        return redisMQ;
+    }
+
+    protected Message message(String id, long delay) {
+        Message message = new Message();
+        message.setId(id);
+        message.setBody("body-" + id);
+        message.setTopic("SMS");
+        message.setDelay(delay);
+        message.setTtl(60);
+        message.setCreateTime(System.currentTimeMillis());
+        return message;
+    }
+
+    /**
+     * 删除测试使用的key
+     * @param keys
+     */
+    protected void clear(String... keys) {
+        for (String key : keys) {
+            jedisUtils.del(key);
+        }
+    }
+
+    /**
+     * 轮询等待条件成立，超时则测试失败
+     * @param condition
+     * @throws InterruptedException
+     */
+    protected static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in " + AWAIT_TIMEOUT + "ms", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+}
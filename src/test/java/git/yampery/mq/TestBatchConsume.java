@@ -0,0 +1,71 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestBatchConsume
+ * <p>批量消费：一次取出多条消息id并读取、删除消息体</p>
+ * @author Yampery
+ * @date 2026/10/18 11:05
+ */
+public class TestBatchConsume extends RedisSupport {
+
+    private static final String QUEUE = "rdsmq:test:consume:queue";
+    private static final String LIST = "rdsmq:test:consume:list";
+
+    private RedisMQ redisMQ;
+
+    @Before
+    public void setup() {
+        clear(QUEUE, LIST);
+        redisMQ = redisMQ(new Route(QUEUE, LIST));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 25; i++) {
+            redisMQ.addMsgPool(message("c" + i, 0));
+            redisMQ.enMessage(QUEUE, now - 1000 + i, "c" + i);
+        }
+        redisMQ.monitor();
+    }
+
+    @After
+    public void cleanup() {
+        clear(QUEUE, LIST);
+    }
+
+    @Test
+    public void testConsumeBatch() {
+        MessageBatch batch = redisMQ.consume(LIST, 10);
+        assertEquals(10, batch.size());
+        List<String> ids = new ArrayList<>();
+        batch.getMessages().forEach(m -> {
+            ids.add(m.getId());
+            assertEquals("body-" + m.getId(), m.getBody());
+        });
+        // 按进入待消费列表的先后取出
+        for (int i = 0; i < 10; i++) {
+            assertEquals("c" + i, ids.get(i));
+        }
+        assertEquals(15, jedisUtils.countList(LIST));
+        // 取出的消息体随之删除
+        assertNull(jedisUtils.get("Message:Pool:c0", null));
+
+        // 不限数量的消费取出剩余全部消息
+        List<String> bodies = redisMQ.consume(LIST);
+        assertEquals(15, bodies.size());
+        assertEquals("body-c10", bodies.get(0));
+        assertEquals(0, jedisUtils.countList(LIST));
+        assertTrue(redisMQ.consume(LIST, 10).isEmpty());
+    }
+}
@@ -0,0 +1,85 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.BlockingConsumer;
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestBlockingConsumer
+ * <p>阻塞式消费者与按到期时间唤醒的监听线程</p>
+ * @author Yampery
+ * @date 2026/10/18 13:50
+ */
+public class TestBlockingConsumer extends RedisSupport {
+
+    private static final String QUEUE = "rdsmq:test:blocking:queue";
+    private static final String LIST = "rdsmq:test:blocking:list";
+
+    private RedisMQ redisMQ;
+    private Route route;
+
+    @Before
+    public void setup() {
+        clear(QUEUE, LIST);
+        route = new Route(QUEUE, LIST);
+        redisMQ = redisMQ(route);
+    }
+
+    @After
+    public void cleanup() {
+        redisMQ.stop();
+        clear(QUEUE, LIST);
+    }
+
+    @Test
+    public void testBlockingConsume() throws Exception {
+        // 没有消息时阻塞等待，超时返回空批次
+        assertTrue(redisMQ.consume(LIST, 10, 1).isEmpty());
+
+        CompletableFuture<MessageBatch> waiting = CompletableFuture.supplyAsync(() -> redisMQ.consume(LIST, 10, 5));
+        redisMQ.addMsgPool(message("b0", 0));
+        redisMQ.enMessage(QUEUE, System.currentTimeMillis(), "b0");
+        redisMQ.monitor();
+        // 消息到达时立即返回
+        MessageBatch batch = waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(1, batch.size());
+        assertEquals("body-b0", batch.getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testWakeOnDueTime() throws InterruptedException {
+        // 监听线程空闲时最长休眠一分钟，消息按到期时间而不是轮询间隔投递
+        redisMQ.setMonitorIdle(60000);
+        redisMQ.start();
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        BlockingConsumer consumer = new BlockingConsumer(redisMQ, route, received::add);
+        consumer.start();
+        try {
+            long due = System.currentTimeMillis() + 200;
+            redisMQ.addMsgPool(message("d0", 200));
+            redisMQ.enMessage(QUEUE, due, "d0");
+            Message message = received.poll(10, TimeUnit.SECONDS);
+            long at = System.currentTimeMillis();
+            assertNotNull(message);
+            assertEquals("d0", message.getId());
+            assertFalse(at < due);
+        } finally {
+            consumer.stop();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package git.yampery.mq;
+
+import com.alibaba.fastjson.JSONObject;
+import git.yampery.msmq.Message;
+import git.yampery.msmq.codec.BinaryMessageCodec;
+import git.yampery.msmq.codec.JsonMessageCodec;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestCodec
+ * <p>消息编解码测试</p>
+ * @author Yampery
+ * @date 2026/10/18 17:50
+ */
+public class TestCodec {
+
+    private Message message(String body) {
+        Message message = new Message();
+        message.setId("7c4d8a02-5b1e-4f0c-9a43-0d6f0e1c2b77");
+        message.setTopic("SMS");
+        message.setBody(body);
+        message.setDelay(20);
+        message.setPriority(3);
+        message.setTtl(20 * 60);
+        message.setCreateTime(System.currentTimeMillis());
+        message.setStatus(Message.STATUS_DELAY);
+        return message;
+    }
+
+    private String smsBody() {
+        JSONObject jObj = new JSONObject();
+        jObj.put("msg", "这是一条短信");
+        return jObj.toJSONString();
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        Message source = message(smsBody());
+        Message decoded = new BinaryMessageCodec().decode(new BinaryMessageCodec().encode(source));
+        assertNull(decoded.getId());
+        assertEquals(source.getTopic(), decoded.getTopic());
+        assertEquals(source.getBody(), decoded.getBody());
+        assertEquals(source.getDelay(), decoded.getDelay());
+        assertEquals(source.getPriority(), decoded.getPriority());
+        assertEquals(source.getTtl(), decoded.getTtl());
+        assertEquals(source.getCreateTime(), decoded.getCreateTime());
+        assertEquals(source.getStatus(), decoded.getStatus());
+    }
+
+    @Test
+    public void testBinarySmallerThanJson() {
+        Message source = message(smsBody());
+        int binary = new BinaryMessageCodec().encode(source).length;
+        int json = new JsonMessageCodec().encode(source).length;
+        assertTrue("binary " + binary + " json " + json, binary * 2 < json);
+    }
+
+    @Test
+    public void testCompressAboveThreshold() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("这是一条短信");
+        }
+        BinaryMessageCodec codec = new BinaryMessageCodec();
+        codec.setCompressThreshold(256);
+        Message source = message(sb.toString());
+        byte[] data = codec.encode(source);
+        assertTrue(data.length < source.getBody().getBytes(StandardCharsets.UTF_8).length / 4);
+        assertEquals(source.getBody(), codec.decode(data).getBody());
+    }
+
+    @Test
+    public void testDecodeOtherFormats() {
+        Message source = message(smsBody());
+        BinaryMessageCodec binary = new BinaryMessageCodec();
+        // 切换格式后仍能读取json编码的消息
+        assertEquals(source.getBody(), binary.decode(new JsonMessageCodec().encode(source)).getBody());
+        // 旧版本直接存储的消息体
+        assertEquals(smsBody(), binary.decode(smsBody().getBytes(StandardCharsets.UTF_8)).getBody());
+    }
+}
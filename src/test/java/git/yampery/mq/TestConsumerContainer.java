@@ -0,0 +1,92 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.ConsumerContainer;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestConsumerContainer
+ * <p>消费容器按路由限制并发，处理缓慢的路由不影响其他路由</p>
+ * @author Yampery
+ * @date 2026/10/18 14:40
+ */
+public class TestConsumerContainer extends RedisSupport {
+
+    private static final String SLOW_QUEUE = "rdsmq:test:container:slow:queue";
+    private static final String SLOW_LIST = "rdsmq:test:container:slow:list";
+    private static final String FAST_QUEUE = "rdsmq:test:container:fast:queue";
+    private static final String FAST_LIST = "rdsmq:test:container:fast:list";
+
+    private RedisMQ redisMQ;
+    private Route slow;
+    private Route fast;
+
+    @Before
+    public void setup() {
+        clear(SLOW_QUEUE, SLOW_LIST, FAST_QUEUE, FAST_LIST);
+        slow = new Route(SLOW_QUEUE, SLOW_LIST);
+        slow.setConcurrency(2);
+        fast = new Route(FAST_QUEUE, FAST_LIST);
+        redisMQ = redisMQ(slow, fast);
+    }
+
+    @After
+    public void cleanup() {
+        clear(SLOW_QUEUE, SLOW_LIST, FAST_QUEUE, FAST_LIST);
+    }
+
+    private void publish(Route route, String id) {
+        redisMQ.addMsgPool(message(id, 0));
+        redisMQ.enMessage(route.getQueue(), System.currentTimeMillis(), id);
+    }
+
+    @Test
+    public void testRouteConcurrency() throws InterruptedException {
+        for (int i = 0; i < 10; i++) publish(slow, "slow-" + i);
+        for (int i = 0; i < 20; i++) publish(fast, "fast-" + i);
+        redisMQ.monitor();
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowDone = new CountDownLatch(10);
+        CountDownLatch fastDone = new CountDownLatch(20);
+        ConsumerContainer container = new ConsumerContainer(redisMQ, message -> {
+            if (!message.getId().startsWith("slow")) {
+                fastDone.countDown();
+                return;
+            }
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                release.await();
+            } finally {
+                running.decrementAndGet();
+                slowDone.countDown();
+            }
+        });
+        container.setConcurrency(4);
+        container.start();
+        try {
+            // 慢路由占满自己的并发上限时，其他路由照常处理
+            assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+            await(() -> 2 == peak.get());
+            assertEquals(2, peak.get());
+            release.countDown();
+            assertTrue(slowDone.await(10, TimeUnit.SECONDS));
+            assertEquals(2, peak.get());
+        } finally {
+            release.countDown();
+            container.stop();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageBatch;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @decription TestDeadLetters
+ * <p>失败重试、死信队列与重放</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestDeadLetters extends MemoryStoreSupport {
+
+    @Test
+    public void testDeadLetters() throws InterruptedException {
+        route.setMaxAttempts(2);
+        redisMQ.publish(route, message("d", 2, 0));
+        redisMQ.monitor();
+        assertEquals(0, redisMQ.receive(route, "c1", 10, 0).getMessages().get(0).getAttempts());
+        assertEquals(1, redisMQ.nack(route, "c1", Collections.singletonList("d")));
+        await(() -> {
+            redisMQ.monitor();
+            return 1 == redisMQ.listSize(route);
+        });
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(1, batch.getMessages().get(0).getAttempts());
+        // 第二次失败达到最大投递次数，转入死信队列
+        assertEquals(1, redisMQ.nack(route, "c1", Collections.singletonList("d")));
+        assertEquals(Long.valueOf(1), redisMQ.deadSize(route));
+        assertEquals(Long.valueOf(0), redisMQ.queueSize(route));
+        redisMQ.monitor();
+        assertEquals(0, redisMQ.receive(route, "c1", 10, 0).size());
+        assertEquals(Collections.singletonList("d"), redisMQ.deadLetters(route, 10));
+        // 重放后重试次数清零
+        assertEquals(1, redisMQ.replayDead(route, 100));
+        redisMQ.monitor();
+        batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(Collections.singletonList("d"), ids(batch));
+        assertEquals(0, batch.getMessages().get(0).getAttempts());
+        assertEquals(1, redisMQ.ack(route, "c1", ids(batch)));
+        assertEquals(Long.valueOf(0), redisMQ.deadSize(route));
+    }
+}
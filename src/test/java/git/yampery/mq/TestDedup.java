@@ -0,0 +1,58 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.PrefetchConsumer;
+import git.yampery.msmq.RedisMQ;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestDedup
+ * <p>按消息id幂等投递与消费者去重</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestDedup extends MemoryStoreSupport {
+
+    @Test
+    public void testDedup() throws InterruptedException {
+        route.setDedupWindow(60000);
+        for (String mode : Arrays.asList(RedisMQ.DEDUP_SERVER, RedisMQ.DEDUP_LOCAL)) {
+            redisMQ.setDedupMode(mode);
+            String id = "d-" + mode;
+            assertTrue(redisMQ.publish(route, message(id, 2, 0)));
+            // 重复投递视为成功，但只写入一次
+            assertTrue(redisMQ.publish(route, message(id, 2, 0)));
+            List<Object> results = redisMQ.publish(Arrays.asList(route, route),
+                    Arrays.asList(message(id, 2, 0), message(id + "-2", 2, 0)));
+            assertEquals(Arrays.asList((Object) 0L, 1L), results);
+        }
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(4), redisMQ.listSize(route));
+
+        // 消费者去重：确认后重新投递的同一消息直接确认
+        route.setDedupWindow(0);
+        redisMQ.consume("list:1", 10);
+        redisMQ.publish(route, message("r1", 2, 0));
+        redisMQ.publish(route, message("r1", 2, 0));
+        redisMQ.monitor();
+        PrefetchConsumer consumer = new PrefetchConsumer(redisMQ, route, 10);
+        consumer.setDedup(100);
+        consumer.start();
+        try {
+            Message message = consumer.poll(500, TimeUnit.MILLISECONDS);
+            assertEquals("r1", message.getId());
+            consumer.ack(message);
+            assertNull(consumer.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            consumer.stop();
+        }
+    }
+}
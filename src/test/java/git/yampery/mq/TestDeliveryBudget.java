@@ -0,0 +1,55 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Route;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @decription TestDeliveryBudget
+ * <p>路由限流与按权重分配全局投递额度</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestDeliveryBudget extends MemoryStoreSupport {
+
+    @Test
+    public void testRateLimit() {
+        // 路由限流：一轮只搬运令牌桶中的数量，令牌用完后不再搬运
+        route.setRate(10);
+        for (int i = 0; i < 40; i++) redisMQ.publish(route, message("r" + i, 2, 0));
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(10), redisMQ.listSize(route));
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(10), redisMQ.listSize(route));
+
+        // 全局额度按权重分配，搬完的路由剩下的额度分给仍有积压的路由
+        Route light = new Route("queue:5", "list:5");
+        Route heavy = new Route("queue:6", "list:6");
+        redisMQ.setRoutes(Arrays.asList(light, heavy));
+        redisMQ.setDeliveryRate(30);
+        for (int i = 0; i < 5; i++) redisMQ.publish(light, message("l" + i, 0, 0));
+        for (int i = 0; i < 100; i++) redisMQ.publish(heavy, message("h" + i, 0, 0));
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(5), redisMQ.listSize(light));
+        assertEquals(Long.valueOf(25), redisMQ.listSize(heavy));
+
+        // 用完额度的路由限流，恢复前不再搬运
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(25), redisMQ.listSize(heavy));
+
+        // 两个路由都有积压时按权重2:1分配
+        Route gold = new Route("queue:7", "list:7");
+        Route plain = new Route("queue:8", "list:8");
+        gold.setWeight(2);
+        redisMQ.setRoutes(Arrays.asList(gold, plain));
+        redisMQ.setDeliveryRate(60);
+        for (int i = 0; i < 100; i++) redisMQ.publish(gold, message("g" + i, 0, 0));
+        for (int i = 0; i < 100; i++) redisMQ.publish(plain, message("p" + i, 0, 0));
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(40), redisMQ.listSize(gold));
+        assertEquals(Long.valueOf(20), redisMQ.listSize(plain));
+    }
+}
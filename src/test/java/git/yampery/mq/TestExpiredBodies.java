@@ -0,0 +1,52 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageBatch;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestExpiredBodies
+ * <p>过期消息体的丢弃与消息队列的增量清理</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestExpiredBodies extends MemoryStoreSupport {
+
+    @Test
+    public void testExpiredBodies() {
+        for (int i = 0; i < 5; i++) {
+            redisMQ.publish(route, message("e" + i, 2, 0));
+        }
+        redisMQ.publish(route, message("late", 2, 60000));
+        // 模拟消息体过期
+        redisMQ.deMsgPool("e1");
+        redisMQ.deMsgPool("late");
+        assertEquals(4, redisMQ.promote(route, System.currentTimeMillis(), 10));
+        List<String> bodies = redisMQ.consume("list:1");
+        assertEquals(4, bodies.size());
+        assertTrue(!bodies.contains(""));
+
+        // 延迟未到期的无消息体id由增量清理删除
+        assertEquals(Long.valueOf(1), redisMQ.queueSize(route));
+        redisMQ.setSweepCount(2);
+        int purged = 0;
+        for (int i = 0; i < 20; i++) purged += redisMQ.sweep();
+        assertEquals(1, purged);
+        assertEquals(Long.valueOf(0), redisMQ.queueSize(route));
+
+        // 已在待消费列表中过期的消息在取出时丢弃并确认
+        redisMQ.publish(route, message("r0", 2, 0));
+        redisMQ.publish(route, message("r1", 2, 0));
+        redisMQ.monitor();
+        redisMQ.deMsgPool("r0");
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(Collections.singletonList("r1"), ids(batch));
+        redisMQ.ack(route, "c1", ids(batch));
+        assertEquals(0, reapAt(route, System.currentTimeMillis() + 10 * redisMQ.getVisibilityTimeout()));
+    }
+}
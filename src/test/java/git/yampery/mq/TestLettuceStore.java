@@ -0,0 +1,120 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.store.LettuceMessageStore;
+import git.yampery.utils.LettuceUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestLettuceStore
+ * <p>基于lettuce的非阻塞存储与异步接口，与jedis存储使用相同的key布局</p>
+ * @author Yampery
+ * @date 2026/10/18 23:40
+ */
+public class TestLettuceStore extends RedisSupport {
+
+    private static final String QUEUE = "rdsmq:test:lettuce:queue";
+    private static final String LIST = "rdsmq:test:lettuce:list";
+
+    @Resource
+    private LettuceUtils lettuceUtils;
+
+    private RedisMQ redisMQ;
+    private Route route;
+
+    @Before
+    public void setup() {
+        route = new Route(QUEUE, LIST);
+        cleanup();
+        redisMQ = redisMQ(route);
+        redisMQ.setStore(new LettuceMessageStore(lettuceUtils));
+        redisMQ.setRetryBackoff(100);
+    }
+
+    @After
+    public void cleanup() {
+        route.allKeys().forEach(this::clear);
+        clear(LIST, route.consumersKey(), route.attemptsKey(), route.inflightKey("c1"), route.stagingKey("c1"));
+    }
+
+    private List<String> ids(MessageBatch batch) {
+        List<String> ids = new ArrayList<>();
+        batch.getMessages().forEach(m -> ids.add(m.getId()));
+        return ids;
+    }
+
+    @Test
+    public void testPublishAndConsumeAsync() throws Exception {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(redisMQ.publishAsync(route, message("p" + i, 0)));
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        redisMQ.monitor();
+        MessageBatch batch = redisMQ.consumeAsync(LIST, 10).get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("p0", "p1", "p2", "p3", "p4"), ids(batch));
+        batch.getMessages().forEach(m -> assertEquals("body-" + m.getId(), m.getBody()));
+        assertTrue(redisMQ.consumeAsync(LIST, 10).get(5, TimeUnit.SECONDS).isEmpty());
+    }
+
+    @Test
+    public void testAckNackAsync() throws Exception {
+        List<Object> results = redisMQ.publishAsync(Arrays.asList(route, route, route),
+                Arrays.asList(message("a0", 0), message("a1", 0), message("a2", 0))).get(5, TimeUnit.SECONDS);
+        assertEquals(3, results.size());
+        redisMQ.monitor();
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(3, batch.size());
+        assertEquals(Integer.valueOf(2), redisMQ.ackAsync(route, "c1", Arrays.asList("a0", "a1")).get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), redisMQ.nackAsync(route, "c1", Collections.singletonList("a2")).get(5, TimeUnit.SECONDS));
+        // 处理失败的消息退避后重新投递
+        await(() -> {
+            redisMQ.monitor();
+            return 0 < jedisUtils.countList(LIST);
+        });
+        batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(Collections.singletonList("a2"), ids(batch));
+        assertEquals(1, redisMQ.ack(route, "c1", ids(batch)));
+    }
+
+    @Test
+    public void testBlockingReceive() throws Exception {
+        // 阻塞命令使用独立连接，不影响共享连接上的其他命令
+        CompletableFuture<MessageBatch> waiting = CompletableFuture.supplyAsync(() -> redisMQ.receive(route, "c1", 10, 5));
+        assertTrue(redisMQ.publishAsync(route, message("b0", 0)).get(5, TimeUnit.SECONDS));
+        redisMQ.monitor();
+        MessageBatch batch = waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("b0"), ids(batch));
+        assertEquals(1, redisMQ.ack(route, "c1", ids(batch)));
+    }
+
+    @Test
+    public void testSharedLayout() throws Exception {
+        // jedis存储写入的消息可以由lettuce存储取出
+        RedisMQ jedisMQ = redisMQ(route);
+        Message message = message("j0", 0);
+        assertTrue(jedisMQ.publish(route, message));
+        redisMQ.monitor();
+        MessageBatch batch = redisMQ.consumeAsync(LIST, 10).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("j0"), ids(batch));
+        assertEquals("body-j0", batch.getMessages().get(0).getBody());
+    }
+}
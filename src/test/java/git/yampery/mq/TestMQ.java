@@ -46,8 +46,7 @@ public class TestMQ {
         message.setTtl(20 * 60);
         message.setStatus(0);
         message.setPriority(0);
-        redisMQ.addMsgPool(message);
-        redisMQ.enMessage(MQ_QUEUE_FIRST,
-                message.getCreateTime() + message.getDelay() + message.getPriority(), message.getId());
+        // 原子写入消息池与消息队列，score由到期时间与优先级编码
+        redisMQ.publish(redisMQ.routeOf(MQ_QUEUE_FIRST), message);
     }
 }
@@ -0,0 +1,92 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.Route;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestMemoryStore
+ * <p>使用进程内存储测试消息队列的投递、搬运、消费与确认，不依赖redis</p>
+ * @author Yampery
+ * @date 2026/10/18 19:40
+ */
+public class TestMemoryStore extends MemoryStoreSupport {
+
+    @Test
+    public void testDelayAndConsume() {
+        for (int i = 0; i < 25; i++) {
+            assertTrue(redisMQ.publish(route, message("m" + i, 2, 0)));
+        }
+        redisMQ.publish(route, message("future", 0, 60000));
+        assertEquals(25, redisMQ.promote(route, System.currentTimeMillis(), 10));
+        Long due = redisMQ.peekDueTime(route);
+        assertTrue(null != due && due > System.currentTimeMillis() + 50000);
+        List<String> bodies = redisMQ.consume("list:1");
+        assertEquals(25, bodies.size());
+        assertTrue(bodies.contains("body-m7"));
+        assertNull(redisMQ.consume("list:1"));
+    }
+
+    @Test
+    public void testLegacyHashTag() {
+        // 旧接口分两步写入消息体与消息id，开启hash tag时同样写入路由的slot
+        Route tagged = new Route("queue:9", "list:9");
+        tagged.setHashTag(true);
+        redisMQ.setRoutes(Collections.singletonList(tagged));
+        Message message = message("legacy", 0, 0);
+        assertTrue(redisMQ.addMsgPool(tagged, message));
+        assertEquals("legacy", redisMQ.enMessage(tagged, System.currentTimeMillis(), "legacy"));
+        assertEquals(Long.valueOf(1), redisMQ.queueSize(tagged));
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(1), redisMQ.listSize(tagged));
+        assertEquals(Collections.singletonList("body-legacy"), redisMQ.consume("list:9"));
+    }
+
+    @Test
+    public void testPriorityLanes() {
+        redisMQ.publish(route, message("old", 2, 0));
+        redisMQ.monitor();
+        redisMQ.publish(route, message("low", 2, 0));
+        redisMQ.publish(route, message("high", 0, 0));
+        redisMQ.publish(route, message("mid", 1, 0));
+        redisMQ.monitor();
+        // 最高优先级越过已积压的消息，其余通道按优先级搬运
+        assertEquals(Arrays.asList("high", "old", "mid", "low"), ids(redisMQ.consume("list:1", 10)));
+    }
+
+    @Test
+    public void testAckNackReap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            redisMQ.publish(route, message("r" + i, 0, 0));
+        }
+        redisMQ.monitor();
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(3, batch.size());
+        batch.getMessages().forEach(m -> assertEquals("body-" + m.getId(), m.getBody()));
+        assertEquals(1, redisMQ.ack(route, "c1", Collections.singletonList("r0")));
+        assertEquals(1, redisMQ.nack(route, "c1", Collections.singletonList("r1")));
+        // r2超过处理期限后被回收
+        int[] reaped = {0};
+        await(() -> 0 < (reaped[0] += redisMQ.reap()));
+        assertEquals(1, reaped[0]);
+        // 退避到期后两条消息重新搬运
+        await(() -> {
+            redisMQ.monitor();
+            return 2 == redisMQ.listSize(route);
+        });
+        batch = redisMQ.receive(route, "c2", 10, 1);
+        assertEquals(2, batch.size());
+        assertTrue(ids(batch).containsAll(Arrays.asList("r1", "r2")));
+        assertEquals(2, redisMQ.ack(route, "c2", ids(batch)));
+        assertEquals(0, redisMQ.receive(route, "c2", 10, 0).size());
+    }
+}
@@ -0,0 +1,115 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageProducer;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestMessageProducer
+ * <p>批量生产者攒满一批或等待超过linger后写入，每条消息的future在写入后完成</p>
+ * @author Yampery
+ * @date 2026/10/18 16:20
+ */
+public class TestMessageProducer extends RedisSupport {
+
+    private static final String QUEUE = "rdsmq:test:producer:queue";
+    private static final String LIST = "rdsmq:test:producer:list";
+    /**
+     * 不会因等待超时触发写入的linger（微秒）
+     */
+    private static final long NEVER = TimeUnit.MINUTES.toMicros(10);
+
+    private RedisMQ redisMQ;
+    private Route route;
+    private MessageProducer producer;
+
+    @Before
+    public void setup() {
+        clear(QUEUE, LIST);
+        route = new Route(QUEUE, LIST);
+        redisMQ = redisMQ(route);
+        producer = new MessageProducer(redisMQ);
+    }
+
+    @After
+    public void cleanup() {
+        producer.stop();
+        clear(QUEUE, LIST);
+    }
+
+    private List<CompletableFuture<String>> send(String prefix, int count) {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(producer.send(QUEUE, message(prefix + i, 0)));
+        }
+        return futures;
+    }
+
+    @Test
+    public void testFlushBySize() throws Exception {
+        producer.setBatchSize(10);
+        producer.setLinger(NEVER);
+        producer.start();
+        // 攒满一批立即写入，每条消息的future完成为消息id
+        List<CompletableFuture<String>> futures = send("s", 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("s" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        // 不满一批时等待合并
+        CompletableFuture<String> extra = producer.send(route, message("extra", 0));
+        assertFalse(extra.isDone());
+        // 停止时写入缓冲中的消息
+        producer.stop();
+        assertEquals("extra", extra.get(5, TimeUnit.SECONDS));
+        redisMQ.monitor();
+        List<String> bodies = redisMQ.consume(LIST);
+        assertEquals(11, bodies.size());
+        assertTrue(bodies.contains("body-s0") && bodies.contains("body-extra"));
+    }
+
+    @Test
+    public void testFlushByLinger() throws Exception {
+        long linger = TimeUnit.MILLISECONDS.toMicros(100);
+        producer.setLinger(linger);
+        producer.start();
+        long sent = System.nanoTime();
+        List<CompletableFuture<String>> futures = send("l", 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("l" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        // 不满一批时最早的消息等待linger后写入
+        assertTrue(System.nanoTime() - sent >= TimeUnit.MICROSECONDS.toNanos(linger));
+        redisMQ.monitor();
+        assertEquals(3, redisMQ.consume(LIST).size());
+    }
+
+    @Test
+    public void testFailedFutures() throws Exception {
+        // 未启动时直接失败
+        assertTrue(producer.send(route, message("f0", 0)).isCompletedExceptionally());
+        producer.setBufferSize(2);
+        producer.setLinger(NEVER);
+        producer.start();
+        // 没有对应路由或缓冲已满时立即失败，不阻塞调用方
+        assertTrue(producer.send("rdsmq:test:producer:none", message("f1", 0)).isCompletedExceptionally());
+        List<CompletableFuture<String>> futures = send("b", 3);
+        assertFalse(futures.get(0).isDone());
+        assertFalse(futures.get(1).isDone());
+        assertTrue(futures.get(2).isCompletedExceptionally());
+        producer.stop();
+        assertEquals("b0", futures.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals("b1", futures.get(1).get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,68 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageScore;
+import git.yampery.msmq.Route;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestMessageScore
+ * <p>score编码与优先级通道测试</p>
+ * @author Yampery
+ * @date 2026/10/18 17:40
+ */
+public class TestMessageScore {
+
+    @Test
+    public void testRoundTrip() {
+        long now = System.currentTimeMillis();
+        long score = MessageScore.encode(now, 7);
+        assertEquals(now, MessageScore.dueTime(score));
+        assertEquals(7, MessageScore.priority(score));
+        // 经过double后不丢失精度
+        assertEquals(now, MessageScore.dueTime((double) score));
+        assertEquals(7, MessageScore.priority((double) score));
+        // 早于起点的到期时间（未设置创建时间）
+        assertEquals(20L, MessageScore.dueTime((double) MessageScore.encode(20L, 1)));
+    }
+
+    @Test
+    public void testOrdering() {
+        long now = System.currentTimeMillis();
+        // 到期时间为主序
+        assertTrue(MessageScore.encode(now, MessageScore.PRIORITY_SLOTS - 1) < MessageScore.encode(now + 1, 0));
+        // 同一毫秒内优先级数值小的在前
+        assertTrue(MessageScore.encode(now, 0) < MessageScore.encode(now, 1));
+        // 到期score包含该毫秒所有优先级，不包含下一毫秒
+        assertTrue(MessageScore.encode(now, 1000) <= MessageScore.due(now));
+        assertTrue(MessageScore.encode(now + 1, 0) > MessageScore.due(now));
+        assertEquals(MessageScore.encode(now + 1500, 3), MessageScore.encode(now, 3) + MessageScore.span(1500));
+    }
+
+    @Test
+    public void testMessageScore() {
+        Message message = new Message();
+        message.setCreateTime(1700000000000L);
+        message.setDelay(20);
+        message.setPriority(2);
+        assertEquals(1700000000020L, MessageScore.dueTime(MessageScore.of(message)));
+    }
+
+    @Test
+    public void testLanes() {
+        Route route = new Route("queue:1", "list:1");
+        assertEquals("queue:1", route.queueOf("id", 5));
+        route.setLanes(3);
+        route.setShards(4);
+        int shard = Route.shardOf("id", 4);
+        assertEquals(route.shardKey(shard), route.queueOf("id", 0));
+        assertEquals(route.shardKey(shard) + ":lane:1", route.queueOf("id", 1));
+        assertEquals(route.shardKey(shard) + ":lane:2", route.queueOf("id", 9));
+        assertEquals(2, route.retryLane());
+        assertEquals(12, route.allKeys().size());
+        assertEquals(4, route.retryKeys().size());
+    }
+}
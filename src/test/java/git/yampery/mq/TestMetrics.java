@@ -0,0 +1,95 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.store.MemoryMessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestMetrics
+ * <p>消息队列指标</p>
+ * @author Yampery
+ * @date 2026/10/18 21:30
+ */
+public class TestMetrics {
+
+    @Test
+    public void testRouteMeters() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        RedisMQ redisMQ = new RedisMQ();
+        redisMQ.setStore(new MemoryMessageStore());
+        Route route = new Route("queue:1", "list:1");
+        redisMQ.setRoutes(Collections.singletonList(route));
+        redisMQ.setMeterRegistry(registry);
+        for (int i = 0; i < 5; i++) {
+            Message message = new Message();
+            message.setId("m" + i);
+            message.setBody("body");
+            message.setTtl(60);
+            message.setDelay(i < 3 ? 0 : 60000);
+            message.setCreateTime(System.currentTimeMillis() - 100);
+            redisMQ.publish(route, message);
+        }
+        assertEquals(5, registry.get("rdsmq.queue.depth").gauge().value(), 0);
+        redisMQ.monitor();
+        assertEquals(2, registry.get("rdsmq.queue.depth").gauge().value(), 0);
+        assertEquals(3, registry.get("rdsmq.list.depth").gauge().value(), 0);
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        redisMQ.ack(route, "c1", Collections.singletonList("m0"));
+        redisMQ.nack(route, "c1", Collections.singletonList("m1"));
+
+        assertEquals(5, registry.get("rdsmq.enqueued").tag("queue", "queue:1").counter().count(), 0);
+        assertEquals(3, registry.get("rdsmq.promoted").counter().count(), 0);
+        assertEquals(batch.size(), registry.get("rdsmq.consumed").counter().count(), 0);
+        assertEquals(1, registry.get("rdsmq.acked").counter().count(), 0);
+        assertEquals(1, registry.get("rdsmq.nacked").counter().count(), 0);
+        Timer lag = registry.get("rdsmq.delivery.lag").timer();
+        assertEquals(3, lag.count());
+        assertEquals(1, registry.get("rdsmq.monitor").timer().count());
+    }
+
+    @Test
+    public void testRouteReplaced() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        RedisMQ redisMQ = new RedisMQ();
+        redisMQ.setStore(new MemoryMessageStore());
+        Route route = new Route("queue:1", "list:1");
+        redisMQ.setRoutes(Collections.singletonList(route));
+        redisMQ.setMeterRegistry(registry);
+        redisMQ.publish(route, message("m0"));
+        redisMQ.publish(route, message("m1"));
+        assertEquals(2, registry.get("rdsmq.queue.depth").gauge().value(), 0);
+
+        // 分片数量改变后读取新路由的key，旧key中的消息不再计入
+        Route sharded = new Route("queue:1", "list:1");
+        sharded.setShards(4);
+        redisMQ.getRegistry().add(sharded);
+        redisMQ.publish(sharded, message("m2"));
+        assertEquals(1, registry.get("rdsmq.queue.depth").gauge().value(), 0);
+
+        // 路由移除后不再读取redis
+        redisMQ.getRegistry().remove("queue:1");
+        assertTrue(Double.isNaN(registry.get("rdsmq.queue.depth").gauge().value()));
+        assertTrue(Double.isNaN(registry.get("rdsmq.monitor.window").gauge().value()));
+    }
+
+    private static Message message(String id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setBody("body");
+        message.setTtl(60);
+        message.setDelay(60000);
+        message.setCreateTime(System.currentTimeMillis());
+        return message;
+    }
+}
@@ -0,0 +1,108 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.ConsumerContainer;
+import git.yampery.msmq.Message;
+import git.yampery.msmq.PrefetchConsumer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestPrefetch
+ * <p>预取消费者的缓冲水位、处理期限与停止路由时的确认</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestPrefetch extends MemoryStoreSupport {
+
+    @Test
+    public void testPrefetch() throws InterruptedException {
+        redisMQ.setVisibilityTimeout(200);
+        for (int i = 0; i < 100; i++) {
+            redisMQ.publish(route, message("p" + i, 2, 0));
+        }
+        redisMQ.monitor();
+        PrefetchConsumer consumer = new PrefetchConsumer(redisMQ, route, 20);
+        consumer.setLowWatermark(5);
+        // 只检查缓冲水位，不因剩余处理时间丢弃
+        consumer.setHandleTime(0);
+        consumer.start();
+        try {
+            // 缓冲满后暂停拉取，只取走缓冲放得下的消息
+            await(() -> 20 == consumer.buffered());
+            assertEquals(Long.valueOf(80), redisMQ.listSize(route));
+            Message message;
+            int count = 0;
+            while (null != (message = consumer.poll(500, TimeUnit.MILLISECONDS))) {
+                assertTrue(consumer.buffered() <= 20);
+                consumer.ack(message);
+                if (100 == ++count) break;
+            }
+            assertEquals(100, count);
+        } finally {
+            consumer.stop();
+        }
+        assertEquals(Long.valueOf(0), redisMQ.listSize(route));
+        // 确认已全部提交，超过处理期限后也没有需要回收的消息
+        assertEquals(0, reapAt(route, System.currentTimeMillis() + 10 * redisMQ.getVisibilityTimeout()));
+    }
+
+    @Test
+    public void testPrefetchHandleTime() throws InterruptedException {
+        redisMQ.setVisibilityTimeout(100);
+        for (int i = 0; i < 5; i++) {
+            redisMQ.publish(route, message("h" + i, 2, 0));
+        }
+        redisMQ.monitor();
+        PrefetchConsumer consumer = new PrefetchConsumer(redisMQ, route, 20);
+        // 处理一条消息需要的时间超过处理期限，取到缓冲的消息都不够处理
+        consumer.setHandleTime(200);
+        consumer.start();
+        try {
+            await(() -> 5 == consumer.buffered());
+            // 剩余时间不够处理的消息丢弃，由回收重新投递，不会在处理期间被重新投递
+            assertNull(consumer.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(0, consumer.buffered());
+        } finally {
+            consumer.stop();
+        }
+    }
+
+    @Test
+    public void testPrefetchStopRoute() throws InterruptedException {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        redisMQ.setMeterRegistry(registry);
+        redisMQ.publish(route, message("r0", 2, 0));
+        redisMQ.monitor();
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConsumerContainer container = new ConsumerContainer(redisMQ, message -> {
+            handling.countDown();
+            release.await();
+        });
+        container.setPrefetch(10);
+        container.setConcurrency(1);
+        // 只验证确认的提交，不因工作线程启动慢于剩余处理时间而丢弃
+        container.setHandleTime(0);
+        container.start();
+        try {
+            assertTrue(handling.await(5, TimeUnit.SECONDS));
+            // 处理期间移除路由，处理完成的确认仍要提交
+            redisMQ.getRegistry().remove(route.getQueue());
+            release.countDown();
+            Counter acked = registry.get("rdsmq.acked").counter();
+            await(() -> 1 == acked.count());
+        } finally {
+            release.countDown();
+            container.stop();
+        }
+    }
+}
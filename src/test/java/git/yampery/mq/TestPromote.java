@@ -0,0 +1,108 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestPromote
+ * <p>到期消息由脚本原子地从消息队列搬运到待消费列表</p>
+ * @author Yampery
+ * @date 2026/10/18 10:20
+ */
+public class TestPromote extends RedisSupport {
+
+    private static final String QUEUE = "rdsmq:test:promote:queue";
+    private static final String LIST = "rdsmq:test:promote:list";
+
+    private RedisMQ redisMQ;
+
+    @Before
+    public void setup() {
+        clear(QUEUE, LIST);
+        redisMQ = redisMQ(new Route(QUEUE, LIST));
+        redisMQ.setMonitorCount(10);
+    }
+
+    @After
+    public void cleanup() {
+        clear(QUEUE, LIST);
+    }
+
+    @Test
+    public void testPromoteDue() {
+        long now = System.currentTimeMillis();
+        for (String id : Arrays.asList("p0", "p1", "later")) {
+            redisMQ.addMsgPool(message(id, 0));
+        }
+        redisMQ.enMessage(QUEUE, now - 2000, "p0");
+        redisMQ.enMessage(QUEUE, now - 1000, "p1");
+        redisMQ.enMessage(QUEUE, now + 60000, "later");
+        // 只搬运到期的消息，按到期先后进入待消费列表
+        assertEquals(2, redisMQ.promote(QUEUE, LIST, now, 10));
+        assertEquals(0, redisMQ.promote(QUEUE, LIST, now, 10));
+        assertEquals(Arrays.asList("body-p0", "body-p1"), redisMQ.consume(LIST));
+        assertNotNull(jedisUtils.getScore(QUEUE, "later"));
+    }
+
+    @Test
+    public void testMonitorDrainsBacklog() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 35; i++) {
+            redisMQ.addMsgPool(message("b" + i, 0));
+            redisMQ.enMessage(QUEUE, now - i, "b" + i);
+        }
+        // 单批搬满时继续搬运，一次监听搬完积压
+        redisMQ.monitor();
+        assertEquals(35, jedisUtils.countList(LIST));
+        assertEquals(0, redisMQ.promote(QUEUE, LIST, System.currentTimeMillis(), 10));
+    }
+
+    @Test
+    public void testConcurrentPromote() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 2000; i++) {
+            redisMQ.enMessage(QUEUE, now - 1000, "c" + i);
+        }
+        // 多个实例同时搬运，每条消息只搬运一次
+        int threads = 4;
+        AtomicInteger moved = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int n;
+                while (0 < (n = redisMQ.promote(QUEUE, LIST, now, 50))) {
+                    moved.addAndGet(n);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(2000, moved.get());
+        List<String> ids = jedisUtils.rangeList(LIST, 0, -1);
+        assertEquals(2000, ids.size());
+        assertEquals(2000, new HashSet<>(ids).size());
+    }
+}
@@ -0,0 +1,133 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestReliableDelivery
+ * <p>至少一次投递：取出的消息进入处理中集合，确认后删除，处理失败或超过处理期限未确认时重新投递</p>
+ * @author Yampery
+ * @date 2026/10/18 15:20
+ */
+public class TestReliableDelivery extends RedisSupport {
+
+    private static final String QUEUE = "rdsmq:test:reliable:queue";
+    private static final String LIST = "rdsmq:test:reliable:list";
+
+    private RedisMQ redisMQ;
+    private Route route;
+
+    @Before
+    public void setup() {
+        route = new Route(QUEUE, LIST);
+        cleanup();
+        redisMQ = redisMQ(route);
+        redisMQ.setVisibilityTimeout(2000);
+        redisMQ.setRetryBackoff(100);
+    }
+
+    @After
+    public void cleanup() {
+        clear(QUEUE, LIST, route.consumersKey(), route.attemptsKey());
+        for (String consumerId : new String[]{"c1", "c2"}) {
+            clear(route.inflightKey(consumerId), route.stagingKey(consumerId));
+        }
+    }
+
+    private void publish(String id) {
+        redisMQ.addMsgPool(message(id, 0));
+        redisMQ.enMessage(QUEUE, System.currentTimeMillis(), id);
+    }
+
+    private List<String> ids(MessageBatch batch) {
+        List<String> ids = new ArrayList<>();
+        batch.getMessages().forEach(m -> ids.add(m.getId()));
+        return ids;
+    }
+
+    @Test
+    public void testAck() {
+        for (int i = 0; i < 3; i++) publish("a" + i);
+        redisMQ.monitor();
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(3, batch.size());
+        batch.getMessages().forEach(m -> assertEquals("body-" + m.getId(), m.getBody()));
+        // 取出后等待确认，消息体保留
+        assertNotNull(jedisUtils.firstScore(route.inflightKey("c1")));
+        assertNotNull(jedisUtils.get("Message:Pool:a0", null));
+        assertEquals(3, redisMQ.ack(route, "c1", ids(batch)));
+        // 确认后删除，重复确认不生效
+        assertEquals(0, redisMQ.ack(route, "c1", ids(batch)));
+        assertNull(jedisUtils.firstScore(route.inflightKey("c1")));
+        assertNull(jedisUtils.get("Message:Pool:a0", null));
+        assertEquals(0, redisMQ.reap());
+    }
+
+    @Test
+    public void testNack() throws InterruptedException {
+        publish("n0");
+        redisMQ.monitor();
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(1, redisMQ.nack(route, "c1", ids(batch)));
+        assertNull(jedisUtils.firstScore(route.inflightKey("c1")));
+        // 退避后重新投递
+        await(() -> {
+            redisMQ.monitor();
+            return 0 < jedisUtils.countList(LIST);
+        });
+        batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(Collections.singletonList("n0"), ids(batch));
+        assertEquals("body-n0", batch.getMessages().get(0).getBody());
+        assertEquals(1, redisMQ.ack(route, "c1", ids(batch)));
+    }
+
+    @Test
+    public void testVisibilityTimeout() throws InterruptedException {
+        publish("v0");
+        redisMQ.monitor();
+        long received = System.currentTimeMillis();
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(1, batch.size());
+        // 超过处理期限未确认的消息被回收，期限之前不回收
+        int[] reaped = {0};
+        await(() -> 0 < (reaped[0] += redisMQ.reap()));
+        assertEquals(1, reaped[0]);
+        assertTrue(System.currentTimeMillis() - received >= redisMQ.getVisibilityTimeout());
+        await(() -> {
+            redisMQ.monitor();
+            return 0 < jedisUtils.countList(LIST);
+        });
+        // 由其他消费者重新取出，原消费者的确认不再生效
+        batch = redisMQ.receive(route, "c2", 10, 0);
+        assertEquals(Collections.singletonList("v0"), ids(batch));
+        assertEquals("body-v0", batch.getMessages().get(0).getBody());
+        assertEquals(0, redisMQ.ack(route, "c1", ids(batch)));
+        assertEquals(1, redisMQ.ack(route, "c2", ids(batch)));
+    }
+
+    @Test
+    public void testBlockingReceive() throws Exception {
+        // 没有消息时阻塞等待，取到的消息同样需要确认
+        CompletableFuture<MessageBatch> waiting = CompletableFuture.supplyAsync(() -> redisMQ.receive(route, "c1", 10, 5));
+        publish("b0");
+        redisMQ.monitor();
+        MessageBatch batch = waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("b0"), ids(batch));
+        assertEquals(1, redisMQ.ack(route, "c1", ids(batch)));
+    }
+}
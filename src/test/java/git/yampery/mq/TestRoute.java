@@ -0,0 +1,92 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Route;
+import git.yampery.msmq.ShardLeases;
+import git.yampery.msmq.TopicRouter;
+import org.junit.Test;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestRoute
+ * <p>路由的key布局</p>
+ * @author Yampery
+ * @date 2026/10/19 00:20
+ */
+public class TestRoute {
+
+    private List<String> keys(Route route) {
+        List<String> keys = new ArrayList<>(route.allKeys());
+        keys.add(route.inflightKey("c1"));
+        keys.add(route.stagingKey("c1"));
+        keys.add(route.consumersKey());
+        keys.add(route.attemptsKey());
+        keys.add(route.deadKey());
+        keys.add(route.leaseKey(1));
+        keys.add(route.membersKey());
+        keys.add(route.poolKey("m1"));
+        return keys;
+    }
+
+    @Test
+    public void testHashTagSlot() {
+        Route route = new Route("queue:1", "list:1");
+        route.setShards(4);
+        route.setLanes(3);
+        route.setHashTag(true);
+        int slot = JedisClusterCRC16.getSlot(route.getList());
+        for (String key : keys(route)) {
+            assertEquals(key, slot, JedisClusterCRC16.getSlot(key));
+        }
+        assertEquals("{list:1}:queue:1:2:lane:1", route.laneKey(2, 1));
+        assertEquals("{list:1}:Message:Pool:m1", route.poolKey("m1"));
+
+        // 列表名自带tag时沿用
+        route = new Route("queue:order", "{order}:ready");
+        route.setHashTag(true);
+        slot = JedisClusterCRC16.getSlot("order");
+        for (String key : keys(route)) {
+            assertEquals(key, slot, JedisClusterCRC16.getSlot(key));
+        }
+        assertEquals("{order}:ready:inflight:c1", route.inflightKey("c1"));
+    }
+
+    @Test
+    public void testSharedPool() {
+        Route sms = new Route("queue:sms", "{order}:sms");
+        Route email = new Route("queue:email", "{order}:email");
+        Route other = new Route("queue:1", "list:1");
+        sms.setHashTag(true);
+        email.setHashTag(true);
+        other.setHashTag(true);
+        // tag相同的路由共用消息池
+        assertEquals("{order}:Message:Pool:m1", sms.poolKey("m1"));
+        assertEquals(sms.poolKey("m1"), email.poolKey("m1"));
+        TopicRouter router = new TopicRouter();
+        router.bind("order.#", sms).bind("order.*", email).bind("#", other);
+        assertEquals(Arrays.asList(Arrays.asList(sms, email), Arrays.asList(other)), router.groups("order.1"));
+        assertEquals(Arrays.asList(Arrays.asList(sms), Arrays.asList(other)), router.groups("order.1.paid"));
+        assertEquals(Arrays.asList(sms, other), router.routes("order"));
+    }
+
+    @Test
+    public void testDefaultLayout() {
+        Route route = new Route("queue:1", "list:1");
+        route.setShards(2);
+        assertEquals("{queue:1:1}", route.shardKey(1));
+        assertEquals("list:1:inflight:c1", route.inflightKey("c1"));
+        assertEquals("queue:1:lease:0", route.leaseKey(0));
+        assertEquals(ShardLeases.MEMBERS, route.membersKey());
+        assertEquals("Message:Pool:m1", route.poolKey("m1"));
+        assertTrue(Route.hasTag("{a}b"));
+        assertFalse(Route.hasTag("{}b"));
+        assertFalse(Route.hasTag("list:1"));
+    }
+}
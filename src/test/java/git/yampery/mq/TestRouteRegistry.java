@@ -0,0 +1,60 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Route;
+import git.yampery.msmq.RouteCatalog;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestRouteRegistry
+ * <p>运行时增删、暂停路由与路由目录同步</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestRouteRegistry extends MemoryStoreSupport {
+
+    @Test
+    public void testRouteRegistry() throws IOException {
+        Route tenant = new Route("queue:3", "list:3");
+        redisMQ.getRegistry().add(tenant);
+        assertEquals(Arrays.asList(route, tenant), redisMQ.getRoutes());
+        assertTrue(tenant == redisMQ.routeOf("queue:3"));
+
+        // 暂停的路由不搬运，恢复后继续
+        assertTrue(redisMQ.getRegistry().pause("queue:3"));
+        redisMQ.publish(tenant, message("p0", 2, 0));
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(0), redisMQ.listSize(tenant));
+        assertTrue(redisMQ.getRegistry().resume("queue:3"));
+        redisMQ.monitor();
+        assertEquals(Collections.singletonList("body-p0"), redisMQ.consume("list:3"));
+
+        // 路由目录：新增、配置不变时保持实例、删除
+        RouteCatalog catalog = new RouteCatalog();
+        redisMQ.setRouteCatalog(catalog);
+        Route spec = new Route("queue:4", "list:4");
+        spec.setShards(2);
+        assertTrue(catalog.save(redisMQ.store(), spec, false));
+        assertEquals(1, redisMQ.refreshRoutes());
+        Route synced = redisMQ.routeOf("queue:4");
+        assertEquals(2, synced.getShards());
+        assertEquals(0, redisMQ.refreshRoutes());
+        assertTrue(synced == redisMQ.routeOf("queue:4"));
+        catalog.save(redisMQ.store(), spec, true);
+        assertEquals(1, redisMQ.refreshRoutes());
+        assertTrue(redisMQ.getRegistry().isPaused(synced));
+        catalog.delete(redisMQ.store(), "queue:4");
+        assertEquals(1, redisMQ.refreshRoutes());
+        assertNull(redisMQ.routeOf("queue:4"));
+
+        redisMQ.getRegistry().remove("queue:3");
+        assertEquals(Collections.singletonList(route), redisMQ.getRoutes());
+    }
+}
@@ -0,0 +1,40 @@
+package git.yampery.mq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @decription TestScanWindow
+ * <p>监听按路由积压自适应调整搬运窗口</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestScanWindow extends MemoryStoreSupport {
+
+    @Test
+    public void testAdaptiveWindow() {
+        redisMQ.setMonitorMaxCount(80);
+        for (int i = 0; i < 500; i++) {
+            redisMQ.publish(route, message("w" + i, 2, 0));
+        }
+        // 积压时窗口翻倍直到上限，一轮监听全部搬完
+        assertEquals(10, redisMQ.scanWindow(route));
+        redisMQ.monitor();
+        assertEquals(80, redisMQ.scanWindow(route));
+        assertEquals(Long.valueOf(500), redisMQ.listSize(route));
+        // 没有到期消息时回落
+        redisMQ.monitor();
+        assertEquals(40, redisMQ.scanWindow(route));
+        // 已知最早到期时间在未来的路由跳过搬运，窗口继续回落
+        redisMQ.publish(route, message("later", 2, 60000));
+        redisMQ.peekDueTime(route);
+        redisMQ.monitor();
+        assertEquals(20, redisMQ.scanWindow(route));
+        assertEquals(Long.valueOf(500), redisMQ.listSize(route));
+        // 本机投递的到期消息使路由重新参与搬运
+        redisMQ.publish(route, message("now", 2, 0));
+        redisMQ.monitor();
+        assertEquals(Long.valueOf(501), redisMQ.listSize(route));
+    }
+}
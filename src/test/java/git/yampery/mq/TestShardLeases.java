@@ -0,0 +1,33 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageBatch;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @decription TestShardLeases
+ * <p>监听实例按分片租约分担搬运</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestShardLeases extends MemoryStoreSupport {
+
+    @Test
+    public void testLeases() {
+        redisMQ.setLeaseTtl(300);
+        redisMQ.setWheelHorizon(0);
+        redisMQ.start();
+        try {
+            redisMQ.publish(route, message("leased", 2, 0));
+            MessageBatch batch = redisMQ.consume("list:1", 10, 1);
+            assertEquals(Collections.singletonList("leased"), ids(batch));
+            // 进程内存储持有所有分片的租约
+            assertEquals(4, redisMQ.ownedShards());
+        } finally {
+            redisMQ.stop();
+        }
+    }
+}
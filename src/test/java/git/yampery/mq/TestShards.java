@@ -0,0 +1,83 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestShards
+ * <p>消息队列按消息id拆分到多个分片key，搬运时合并所有分片</p>
+ * @author Yampery
+ * @date 2026/10/18 15:50
+ */
+public class TestShards extends RedisSupport {
+
+    private static final String QUEUE = "rdsmq:test:shards:queue";
+    private static final String LIST = "rdsmq:test:shards:list";
+
+    private RedisMQ redisMQ;
+    private Route route;
+
+    @Before
+    public void setup() {
+        route = new Route(QUEUE, LIST);
+        route.setShards(4);
+        cleanup();
+        redisMQ = redisMQ(route);
+        redisMQ.setMonitorCount(20);
+    }
+
+    @After
+    public void cleanup() {
+        route.shardKeys().forEach(this::clear);
+        clear(LIST, route.consumersKey(), route.attemptsKey(), route.inflightKey("c1"), route.stagingKey("c1"));
+    }
+
+    @Test
+    public void testSpreadAndPromote() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 200; i++) {
+            redisMQ.addMsgPool(message("s" + i, 0));
+            redisMQ.enMessage(route, now - 1000 + i, "s" + i);
+        }
+        // 每条消息按id落在固定的分片，所有分片都有消息
+        for (int i = 0; i < 200; i++) {
+            assertNotNull(jedisUtils.getScore(route.queueOf("s" + i), "s" + i));
+        }
+        for (String shard : route.shardKeys()) {
+            assertNotNull(jedisUtils.firstScore(shard));
+        }
+        assertEquals(Long.valueOf(now - 1000), redisMQ.peekDueTime(route));
+
+        // 一次监听搬运所有分片，每条消息只搬运一次
+        redisMQ.monitor();
+        List<String> ids = jedisUtils.rangeList(LIST, 0, -1);
+        assertEquals(200, ids.size());
+        assertEquals(200, new HashSet<>(ids).size());
+        assertEquals(0, redisMQ.promote(route, System.currentTimeMillis(), 20));
+    }
+
+    @Test
+    public void testRequeueToShard() {
+        redisMQ.addMsgPool(message("r0", 0));
+        redisMQ.enMessage(route, System.currentTimeMillis(), "r0");
+        redisMQ.monitor();
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(1, batch.size());
+        // 处理失败的消息回到原来的分片
+        assertEquals(1, redisMQ.nack(route, "c1", Collections.singletonList("r0")));
+        assertNotNull(jedisUtils.getScore(route.queueOf("r0"), "r0"));
+        assertTrue(route.shardKeys().contains(route.queueOf("r0")));
+    }
+}
@@ -0,0 +1,256 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.MessageSpool;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.store.Envelope;
+import git.yampery.msmq.store.MemoryMessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestSpool
+ * <p>redis不可用时生产者写入本地暂存，恢复后重放</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestSpool extends MemoryStoreSupport {
+
+    @Test
+    public void testSpool() throws IOException, InterruptedException {
+        // redis不可用时写入失败，消息追加到本地暂存；第一个暂存关闭前重放一直失败，不与恢复写入竞争
+        boolean[] down = {true};
+        boolean[] replayDown = {true};
+        AtomicInteger replays = new AtomicInteger();
+        redisMQ.setStore(new MemoryMessageStore() {
+            @Override
+            public boolean enqueue(Envelope envelope) {
+                return !down[0] && super.enqueue(envelope);
+            }
+
+            @Override
+            public List<Object> enqueue(List<Envelope> envelopes) {
+                if (!replayDown[0]) return super.enqueue(envelopes);
+                replays.incrementAndGet();
+                return null;
+            }
+        });
+        Path dir = Files.createTempDirectory("spool");
+        MessageSpool spool = new MessageSpool(dir.toString());
+        spool.setRetryInterval(60000);
+        redisMQ.setSpool(spool);
+        MessageSpool reopened = null;
+        try {
+            // 重放线程未启动时暂存不生效，写入失败照常返回
+            assertFalse(redisMQ.publish(route, message("s", 2, 0)));
+            assertEquals(0, redisMQ.spooled());
+
+            spool.start(redisMQ);
+            for (int i = 0; i < 10; i++) assertTrue(redisMQ.publish(route, message("s" + i, 2, 0)));
+            assertEquals(10, redisMQ.spooled());
+            // 重放失败后等待重试间隔，期间redis恢复，暂存中还有消息时新的投递直接追加到暂存
+            await(() -> 0 < replays.get());
+            down[0] = false;
+            assertTrue(redisMQ.publish(route, message("s10", 2, 0)));
+            assertEquals(11, redisMQ.spooled());
+            spool.close();
+            replayDown[0] = false;
+
+            // 重启后从暂存目录恢复，重放完后消息全部进入消息队列
+            reopened = new MessageSpool(dir.toString());
+            reopened.open();
+            assertEquals(11, reopened.pending());
+            redisMQ.setSpool(reopened);
+            reopened.start(redisMQ);
+            await(reopened::isEmpty);
+            reopened.close();
+            assertEquals(0, redisMQ.spooled());
+            redisMQ.monitor();
+            assertEquals(Long.valueOf(11), redisMQ.listSize(route));
+
+            // 检查点已推进，再次打开时没有待重放的消息
+            reopened = new MessageSpool(dir.toString());
+            reopened.open();
+            assertEquals(0, reopened.pending());
+        } finally {
+            spool.close();
+            if (null != reopened) reopened.close();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSpoolBackoff() throws IOException, InterruptedException {
+        // redis可以连接但拒绝每一条写入（如故障切换后的READONLY），重放整批保留并等待重试间隔
+        AtomicInteger calls = new AtomicInteger();
+        boolean[] rejectOdd = {false};
+        redisMQ.setStore(new MemoryMessageStore() {
+            @Override
+            public boolean enqueue(Envelope envelope) {
+                return false;
+            }
+
+            @Override
+            public List<Object> enqueue(List<Envelope> envelopes) {
+                calls.incrementAndGet();
+                if (!rejectOdd[0]) {
+                    List<Object> results = new ArrayList<>();
+                    envelopes.forEach(e -> results.add(new IllegalStateException("READONLY")));
+                    return results;
+                }
+                List<Object> results = new ArrayList<>();
+                for (Envelope envelope : envelopes) {
+                    results.add(1 == Integer.parseInt(envelope.getId().substring(1)) % 2
+                            ? new IllegalStateException("OOM") : super.enqueue(Collections.singletonList(envelope)).get(0));
+                }
+                return results;
+            }
+        });
+        Path dir = Files.createTempDirectory("spool");
+        MessageSpool spool = new MessageSpool(dir.toString());
+        spool.setRetryInterval(60000);
+        redisMQ.setSpool(spool);
+        spool.start(redisMQ);
+        try {
+            for (int i = 0; i < 5; i++) assertTrue(redisMQ.publish(route, message("b" + i, 2, 0)));
+            await(() -> 0 < calls.get());
+            spool.stop();
+            // 唤醒时消息可能已被读取，至多多重试一次，之后等待重试间隔而不是反复重写暂存
+            assertTrue(2 >= calls.get());
+            assertEquals(5, spool.pending());
+
+            // 整批失败时不推进，部分失败时失败的消息重新追加，都等待重试间隔
+            assertEquals(-1, spool.replay());
+            assertEquals(5, spool.pending());
+            rejectOdd[0] = true;
+            assertEquals(-1, spool.replay());
+            assertEquals(2, spool.pending());
+            redisMQ.monitor();
+            assertEquals(Long.valueOf(3), redisMQ.listSize(route));
+        } finally {
+            spool.close();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSpoolLost() throws IOException, InterruptedException {
+        // 部分消息写入失败、磁盘已满无法重新暂存时计入丢失
+        AtomicInteger calls = new AtomicInteger();
+        boolean[] up = {false};
+        redisMQ.setStore(new MemoryMessageStore() {
+            @Override
+            public boolean enqueue(Envelope envelope) {
+                return false;
+            }
+
+            @Override
+            public List<Object> enqueue(List<Envelope> envelopes) {
+                calls.incrementAndGet();
+                if (!up[0]) return null;
+                List<Object> results = new ArrayList<>();
+                for (Envelope envelope : envelopes) {
+                    results.add(1 == Integer.parseInt(envelope.getId().substring(1)) % 2
+                            ? new IllegalStateException("OOM") : super.enqueue(Collections.singletonList(envelope)).get(0));
+                }
+                return results;
+            }
+        });
+        MeterRegistry registry = new SimpleMeterRegistry();
+        redisMQ.setMeterRegistry(registry);
+        Path dir = Files.createTempDirectory("spool");
+        MessageSpool spool = new MessageSpool(dir.toString());
+        // 每条消息一个段，重新暂存需要新段
+        spool.setSegmentSize(1);
+        spool.setRetryInterval(60000);
+        redisMQ.setSpool(spool);
+        spool.start(redisMQ);
+        try {
+            for (int i = 0; i < 5; i++) assertTrue(redisMQ.publish(route, message("b" + i, 2, 0)));
+            await(() -> 0 < calls.get());
+            spool.stop();
+            long used = 0;
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path path : (Iterable<Path>) paths.filter(p -> p.toString().endsWith(".spool"))::iterator) {
+                    used += Files.size(path);
+                }
+            }
+            spool.setMaxSize(used);
+
+            up[0] = true;
+            assertEquals(-1, spool.replay());
+            assertEquals(0, spool.pending());
+            assertEquals(2, registry.get("rdsmq.spool.lost").counter().count(), 0);
+            redisMQ.monitor();
+            assertEquals(Long.valueOf(3), redisMQ.listSize(route));
+        } finally {
+            spool.close();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSpoolPoison() throws IOException {
+        // 一条消息总被拒绝（如key类型错误），不能一直占住暂存
+        redisMQ.setStore(new MemoryMessageStore() {
+            @Override
+            public boolean enqueue(Envelope envelope) {
+                return false;
+            }
+
+            @Override
+            public List<Object> enqueue(List<Envelope> envelopes) {
+                List<Object> results = new ArrayList<>();
+                for (Envelope envelope : envelopes) {
+                    results.add("bad".equals(envelope.getId())
+                            ? new IllegalStateException("WRONGTYPE") : super.enqueue(Collections.singletonList(envelope)).get(0));
+                }
+                return results;
+            }
+        });
+        MeterRegistry registry = new SimpleMeterRegistry();
+        redisMQ.setMeterRegistry(registry);
+        Path dir = Files.createTempDirectory("spool");
+        MessageSpool spool = new MessageSpool(dir.toString());
+        spool.setMaxAttempts(3);
+        redisMQ.setSpool(spool);
+        // 只为重放设置消息队列，由测试直接调用replay
+        spool.start(redisMQ);
+        spool.stop();
+        List<Route> group = Collections.singletonList(route);
+        try {
+            // 单独成批、整批失败时保留，不计失败次数
+            assertTrue(spool.append(group, message("bad", 2, 0)));
+            assertEquals(-1, spool.replay());
+            assertEquals(-1, spool.replay());
+            assertEquals(1, spool.pending());
+
+            // 同批其他消息写入成功，每次重放计一次失败，达到上限后丢弃
+            for (int i = 0; i < 3; i++) {
+                assertTrue(spool.append(group, message("ok" + i, 2, 0)));
+                assertEquals(-1, spool.replay());
+                assertEquals(2 == i ? 0 : 1, spool.pending());
+            }
+            assertTrue(spool.isEmpty());
+            assertEquals(1, registry.get("rdsmq.spool.lost").counter().count(), 0);
+            redisMQ.monitor();
+            assertEquals(Long.valueOf(3), redisMQ.listSize(route));
+        } finally {
+            spool.close();
+            delete(dir);
+        }
+    }
+}
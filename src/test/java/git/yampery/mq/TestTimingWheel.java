@@ -0,0 +1,125 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.RedisMQ;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.TimingWheel;
+import git.yampery.msmq.store.MemoryMessageStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestTimingWheel
+ * <p>本地时间轮</p>
+ * @author Yampery
+ * @date 2026/10/18 20:40
+ */
+public class TestTimingWheel {
+
+    @Test
+    public void testFireOrder() throws InterruptedException {
+        List<String> fired = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        TimingWheel<String> wheel = new TimingWheel<>(1, 8, 16, tasks -> {
+            fired.addAll(tasks);
+            tasks.forEach(t -> latch.countDown());
+        });
+        wheel.start();
+        try {
+            long now = System.currentTimeMillis();
+            // 超过一圈的任务按圈数等待
+            assertTrue(wheel.add("c", now + 40));
+            assertTrue(wheel.add("a", now + 5));
+            assertTrue(wheel.add("b", now + 20));
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() - now >= 40);
+            assertEquals("[a, b, c]", fired.toString());
+            assertEquals(0, wheel.size());
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    public void testCapacity() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 8, 1, tasks -> { });
+        assertFalse(wheel.add("a", System.currentTimeMillis()));
+        wheel.start();
+        try {
+            assertTrue(wheel.add("a", System.currentTimeMillis() + 60000));
+            assertFalse(wheel.add("b", System.currentTimeMillis() + 60000));
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        // 空闲的时间轮被多个线程同时添加任务时不能丢失唤醒
+        int threads = 4;
+        AtomicInteger fired = new AtomicInteger();
+        TimingWheel<Integer> wheel = new TimingWheel<>(1, 8, 1024, tasks -> fired.addAndGet(tasks.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        wheel.start();
+        try {
+            for (int round = 1; round <= 200; round++) {
+                CyclicBarrier barrier = new CyclicBarrier(threads);
+                List<Future<Boolean>> added = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    added.add(executor.submit(() -> {
+                        barrier.await();
+                        return wheel.add(0, System.currentTimeMillis());
+                    }));
+                }
+                for (Future<Boolean> f : added) assertTrue(f.get(1, TimeUnit.SECONDS));
+                long deadline = System.currentTimeMillis() + 1000;
+                while (fired.get() < round * threads && System.currentTimeMillis() < deadline) Thread.yield();
+                assertEquals(round * threads, fired.get());
+            }
+        } finally {
+            executor.shutdownNow();
+            wheel.stop();
+        }
+    }
+
+    @Test
+    public void testPromoteByWheel() throws InterruptedException {
+        RedisMQ redisMQ = new RedisMQ();
+        redisMQ.setStore(new MemoryMessageStore());
+        // 监听线程长时间休眠，到期消息只能由时间轮搬运
+        redisMQ.setMonitorIdle(60000);
+        Route route = new Route("queue:1", "list:1");
+        redisMQ.setRoutes(Collections.singletonList(route));
+        redisMQ.start();
+        try {
+            Message message = new Message();
+            message.setId("w1");
+            message.setBody("wheel");
+            message.setDelay(30);
+            message.setTtl(60);
+            message.setCreateTime(System.currentTimeMillis());
+            assertTrue(redisMQ.publish(route, message));
+            MessageBatch batch = redisMQ.consume("list:1", 10, 1);
+            assertEquals(1, batch.size());
+            assertEquals("wheel", batch.getBodies().get(0));
+            assertEquals(null, redisMQ.peekDueTime(route));
+        } finally {
+            redisMQ.stop();
+        }
+    }
+}
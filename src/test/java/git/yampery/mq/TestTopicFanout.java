@@ -0,0 +1,53 @@
+package git.yampery.mq;
+
+import git.yampery.msmq.Message;
+import git.yampery.msmq.MessageBatch;
+import git.yampery.msmq.Route;
+import git.yampery.msmq.TopicRouter;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @decription TestTopicFanout
+ * <p>按主题路由与扇出投递</p>
+ * @author Yampery
+ * @date 2026/10/19 23:20
+ */
+public class TestTopicFanout extends MemoryStoreSupport {
+
+    @Test
+    public void testTopicFanout() {
+        Route email = new Route("queue:2", "list:2");
+        redisMQ.setRoutes(Arrays.asList(route, email));
+        TopicRouter router = new TopicRouter();
+        router.bind("order.#", route).bind("order.*.paid", email).bind("sms", email);
+        redisMQ.setTopicRouter(router);
+        assertEquals(Arrays.asList(route, email), router.routes("order.1.paid"));
+        assertEquals(Collections.singletonList(route), router.routes("order"));
+        assertEquals(Collections.singletonList(email), router.routes("sms"));
+        assertTrue(router.routes("sms.1").isEmpty());
+
+        Message message = message("t1", 2, 0);
+        message.setTopic("order.1.paid");
+        assertTrue(redisMQ.publish(message));
+        message = message("t2", 2, 0);
+        message.setTopic("unbound");
+        assertFalse(redisMQ.publish(message));
+        redisMQ.monitor();
+        // 一个路由确认后消息体仍保留给另一个路由，重复确认不影响
+        MessageBatch batch = redisMQ.receive(route, "c1", 10, 0);
+        assertEquals(Collections.singletonList("t1"), ids(batch));
+        assertEquals(1, redisMQ.ack(route, "c1", ids(batch)));
+        assertEquals(0, redisMQ.ack(route, "c1", ids(batch)));
+        assertEquals(Collections.singletonList("body-t1"), redisMQ.consume("list:2"));
+        // 所有路由都取走后删除消息体
+        assertNull(redisMQ.store().get(Collections.singletonList("t1")).get(0));
+    }
+}